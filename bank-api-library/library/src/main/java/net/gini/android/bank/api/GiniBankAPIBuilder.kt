@@ -4,7 +4,9 @@ import android.content.Context
 import kotlinx.coroutines.Dispatchers
 import net.gini.android.bank.api.models.ExtractionsContainer
 import net.gini.android.core.api.GiniApiType
+import net.gini.android.core.api.PollingStrategy
 import net.gini.android.core.api.authorization.SessionManager
+import net.gini.android.core.api.http.ConnectionReuseMetrics
 import net.gini.android.core.api.http.GiniHttpClientProvider
 import net.gini.android.core.api.internal.GiniCoreAPIBuilder
 
@@ -86,4 +88,52 @@ class GiniBankAPIBuilder @JvmOverloads constructor(
         super.setHttpClientProvider(provider)
         return this
     }
+
+    /**
+     * Configure the connection pool which is shared by the requests to the Gini API and the Gini User Center API.
+     *
+     * @param maxIdleConnections maximum number of idle connections to keep in the pool
+     * @param keepAliveDurationInMs time in milliseconds after which an idle connection is evicted from the pool
+     * @return The builder instance to enable chaining
+     */
+    override fun setConnectionPool(maxIdleConnections: Int, keepAliveDurationInMs: Long): GiniBankAPIBuilder {
+        super.setConnectionPool(maxIdleConnections, keepAliveDurationInMs)
+        return this
+    }
+
+    /**
+     * Set a [ConnectionReuseMetrics] instance to count new and pooled connections of the requests.
+     *
+     * @param connectionReuseMetrics the metrics instance which will be updated by all requests
+     * @return The builder instance to enable chaining
+     */
+    override fun setConnectionReuseMetrics(connectionReuseMetrics: ConnectionReuseMetrics): GiniBankAPIBuilder {
+        super.setConnectionReuseMetrics(connectionReuseMetrics)
+        return this
+    }
+
+    /**
+     * Set the [PollingStrategy] which decides how often a document is requested until it was processed.
+     *
+     * @param pollingStrategy a [PollingStrategy] implementation
+     * @return The builder instance to enable chaining
+     */
+    override fun setPollingStrategy(pollingStrategy: PollingStrategy): GiniBankAPIBuilder {
+        super.setPollingStrategy(pollingStrategy)
+        return this
+    }
+
+    /**
+     * Enable or disable persisting the session of anonymous Gini users. When enabled, the access token is stored
+     * encrypted and reused after an app restart until it expires.
+     *
+     * Disabled by default.
+     *
+     * @param enabled pass `true` to enable and `false` to disable session persistence
+     * @return The builder instance to enable chaining
+     */
+    override fun setSessionPersistenceEnabled(enabled: Boolean): GiniBankAPIBuilder {
+        super.setSessionPersistenceEnabled(enabled)
+        return this
+    }
 }
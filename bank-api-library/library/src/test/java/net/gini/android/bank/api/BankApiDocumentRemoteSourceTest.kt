@@ -186,6 +186,13 @@ class BankApiDocumentRemoteSourceTest {
             return Response.success(null)
         }
 
+        override suspend fun getDocumentLayoutBody(
+            bearer: Map<String, String>,
+            documentId: String
+        ): Response<ResponseBody> {
+            return Response.success(null)
+        }
+
         override suspend fun getDocumentPages(
             bearer: Map<String, String>,
             documentId: String
@@ -1,5 +1,7 @@
 package net.gini.android.bank.sdk.invoice
 
+import net.gini.android.bank.sdk.invoice.cache.InvoicePreviewPageCache
+import net.gini.android.bank.sdk.invoice.image.InvoicePreviewPageImageDecoder
 import net.gini.android.bank.sdk.invoice.image.InvoicePreviewPageImageProcessor
 import net.gini.android.capture.GiniCapture
 import net.gini.android.bank.sdk.invoice.network.InvoicePreviewDocumentLayoutNetworkService
@@ -8,8 +10,10 @@ import net.gini.android.bank.sdk.invoice.network.InvoicePreviewFileNetworkServic
 import net.gini.android.bank.sdk.invoice.usecase.LoadInvoiceBitmapsUseCase
 import net.gini.android.capture.analysis.LastAnalyzedDocumentProvider
 import net.gini.android.capture.di.getGiniCaptureKoin
+import net.gini.android.capture.internal.util.Size
 import net.gini.android.capture.network.GiniCaptureNetworkService
 import net.gini.android.capture.network.model.GiniCaptureBox
+import org.koin.android.ext.koin.androidContext
 import org.koin.androidx.viewmodel.dsl.viewModel
 import org.koin.dsl.module
 
@@ -37,12 +41,25 @@ val invoicePreviewScreenModule = module {
         InvoicePreviewPageImageProcessor()
     }
 
+    factory {
+        val displayMetrics = androidContext().resources.displayMetrics
+        val maxDimension = maxOf(displayMetrics.widthPixels, displayMetrics.heightPixels)
+        InvoicePreviewPageImageDecoder(targetSize = Size(maxDimension, maxDimension))
+    }
+
+    // Kept for the lifetime of the SDK to not download the pages again when the preview is shown again
+    single {
+        InvoicePreviewPageCache()
+    }
+
     factory {
         LoadInvoiceBitmapsUseCase(
             invoicePreviewDocumentPagesNetworkService = get(),
             invoicePreviewDocumentLayoutNetworkService = get(),
             invoicePreviewFileNetworkService = get(),
             invoicePreviewPageImageProcessor = get(),
+            invoicePreviewPageImageDecoder = get(),
+            invoicePreviewPageCache = get(),
         )
     }
 
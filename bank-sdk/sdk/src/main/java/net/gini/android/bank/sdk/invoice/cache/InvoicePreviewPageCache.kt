@@ -0,0 +1,37 @@
+package net.gini.android.bank.sdk.invoice.cache
+
+import android.graphics.Bitmap
+import android.util.LruCache
+import net.gini.android.capture.internal.network.model.DocumentLayout
+
+/**
+ * Keeps the decoded page images and the layout of the recently previewed documents, so that the invoice preview
+ * doesn't download them again when it is shown again for the same document.
+ *
+ * The cached bitmaps are never drawn on. Thread-safe.
+ */
+internal class InvoicePreviewPageCache(
+    maxSizeKiloBytes: Int = (Runtime.getRuntime().maxMemory() / 1024 / 16).toInt(),
+) {
+
+    private val cache = object : LruCache<String, InvoicePreviewDocument>(maxSizeKiloBytes) {
+        override fun sizeOf(key: String, value: InvoicePreviewDocument): Int =
+            maxOf(1, value.pages.sumOf { it.bitmap.allocationByteCount } / 1024)
+    }
+
+    fun get(documentId: String): InvoicePreviewDocument? = cache.get(documentId)
+
+    fun put(documentId: String, document: InvoicePreviewDocument) {
+        cache.put(documentId, document)
+    }
+}
+
+internal class InvoicePreviewDocument(
+    val layout: DocumentLayout?,
+    val pages: List<InvoicePreviewPage>,
+)
+
+internal class InvoicePreviewPage(
+    val pageNumber: Int,
+    val bitmap: Bitmap,
+)
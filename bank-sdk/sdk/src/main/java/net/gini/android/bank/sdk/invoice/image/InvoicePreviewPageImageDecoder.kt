@@ -0,0 +1,19 @@
+package net.gini.android.bank.sdk.invoice.image
+
+import android.graphics.Bitmap
+import net.gini.android.capture.internal.util.BitmapHelper
+import net.gini.android.capture.internal.util.Size
+
+/**
+ * Decodes the page images scaled down to the target size, so that the full resolution bitmaps are never allocated.
+ *
+ * @param targetSize the maximum size of the decoded bitmaps. Use a square of the viewport's largest dimension to be
+ * independent of the screen rotation.
+ */
+internal class InvoicePreviewPageImageDecoder(
+    private val targetSize: Size,
+) {
+
+    fun decode(bytes: ByteArray): Bitmap =
+        checkNotNull(BitmapHelper.decodeDownsampled(bytes, targetSize)) { "Could not decode the page image" }
+}
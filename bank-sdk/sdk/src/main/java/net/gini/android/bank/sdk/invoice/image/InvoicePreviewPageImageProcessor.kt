@@ -17,6 +17,10 @@ class InvoicePreviewPageImageProcessor {
         var LOG: Logger = LoggerFactory.getLogger(InvoicePreviewPageImageProcessor::class.java)
     }
 
+    /**
+     * Draws the highlights on a copy of the image. The image itself is never modified and is returned as it is if
+     * there is nothing to highlight.
+     */
     suspend fun processImage(
         image: Bitmap,
         skontoPageLayout: DocumentLayout.Page,
@@ -24,6 +28,12 @@ class InvoicePreviewPageImageProcessor {
         color: Int = 0xAAFFFF00.toInt(),
     ): Bitmap = suspendCoroutine { continuation ->
 
+        if (highlightBoxes.isEmpty()) {
+            LOG.debug("No boxes to highlight detected")
+            continuation.resume(image)
+            return@suspendCoroutine
+        }
+
         val finalBitmap = image.copy(Bitmap.Config.ARGB_8888, true)
 
         val scaleY = image.height.toFloat() / skontoPageLayout.sizeY
@@ -39,11 +49,7 @@ class InvoicePreviewPageImageProcessor {
             this.color = color
         }
 
-        if (scaledRectList.isNotEmpty()) {
-            canvas.drawHighlightRect(scaledRectList.unionAll(), paint)
-        } else {
-            LOG.debug("No boxes to highlight detected")
-        }
+        canvas.drawHighlightRect(scaledRectList.unionAll(), paint)
 
         continuation.resume(finalBitmap)
     }
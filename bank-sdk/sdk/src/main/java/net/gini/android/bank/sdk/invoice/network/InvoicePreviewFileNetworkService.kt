@@ -15,16 +15,16 @@ internal class InvoicePreviewFileNetworkService(
 
     suspend fun getFile(url: String): ByteArray {
         return suspendCancellableCoroutine { continuation ->
-            giniCaptureNetworkService.getFile(url, object :
-                GiniCaptureNetworkCallback<Array<Byte>, Error> {
+            giniCaptureNetworkService.getFileAsByteArray(url, object :
+                GiniCaptureNetworkCallback<ByteArray, Error> {
 
                 override fun failure(error: Error) {
                     val errorType = typeFromError(error)
                     continuation.resumeWithException(FailureException(errorType))
                 }
 
-                override fun success(result: Array<Byte>) {
-                    continuation.resume(result.toByteArray())
+                override fun success(result: ByteArray) {
+                    continuation.resume(result)
                 }
 
                 override fun cancelled() {
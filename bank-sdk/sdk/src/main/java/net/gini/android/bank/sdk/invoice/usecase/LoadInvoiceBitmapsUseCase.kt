@@ -1,7 +1,18 @@
 package net.gini.android.bank.sdk.invoice.usecase
 
 import android.graphics.Bitmap
-import android.graphics.BitmapFactory
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.sync.Semaphore
+import kotlinx.coroutines.sync.withPermit
+import kotlinx.coroutines.withContext
+import net.gini.android.bank.sdk.invoice.cache.InvoicePreviewDocument
+import net.gini.android.bank.sdk.invoice.cache.InvoicePreviewPage
+import net.gini.android.bank.sdk.invoice.cache.InvoicePreviewPageCache
+import net.gini.android.bank.sdk.invoice.image.InvoicePreviewPageImageDecoder
 import net.gini.android.bank.sdk.invoice.image.InvoicePreviewPageImageProcessor
 import net.gini.android.bank.sdk.invoice.network.InvoicePreviewDocumentLayoutNetworkService
 import net.gini.android.bank.sdk.invoice.network.InvoicePreviewDocumentPagesNetworkService
@@ -9,49 +20,86 @@ import net.gini.android.bank.sdk.invoice.network.InvoicePreviewFileNetworkServic
 import net.gini.android.capture.internal.network.FailureException
 import net.gini.android.capture.network.model.GiniCaptureBox
 
+/**
+ * Loads the page images of a document and draws the highlights on them.
+ *
+ * The layout and the page list are requested at the same time and up to [maxParallelPageLoads] page images are
+ * downloaded and decoded in parallel. The decoded pages are kept in the [InvoicePreviewPageCache], so that showing the
+ * same document again doesn't download them again.
+ */
 internal class LoadInvoiceBitmapsUseCase(
     private val invoicePreviewDocumentLayoutNetworkService: InvoicePreviewDocumentLayoutNetworkService,
     private val invoicePreviewDocumentPagesNetworkService: InvoicePreviewDocumentPagesNetworkService,
     private val invoicePreviewFileNetworkService: InvoicePreviewFileNetworkService,
-    private val invoicePreviewPageImageProcessor: InvoicePreviewPageImageProcessor
+    private val invoicePreviewPageImageProcessor: InvoicePreviewPageImageProcessor,
+    private val invoicePreviewPageImageDecoder: InvoicePreviewPageImageDecoder,
+    private val invoicePreviewPageCache: InvoicePreviewPageCache,
+    private val maxParallelPageLoads: Int = DEFAULT_MAX_PARALLEL_PAGE_LOADS,
+    private val decodingDispatcher: CoroutineDispatcher = Dispatchers.Default,
 ) {
+
+    init {
+        require(maxParallelPageLoads > 0) { "maxParallelPageLoads must be greater than 0" }
+    }
+
     suspend operator fun invoke(
         documentId: String,
         highlightBoxes: List<GiniCaptureBox>
     ): List<Bitmap> {
 
-        val layout = fetchWithExceptionHandling(
-            { invoicePreviewDocumentLayoutNetworkService.getLayout(documentId) },
-            "Failed to fetch document layout for document ID: $documentId"
-        )
-
-        val pages = fetchWithExceptionHandling(
-            { invoicePreviewDocumentPagesNetworkService.getDocumentPages(documentId) },
-            "Failed to fetch document pages for document ID: $documentId"
-        )
-
-        val bitmaps = pages.map { documentPage ->
-            val bitmapBytes = fetchWithExceptionHandling(
-                { invoicePreviewFileNetworkService.getFile(documentPage.getSmallestImage()!!) },
-                "Failed to fetch file for page: ${documentPage.pageNumber}"
-            )
+        val document = invoicePreviewPageCache.get(documentId)
+            ?: loadDocument(documentId).also { invoicePreviewPageCache.put(documentId, it) }
 
-            val bitmap = BitmapFactory.decodeByteArray(bitmapBytes, 0, bitmapBytes.size)
-            val pageHighlights = highlightBoxes.filter { it.pageNumber == documentPage.pageNumber }
+        return document.pages.map { page ->
+            val pageHighlights = highlightBoxes.filter { it.pageNumber == page.pageNumber }
 
             val skontoPageLayout =
-                checkNotNull(layout?.pages?.find { documentPage.pageNumber == it.number }) {
-                    "Layout for page #${documentPage.pageNumber} not found"
+                checkNotNull(document.layout?.pages?.find { page.pageNumber == it.number }) {
+                    "Layout for page #${page.pageNumber} not found"
                 }
 
             invoicePreviewPageImageProcessor.processImage(
-                image = bitmap,
+                image = page.bitmap,
                 highlightBoxes = pageHighlights,
                 skontoPageLayout = skontoPageLayout
             )
         }
+    }
 
-        return bitmaps
+    private suspend fun loadDocument(documentId: String): InvoicePreviewDocument = coroutineScope {
+        val layout = async {
+            fetchWithExceptionHandling(
+                { invoicePreviewDocumentLayoutNetworkService.getLayout(documentId) },
+                "Failed to fetch document layout for document ID: $documentId"
+            )
+        }
+
+        val pages = fetchWithExceptionHandling(
+            { invoicePreviewDocumentPagesNetworkService.getDocumentPages(documentId) },
+            "Failed to fetch document pages for document ID: $documentId"
+        )
+
+        val pageLoads = Semaphore(maxParallelPageLoads)
+        val bitmaps = pages.map { documentPage ->
+            async {
+                pageLoads.withPermit {
+                    val bitmapBytes = fetchWithExceptionHandling(
+                        { invoicePreviewFileNetworkService.getFile(documentPage.getSmallestImage()!!) },
+                        "Failed to fetch file for page: ${documentPage.pageNumber}"
+                    )
+                    withContext(decodingDispatcher) {
+                        invoicePreviewPageImageDecoder.decode(bitmapBytes)
+                    }
+                }
+            }
+        }.awaitAll()
+
+        InvoicePreviewDocument(
+            layout = layout.await(),
+            pages = pages.mapIndexed { index, documentPage ->
+                InvoicePreviewPage(documentPage.pageNumber, bitmaps[index])
+            }
+        )
     }
 
     private suspend fun <T> fetchWithExceptionHandling(
@@ -66,4 +114,8 @@ internal class LoadInvoiceBitmapsUseCase(
             throw IllegalStateException(errorMessage, e)
         }
     }
+
+    companion object {
+        const val DEFAULT_MAX_PARALLEL_PAGE_LOADS = 3
+    }
 }
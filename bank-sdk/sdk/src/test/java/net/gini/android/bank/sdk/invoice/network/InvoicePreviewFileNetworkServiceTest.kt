@@ -0,0 +1,35 @@
+package net.gini.android.bank.sdk.invoice.network
+
+import com.google.common.truth.Truth.assertThat
+import io.mockk.every
+import io.mockk.mockk
+import io.mockk.slot
+import io.mockk.verify
+import kotlinx.coroutines.test.runTest
+import net.gini.android.capture.network.Error
+import net.gini.android.capture.network.GiniCaptureNetworkCallback
+import net.gini.android.capture.network.GiniCaptureNetworkService
+import org.junit.Test
+
+class InvoicePreviewFileNetworkServiceTest {
+
+    @Test
+    fun `returns the downloaded byte array without boxing it`() = runTest {
+        // Given
+        val fileBytes = ByteArray(1024) { it.toByte() }
+        val networkService: GiniCaptureNetworkService = mockk()
+        val callbackSlot = slot<GiniCaptureNetworkCallback<ByteArray, Error>>()
+        every { networkService.getFileAsByteArray("file-url", capture(callbackSlot)) } answers {
+            callbackSlot.captured.success(fileBytes)
+            null
+        }
+
+        // When
+        val result = InvoicePreviewFileNetworkService(networkService).getFile("file-url")
+
+        // Then
+        assertThat(result).isSameInstanceAs(fileBytes)
+        @Suppress("DEPRECATION")
+        verify(exactly = 0) { networkService.getFile(any(), any()) }
+    }
+}
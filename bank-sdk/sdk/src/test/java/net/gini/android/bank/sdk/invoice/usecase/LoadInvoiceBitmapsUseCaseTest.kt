@@ -0,0 +1,135 @@
+package net.gini.android.bank.sdk.invoice.usecase
+
+import android.graphics.Bitmap
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.google.common.truth.Truth.assertThat
+import io.mockk.coEvery
+import io.mockk.coVerify
+import io.mockk.every
+import io.mockk.mockk
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.delay
+import kotlinx.coroutines.test.StandardTestDispatcher
+import kotlinx.coroutines.test.TestScope
+import kotlinx.coroutines.test.currentTime
+import kotlinx.coroutines.test.runTest
+import net.gini.android.bank.sdk.invoice.cache.InvoicePreviewPageCache
+import net.gini.android.bank.sdk.invoice.image.InvoicePreviewPageImageDecoder
+import net.gini.android.bank.sdk.invoice.image.InvoicePreviewPageImageProcessor
+import net.gini.android.bank.sdk.invoice.network.InvoicePreviewDocumentLayoutNetworkService
+import net.gini.android.bank.sdk.invoice.network.InvoicePreviewDocumentPagesNetworkService
+import net.gini.android.bank.sdk.invoice.network.InvoicePreviewFileNetworkService
+import net.gini.android.capture.internal.network.model.DocumentLayout
+import net.gini.android.capture.internal.network.model.DocumentPage
+import net.gini.android.capture.network.model.GiniCaptureBox
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+
+@OptIn(ExperimentalCoroutinesApi::class)
+@RunWith(AndroidJUnit4::class)
+class LoadInvoiceBitmapsUseCaseTest {
+
+    private val layoutNetworkService: InvoicePreviewDocumentLayoutNetworkService = mockk()
+    private val pagesNetworkService: InvoicePreviewDocumentPagesNetworkService = mockk()
+    private val fileNetworkService: InvoicePreviewFileNetworkService = mockk()
+    private val decoder: InvoicePreviewPageImageDecoder = mockk()
+    private val cache = InvoicePreviewPageCache()
+
+    private var runningFileRequests = 0
+    private var maxRunningFileRequests = 0
+
+    @Before
+    fun setUp() {
+        // Fake network with the same delay for every request
+        coEvery { layoutNetworkService.getLayout(DOCUMENT_ID) } coAnswers {
+            delay(NETWORK_DELAY)
+            DocumentLayout((1..PAGE_COUNT).map { DocumentLayout.Page(it, 100f, 200f, emptyList(), emptyList()) })
+        }
+        coEvery { pagesNetworkService.getDocumentPages(DOCUMENT_ID) } coAnswers {
+            delay(NETWORK_DELAY)
+            (1..PAGE_COUNT).map { DocumentPage(it, DocumentPage.Images("medium/$it", "large/$it")) }
+        }
+        coEvery { fileNetworkService.getFile(any()) } coAnswers {
+            runningFileRequests++
+            maxRunningFileRequests = maxOf(maxRunningFileRequests, runningFileRequests)
+            delay(NETWORK_DELAY)
+            runningFileRequests--
+            firstArg<String>().toByteArray()
+        }
+        // The width of the decoded bitmap is the page number
+        every { decoder.decode(any()) } answers {
+            val pageNumber = String(firstArg<ByteArray>()).substringAfter("/").toInt()
+            Bitmap.createBitmap(pageNumber, 20, Bitmap.Config.ARGB_8888)
+        }
+    }
+
+    @Test
+    fun `downloads the page images in parallel up to the limit`() = runTest {
+        // Given
+        val useCase = createUseCase(maxParallelPageLoads = 2)
+
+        // When
+        val bitmaps = useCase(DOCUMENT_ID, emptyList())
+
+        // Then
+        assertThat(bitmaps.map { it.width }).containsExactly(1, 2, 3, 4, 5).inOrder()
+        assertThat(maxRunningFileRequests).isEqualTo(2)
+        // The layout and the page list are requested at the same time, then three rounds of two page images
+        assertThat(currentTime).isEqualTo(NETWORK_DELAY * 4)
+    }
+
+    @Test
+    fun `uses the cached pages when the document is shown again`() = runTest {
+        // Given
+        val firstBitmaps = createUseCase()(DOCUMENT_ID, emptyList())
+        val timeOfFirstLoad = currentTime
+
+        // When
+        val secondBitmaps = createUseCase()(DOCUMENT_ID, emptyList())
+
+        // Then
+        assertThat(currentTime).isEqualTo(timeOfFirstLoad)
+        for (index in firstBitmaps.indices) {
+            assertThat(secondBitmaps[index]).isSameInstanceAs(firstBitmaps[index])
+        }
+        coVerify(exactly = 1) { layoutNetworkService.getLayout(DOCUMENT_ID) }
+        coVerify(exactly = 1) { pagesNetworkService.getDocumentPages(DOCUMENT_ID) }
+        coVerify(exactly = PAGE_COUNT) { fileNetworkService.getFile(any()) }
+    }
+
+    @Test
+    fun `draws the highlights on copies of the highlighted pages only`() = runTest {
+        // Given
+        val highlights = listOf(GiniCaptureBox(2, 10.0, 10.0, 50.0, 20.0))
+
+        // When
+        val bitmaps = createUseCase()(DOCUMENT_ID, highlights)
+
+        // Then
+        val cachedPages = cache.get(DOCUMENT_ID)!!.pages
+        assertThat(bitmaps[0]).isSameInstanceAs(cachedPages[0].bitmap)
+        assertThat(bitmaps[1]).isNotSameInstanceAs(cachedPages[1].bitmap)
+        assertThat(bitmaps[1].isMutable).isTrue()
+        assertThat(bitmaps[2]).isSameInstanceAs(cachedPages[2].bitmap)
+    }
+
+    private fun TestScope.createUseCase(
+        maxParallelPageLoads: Int = LoadInvoiceBitmapsUseCase.DEFAULT_MAX_PARALLEL_PAGE_LOADS
+    ) = LoadInvoiceBitmapsUseCase(
+        invoicePreviewDocumentLayoutNetworkService = layoutNetworkService,
+        invoicePreviewDocumentPagesNetworkService = pagesNetworkService,
+        invoicePreviewFileNetworkService = fileNetworkService,
+        invoicePreviewPageImageProcessor = InvoicePreviewPageImageProcessor(),
+        invoicePreviewPageImageDecoder = decoder,
+        invoicePreviewPageCache = cache,
+        maxParallelPageLoads = maxParallelPageLoads,
+        decodingDispatcher = StandardTestDispatcher(testScheduler),
+    )
+
+    private companion object {
+        const val DOCUMENT_ID = "document-id"
+        const val PAGE_COUNT = 5
+        const val NETWORK_DELAY = 100L
+    }
+}
@@ -431,7 +431,7 @@ internal constructor(
 
         return launchCancellable {
 
-            when (val resource = giniBankApi.documentManager.getDocumentLayout(documentId)) {
+            when (val resource = giniBankApi.documentManager.getCompactDocumentLayout(documentId)) {
 
                 is Resource.Cancelled -> {
                     LOG.debug("Getting layout for document {} canceled", LogSanitizer.sanitize(documentId))
@@ -454,9 +454,10 @@ internal constructor(
 
                 is Resource.Success -> {
                     LOG.debug(
-                        "Getting layout for document {} success.\n{}",
+                        "Getting layout for document {} success. {} pages with {} words",
                         LogSanitizer.sanitize(documentId),
-                        LogSanitizer.sanitize(resource.data)
+                        resource.data.pageCount,
+                        resource.data.wordCount
                     )
                     callback.success(resource.data.toCaptureDocumentLayout())
                 }
@@ -501,9 +502,25 @@ internal constructor(
         }
     }
 
+    @Deprecated(
+        "Boxing every byte of the file needs several times more memory than the file itself.",
+        ReplaceWith("getFileAsByteArray(fileUrl, callback)")
+    )
     override fun getFile(
         fileUrl: String,
         callback: GiniCaptureNetworkCallback<Array<Byte>, Error>
+    ): CancellationToken =
+        getFileAsByteArray(fileUrl, object : GiniCaptureNetworkCallback<ByteArray, Error> {
+            override fun failure(error: Error) = callback.failure(error)
+
+            override fun success(result: ByteArray) = callback.success(result.toTypedArray())
+
+            override fun cancelled() = callback.cancelled()
+        })
+
+    override fun getFileAsByteArray(
+        fileUrl: String,
+        callback: GiniCaptureNetworkCallback<ByteArray, Error>
     ): CancellationToken {
 
         return launchCancellable {
@@ -532,7 +549,7 @@ internal constructor(
                         LogSanitizer.sanitize(fileUrl),
                         LogSanitizer.sanitize(resource.data.size)
                     )
-                    callback.success(resource.data.toTypedArray())
+                    callback.success(resource.data)
                 }
             }
         }
@@ -1,5 +1,6 @@
 package net.gini.android.capture.network.model
 
+import net.gini.android.core.api.models.CompactDocumentLayout
 import net.gini.android.core.api.models.DocumentLayout
 import net.gini.android.capture.internal.network.model.DocumentLayout as CaptureApiDocumentLayout
 import net.gini.android.capture.internal.network.model.DocumentLayout.Page.Region as CaptureApiRegion
@@ -63,3 +64,58 @@ fun DocumentLayout.Page.Region.toRegion() =
         top = top,
         type = type
     )
+
+/**
+ * Maps the compact layout directly to the Capture SDK's layout without creating the core API's [DocumentLayout].
+ */
+fun CompactDocumentLayout.toCaptureDocumentLayout() = CaptureApiDocumentLayout(
+    pages = (0 until pageCount).map { page ->
+        CaptureApiPage(
+            number = getPageNumber(page),
+            sizeX = getPageSizeX(page),
+            sizeY = getPageSizeY(page),
+            textZones = getTextZones(page).map { textZone ->
+                CaptureApiTextZone(paragraphs = getParagraphs(textZone).map { toCaptureParagraph(it) })
+            },
+            regions = getRegions(page).map { toCaptureRegion(it) }
+        )
+    }
+)
+
+private fun CompactDocumentLayout.toCaptureParagraph(paragraph: Int) =
+    CaptureApiParagraph(
+        left = paragraphBoxes.getLeft(paragraph),
+        top = paragraphBoxes.getTop(paragraph),
+        width = paragraphBoxes.getWidth(paragraph),
+        height = paragraphBoxes.getHeight(paragraph),
+        lines = getLines(paragraph).map { toCaptureLine(it) })
+
+private fun CompactDocumentLayout.toCaptureLine(line: Int) =
+    CaptureApiLine(
+        words = getWords(line).map { toCaptureWord(it) },
+        top = lineBoxes.getTop(line),
+        left = lineBoxes.getLeft(line),
+        width = lineBoxes.getWidth(line),
+        height = lineBoxes.getHeight(line),
+    )
+
+private fun CompactDocumentLayout.toCaptureWord(word: Int) =
+    CaptureApiWord(
+        text = getWordText(word),
+        left = wordBoxes.getLeft(word),
+        top = wordBoxes.getTop(word),
+        width = wordBoxes.getWidth(word),
+        height = wordBoxes.getHeight(word),
+        fontSize = getWordFontSize(word),
+        bold = isWordBold(word),
+        fontFamily = getWordFontFamily(word)
+    )
+
+private fun CompactDocumentLayout.toCaptureRegion(region: Int) =
+    CaptureApiRegion(
+        width = regionBoxes.getWidth(region),
+        height = regionBoxes.getHeight(region),
+        left = regionBoxes.getLeft(region),
+        top = regionBoxes.getTop(region),
+        type = getRegionType(region)
+    )
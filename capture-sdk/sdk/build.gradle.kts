@@ -190,6 +190,7 @@ dependencies {
     testImplementation(libs.kotlinx.coroutines.test)
     testImplementation (libs.jsonJava)
     testImplementation(libs.mockk)
+    testImplementation(libs.okhttp3.mockwebserver)
 
     debugImplementation(libs.androidx.test.core.ktx)
     debugImplementation(libs.androidx.fragment.testing)
@@ -2,9 +2,11 @@ package net.gini.android.capture.internal.pdf;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import android.content.Context;
 import android.graphics.Bitmap;
 import android.net.Uri;
 
+import net.gini.android.capture.internal.util.FileImportValidator;
 import net.gini.android.capture.internal.util.Size;
 import net.gini.android.capture.test.Helpers;
 
@@ -12,6 +14,8 @@ import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.util.UUID;
+
 import androidx.test.core.app.ApplicationProvider;
 import androidx.test.filters.RequiresDevice;
 import androidx.test.filters.SdkSuppress;
@@ -100,6 +104,41 @@ public class RendererLollipopTest {
         assertThat(passwordProtected).isTrue();
     }
 
+    @Test
+    public void should_openPdfOnlyOnce_forValidationPageCountAndRendering() throws Exception {
+        // Given
+        final Context context = ApplicationProvider.getApplicationContext();
+        // A new Uri for the same file to not reuse a session opened by the other tests
+        final Uri uri = sPdfContentUri.buildUpon()
+                .appendQueryParameter("import", UUID.randomUUID().toString())
+                .build();
+        final int openCountBefore = PdfRendererSession.getOpenCount();
+        // When
+        final boolean valid = new FileImportValidator(context, FileImportValidator.FILE_SIZE_LIMIT)
+                .matchesCriteria(uri);
+        final RendererLollipop renderer = new RendererLollipop(uri, context);
+        final int pageCount = renderer.getPageCount();
+        final Bitmap bitmap = renderer.toBitmap(0, new Size(200, 200));
+        final Bitmap bitmapAgain = renderer.toBitmap(0, new Size(200, 200));
+        // Then
+        assertThat(valid).isTrue();
+        assertThat(pageCount).isEqualTo(1);
+        assertThat(bitmap).isNotNull();
+        assertThat(bitmapAgain).isSameInstanceAs(bitmap);
+        assertThat(PdfRendererSession.getOpenCount() - openCountBefore).isEqualTo(1);
+    }
+
+    @Test
+    public void should_returnNullBitmap_forPageOutOfRange() throws Exception {
+        // Given
+        final RendererLollipop renderer = new RendererLollipop(sPdfContentUri,
+                ApplicationProvider.getApplicationContext());
+        // When
+        final Bitmap bitmap = renderer.toBitmap(1, new Size(200, 200));
+        // Then
+        assertThat(bitmap).isNull();
+    }
+
     @Test
     public void should_detectPdfWithoutPassword() throws Exception {
         // Given
@@ -8,6 +8,8 @@ import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
 
 import net.gini.android.capture.camera.CameraActivity;
+import net.gini.android.capture.camera.FrameAnalysisMetrics;
+import net.gini.android.capture.camera.FrameAnalysisRate;
 import net.gini.android.capture.camera.view.CameraNavigationBarBottomAdapter;
 import net.gini.android.capture.camera.view.DefaultCameraNavigationBarBottomAdapter;
 import net.gini.android.capture.error.view.DefaultErrorNavigationBarBottomAdapter;
@@ -17,9 +19,13 @@ import net.gini.android.capture.help.view.DefaultHelpNavigationBarBottomAdapter;
 import net.gini.android.capture.help.view.HelpNavigationBarBottomAdapter;
 import net.gini.android.capture.internal.cache.DocumentDataMemoryCache;
 import net.gini.android.capture.internal.cache.PhotoMemoryCache;
+import net.gini.android.capture.internal.cache.ThumbnailMemoryCache;
 import net.gini.android.capture.internal.document.ImageMultiPageDocumentMemoryStore;
 import net.gini.android.capture.internal.network.NetworkRequestsManager;
+import net.gini.android.capture.internal.network.RetryPolicy;
+import net.gini.android.capture.internal.network.UploadQueue;
 import net.gini.android.capture.internal.storage.ImageDiskStore;
+import net.gini.android.capture.internal.storage.ThumbnailDiskCache;
 import net.gini.android.capture.logging.ErrorLogger;
 import net.gini.android.capture.logging.ErrorLoggerListener;
 import net.gini.android.capture.network.Error;
@@ -58,6 +64,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 import static com.google.android.gms.common.util.CollectionUtils.listOf;
 import static java.util.Collections.emptyList;
@@ -109,6 +116,8 @@ public class GiniCapture {
     private final NetworkRequestsManager mNetworkRequestsManager;
     private final DocumentDataMemoryCache mDocumentDataMemoryCache;
     private final PhotoMemoryCache mPhotoMemoryCache;
+    private final ThumbnailMemoryCache mThumbnailMemoryCache;
+    private final ThumbnailDiskCache mThumbnailDiskCache;
     private final ImageDiskStore mImageDiskStore;
     private final ImageMultiPageDocumentMemoryStore mImageMultiPageDocumentMemoryStore;
     private final GiniCaptureFileImport mGiniCaptureFileImport;
@@ -120,6 +129,8 @@ public class GiniCapture {
     private final ArrayList<OnboardingPage> mCustomOnboardingPages; // NOPMD - Bundle req. ArrayList
     private final boolean mShouldShowOnboardingAtFirstRun;
     private final boolean mMultiPageEnabled;
+    private final boolean mUploadWhileCapturingEnabled;
+    private final boolean mUploadRetriesEnabled;
     private boolean mShouldShowOnboarding;
     private final boolean mIsSupportedFormatsHelpScreenEnabled;
     private final boolean mFlashButtonEnabled;
@@ -150,6 +161,9 @@ public class GiniCapture {
 
     private final Map<String, String> mCustomUploadMetadata;
     private final ProductTag mProductTag;
+    private final Executor mCaptureProcessingExecutor;
+    private final FrameAnalysisRate mFrameAnalysisRate;
+    private final FrameAnalysisMetrics mFrameAnalysisMetrics;
 
 
     /**
@@ -194,7 +208,11 @@ public class GiniCapture {
             }
             cleanup(context);
         }
-        return new Builder();
+        final Builder builder = new Builder();
+        if (context != null) {
+            builder.mApplicationContext = context.getApplicationContext();
+        }
+        return builder;
     }
 
 
@@ -461,8 +479,9 @@ public class GiniCapture {
      */
     public static void cleanup(Context context) {
         if (sInstance != null) {
-            sInstance.mDocumentDataMemoryCache.clear();
-            sInstance.mPhotoMemoryCache.clear();
+            sInstance.mDocumentDataMemoryCache.release();
+            sInstance.mPhotoMemoryCache.release();
+            sInstance.mThumbnailMemoryCache.release();
             sInstance.mInternal.setUpdatedCompoundExtractions(emptyMap());
             sInstance.mImageMultiPageDocumentMemoryStore.clear();
             sInstance.internal().setReviewScreenAnalysisError(null);
@@ -471,6 +490,7 @@ public class GiniCapture {
         UserAnalytics.INSTANCE.cleanup();
         if (context != null) {
             ImageDiskStore.clear(context);
+            ThumbnailDiskCache.clear(context);
         }
     }
 
@@ -489,12 +509,20 @@ public class GiniCapture {
         mShouldShowOnboarding = builder.shouldShowOnboarding();
         mDocumentDataMemoryCache = new DocumentDataMemoryCache();
         mPhotoMemoryCache = new PhotoMemoryCache(mDocumentDataMemoryCache);
-        mImageDiskStore = new ImageDiskStore();
-        mNetworkRequestsManager = mGiniCaptureNetworkService != null ? new NetworkRequestsManager(mGiniCaptureNetworkService, mDocumentDataMemoryCache) : null;
+        mThumbnailDiskCache = new ThumbnailDiskCache();
+        mThumbnailMemoryCache = new ThumbnailMemoryCache(mDocumentDataMemoryCache,
+                mThumbnailDiskCache);
+        mImageDiskStore = new ImageDiskStore(builder.getImageStorageMaxSizeBytes(),
+                builder.getImageStorageMaxAgeMillis());
+        mNetworkRequestsManager = mGiniCaptureNetworkService != null ? new NetworkRequestsManager(mGiniCaptureNetworkService, mDocumentDataMemoryCache,
+                builder.mApplicationContext != null ? UploadQueue.persistent(builder.mApplicationContext) : UploadQueue.inMemory(),
+                builder.isUploadRetriesEnabled() ? RetryPolicy.createDefault() : RetryPolicy.NONE) : null;
         mImageMultiPageDocumentMemoryStore = new ImageMultiPageDocumentMemoryStore();
         mGiniCaptureFileImport = new GiniCaptureFileImport(this);
         mInternal = new Internal(this);
         mMultiPageEnabled = builder.isMultiPageEnabled();
+        mUploadWhileCapturingEnabled = builder.isUploadWhileCapturingEnabled();
+        mUploadRetriesEnabled = builder.isUploadRetriesEnabled();
         mIsSupportedFormatsHelpScreenEnabled = builder.isSupportedFormatsHelpScreenEnabled();
         mFlashButtonEnabled = builder.isFlashButtonEnabled();
         mIsFlashOnByDefault = builder.isFlashOnByDefault();
@@ -523,6 +551,9 @@ public class GiniCapture {
         mCustomUploadMetadata = builder.getCustomUploadMetadata();
         mProductTag = builder.getProductTag();
         mGiniComposableStyleProvider = builder.getGiniComposableStyleProvider();
+        mCaptureProcessingExecutor = builder.getCaptureProcessingExecutor();
+        mFrameAnalysisRate = builder.getFrameAnalysisRate();
+        mFrameAnalysisMetrics = builder.getFrameAnalysisMetrics();
     }
 
     /**
@@ -592,6 +623,28 @@ public class GiniCapture {
         return mMultiPageEnabled;
     }
 
+    /**
+     * Find out whether pages are uploaded as soon as they were taken in the Camera Screen.
+     *
+     * <p> Disabled by default
+     *
+     * @return {@code true} if uploading while capturing is enabled
+     */
+    public boolean isUploadWhileCapturingEnabled() {
+        return mUploadWhileCapturingEnabled;
+    }
+
+    /**
+     * Find out whether failed page uploads are retried.
+     *
+     * <p> Disabled by default
+     *
+     * @return {@code true} if upload retries are enabled
+     */
+    public boolean isUploadRetriesEnabled() {
+        return mUploadRetriesEnabled;
+    }
+
     /**
      * The custom Onboarding Screen pages, if configured.
      *
@@ -765,6 +818,16 @@ public class GiniCapture {
         return mPhotoMemoryCache;
     }
 
+    @NonNull
+    ThumbnailMemoryCache getThumbnailMemoryCache() {
+        return mThumbnailMemoryCache;
+    }
+
+    @NonNull
+    ThumbnailDiskCache getThumbnailDiskCache() {
+        return mThumbnailDiskCache;
+    }
+
     @NonNull
     ImageDiskStore getImageDiskStore() {
         return mImageDiskStore;
@@ -958,6 +1021,39 @@ public class GiniCapture {
         return mGiniComposableStyleProvider;
     }
 
+    /**
+     * Get the executor used for processing captured photos.
+     *
+     * @return the custom {@link Executor} or {@code null}, if the default dedicated background
+     * thread is used
+     */
+    @Nullable
+    public Executor getCaptureProcessingExecutor() {
+        return mCaptureProcessingExecutor;
+    }
+
+    /**
+     * Get the rate at which camera preview frames are analyzed for QR codes and IBANs.
+     *
+     * <p> Default value is {@link FrameAnalysisRate#DEFAULT}.
+     *
+     * @return the {@link FrameAnalysisRate}
+     */
+    @NonNull
+    public FrameAnalysisRate getFrameAnalysisRate() {
+        return mFrameAnalysisRate;
+    }
+
+    /**
+     * Get the metrics which collect the latency of the camera preview frame analysis.
+     *
+     * @return the {@link FrameAnalysisMetrics} or {@code null}, if none were set
+     */
+    @Nullable
+    public FrameAnalysisMetrics getFrameAnalysisMetrics() {
+        return mFrameAnalysisMetrics;
+    }
+
     public interface CreateGiniCaptureFragmentForIntentCallback {
         void callback(CreateGiniCaptureFragmentForIntentResult result);
     }
@@ -1003,6 +1099,8 @@ public class GiniCapture {
         private boolean mShouldShowOnboardingAtFirstRun = true;
         private boolean mShouldShowOnboarding;
         private boolean mMultiPageEnabled;
+        private boolean mUploadWhileCapturingEnabled;
+        private boolean mUploadRetriesEnabled;
         private boolean mIsSupportedFormatsHelpScreenEnabled = true;
         private boolean mFlashButtonEnabled;
         private boolean mIsFlashOnByDefault = false;
@@ -1032,6 +1130,9 @@ public class GiniCapture {
         private boolean mGiniErrorLoggerIsOn = true;
         private ErrorLoggerListener mCustomErrorLoggerListener;
         private int mImportedFileSizeBytesLimit = FILE_SIZE_LIMIT;
+        private long mImageStorageMaxSizeBytes = ImageDiskStore.DEFAULT_MAX_SIZE_BYTES;
+        private long mImageStorageMaxAgeMillis = ImageDiskStore.DEFAULT_MAX_AGE_MILLIS;
+        private Context mApplicationContext;
         private InjectedViewAdapterInstance<NavigationBarTopAdapter> navigationBarTopAdapterInstance = new InjectedViewAdapterInstance<>(new DefaultNavigationBarTopAdapter());
         private final InjectedViewAdapterInstance<OnboardingNavigationBarBottomAdapter> navigationBarBottomAdapterInstance = new InjectedViewAdapterInstance<>(new DefaultOnboardingNavigationBarBottomAdapter());
         private final InjectedViewAdapterInstance<HelpNavigationBarBottomAdapter> helpNavigationBarBottomAdapterInstance = new InjectedViewAdapterInstance<>(new DefaultHelpNavigationBarBottomAdapter());
@@ -1056,6 +1157,9 @@ public class GiniCapture {
 
         private Map<String, String> customUploadMetadata;
         private GiniComposableStyleProvider giniComposableStyleProvider;
+        private Executor mCaptureProcessingExecutor;
+        private FrameAnalysisRate mFrameAnalysisRate = FrameAnalysisRate.DEFAULT;
+        private FrameAnalysisMetrics mFrameAnalysisMetrics;
 
         /**
          * Create a new {@link GiniCapture} instance.
@@ -1150,6 +1254,53 @@ public class GiniCapture {
             return this;
         }
 
+        boolean isUploadWhileCapturingEnabled() {
+            return mUploadWhileCapturingEnabled;
+        }
+
+        /**
+         * Enable/disable uploading pages while the user is still capturing.
+         *
+         * <p> When enabled, each page is uploaded as soon as it was taken in the Camera Screen instead of after the
+         * user finished capturing. The analysis can then start right away, because the pages were already uploaded.
+         * Uploads of pages which are deleted in the Review Screen are cancelled if they were not sent yet, otherwise
+         * the pages are deleted from the Gini API after their upload finished.
+         *
+         * <p> Requires a {@link GiniCaptureNetworkService}. Disabled by default.
+         *
+         * @param uploadWhileCapturingEnabled {@code true} to upload pages while capturing
+         * @return the {@link Builder} instance
+         */
+        public Builder setUploadWhileCapturingEnabled(final boolean uploadWhileCapturingEnabled) {
+            mUploadWhileCapturingEnabled = uploadWhileCapturingEnabled;
+            return this;
+        }
+
+        boolean isUploadRetriesEnabled() {
+            return mUploadRetriesEnabled;
+        }
+
+        /**
+         * Enable/disable retrying failed page uploads.
+         *
+         * <p> When enabled, uploads which failed because of connection problems, timeouts, rate limiting or server
+         * errors are retried with an increasing delay. All attempts use the same idempotency key.
+         *
+         * <p> Only enable it if your {@link GiniCaptureNetworkService} overrides
+         * {@link GiniCaptureNetworkService#upload(Document, String, GiniCaptureNetworkCallback)} and sends the
+         * idempotency key to a backend which detects repeated uploads. Otherwise a retried upload might create the
+         * same document twice.
+         *
+         * <p> Requires a {@link GiniCaptureNetworkService}. Disabled by default.
+         *
+         * @param uploadRetriesEnabled {@code true} to retry failed uploads
+         * @return the {@link Builder} instance
+         */
+        public Builder setUploadRetriesEnabled(final boolean uploadRetriesEnabled) {
+            mUploadRetriesEnabled = uploadRetriesEnabled;
+            return this;
+        }
+
         boolean shouldShowOnboardingAtFirstRun() {
             return mShouldShowOnboardingAtFirstRun;
         }
@@ -1387,6 +1538,32 @@ public class GiniCapture {
             return mImportedFileSizeBytesLimit;
         }
 
+        /**
+         * Set the limits for the images kept in the app's storage from previous sessions. Images left behind by
+         * previous sessions are deleted when a new flow is started with the {@link GiniCaptureFragment} if they are
+         * older than the maximum age or exceed the maximum size. The oldest images are deleted first. Flows restored
+         * after process death don't delete images, because they might still reference them.
+         *
+         * <p> Default values are 200 MB and 24 hours.
+         *
+         * @param maxSizeBytes  maximum size in bytes of the images from previous sessions
+         * @param maxAgeMillis  maximum age in milliseconds of the images from previous sessions
+         * @return the {@link Builder} instance
+         */
+        public Builder setImageStorageLimits(final long maxSizeBytes, final long maxAgeMillis) {
+            mImageStorageMaxSizeBytes = maxSizeBytes;
+            mImageStorageMaxAgeMillis = maxAgeMillis;
+            return this;
+        }
+
+        private long getImageStorageMaxSizeBytes() {
+            return mImageStorageMaxSizeBytes;
+        }
+
+        private long getImageStorageMaxAgeMillis() {
+            return mImageStorageMaxAgeMillis;
+        }
+
         /**
          * Set an adapter implementation to show a custom top navigation bar.
          *
@@ -1626,6 +1803,67 @@ public class GiniCapture {
         private ProductTag getProductTag() {
             return mProductTag;
         }
+
+        /**
+         * Set the executor used for processing captured photos. This includes extracting the jpeg
+         * from the camera image, handling the EXIF data and creating the preview. The finished
+         * photo is always delivered on the main thread.
+         *
+         * <p> By default a dedicated background thread is used. Don't pass the main thread
+         * executor as it causes dropped frames after taking a picture.
+         *
+         * @param executor the {@link Executor} to use for capture processing
+         * @return the {@link Builder} instance
+         */
+        public Builder setCaptureProcessingExecutor(@NonNull final Executor executor) {
+            mCaptureProcessingExecutor = executor;
+            return this;
+        }
+
+        @Nullable
+        private Executor getCaptureProcessingExecutor() {
+            return mCaptureProcessingExecutor;
+        }
+
+        /**
+         * Set how often camera preview frames are analyzed for QR codes and IBANs. The analysis runs
+         * on a background thread and the QR code and IBAN detectors share each analyzed frame.
+         *
+         * <p> Use {@link FrameAnalysisRate#fixed(int)} for a constant rate or
+         * {@link FrameAnalysisRate#adaptive(int)} to analyze fewer frames when the detectors are slow
+         * on the device.
+         *
+         * <p> Default value is {@link FrameAnalysisRate#DEFAULT}.
+         *
+         * @param frameAnalysisRate the {@link FrameAnalysisRate} to use
+         * @return the {@link Builder} instance
+         */
+        public Builder setFrameAnalysisRate(@NonNull final FrameAnalysisRate frameAnalysisRate) {
+            mFrameAnalysisRate = frameAnalysisRate;
+            return this;
+        }
+
+        @NonNull
+        private FrameAnalysisRate getFrameAnalysisRate() {
+            return mFrameAnalysisRate;
+        }
+
+        /**
+         * Set a {@link FrameAnalysisMetrics} instance to collect the number of analyzed and skipped
+         * camera preview frames and the time the detectors took for each frame.
+         *
+         * @param frameAnalysisMetrics the {@link FrameAnalysisMetrics} to update
+         * @return the {@link Builder} instance
+         */
+        public Builder setFrameAnalysisMetrics(@NonNull final FrameAnalysisMetrics frameAnalysisMetrics) {
+            mFrameAnalysisMetrics = frameAnalysisMetrics;
+            return this;
+        }
+
+        @Nullable
+        private FrameAnalysisMetrics getFrameAnalysisMetrics() {
+            return mFrameAnalysisMetrics;
+        }
     }
 
     /**
@@ -1671,6 +1909,16 @@ public class GiniCapture {
             return mGiniCapture.getPhotoMemoryCache();
         }
 
+        @NonNull
+        public ThumbnailMemoryCache getThumbnailMemoryCache() {
+            return mGiniCapture.getThumbnailMemoryCache();
+        }
+
+        @NonNull
+        public ThumbnailDiskCache getThumbnailDiskCache() {
+            return mGiniCapture.getThumbnailDiskCache();
+        }
+
         public ImageDiskStore getImageDiskStore() {
             return mGiniCapture.getImageDiskStore();
         }
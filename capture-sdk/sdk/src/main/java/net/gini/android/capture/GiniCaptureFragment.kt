@@ -116,6 +116,11 @@ class GiniCaptureFragment(
             requireActivity().window.disallowScreenshots()
         }
         onBoardingShown = savedInstanceState?.getBoolean(onBoardingShownKey, false) ?: false
+        if (savedInstanceState == null && GiniCapture.hasInstance()) {
+            // Only a new flow may evict images left behind by previous sessions. A flow restored after process
+            // death still references its images from before.
+            GiniCapture.getInstance().internal().imageDiskStore.trimAsync(requireContext())
+        }
         viewModel // trigger creation so the DataStore observer starts immediately
         setupUserAnalytics()
     }
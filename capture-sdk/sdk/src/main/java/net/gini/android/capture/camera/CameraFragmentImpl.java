@@ -6,6 +6,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.content.res.ColorStateList;
+import android.graphics.Bitmap;
 import android.graphics.Point;
 import android.graphics.Rect;
 import android.media.Image;
@@ -54,8 +55,10 @@ import net.gini.android.capture.document.ImageMultiPageDocument;
 import net.gini.android.capture.document.QRCodeDocument;
 import net.gini.android.capture.error.ErrorFragment;
 import net.gini.android.capture.error.ErrorType;
+import net.gini.android.capture.internal.cache.ThumbnailMemoryCache;
 import net.gini.android.capture.internal.camera.api.CameraException;
 import net.gini.android.capture.internal.camera.api.CameraInterface;
+import net.gini.android.capture.internal.camera.api.SharedPreviewFrame;
 import net.gini.android.capture.internal.camera.api.UIExecutor;
 import net.gini.android.capture.internal.camera.api.camerax.CameraXController;
 import net.gini.android.capture.internal.camera.photo.Photo;
@@ -119,7 +122,6 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import jersey.repackaged.jsr166e.CompletableFuture;
 import kotlin.Unit;
@@ -133,6 +135,7 @@ import static net.gini.android.capture.internal.util.AndroidHelper.isMarshmallow
 import static net.gini.android.capture.internal.util.FeatureConfiguration.getDocumentImportEnabledFileTypes;
 import static net.gini.android.capture.internal.util.FeatureConfiguration.isMultiPageEnabled;
 import static net.gini.android.capture.internal.util.FeatureConfiguration.isQRCodeScanningEnabled;
+import static net.gini.android.capture.internal.util.FeatureConfiguration.isUploadWhileCapturingEnabled;
 import static net.gini.android.capture.internal.util.FileImportValidator.FILE_SIZE_LIMIT;
 import static net.gini.android.capture.tracking.EventTrackingHelper.trackAnalysisScreenEvent;
 import static net.gini.android.capture.tracking.EventTrackingHelper.trackCameraScreenEvent;
@@ -221,7 +224,7 @@ class CameraFragmentImpl extends CameraFragmentExtension implements CameraFragme
     private final UIExecutor mUIExecutor = new UIExecutor();
     private CameraInterface mCameraController;
     private ImageMultiPageDocument mMultiPageDocument;
-    private PaymentQRCodeReader mPaymentQRCodeReader;
+    private volatile PaymentQRCodeReader mPaymentQRCodeReader;
 
     @VisibleForTesting
     UserAnalyticsEventTracker mUserAnalyticsEventTracker;
@@ -267,8 +270,13 @@ class CameraFragmentImpl extends CameraFragmentExtension implements CameraFragme
     private InjectedViewContainer<CustomLoadingIndicatorAdapter> mLoadingIndicator;
     private InjectedViewContainer<CameraNavigationBarBottomAdapter> mBottomInjectedContainer;
 
-    private IBANRecognizerFilter ibanRecognizerFilter;
-    private CropToCameraFrameTextRecognizer cropToCameraFrameTextRecognizer;
+    private volatile IBANRecognizerFilter ibanRecognizerFilter;
+    private volatile CropToCameraFrameTextRecognizer cropToCameraFrameTextRecognizer;
+    // Preview frames are analyzed on a background thread, so the view geometry is captured on layout
+    private volatile Size mCameraPreviewSizeForAnalysis = new Size(1, 1);
+    private volatile Rect mCameraFrameRectForAnalysis;
+    private final View.OnLayoutChangeListener mFrameAnalysisLayoutListener =
+            (v, left, top, right, bottom, oldLeft, oldTop, oldRight, oldBottom) -> updateFrameAnalysisGeometry();
     private final UserAnalyticsScreen screenName = UserAnalyticsScreen.Camera.INSTANCE;
     private View mDetectionErrorDismissButton;
 
@@ -573,6 +581,16 @@ class CameraFragmentImpl extends CameraFragmentExtension implements CameraFragme
         if (mCameraPreview.getParent() == null) {
             mCameraPreviewContainer.addView(mCameraPreview);
         }
+        mCameraPreview.removeOnLayoutChangeListener(mFrameAnalysisLayoutListener);
+        mCameraPreview.addOnLayoutChangeListener(mFrameAnalysisLayoutListener);
+    }
+
+    private void updateFrameAnalysisGeometry() {
+        if (mCameraPreview == null || mImageFrame == null) {
+            return;
+        }
+        mCameraPreviewSizeForAnalysis = new Size(mCameraPreview.getWidth(), mCameraPreview.getHeight());
+        mCameraFrameRectForAnalysis = getRectForCroppingFromImageFrame();
     }
 
     private void createPopups(@NonNull View view) {
@@ -926,6 +944,7 @@ class CameraFragmentImpl extends CameraFragmentExtension implements CameraFragme
         topAdapterInjectedViewContainer = view.findViewById(R.id.gc_navigation_top_bar);
         mBottomInjectedContainer = view.findViewById(R.id.gc_injected_navigation_bar_container_bottom);
         mImageFrame = view.findViewById(R.id.gc_camera_frame);
+        mImageFrame.addOnLayoutChangeListener(mFrameAnalysisLayoutListener);
         mCameraFrameWrapper = view.findViewById(R.id.gc_camera_frame_wrapper);
         mPaneWrapper = view.findViewById(R.id.gc_pane_wrapper);
         mLoadingIndicator = view.findViewById(R.id.gc_injected_loading_indicator);
@@ -1661,12 +1680,16 @@ class CameraFragmentImpl extends CameraFragmentExtension implements CameraFragme
             mPhotoThumbnail.removeImage();
         }
         final ImageDocument lastDocument = documents.get(documents.size() - 1);
-        GiniCapture.getInstance().internal().getPhotoMemoryCache()
-                .get(activity, lastDocument, new AsyncCallback<Photo, Exception>() { // NOPMD
+        // The thumbnail is at most gc_large_80 wide and smaller in height
+        final int thumbnailSize = activity.getResources().getDimensionPixelSize(R.dimen.gc_large_80);
+        final int sizeBucket = ThumbnailMemoryCache.getSizeBucket(new Size(thumbnailSize, thumbnailSize));
+        GiniCapture.getInstance().internal().getThumbnailMemoryCache()
+                .get(activity, new ThumbnailMemoryCache.Key(lastDocument, sizeBucket),
+                        new AsyncCallback<Bitmap, Exception>() { // NOPMD
                     @Override
-                    public void onSuccess(final Photo result) {
+                    public void onSuccess(final Bitmap result) {
                         mPhotoThumbnail.setImage(
-                                new PhotoThumbnail.ThumbnailBitmap(result.getBitmapPreview(),
+                                new PhotoThumbnail.ThumbnailBitmap(result,
                                         lastDocument.getRotationForDisplay()));
                         mPhotoThumbnail.setImageCount(documents.size());
                         mPhotoThumbnail.setVisibility(View.VISIBLE);
@@ -1783,9 +1806,8 @@ class CameraFragmentImpl extends CameraFragmentExtension implements CameraFragme
                         .compressByDefault().applyAsync(new PhotoEdit.PhotoEditCallback() {
                             @Override
                             public void onDone(@NonNull final Photo result) {
-                                hideActivityIndicatorAndEnableInteraction();
-                                if (mInMultiPageState) {
-                                    final ImageDocument document = createSavedDocument(result);
+                                createSavedDocument(result, document -> {
+                                    hideActivityIndicatorAndEnableInteraction();
                                     if (document == null) {
                                         handleError(GiniCaptureError.ErrorCode.CAMERA_SHOT_FAILED,
                                                 "Failed to take picture: could not save picture to disk",
@@ -1794,56 +1816,8 @@ class CameraFragmentImpl extends CameraFragmentExtension implements CameraFragme
                                         setmIsTakingPicture(false);
                                         return;
                                     }
-                                    mMultiPageDocument.addDocument(document);
-                                    mPhotoThumbnail.setImage(new PhotoThumbnail.ThumbnailBitmap(result.getBitmapPreview(),
-                                            document.getRotationForDisplay()));
-                                    mPhotoThumbnail.setImageCount(mMultiPageDocument.getDocuments().size());
-                                    proceedToMultiPageReviewScreen(true);
-                                } else {
-                                    if (isMultiPageEnabled()) {
-                                        final ImageDocument document = createSavedDocument(result);
-                                        if (document == null) {
-                                            handleError(GiniCaptureError.ErrorCode.CAMERA_SHOT_FAILED,
-                                                    "Failed to take picture: could not save picture to disk",
-                                                    null);
-                                            mCameraController.startPreview();
-                                            setmIsTakingPicture(false);
-                                            return;
-                                        }
-                                        mInMultiPageState = true;
-                                        mMultiPageDocument = new ImageMultiPageDocument(
-                                                Document.Source.newCameraSource(), ImportMethod.NONE);
-                                        GiniCapture.getInstance().internal()
-                                                .getImageMultiPageDocumentMemoryStore()
-                                                .setMultiPageDocument(mMultiPageDocument);
-                                        mMultiPageDocument.addDocument(document);
-                                        mPhotoThumbnail.setImage(
-                                                new PhotoThumbnail.ThumbnailBitmap(result.getBitmapPreview(),
-                                                        document.getRotationForDisplay()));
-                                        mPhotoThumbnail.setImageCount(mMultiPageDocument.getDocuments().size());
-                                        proceedToMultiPageReviewScreen(true);
-                                        setmIsTakingPicture(false);
-                                    } else {
-                                        final ImageDocument document = createSavedDocument(result);
-                                        if (document == null) {
-                                            handleError(GiniCaptureError.ErrorCode.CAMERA_SHOT_FAILED,
-                                                    "Failed to take picture: could not save picture to disk",
-                                                    null);
-                                            mCameraController.startPreview();
-                                            setmIsTakingPicture(false);
-                                            return;
-                                        }
-                                        final ImageMultiPageDocument multiPageDocument = new ImageMultiPageDocument(
-                                                Document.Source.newCameraSource(), ImportMethod.NONE);
-                                        GiniCapture.getInstance().internal()
-                                                .getImageMultiPageDocumentMemoryStore()
-                                                .setMultiPageDocument(multiPageDocument);
-                                        multiPageDocument.addDocument(document);
-                                        proceedToMultiPageReviewScreen(false);
-                                        setmIsTakingPicture(false);
-                                    }
-                                    mCameraController.startPreview();
-                                }
+                                    onPictureSaved(result, document);
+                                });
                             }
 
                             @Override
@@ -1902,20 +1876,109 @@ class CameraFragmentImpl extends CameraFragmentExtension implements CameraFragme
                 });
     }
 
-    @Nullable
-    private ImageDocument createSavedDocument(@NonNull final Photo photo) {
+    private void onPictureSaved(@NonNull final Photo result, @NonNull final ImageDocument document) {
+        if (mInMultiPageState) {
+            mMultiPageDocument.addDocument(document);
+            mPhotoThumbnail.setImage(new PhotoThumbnail.ThumbnailBitmap(result.getBitmapPreview(),
+                    document.getRotationForDisplay()));
+            mPhotoThumbnail.setImageCount(mMultiPageDocument.getDocuments().size());
+            proceedToMultiPageReviewScreen(true);
+        } else {
+            if (isMultiPageEnabled()) {
+                mInMultiPageState = true;
+                mMultiPageDocument = new ImageMultiPageDocument(
+                        Document.Source.newCameraSource(), ImportMethod.NONE);
+                GiniCapture.getInstance().internal()
+                        .getImageMultiPageDocumentMemoryStore()
+                        .setMultiPageDocument(mMultiPageDocument);
+                mMultiPageDocument.addDocument(document);
+                mPhotoThumbnail.setImage(
+                        new PhotoThumbnail.ThumbnailBitmap(result.getBitmapPreview(),
+                                document.getRotationForDisplay()));
+                mPhotoThumbnail.setImageCount(mMultiPageDocument.getDocuments().size());
+                proceedToMultiPageReviewScreen(true);
+                setmIsTakingPicture(false);
+            } else {
+                final ImageMultiPageDocument multiPageDocument = new ImageMultiPageDocument(
+                        Document.Source.newCameraSource(), ImportMethod.NONE);
+                GiniCapture.getInstance().internal()
+                        .getImageMultiPageDocumentMemoryStore()
+                        .setMultiPageDocument(multiPageDocument);
+                multiPageDocument.addDocument(document);
+                proceedToMultiPageReviewScreen(false);
+                setmIsTakingPicture(false);
+            }
+            mCameraController.startPreview();
+        }
+    }
+
+    /**
+     * Saves the photo on the {@link ImageDiskStore}'s IO thread and creates the document on the main thread once the
+     * photo was written.
+     */
+    private void createSavedDocument(@NonNull final Photo photo,
+            @NonNull final SavedDocumentCallback callback) {
         if (!GiniCapture.hasInstance()) {
             LOG.error(
                     "Cannot save document. GiniCapture instance not available. Create it with GiniCapture.newInstance().");
         }
         final Activity activity = mFragment.getActivity();
         if (activity == null) {
-            return null;
+            callback.onDocumentSaved(null);
+            return;
         }
         final ImageDiskStore imageDiskStore =
                 GiniCapture.getInstance().internal().getImageDiskStore();
-        final Uri savedAtUri = imageDiskStore.save(activity, photo.getData());
-        return DocumentFactory.newImageDocumentFromPhoto(photo, savedAtUri);
+        imageDiskStore.saveAsync(activity, photo.getData(), new AsyncCallback<Uri, Exception>() {
+            @Override
+            public void onSuccess(final Uri savedAtUri) {
+                if (mFragment.getActivity() == null) {
+                    // Detached while saving
+                    return;
+                }
+                final ImageDocument document =
+                        DocumentFactory.newImageDocumentFromPhoto(photo, savedAtUri);
+                uploadWhileCapturing(document);
+                callback.onDocumentSaved(document);
+            }
+
+            @Override
+            public void onError(final Exception exception) {
+                if (mFragment.getActivity() == null) {
+                    return;
+                }
+                LOG.error("Failed to save picture to disk", exception);
+                final ImageDocument document = DocumentFactory.newImageDocumentFromPhoto(photo);
+                uploadWhileCapturing(document);
+                callback.onDocumentSaved(document);
+            }
+
+            @Override
+            public void onCancelled() {
+                // Not used
+            }
+        });
+    }
+
+    /**
+     * Starts uploading the page right away, if enabled. The upload is reused when the document is analyzed later.
+     */
+    private void uploadWhileCapturing(@NonNull final ImageDocument document) {
+        if (!isUploadWhileCapturingEnabled()) {
+            return;
+        }
+        final Activity activity = mFragment.getActivity();
+        final NetworkRequestsManager networkRequestsManager =
+                GiniCapture.getInstance().internal().getNetworkRequestsManager();
+        if (activity == null || networkRequestsManager == null) {
+            return;
+        }
+        LOG.debug("Upload while capturing {}", document.getId());
+        networkRequestsManager.upload(activity.getApplicationContext(), document);
+    }
+
+    private interface SavedDocumentCallback {
+        void onDocumentSaved(@Nullable ImageDocument document);
     }
 
     private void showDocumentCornerGuidesAnimated() {
@@ -2128,44 +2191,32 @@ class CameraFragmentImpl extends CameraFragmentExtension implements CameraFragme
         mCameraController.setPreviewCallback(new CameraInterface.PreviewCallback() {
             @Override
             public void onPreviewFrame(@NonNull Image image, @NonNull Size imageSize, int rotation, @NonNull CameraInterface.PreviewFrameCallback previewFrameCallback) {
-                AtomicInteger previewFrameReferenceCount = new AtomicInteger();
-                if (ibanRecognizerFilter != null) {
-                    previewFrameReferenceCount.getAndIncrement();
-                }
-                if (mPaymentQRCodeReader != null) {
-                    previewFrameReferenceCount.getAndIncrement();
-                }
+                // Called on the frame analysis thread while the detectors may be released on the main thread
+                final IBANRecognizerFilter ibanRecognizer = ibanRecognizerFilter;
+                final CropToCameraFrameTextRecognizer cropTextRecognizer = cropToCameraFrameTextRecognizer;
+                final PaymentQRCodeReader paymentQRCodeReader = mPaymentQRCodeReader;
 
-                if (ibanRecognizerFilter != null) {
+                final SharedPreviewFrame sharedFrame = new SharedPreviewFrame(
+                        (ibanRecognizer != null ? 1 : 0) + (paymentQRCodeReader != null ? 1 : 0),
+                        previewFrameCallback);
+
+                if (ibanRecognizer != null) {
                     try {
-                        if (cropToCameraFrameTextRecognizer != null) {
-                            cropToCameraFrameTextRecognizer.setCameraPreviewSize(new Size(mCameraPreview.getWidth(), mCameraPreview.getHeight()));
-                            cropToCameraFrameTextRecognizer.setImageSizeAndRotation(imageSize, rotation);
-                            cropToCameraFrameTextRecognizer.setCameraFrameRect(getRectForCroppingFromImageFrame());
+                        if (cropTextRecognizer != null) {
+                            cropTextRecognizer.setCameraPreviewSize(mCameraPreviewSizeForAnalysis);
+                            cropTextRecognizer.setImageSizeAndRotation(imageSize, rotation);
+                            cropTextRecognizer.setCameraFrameRect(mCameraFrameRectForAnalysis);
                         }
 
-                        ibanRecognizerFilter.processImage(image, imageSize.width, imageSize.height, rotation, () -> {
-                            previewFrameReferenceCount.getAndDecrement();
-                            if (previewFrameReferenceCount.get() == 0) {
-                                previewFrameCallback.onReleaseFrame();
-                            }
-                        });
+                        ibanRecognizer.processImage(image, imageSize.width, imageSize.height, rotation, sharedFrame::release);
                     } catch (Exception e) {
                         LOG.error("Failed to process image for IBAN recognition", e);
-                        previewFrameReferenceCount.getAndDecrement();
-                        if (previewFrameReferenceCount.get() == 0) {
-                            previewFrameCallback.onReleaseFrame();
-                        }
+                        sharedFrame.release();
                     }
                 }
 
-                if (mPaymentQRCodeReader != null) {
-                    mPaymentQRCodeReader.readFromImage(image, imageSize, rotation, () -> {
-                        previewFrameReferenceCount.getAndDecrement();
-                        if (previewFrameReferenceCount.get() == 0) {
-                            previewFrameCallback.onReleaseFrame();
-                        }
-                    });
+                if (paymentQRCodeReader != null) {
+                    paymentQRCodeReader.readFromImage(image, imageSize, rotation, sharedFrame::release);
                 }
             }
 
@@ -2235,7 +2286,14 @@ class CameraFragmentImpl extends CameraFragmentExtension implements CameraFragme
 
     @NonNull
     protected CameraInterface createCameraController(final Activity activity) {
-        return new CameraXController(activity);
+        if (!GiniCapture.hasInstance()) {
+            return new CameraXController(activity);
+        }
+        final GiniCapture giniCapture = GiniCapture.getInstance();
+        return new CameraXController(activity,
+                giniCapture.getCaptureProcessingExecutor(),
+                giniCapture.getFrameAnalysisRate(),
+                giniCapture.getFrameAnalysisMetrics());
     }
 
     private void handleError(final GiniCaptureError.ErrorCode errorCode,
@@ -0,0 +1,76 @@
+package net.gini.android.capture.camera
+
+/**
+ * Collects the latency of the QR code and IBAN detection on camera preview frames.
+ *
+ * Pass an instance to `GiniCapture.Builder.setFrameAnalysisMetrics()` and read the counters whenever you need them,
+ * for example to tune the [FrameAnalysisRate] on low-end devices.
+ */
+class FrameAnalysisMetrics {
+
+    private var analyzedFrames = 0L
+    private var skippedFrames = 0L
+    private var lastLatency = 0L
+    private var maxLatency = 0L
+    private var totalLatency = 0L
+
+    /**
+     * The number of frames which were handed to the detectors.
+     */
+    val analyzedFrameCount: Long
+        @Synchronized get() = analyzedFrames
+
+    /**
+     * The number of frames which were dropped to keep the [FrameAnalysisRate].
+     */
+    val skippedFrameCount: Long
+        @Synchronized get() = skippedFrames
+
+    /**
+     * The time in milliseconds all detectors took to finish the last analyzed frame.
+     */
+    val lastLatencyMs: Long
+        @Synchronized get() = lastLatency
+
+    /**
+     * The longest time in milliseconds all detectors took to finish a frame.
+     */
+    val maxLatencyMs: Long
+        @Synchronized get() = maxLatency
+
+    /**
+     * The average time in milliseconds all detectors took to finish a frame.
+     */
+    val averageLatencyMs: Long
+        @Synchronized get() = if (analyzedFrames > 0) totalLatency / analyzedFrames else 0L
+
+    /**
+     * Resets all counters to zero.
+     */
+    @Synchronized
+    fun reset() {
+        analyzedFrames = 0L
+        skippedFrames = 0L
+        lastLatency = 0L
+        maxLatency = 0L
+        totalLatency = 0L
+    }
+
+    @Synchronized
+    internal fun recordAnalyzedFrame(latencyMs: Long) {
+        analyzedFrames++
+        lastLatency = latencyMs
+        maxLatency = maxOf(maxLatency, latencyMs)
+        totalLatency += latencyMs
+    }
+
+    @Synchronized
+    internal fun recordSkippedFrame() {
+        skippedFrames++
+    }
+
+    @Synchronized
+    override fun toString(): String =
+        "FrameAnalysisMetrics(analyzedFrameCount=$analyzedFrames, skippedFrameCount=$skippedFrames, " +
+                "lastLatencyMs=$lastLatency, averageLatencyMs=$averageLatencyMs, maxLatencyMs=$maxLatency)"
+}
@@ -0,0 +1,48 @@
+package net.gini.android.capture.camera
+
+/**
+ * Limits how often camera preview frames are analyzed for QR codes and IBANs.
+ *
+ * Pass an instance to `GiniCapture.Builder.setFrameAnalysisRate()`.
+ *
+ * @property maxFramesPerSecond the maximum number of frames analyzed per second
+ * @property isAdaptive whether the rate is lowered further when the detectors are slow on the device
+ */
+class FrameAnalysisRate private constructor(
+    val maxFramesPerSecond: Int,
+    val isAdaptive: Boolean
+) {
+
+    override fun toString(): String =
+        "FrameAnalysisRate(maxFramesPerSecond=$maxFramesPerSecond, isAdaptive=$isAdaptive)"
+
+    companion object {
+
+        private const val DEFAULT_MAX_FRAMES_PER_SECOND = 10
+
+        /**
+         * Analyzes at most [maxFramesPerSecond] frames per second, regardless of how long the detectors take.
+         */
+        @JvmStatic
+        fun fixed(maxFramesPerSecond: Int): FrameAnalysisRate {
+            require(maxFramesPerSecond > 0) { "maxFramesPerSecond must be greater than 0" }
+            return FrameAnalysisRate(maxFramesPerSecond, isAdaptive = false)
+        }
+
+        /**
+         * Analyzes at most [maxFramesPerSecond] frames per second and waits longer between frames when the recent
+         * detector latency is high. This leaves the CPU time to the camera preview and the UI on low-end devices.
+         */
+        @JvmStatic
+        fun adaptive(maxFramesPerSecond: Int): FrameAnalysisRate {
+            require(maxFramesPerSecond > 0) { "maxFramesPerSecond must be greater than 0" }
+            return FrameAnalysisRate(maxFramesPerSecond, isAdaptive = true)
+        }
+
+        /**
+         * The default rate: adaptive with at most 10 frames per second.
+         */
+        @JvmField
+        val DEFAULT = adaptive(DEFAULT_MAX_FRAMES_PER_SECOND)
+    }
+}
@@ -11,6 +11,7 @@ import androidx.annotation.Nullable;
 import net.gini.android.capture.AsyncCallback;
 import net.gini.android.capture.Document;
 import net.gini.android.capture.internal.camera.photo.ParcelableMemoryCache;
+import net.gini.android.capture.internal.storage.ImageDiskStore;
 import net.gini.android.capture.internal.util.DeviceHelper;
 import net.gini.android.capture.internal.util.UriReaderAsyncTask;
 import net.gini.android.capture.util.IntentHelper;
@@ -51,6 +52,7 @@ public class GiniCaptureDocument implements Document {
     private final String mMimeType;
     private byte[] mData;
     private String mParcelableMemoryCacheTag;
+    private boolean mIsDataStoredAtUri;
 
     GiniCaptureDocument(@NonNull final Type type,
                         @NonNull final Source source,
@@ -106,6 +108,7 @@ public class GiniCaptureDocument implements Document {
         mUri = in.readParcelable(Uri.class.getClassLoader());
         mIsReviewable = in.readInt() == 1;
         mParcelableMemoryCacheTag = in.readString();
+        mIsDataStoredAtUri = in.readInt() == 1;
     }
 
     @Override
@@ -135,7 +138,9 @@ public class GiniCaptureDocument implements Document {
 
         final ParcelableMemoryCache cache = ParcelableMemoryCache.getInstance();
         synchronized (this) {
-            if (mData != null) {
+            // Data stored in the ImageDiskStore is loaded again from the file with loadData(). This keeps the
+            // parcel small and the data survives process death.
+            if (mData != null && !isDataStoredInImageDiskStore()) {
                 final ParcelableMemoryCache.Token token;
                 if (mParcelableMemoryCacheTag != null) {
                     token = cache.storeByteArray(mData, mParcelableMemoryCacheTag);
@@ -155,6 +160,21 @@ public class GiniCaptureDocument implements Document {
         dest.writeParcelable(mUri, flags);
         dest.writeInt(mIsReviewable ? 1 : 0);
         dest.writeString(mParcelableMemoryCacheTag);
+        dest.writeInt(mIsDataStoredAtUri ? 1 : 0);
+    }
+
+    /**
+     * Marks the uri as pointing to a file which contains the document's data.
+     */
+    void setDataStoredAtUri() {
+        mIsDataStoredAtUri = true;
+    }
+
+    /**
+     * Only set for documents whose data the SDK stored in the {@link ImageDiskStore}.
+     */
+    private boolean isDataStoredInImageDiskStore() {
+        return mIsDataStoredAtUri && mUri != null;
     }
 
     @Override
@@ -175,6 +195,12 @@ public class GiniCaptureDocument implements Document {
 
     public synchronized void setData(final byte[] data) {
         mData = data;
+        // The file contains the previous data
+        mIsDataStoredAtUri = false;
+    }
+
+    private synchronized void setDataLoadedFromUri(final byte[] data) {
+        mData = data;
     }
 
     @Nullable
@@ -267,7 +293,7 @@ public class GiniCaptureDocument implements Document {
                 new AsyncCallback<byte[], Exception>() {
                     @Override
                     public void onSuccess(final byte[] result) {
-                        setData(result);
+                        setDataLoadedFromUri(result);
                         callback.onSuccess(mData);
                     }
 
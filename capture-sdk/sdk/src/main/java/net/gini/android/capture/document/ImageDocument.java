@@ -69,7 +69,9 @@ public class ImageDocument extends GiniCaptureDocument {
     @NonNull
     static ImageDocument fromPhoto(@NonNull final Photo photo,
             @NonNull final Uri storedAtUri) {
-        return new ImageDocument(photo, null, null, storedAtUri);
+        final ImageDocument document = new ImageDocument(photo, null, null, storedAtUri);
+        document.setDataStoredAtUri();
+        return document;
     }
 
     @NonNull
@@ -105,9 +107,13 @@ public class ImageDocument extends GiniCaptureDocument {
         } else {
             imageUri = uri;
         }
-        return new ImageDocument(intent, imageUri, ImageFormat.fromMimeType(mimeType),
-                deviceOrientation,
-                deviceType, source, importMethod);
+        final ImageDocument document = new ImageDocument(intent, imageUri,
+                ImageFormat.fromMimeType(mimeType), deviceOrientation, deviceType, source,
+                importMethod);
+        if (isMultiPageEnabled()) {
+            document.setDataStoredAtUri();
+        }
+        return document;
     }
 
     @NonNull
@@ -6,8 +6,6 @@ import android.util.LruCache;
 import net.gini.android.capture.AsyncCallback;
 import net.gini.android.capture.document.GiniCaptureDocument;
 
-import java.util.List;
-
 import androidx.annotation.NonNull;
 
 /**
@@ -53,57 +51,24 @@ public class DocumentDataMemoryCache extends MemoryCache<GiniCaptureDocument, by
 
     @Override
     protected MemoryCache.Worker<GiniCaptureDocument, byte[]> createWorker(
-            @NonNull final List<MemoryCache.Worker<GiniCaptureDocument, byte[]>> runningWorkers,
             @NonNull final GiniCaptureDocument subject,
             @NonNull final AsyncCallback<byte[], Exception> callback) {
-        return new DocumentDataWorker(runningWorkers, subject,
-                new AsyncCallback<byte[], Exception>() {
-                    @Override
-                    public void onSuccess(final byte[] result) {
-                        callback.onSuccess(result);
-                    }
-
-                    @Override
-                    public void onError(final Exception exception) {
-                        callback.onError(exception);
-                    }
-
-                    @Override
-                    public void onCancelled() {
-                        callback.onCancelled();
-                    }
-                });
+        return new DocumentDataWorker(subject, callback);
     }
 
     private static class DocumentDataWorker extends MemoryCache.Worker<GiniCaptureDocument, byte[]> {
 
         private DocumentDataWorker(
-                @NonNull final List<MemoryCache.Worker<GiniCaptureDocument, byte[]>> runningWorkers,
                 @NonNull final GiniCaptureDocument subject,
                 @NonNull final AsyncCallback<byte[], Exception> callback) {
-            super(runningWorkers, subject, callback);
+            super(subject, callback);
         }
 
         @Override
         protected void doExecute(@NonNull final Context context,
                 @NonNull final GiniCaptureDocument subject,
                 @NonNull final AsyncCallback<byte[], Exception> callback) {
-            subject.loadData(context, new AsyncCallback<byte[], Exception>() {
-                @Override
-                public void onSuccess(final byte[] result) {
-                    callback.onSuccess(result);
-                }
-
-                @Override
-                public void onError(final Exception exception) {
-                    callback.onError(exception);
-                }
-
-                @Override
-                public void onCancelled() {
-                    callback.onCancelled();
-                }
-            });
+            subject.loadData(context, callback);
         }
     }
 
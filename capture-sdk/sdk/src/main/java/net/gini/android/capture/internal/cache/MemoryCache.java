@@ -1,9 +1,12 @@
 package net.gini.android.capture.internal.cache;
 
+import android.content.ComponentCallbacks2;
 import android.content.Context;
+import android.content.res.Configuration;
 import android.util.LruCache;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
 
 import net.gini.android.capture.AsyncCallback;
 
@@ -11,9 +14,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.slf4j.helpers.NOPLogger;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -26,26 +29,53 @@ import java.util.Queue;
  */
 
 /**
- * Internal use only.
+ * Loads values with {@link Worker}s and keeps them in an {@link LruCache}.
+ *
+ * <p> Thread-safe. Only one worker runs for a key at a time: callbacks of concurrent gets for a key which is already
+ * being loaded wait for that worker's result. At most {@code runningWorkersLimit} workers run at the same time, the
+ * others are queued.
+ *
+ * <p> The cache registers itself for {@link ComponentCallbacks2#onTrimMemory(int)} on the application context and
+ * shrinks or clears itself when memory gets low.
+ *
+ * <p> Internal use only.
  *
  * @suppress
  */
 public abstract class MemoryCache<K, V> {
 
     private static final boolean DEBUG = false;
-    private static final String LOG_REMOVE_CALLBACKS = "Remove callbacks for key {}";
     private static final String LOG_INVOKE_CALLBACK = "Invoke callback {} for key {}";
-    private static final String LOG_REMOVE_SELF = "Remove self from running workers";
     private final Logger mLog; // NOPMD
     private final LruCache<K, V> mCache;
-    private final Queue<Worker<K, V>> mWorkerQueue = new LinkedList<>();
-    private final List<Worker<K, V>> mRunningWorkers;
+    private final Object mLock = new Object();
+    // Guarded by mLock
+    private final Queue<K> mQueuedKeys = new ArrayDeque<>();
+    // Guarded by mLock
+    private final Map<K, Load<V>> mLoads = new HashMap<>();
+    // Guarded by mLock
+    private int mRunningWorkersCount;
     private final int mRunningWorkersLimit;
-    private final Map<K, List<AsyncCallback<V, Exception>>> mWaitingCallbacks = new HashMap<>();
+    // Guarded by mLock
+    private Context mRegisteredContext;
+    private final ComponentCallbacks2 mComponentCallbacks = new ComponentCallbacks2() {
+        @Override
+        public void onTrimMemory(final int level) {
+            trimMemory(level);
+        }
+
+        @Override
+        public void onConfigurationChanged(@NonNull final Configuration newConfig) {
+        }
+
+        @Override
+        public void onLowMemory() {
+            trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE);
+        }
+    };
 
     MemoryCache(final int runningWorkersLimit) {
         mRunningWorkersLimit = runningWorkersLimit;
-        mRunningWorkers = new ArrayList<>(runningWorkersLimit);
         mCache = createCache();
         if (DEBUG) {
             mLog = LoggerFactory.getLogger(getClass());
@@ -59,102 +89,127 @@ public abstract class MemoryCache<K, V> {
     public void get(@NonNull final Context context, @NonNull final K key,
             @NonNull final AsyncCallback<V, Exception> callback) {
         mLog.debug("Get for key {}", getNameForLog(key));
-        if (mCache.get(key) != null) {
-            final V value = mCache.get(key);
+        V value = mCache.get(key);
+        if (value != null) {
             mLog.debug("Return cached {}", getNameForLog(value));
             callback.onSuccess(value);
             return;
         }
 
-        mLog.debug("Create worker");
-        final Worker<K, V> worker = createWorker(mRunningWorkers, key,
-                new AsyncCallback<V, Exception>() {
-                    @Override
-                    public void onSuccess(final V result) {
-                        mLog.debug("Worker finished with result {}", getNameForLog(result));
-                        mCache.put(key, result);
-                        callOnSuccessForWaitingCallbacks(key, result);
-                        mLog.debug(LOG_REMOVE_CALLBACKS, getNameForLog(key));
-                        mWaitingCallbacks.remove(key);
-                        executeNextWorker(context);
-                    }
-
-                    @Override
-                    public void onError(final Exception exception) {
-                        mLog.error("Worker finished with error", exception);
-                        callOnErrorForWaitingCallbacks(key, exception);
-                        mLog.debug(LOG_REMOVE_CALLBACKS, getNameForLog(key));
-                        mWaitingCallbacks.remove(key);
-                        executeNextWorker(context);
-                    }
-
-                    @Override
-                    public void onCancelled() {
-                        mLog.error("Worker was cancelled");
-                        callOnCancelledForWaitingCallbacks(key);
-                        mLog.debug(LOG_REMOVE_CALLBACKS, getNameForLog(key));
-                        mWaitingCallbacks.remove(key);
-                        executeNextWorker(context);
-                    }
-                });
-
-        List<AsyncCallback<V, Exception>> callbacks = mWaitingCallbacks.get(key);
-        if (callbacks == null) {
-            mLog.debug("First callback {} registered for key {}", getNameForLog(callback),
-                    getNameForLog(key));
-            callbacks = new ArrayList<>();
-            callbacks.add(callback);
-            mWaitingCallbacks.put(key, callbacks);
-        } else {
-            mLog.debug("Additional callback {} registered for key {}", getNameForLog(callback),
-                    getNameForLog(key));
-            callbacks.add(callback);
+        final boolean execute;
+        synchronized (mLock) {
+            registerComponentCallbacks(context);
+            // The value might have been cached since the lookup above
+            value = mCache.get(key);
+            if (value == null) {
+                Load<V> load = mLoads.get(key);
+                if (load != null) {
+                    mLog.debug("Additional callback {} registered for key {}", getNameForLog(callback),
+                            getNameForLog(key));
+                    load.callbacks.add(callback);
+                    return;
+                }
+                mLog.debug("First callback {} registered for key {}", getNameForLog(callback),
+                        getNameForLog(key));
+                load = new Load<>();
+                load.callbacks.add(callback);
+                mLoads.put(key, load);
+                execute = mRunningWorkersCount < mRunningWorkersLimit;
+                if (execute) {
+                    mRunningWorkersCount++;
+                } else {
+                    mLog.debug("Queue worker for key {}", getNameForLog(key));
+                    mQueuedKeys.add(key);
+                }
+            } else {
+                execute = false;
+            }
         }
 
-        mLog.debug("Schedule worker for key {}", getNameForLog(key));
-        if (!mRunningWorkers.contains(worker) && mRunningWorkers.size() < mRunningWorkersLimit) {
-            mLog.debug("Execute worker for key {}", getNameForLog(key));
-            mRunningWorkers.add(worker);
-            worker.execute(context);
-        } else if (!mWorkerQueue.contains(worker)) {
-            mLog.debug("Queue worker for key {}", getNameForLog(key));
-            mWorkerQueue.add(worker);
-        } else {
-            mLog.debug("Worker already queued for key {}", getNameForLog(key));
+        if (value != null) {
+            mLog.debug("Return cached {}", getNameForLog(value));
+            callback.onSuccess(value);
+        } else if (execute) {
+            executeWorker(context, key);
         }
     }
 
-    private void callOnSuccessForWaitingCallbacks(final K key, final V result) {
-        final List<AsyncCallback<V, Exception>> callbacks = mWaitingCallbacks.get(key);
-        if (callbacks != null) {
-            for (final AsyncCallback<V, Exception> waitingCallback : callbacks) {
-                mLog.debug(LOG_INVOKE_CALLBACK,
-                        getNameForLog(waitingCallback), getNameForLog(key));
-                waitingCallback.onSuccess(result);
+    private void executeWorker(@NonNull final Context context, @NonNull final K key) {
+        mLog.debug("Execute worker for key {}", getNameForLog(key));
+        final Worker<K, V> worker = createWorker(key, new AsyncCallback<V, Exception>() {
+            @Override
+            public void onSuccess(final V result) {
+                mLog.debug("Worker finished with result {}", getNameForLog(result));
+                final Load<V> load = finishLoad(key, result);
+                if (load != null) {
+                    for (final AsyncCallback<V, Exception> waitingCallback : load.callbacks) {
+                        mLog.debug(LOG_INVOKE_CALLBACK, getNameForLog(waitingCallback), getNameForLog(key));
+                        waitingCallback.onSuccess(result);
+                    }
+                }
+                executeNextWorker(context);
             }
-        }
+
+            @Override
+            public void onError(final Exception exception) {
+                mLog.error("Worker finished with error", exception);
+                final Load<V> load = finishLoad(key, null);
+                if (load != null) {
+                    for (final AsyncCallback<V, Exception> waitingCallback : load.callbacks) {
+                        mLog.debug(LOG_INVOKE_CALLBACK, getNameForLog(waitingCallback), getNameForLog(key));
+                        waitingCallback.onError(exception);
+                    }
+                }
+                executeNextWorker(context);
+            }
+
+            @Override
+            public void onCancelled() {
+                mLog.error("Worker was cancelled");
+                final Load<V> load = finishLoad(key, null);
+                if (load != null) {
+                    for (final AsyncCallback<V, Exception> waitingCallback : load.callbacks) {
+                        mLog.debug(LOG_INVOKE_CALLBACK, getNameForLog(waitingCallback), getNameForLog(key));
+                        waitingCallback.onCancelled();
+                    }
+                }
+                executeNextWorker(context);
+            }
+        });
+        worker.execute(context);
     }
 
-    private void callOnErrorForWaitingCallbacks(final K key, final Exception exception) {
-        final List<AsyncCallback<V, Exception>> callbacks = mWaitingCallbacks.get(key);
-        if (callbacks != null) {
-            for (final AsyncCallback<V, Exception> waitingCallback : callbacks) {
-                mLog.debug(LOG_INVOKE_CALLBACK,
-                        getNameForLog(waitingCallback), getNameForLog(key));
-                waitingCallback.onError(exception);
+    /**
+     * Caches the result unless the key was invalidated while loading and returns the finished load with the
+     * callbacks to invoke.
+     */
+    private Load<V> finishLoad(@NonNull final K key, final V result) {
+        synchronized (mLock) {
+            mRunningWorkersCount--;
+            final Load<V> load = mLoads.remove(key);
+            if (result != null && load != null && !load.invalidated) {
+                mCache.put(key, result);
             }
+            return load;
         }
     }
 
-    private void callOnCancelledForWaitingCallbacks(final K key) {
-        final List<AsyncCallback<V, Exception>> callbacks = mWaitingCallbacks.get(key);
-        if (callbacks != null) {
-            for (final AsyncCallback<V, Exception> waitingCallback : callbacks) {
-                mLog.debug(LOG_INVOKE_CALLBACK,
-                        getNameForLog(waitingCallback), getNameForLog(key));
-                waitingCallback.onCancelled();
+    private void executeNextWorker(@NonNull final Context context) {
+        final K key;
+        synchronized (mLock) {
+            if (mRunningWorkersCount >= mRunningWorkersLimit) {
+                mLog.debug("Cannot execute next worker. Running worker limit reached.");
+                return;
+            }
+            key = mQueuedKeys.poll();
+            if (key == null) {
+                mLog.debug("No queued workers");
+                return;
             }
+            mRunningWorkersCount++;
         }
+        mLog.debug("Execute queued worker for key {}", getNameForLog(key));
+        executeWorker(context, key);
     }
 
     private <T> String getNameForLog(final T object) {
@@ -163,65 +218,84 @@ public abstract class MemoryCache<K, V> {
     }
 
     protected abstract Worker<K, V> createWorker(
-            @NonNull final List<Worker<K, V>> runningWorkers,
             @NonNull final K subject,
             @NonNull final AsyncCallback<V, Exception> callback);
 
-
-    private void executeNextWorker(@NonNull final Context context) {
-        mLog.debug("Execute next worker");
-        final Worker worker = mWorkerQueue.peek();
-        if (worker != null) {
-            if (!mRunningWorkers.contains(worker)
-                    && mRunningWorkers.size() < mRunningWorkersLimit) {
-                mRunningWorkers.add(worker);
-                mWorkerQueue.poll();
-                mLog.debug("Execute queued worker for key {}", getNameForLog(worker.getSubject()));
-                worker.execute(context);
-            } else {
-                mLog.debug("Cannot execute worker for key {}. Running worker limit reached.",
-                        getNameForLog(worker.getSubject()));
+    public void invalidate(@NonNull final K key) {
+        synchronized (mLock) {
+            final Load<V> load = mLoads.get(key);
+            if (load != null) {
+                load.invalidated = true;
             }
-        } else {
-            mLog.debug("No queued workers");
-            if (mRunningWorkers.isEmpty() && !mWaitingCallbacks.isEmpty()) {
-                mLog.error("{} dangling callbacks", mWaitingCallbacks.size());
-                if (DEBUG) {
-                    logDanglingCallbacks();
-                }
+            mCache.remove(key);
+        }
+    }
+
+    public void clear() {
+        synchronized (mLock) {
+            for (final Load<V> load : mLoads.values()) {
+                load.invalidated = true;
             }
+            mCache.evictAll();
         }
     }
 
-    private void logDanglingCallbacks() {
-        for (final Map.Entry<K, List<AsyncCallback<V, Exception>>> entry
-                : mWaitingCallbacks.entrySet()) {
-            for (final AsyncCallback<V, Exception> waitingCallback : entry.getValue()) {
-                mLog.error("Dangling callback {} for key {}", getNameForLog(waitingCallback),
-                        getNameForLog(entry.getKey()));
+    /**
+     * Clears the cache and stops listening to memory trim events.
+     */
+    public void release() {
+        synchronized (mLock) {
+            if (mRegisteredContext != null) {
+                mRegisteredContext.unregisterComponentCallbacks(mComponentCallbacks);
+                mRegisteredContext = null;
             }
         }
+        clear();
     }
 
-    public void invalidate(@NonNull final K key) {
-        mCache.remove(key);
+    /**
+     * Halves the cache when the app is running low on memory or moves to the background and clears it when memory is
+     * critically low or the app is likely to be killed.
+     *
+     * @param level the level passed to {@link ComponentCallbacks2#onTrimMemory(int)}
+     */
+    public void trimMemory(final int level) {
+        if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+            mLog.debug("Clear for trim memory level {}", level);
+            mCache.evictAll();
+        } else if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+                || level == ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+            mLog.debug("Shrink for trim memory level {}", level);
+            mCache.trimToSize(mCache.maxSize() / 2);
+        }
     }
 
-    public void clear() {
-        mCache.evictAll();
+    @VisibleForTesting
+    int size() {
+        return mCache.size();
+    }
+
+    private void registerComponentCallbacks(@NonNull final Context context) {
+        if (mRegisteredContext == null) {
+            mRegisteredContext = context.getApplicationContext();
+            mRegisteredContext.registerComponentCallbacks(mComponentCallbacks);
+        }
+    }
+
+    private static class Load<V> {
+        final List<AsyncCallback<V, Exception>> callbacks = new ArrayList<>(1);
+        boolean invalidated;
     }
 
     protected abstract static class Worker<S, V> {
 
         private final Logger mLog; // NOPMD
-        private final List<Worker<S, V>> mRunningWorkers;
         private final S mSubject;
         private final AsyncCallback<V, Exception> mCallback;
 
-        Worker(@NonNull final List<Worker<S, V>> runningWorkers,
-                @NonNull final S subject,
+        Worker(@NonNull final S subject,
                 @NonNull final AsyncCallback<V, Exception> callback) {
-            mRunningWorkers = runningWorkers;
             mSubject = subject;
             mCallback = callback;
             if (DEBUG) {
@@ -235,52 +309,9 @@ public abstract class MemoryCache<K, V> {
             return mSubject;
         }
 
-        @Override
-        public int hashCode() {
-            return mSubject.hashCode();
-        }
-
-        @Override
-        public boolean equals(final Object o) {
-            if (this == o) {
-                return true;
-            }
-            if (o == null || getClass() != o.getClass()) {
-                return false;
-            }
-
-            final Worker worker = (Worker) o;
-
-            return mSubject.equals(worker.mSubject);
-        }
-
         public void execute(@NonNull final Context context) {
             mLog.debug("Execute");
-            doExecute(context, mSubject, new AsyncCallback<V, Exception>() {
-                @Override
-                public void onSuccess(final V result) {
-                    mLog.debug("Succeded");
-                    mLog.debug(LOG_REMOVE_SELF);
-                    mRunningWorkers.remove(Worker.this);
-                    mCallback.onSuccess(result);
-                }
-
-                @Override
-                public void onError(final Exception exception) {
-                    mLog.debug("Failed");
-                    mLog.debug(LOG_REMOVE_SELF);
-                    mRunningWorkers.remove(Worker.this);
-                    mCallback.onError(exception);
-                }
-
-                @Override
-                public void onCancelled() {
-                    mLog.debug("Cancelled");
-                    mLog.debug(LOG_REMOVE_SELF);
-                    mRunningWorkers.remove(Worker.this);
-                    mCallback.onCancelled();
-                }
-            });
+            doExecute(context, mSubject, mCallback);
         }
 
         protected abstract void doExecute(@NonNull final Context context, @NonNull final S subject,
@@ -9,8 +9,6 @@ import net.gini.android.capture.document.ImageDocument;
 import net.gini.android.capture.internal.camera.photo.Photo;
 import net.gini.android.capture.internal.camera.photo.PhotoFactoryDocumentAsyncTask;
 
-import java.util.List;
-
 import androidx.annotation.NonNull;
 
 /**
@@ -53,26 +51,9 @@ public class PhotoMemoryCache extends MemoryCache<ImageDocument, Photo> {
 
     @Override
     protected Worker<ImageDocument, Photo> createWorker(
-            @NonNull final List<Worker<ImageDocument, Photo>> runningWorkers,
             @NonNull final ImageDocument subject,
             @NonNull final AsyncCallback<Photo, Exception> callback) {
-        return new PhotoWorker(runningWorkers, subject, mDocumentDataMemoryCache,
-                new AsyncCallback<Photo, Exception>() {
-                    @Override
-                    public void onSuccess(final Photo result) {
-                        callback.onSuccess(result);
-                    }
-
-                    @Override
-                    public void onError(final Exception exception) {
-                        callback.onError(exception);
-                    }
-
-                    @Override
-                    public void onCancelled() {
-                        callback.onCancelled();
-                    }
-                });
+        return new PhotoWorker(subject, mDocumentDataMemoryCache, callback);
     }
 
     private static class PhotoWorker extends MemoryCache.Worker<ImageDocument, Photo> {
@@ -80,11 +61,10 @@ public class PhotoMemoryCache extends MemoryCache<ImageDocument, Photo> {
         private final DocumentDataMemoryCache mDocumentDataMemoryCache;
 
         private PhotoWorker(
-                @NonNull final List<Worker<ImageDocument, Photo>> runningWorkers,
                 @NonNull final ImageDocument subject,
                 @NonNull final DocumentDataMemoryCache documentDataMemoryCache,
                 @NonNull final AsyncCallback<Photo, Exception> callback) {
-            super(runningWorkers, subject, callback);
+            super(subject, callback);
             mDocumentDataMemoryCache = documentDataMemoryCache;
         }
 
@@ -0,0 +1,257 @@
+package net.gini.android.capture.internal.cache;
+
+import android.annotation.SuppressLint;
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.os.AsyncTask;
+import android.util.LruCache;
+
+import net.gini.android.capture.AsyncCallback;
+import net.gini.android.capture.document.ImageDocument;
+import net.gini.android.capture.internal.storage.ThumbnailDiskCache;
+import net.gini.android.capture.internal.util.BitmapHelper;
+import net.gini.android.capture.internal.util.Size;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Caches downsampled bitmaps of image documents by document id and size bucket. Thumbnails are also kept in the
+ * {@link ThumbnailDiskCache} and are only decoded from the document data if they were not found there.
+ *
+ * <p> Internal use only.
+ *
+ * @suppress
+ */
+public class ThumbnailMemoryCache extends MemoryCache<ThumbnailMemoryCache.Key, Bitmap> {
+
+    private static final int RUNNING_WORKERS_LIMIT = 3;
+    private static final int SIZE_BUCKET_STEP = 256;
+    private static final int MAX_SIZE_BUCKET = 8192;
+    private final DocumentDataMemoryCache mDocumentDataMemoryCache;
+    private final ThumbnailDiskCache mThumbnailDiskCache;
+
+    public ThumbnailMemoryCache(@NonNull final DocumentDataMemoryCache documentDataMemoryCache,
+            @NonNull final ThumbnailDiskCache thumbnailDiskCache) {
+        super(RUNNING_WORKERS_LIMIT);
+        mDocumentDataMemoryCache = documentDataMemoryCache;
+        mThumbnailDiskCache = thumbnailDiskCache;
+    }
+
+    /**
+     * Returns the smallest multiple of {@value #SIZE_BUCKET_STEP} (at most {@value #MAX_SIZE_BUCKET}) which is not
+     * smaller than the width and height of the target size. Thumbnails fit into a square of this size, so they can
+     * be shown in any rotation.
+     */
+    public static int getSizeBucket(@NonNull final Size targetSize) {
+        final int maxDimension = Math.max(targetSize.width, targetSize.height);
+        final int bucket = (maxDimension + SIZE_BUCKET_STEP - 1) / SIZE_BUCKET_STEP * SIZE_BUCKET_STEP;
+        return Math.min(MAX_SIZE_BUCKET, Math.max(SIZE_BUCKET_STEP, bucket));
+    }
+
+    /**
+     * Removes the thumbnails of the document in all sizes from memory and disk.
+     */
+    public void invalidate(@NonNull final Context context, @NonNull final ImageDocument document) {
+        for (int bucket = SIZE_BUCKET_STEP; bucket <= MAX_SIZE_BUCKET; bucket += SIZE_BUCKET_STEP) {
+            invalidate(new Key(document, bucket));
+        }
+        mThumbnailDiskCache.delete(context, document.getId());
+    }
+
+    @Override
+    protected LruCache<Key, Bitmap> createCache() {
+        final int maxMemory = (int) (Runtime.getRuntime().maxMemory() / 1024);
+        // Use 1/16th of the available memory for this memory cache.
+        final int cacheSize = maxMemory / 16;
+        return new LruCache<Key, Bitmap>(cacheSize) {
+            @Override
+            protected int sizeOf(final Key key, final Bitmap value) {
+                return Math.max(1, value.getByteCount() / 1024);
+            }
+        };
+    }
+
+    @Override
+    protected Worker<Key, Bitmap> createWorker(@NonNull final Key subject,
+            @NonNull final AsyncCallback<Bitmap, Exception> callback) {
+        return new ThumbnailWorker(subject, mDocumentDataMemoryCache, mThumbnailDiskCache, callback);
+    }
+
+    /**
+     * Internal use only.
+     *
+     * @suppress
+     */
+    public static final class Key {
+
+        private final ImageDocument mDocument;
+        private final int mSizeBucket;
+
+        public Key(@NonNull final ImageDocument document, final int sizeBucket) {
+            mDocument = document;
+            mSizeBucket = sizeBucket;
+        }
+
+        @NonNull
+        public ImageDocument getDocument() {
+            return mDocument;
+        }
+
+        public int getSizeBucket() {
+            return mSizeBucket;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+
+            final Key key = (Key) o;
+
+            if (mSizeBucket != key.mSizeBucket) {
+                return false;
+            }
+            return mDocument.getId().equals(key.mDocument.getId());
+        }
+
+        @Override
+        public int hashCode() {
+            int result = mDocument.getId().hashCode();
+            result = 31 * result + mSizeBucket;
+            return result;
+        }
+    }
+
+    private static class ThumbnailWorker extends MemoryCache.Worker<Key, Bitmap> {
+
+        private final DocumentDataMemoryCache mDocumentDataMemoryCache;
+        private final ThumbnailDiskCache mThumbnailDiskCache;
+
+        private ThumbnailWorker(@NonNull final Key subject,
+                @NonNull final DocumentDataMemoryCache documentDataMemoryCache,
+                @NonNull final ThumbnailDiskCache thumbnailDiskCache,
+                @NonNull final AsyncCallback<Bitmap, Exception> callback) {
+            super(subject, callback);
+            mDocumentDataMemoryCache = documentDataMemoryCache;
+            mThumbnailDiskCache = thumbnailDiskCache;
+        }
+
+        @Override
+        protected void doExecute(@NonNull final Context context, @NonNull final Key subject,
+                @NonNull final AsyncCallback<Bitmap, Exception> callback) {
+            final Context appContext = context.getApplicationContext();
+            new ReadThumbnailAsyncTask(appContext, mThumbnailDiskCache, subject,
+                    new AsyncCallback<Bitmap, Exception>() {
+                        @Override
+                        public void onSuccess(final Bitmap result) {
+                            if (result != null) {
+                                callback.onSuccess(result);
+                            } else {
+                                createThumbnail(appContext, subject, callback);
+                            }
+                        }
+
+                        @Override
+                        public void onError(final Exception exception) {
+                            createThumbnail(appContext, subject, callback);
+                        }
+
+                        @Override
+                        public void onCancelled() {
+                            callback.onCancelled();
+                        }
+                    }).execute();
+        }
+
+        private void createThumbnail(@NonNull final Context context, @NonNull final Key subject,
+                @NonNull final AsyncCallback<Bitmap, Exception> callback) {
+            mDocumentDataMemoryCache.get(context, subject.getDocument(), new AsyncCallback<byte[], Exception>() {
+                @Override
+                public void onSuccess(final byte[] result) {
+                    new CreateThumbnailAsyncTask(context, mThumbnailDiskCache, subject, callback).execute(result);
+                }
+
+                @Override
+                public void onError(final Exception exception) {
+                    callback.onError(exception);
+                }
+
+                @Override
+                public void onCancelled() {
+                    callback.onCancelled();
+                }
+            });
+        }
+    }
+
+    private static class ReadThumbnailAsyncTask extends AsyncTask<Void, Void, Bitmap> {
+
+        @SuppressLint("StaticFieldLeak")
+        private final Context mContext;
+        private final ThumbnailDiskCache mThumbnailDiskCache;
+        private final Key mKey;
+        private final AsyncCallback<Bitmap, Exception> mListener;
+
+        ReadThumbnailAsyncTask(@NonNull final Context context,
+                @NonNull final ThumbnailDiskCache thumbnailDiskCache,
+                @NonNull final Key key,
+                @NonNull final AsyncCallback<Bitmap, Exception> listener) {
+            mContext = context;
+            mThumbnailDiskCache = thumbnailDiskCache;
+            mKey = key;
+            mListener = listener;
+        }
+
+        @Override
+        protected Bitmap doInBackground(final Void... voids) {
+            return mThumbnailDiskCache.get(mContext, mKey.getDocument().getId(), mKey.getSizeBucket());
+        }
+
+        @Override
+        protected void onPostExecute(final Bitmap bitmap) {
+            mListener.onSuccess(bitmap);
+        }
+    }
+
+    private static class CreateThumbnailAsyncTask extends AsyncTask<byte[], Void, Bitmap> {
+
+        @SuppressLint("StaticFieldLeak")
+        private final Context mContext;
+        private final ThumbnailDiskCache mThumbnailDiskCache;
+        private final Key mKey;
+        private final AsyncCallback<Bitmap, Exception> mListener;
+
+        CreateThumbnailAsyncTask(@NonNull final Context context,
+                @NonNull final ThumbnailDiskCache thumbnailDiskCache,
+                @NonNull final Key key,
+                @NonNull final AsyncCallback<Bitmap, Exception> listener) {
+            mContext = context;
+            mThumbnailDiskCache = thumbnailDiskCache;
+            mKey = key;
+            mListener = listener;
+        }
+
+        @Override
+        protected Bitmap doInBackground(final byte[]... data) {
+            final Bitmap thumbnail = BitmapHelper.decodeDownsampled(data[0],
+                    new Size(mKey.getSizeBucket(), mKey.getSizeBucket()));
+            if (thumbnail != null) {
+                mThumbnailDiskCache.put(mContext, mKey.getDocument().getId(), mKey.getSizeBucket(), thumbnail);
+            }
+            return thumbnail;
+        }
+
+        @Override
+        protected void onPostExecute(final Bitmap bitmap) {
+            if (bitmap == null) {
+                mListener.onError(new IllegalArgumentException("Could not decode the image"));
+                return;
+            }
+            mListener.onSuccess(bitmap);
+        }
+    }
+}
@@ -0,0 +1,32 @@
+package net.gini.android.capture.internal.camera.api
+
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * A preview frame shared by several detectors. The frame is released once every detector has released it.
+ *
+ * @param detectorCount the number of detectors which will receive the frame
+ * @param previewFrameCallback notified when the last detector released the frame
+ */
+internal class SharedPreviewFrame(
+    detectorCount: Int,
+    private val previewFrameCallback: CameraInterface.PreviewFrameCallback
+) {
+
+    private val referenceCount = AtomicInteger(detectorCount)
+
+    init {
+        if (detectorCount <= 0) {
+            previewFrameCallback.onReleaseFrame()
+        }
+    }
+
+    /**
+     * Called by a detector when it doesn't need the frame anymore. Each detector must call it exactly once.
+     */
+    fun release() {
+        if (referenceCount.decrementAndGet() == 0) {
+            previewFrameCallback.onReleaseFrame()
+        }
+    }
+}
@@ -5,6 +5,7 @@ import android.content.Context
 import android.graphics.*
 import android.media.MediaActionSound
 import android.os.Build
+import android.os.SystemClock
 import android.os.VibrationEffect
 import android.os.Vibrator
 import android.view.MotionEvent
@@ -22,6 +23,8 @@ import androidx.lifecycle.LifecycleOwner
 import androidx.lifecycle.LifecycleRegistry
 import jersey.repackaged.jsr166e.CompletableFuture
 import net.gini.android.capture.Document
+import net.gini.android.capture.camera.FrameAnalysisMetrics
+import net.gini.android.capture.camera.FrameAnalysisRate
 import net.gini.android.capture.internal.camera.api.CameraException
 import net.gini.android.capture.internal.camera.api.CameraInterface
 import net.gini.android.capture.internal.camera.photo.Photo
@@ -32,7 +35,13 @@ import net.gini.android.capture.internal.util.DeviceHelper
 import net.gini.android.capture.internal.util.Size
 import org.slf4j.Logger
 import org.slf4j.LoggerFactory
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.Executor
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
 import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
 import kotlin.math.roundToInt
 
 private val LOG: Logger = LoggerFactory.getLogger(CameraXController::class.java)
@@ -44,7 +53,23 @@ private const val AE_SIZE = AF_SIZE * 1.5f
 private const val SHUTTER_VIBRATION_DURATION_MS = 50L
 private const val FOCUS_VIBRATION_DURATION_MS = 10L
 
-internal class CameraXController(val activity: Activity) : CameraInterface {
+// Pictures are taken one at a time, so a short queue is enough for the default executor
+private const val CAPTURE_PROCESSING_QUEUE_SIZE = 2
+private const val CAPTURE_PROCESSING_THREAD_NAME = "gc-capture-processing"
+private const val FRAME_ANALYSIS_THREAD_NAME = "gc-frame-analysis"
+
+/**
+ * @param captureProcessingExecutor used for extracting the jpeg, handling EXIF and creating the
+ * preview of captured pictures. If `null` a dedicated background thread is used.
+ * @param frameAnalysisRate limits how often preview frames are passed to the preview callback
+ * @param frameAnalysisMetrics receives the latency of each analyzed preview frame
+ */
+internal class CameraXController @JvmOverloads constructor(
+    val activity: Activity,
+    private val captureProcessingExecutor: Executor? = null,
+    frameAnalysisRate: FrameAnalysisRate = FrameAnalysisRate.DEFAULT,
+    frameAnalysisMetrics: FrameAnalysisMetrics? = null
+) : CameraInterface {
 
     private val cameraLifecycle: CameraLifecycle = CameraLifecycle()
     private var camera: androidx.camera.core.Camera? = null
@@ -58,6 +83,11 @@ internal class CameraXController(val activity: Activity) : CameraInterface {
 
     private var mediaActionSound: MediaActionSound? = null
 
+    private var defaultCaptureProcessingExecutor: ExecutorService? = null
+
+    private var frameAnalysisExecutor: ExecutorService? = null
+    private val frameAnalysisThrottler = FrameAnalysisThrottler(frameAnalysisRate, frameAnalysisMetrics)
+
     override fun open(): CompletableFuture<Void> {
         val openFuture = CompletableFuture<Void>()
 
@@ -139,7 +169,7 @@ internal class CameraXController(val activity: Activity) : CameraInterface {
                 imageAnalysisUseCase = imageAnalysis
 
                 imageAnalyzer?.let {
-                    imageAnalysis.setAnalyzer(ContextCompat.getMainExecutor(activity), it)
+                    imageAnalysis.setAnalyzer(getFrameAnalysisExecutor(), it)
                 }
 
                 val cameraSelector = CameraSelector.DEFAULT_BACK_CAMERA
@@ -189,8 +219,32 @@ internal class CameraXController(val activity: Activity) : CameraInterface {
         camera = null
         mediaActionSound?.release()
         mediaActionSound = null
+        // Already queued pictures are still processed before the thread stops
+        defaultCaptureProcessingExecutor?.shutdown()
+        defaultCaptureProcessingExecutor = null
+        frameAnalysisExecutor?.shutdown()
+        frameAnalysisExecutor = null
     }
 
+    @Synchronized
+    private fun getFrameAnalysisExecutor(): Executor =
+        frameAnalysisExecutor ?: Executors.newSingleThreadExecutor { runnable ->
+            Thread(runnable, FRAME_ANALYSIS_THREAD_NAME)
+        }.also { frameAnalysisExecutor = it }
+
+    @Synchronized
+    private fun getCaptureProcessingExecutor(): Executor =
+        captureProcessingExecutor ?: defaultCaptureProcessingExecutor
+        ?: createDefaultCaptureProcessingExecutor().also { defaultCaptureProcessingExecutor = it }
+
+    private fun createDefaultCaptureProcessingExecutor(): ExecutorService =
+        ThreadPoolExecutor(
+            1, 1, 0L, TimeUnit.MILLISECONDS,
+            ArrayBlockingQueue(CAPTURE_PROCESSING_QUEUE_SIZE)
+        ) { runnable ->
+            Thread(runnable, CAPTURE_PROCESSING_THREAD_NAME)
+        }
+
     override fun startPreview(): CompletableFuture<Void> {
         // Not needed for CameraX
         return CompletableFuture.completedFuture(null)
@@ -305,7 +359,11 @@ internal class CameraXController(val activity: Activity) : CameraInterface {
             return pictureFuture
         }
 
-        imageCaptureUseCase?.takePicture(ContextCompat.getMainExecutor(activity),
+        val processingExecutor = getCaptureProcessingExecutor()
+
+        // The callback only hands the image over to the processing executor, so it can run
+        // directly on the CameraX thread
+        imageCaptureUseCase?.takePicture(Executor { it.run() },
             object : ImageCapture.OnImageCapturedCallback() {
                 override fun onCaptureSuccess(image: ImageProxy) {
                     // Not playing shutter sound because on some devices (for eg. Samsung Galaxy S9) it
@@ -314,28 +372,20 @@ internal class CameraXController(val activity: Activity) : CameraInterface {
 
                     vibrate(SHUTTER_VIBRATION_DURATION_MS)
 
-                    val byteArray = try {
-                        image.toCroppedByteArray()
-                    } catch (e: CameraException) {
-                        LOG.error("Failed to take picture", e)
-                        pictureFuture.completeExceptionally(e)
+                    val deviceOrientation = DeviceHelper.getDeviceOrientation(activity)
+                    val deviceType = DeviceHelper.getDeviceType(activity)
+
+                    try {
+                        processingExecutor.execute {
+                            processCapturedImage(image, deviceOrientation, deviceType, pictureFuture)
+                        }
+                    } catch (e: RejectedExecutionException) {
+                        LOG.error("Failed to process picture", e)
+                        pictureFuture.completeExceptionally(
+                            CameraException(e, CameraException.Type.SHOT_FAILED)
+                        )
                         image.close()
-                        return
                     }
-
-                    val photo = PhotoFactory.newPhotoFromJpeg(
-                        byteArray,
-                        image.imageInfo.rotationDegrees,
-                        DeviceHelper.getDeviceOrientation(activity),
-                        DeviceHelper.getDeviceType(activity),
-                        Document.Source.newCameraSource()
-                    )
-
-                    LOG.info("Picture taken with resolution {}x{}", image.cropRect.width(),
-                        image.cropRect.height())
-
-                    pictureFuture.complete(photo)
-                    image.close()
                 }
 
                 override fun onError(exception: ImageCaptureException) {
@@ -352,6 +402,42 @@ internal class CameraXController(val activity: Activity) : CameraInterface {
         return pictureFuture
     }
 
+    private fun processCapturedImage(
+        image: ImageProxy,
+        deviceOrientation: String,
+        deviceType: String,
+        pictureFuture: CompletableFuture<Photo>
+    ) {
+        try {
+            val byteArray = image.toCroppedByteArray()
+
+            val photo = PhotoFactory.newPhotoFromJpeg(
+                byteArray,
+                image.imageInfo.rotationDegrees,
+                deviceOrientation,
+                deviceType,
+                Document.Source.newCameraSource()
+            )
+
+            LOG.info(
+                "Picture taken with resolution {}x{}", image.cropRect.width(),
+                image.cropRect.height()
+            )
+
+            pictureFuture.complete(photo)
+        } catch (e: CameraException) {
+            LOG.error("Failed to take picture", e)
+            pictureFuture.completeExceptionally(e)
+        } catch (e: RuntimeException) {
+            LOG.error("Failed to process picture", e)
+            pictureFuture.completeExceptionally(
+                CameraException(e, CameraException.Type.SHOT_FAILED)
+            )
+        } finally {
+            image.close()
+        }
+    }
+
     @ExperimentalGetImage
     override fun setPreviewCallback(previewCallback: CameraInterface.PreviewCallback?) {
         if (previewCallback == null) {
@@ -361,18 +447,23 @@ internal class CameraXController(val activity: Activity) : CameraInterface {
         }
 
         imageAnalyzer = ImageAnalysis.Analyzer { imageProxy ->
-            imageProxy.image?.let { image ->
-                previewCallback.onPreviewFrame(
-                    image,
-                    Size(imageProxy.width, imageProxy.height),
-                    imageProxy.imageInfo.rotationDegrees
-                ) {
-                    // Close after processing the preview frame has finished
-                    imageProxy.close()
-                }
+            val frameStartMs = SystemClock.elapsedRealtime()
+            val image = imageProxy.image
+            if (image == null || !frameAnalysisThrottler.shouldAnalyzeFrame(frameStartMs)) {
+                imageProxy.close()
+                return@Analyzer
+            }
+            previewCallback.onPreviewFrame(
+                image,
+                Size(imageProxy.width, imageProxy.height),
+                imageProxy.imageInfo.rotationDegrees
+            ) {
+                // Close after processing the preview frame has finished
+                frameAnalysisThrottler.onFrameAnalyzed(SystemClock.elapsedRealtime() - frameStartMs)
+                imageProxy.close()
             }
         }.also {
-            imageAnalysisUseCase?.setAnalyzer(ContextCompat.getMainExecutor(activity), it)
+            imageAnalysisUseCase?.setAnalyzer(getFrameAnalysisExecutor(), it)
         }
     }
 
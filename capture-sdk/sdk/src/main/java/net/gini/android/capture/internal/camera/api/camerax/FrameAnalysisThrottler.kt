@@ -0,0 +1,56 @@
+package net.gini.android.capture.internal.camera.api.camerax
+
+import net.gini.android.capture.camera.FrameAnalysisMetrics
+import net.gini.android.capture.camera.FrameAnalysisRate
+
+// With an adaptive rate the detectors are busy at most half of the time
+private const val ADAPTIVE_LATENCY_MULTIPLIER = 2
+// Weight of the latest latency in the moving average
+private const val LATENCY_SMOOTHING_FACTOR = 0.3
+
+/**
+ * Decides which preview frames are handed to the detectors to keep the [FrameAnalysisRate].
+ */
+internal class FrameAnalysisThrottler(
+    private val rate: FrameAnalysisRate,
+    private val metrics: FrameAnalysisMetrics? = null
+) {
+
+    private var lastFrameStartMs = -1L
+    private var averageLatencyMs = 0.0
+
+    /**
+     * Returns `true` if the frame arriving at [nowMs] should be analyzed. The frame then counts as started.
+     */
+    @Synchronized
+    fun shouldAnalyzeFrame(nowMs: Long): Boolean {
+        if (lastFrameStartMs >= 0 && nowMs - lastFrameStartMs < minFrameIntervalMs()) {
+            metrics?.recordSkippedFrame()
+            return false
+        }
+        lastFrameStartMs = nowMs
+        return true
+    }
+
+    /**
+     * Records the time all detectors took to finish an analyzed frame.
+     */
+    @Synchronized
+    fun onFrameAnalyzed(latencyMs: Long) {
+        averageLatencyMs = if (averageLatencyMs == 0.0) {
+            latencyMs.toDouble()
+        } else {
+            LATENCY_SMOOTHING_FACTOR * latencyMs + (1 - LATENCY_SMOOTHING_FACTOR) * averageLatencyMs
+        }
+        metrics?.recordAnalyzedFrame(latencyMs)
+    }
+
+    @Synchronized
+    fun minFrameIntervalMs(): Long {
+        val fixedIntervalMs = 1000L / rate.maxFramesPerSecond
+        if (!rate.isAdaptive) {
+            return fixedIntervalMs
+        }
+        return maxOf(fixedIntervalMs, (averageLatencyMs * ADAPTIVE_LATENCY_MULTIPLIER).toLong())
+    }
+}
@@ -66,15 +66,26 @@ class ImmutablePhoto implements Photo {
         }
 
         final BitmapFactory.Options options = new BitmapFactory.Options();
-        if (mData.length / 1_000 > PREVIEW_SHRINK_WEIGHT) {
-            options.inSampleSize = 8;
-        } else {
-            options.inSampleSize = 2;
-        }
+        options.inSampleSize = getPreviewSampleSize();
 
         return BitmapFactory.decodeByteArray(mData, 0, mData.length, options);
     }
 
+    @NonNull
+    final Bitmap createPreview(@NonNull final Bitmap bitmap) {
+        final int sampleSize = getPreviewSampleSize();
+        return Bitmap.createScaledBitmap(bitmap,
+                Math.max(1, bitmap.getWidth() / sampleSize),
+                Math.max(1, bitmap.getHeight() / sampleSize), true);
+    }
+
+    private int getPreviewSampleSize() {
+        if (mData != null && mData.length / 1_000 > PREVIEW_SHRINK_WEIGHT) {
+            return 8;
+        }
+        return 2;
+    }
+
     @Override
     @Nullable
     public synchronized Bitmap getBitmapPreview() {
@@ -96,6 +107,11 @@ class ImmutablePhoto implements Photo {
         // No-op
     }
 
+    @Override
+    public void updateBitmapPreview(@NonNull final Bitmap bitmap) {
+        // No-op
+    }
+
     @Override
     public void updateExif() {
         // No-op
@@ -1,5 +1,6 @@
 package net.gini.android.capture.internal.camera.photo;
 
+import android.graphics.Bitmap;
 import android.os.Parcel;
 import android.os.Parcelable;
 
@@ -163,6 +164,11 @@ class MutablePhoto extends ImmutablePhoto implements Parcelable {
         super.mBitmapPreview = createPreview();
     }
 
+    @Override
+    public synchronized void updateBitmapPreview(@NonNull final Bitmap bitmap) {
+        super.mBitmapPreview = createPreview(bitmap);
+    }
+
     @Override
     public synchronized int getRotationForDisplay() {
         return super.mRotationForDisplay;
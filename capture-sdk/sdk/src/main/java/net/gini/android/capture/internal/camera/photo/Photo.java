@@ -46,6 +46,13 @@ public interface Photo extends Parcelable {
 
     void updateBitmapPreview();
 
+    /**
+     * Creates the preview by scaling down the given bitmap instead of decoding the jpeg data.
+     *
+     * @param bitmap the decoded pixels of the current jpeg data
+     */
+    void updateBitmapPreview(@NonNull Bitmap bitmap);
+
     void updateExif();
 
     void updateRotationDeltaBy(int i);
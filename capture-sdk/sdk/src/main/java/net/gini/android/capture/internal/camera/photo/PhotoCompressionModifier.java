@@ -1,12 +1,8 @@
 package net.gini.android.capture.internal.camera.photo;
 
-import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-
-import java.io.ByteArrayOutputStream;
+import java.util.Collections;
 
 import androidx.annotation.NonNull;
-import androidx.annotation.VisibleForTesting;
 
 /**
  * Internal use only.
@@ -23,31 +19,12 @@ class PhotoCompressionModifier implements PhotoModifier {
         mPhoto = photo;
     }
 
-    @VisibleForTesting
     int getQuality() {
         return mQuality;
     }
 
     @Override
     public void modify() {
-        if (mPhoto.getData() == null) {
-            return;
-        }
-        synchronized (mPhoto) {
-            final Bitmap originalImage = BitmapFactory.decodeByteArray(mPhoto.getData(), 0,
-                    mPhoto.getData().length);
-            if (originalImage == null) {
-                return;
-            }
-
-            final ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
-            originalImage.compress(Bitmap.CompressFormat.JPEG, mQuality, byteArrayOutputStream);
-
-            final byte[] jpeg = byteArrayOutputStream.toByteArray();
-            mPhoto.setData(jpeg);
-            mPhoto.updateBitmapPreview();
-
-            mPhoto.updateExif();
-        }
+        new PhotoEditPipeline(mPhoto, Collections.<PhotoModifier>singletonList(this)).apply();
     }
 }
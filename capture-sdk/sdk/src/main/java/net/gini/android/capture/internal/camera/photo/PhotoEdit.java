@@ -77,8 +77,10 @@ public class PhotoEdit {
     }
 
     public PhotoEdit crop(View cameraPreview, Rect cropRect) {
+        return crop(new Size(cameraPreview.getWidth(), cameraPreview.getHeight()), cropRect);
+    }
 
-        Size cameraPreviewSize = new Size(cameraPreview.getWidth(), cameraPreview.getHeight());
+    public PhotoEdit crop(Size cameraPreviewSize, Rect cropRect) {
 
         PhotoCropModifier cropModifier = new PhotoCropModifier(mPhoto, cameraPreviewSize, cropRect, DEFAULT_JPEG_COMPRESSION_QUALITY);
         getPhotoModifiers().add(cropModifier);
@@ -88,7 +90,7 @@ public class PhotoEdit {
 
 
     public void apply() {
-        applyChanges(mPhotoModifiers);
+        applyChanges(mPhoto, mPhotoModifiers);
         mPhotoModifiers = null; // NOPMD
     }
 
@@ -99,13 +101,15 @@ public class PhotoEdit {
         async.execute((Void[]) null);
     }
 
-    private static void applyChanges(@Nullable final List<PhotoModifier> modifiers) {
+    /**
+     * Applies all modifiers in a single pass. See {@link PhotoEditPipeline}.
+     */
+    private static void applyChanges(@NonNull final Photo photo,
+                                     @Nullable final List<PhotoModifier> modifiers) {
         if (modifiers == null) {
             return;
         }
-        for (final PhotoModifier modifier : modifiers) {
-            modifier.modify();
-        }
+        new PhotoEditPipeline(photo, modifiers).apply();
     }
 
     private static class EditAsync extends AsyncTask<Void, Void, Photo> {
@@ -141,7 +145,7 @@ public class PhotoEdit {
 
         @Override
         protected Photo doInBackground(final Void... params) {
-            applyChanges(mPhotoModifiers);
+            applyChanges(mPhoto, mPhotoModifiers);
             return mPhoto;
         }
 
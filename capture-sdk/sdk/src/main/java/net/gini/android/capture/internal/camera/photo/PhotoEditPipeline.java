@@ -0,0 +1,223 @@
+package net.gini.android.capture.internal.camera.photo;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.Matrix;
+import android.graphics.Rect;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.VisibleForTesting;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Internal use only.
+ *
+ * <p> Applies a list of {@link PhotoModifier}s as a single pass: the jpeg is decoded at most once
+ * (only the crop region if there is a crop), rotated and encoded once, the exif tags are written
+ * once and the preview is created from the in-memory bitmap instead of decoding the new jpeg
+ * again.
+ *
+ * @suppress
+ */
+class PhotoEditPipeline {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PhotoEditPipeline.class);
+
+    private static final int NO_QUALITY = -1;
+
+    private final Photo mPhoto;
+    private final List<PhotoModifier> mPhotoModifiers;
+
+    // Pixels of the edited photo, if the modifiers require re-encoding the jpeg
+    private Bitmap mBitmap;
+    private int mQuality = NO_QUALITY;
+    private int mDecodeCount;
+    private int mEncodeCount;
+
+    PhotoEditPipeline(@NonNull final Photo photo,
+                      @NonNull final List<PhotoModifier> photoModifiers) {
+        mPhoto = photo;
+        mPhotoModifiers = photoModifiers;
+    }
+
+    void apply() {
+        if (mPhoto.getData() == null || mPhotoModifiers.isEmpty()) {
+            return;
+        }
+        synchronized (mPhoto) {
+            final byte[] originalData = mPhoto.getData();
+            final int originalRotation = mPhoto.getRotationForDisplay();
+            try {
+                for (final PhotoModifier modifier : mPhotoModifiers) {
+                    plan(modifier);
+                }
+                if (mBitmap != null) {
+                    mPhoto.setData(encode(mBitmap, mQuality));
+                    mPhoto.updateBitmapPreview(mBitmap);
+                }
+                mPhoto.updateExif();
+            } catch (final IOException | IllegalArgumentException e) {
+                LOG.error("Failed to edit photo", e);
+                mPhoto.setData(originalData);
+                mPhoto.setRotationForDisplay(originalRotation);
+            } finally {
+                if (mBitmap != null) {
+                    mBitmap.recycle();
+                    mBitmap = null; // NOPMD
+                }
+            }
+        }
+    }
+
+    @VisibleForTesting
+    int getDecodeCount() {
+        return mDecodeCount;
+    }
+
+    @VisibleForTesting
+    int getEncodeCount() {
+        return mEncodeCount;
+    }
+
+    private void plan(@NonNull final PhotoModifier modifier) throws IOException {
+        if (modifier instanceof PhotoRotationModifier) {
+            final int degrees = ((PhotoRotationModifier) modifier).getRotationDegrees();
+            mPhoto.updateRotationDeltaBy(degrees - mPhoto.getRotationForDisplay());
+            mPhoto.setRotationForDisplay(degrees);
+        } else if (modifier instanceof PhotoCropModifier) {
+            crop((PhotoCropModifier) modifier);
+        } else if (modifier instanceof PhotoCompressionModifier) {
+            if (mBitmap == null) {
+                mBitmap = decode(mPhoto.getData());
+            }
+            mQuality = ((PhotoCompressionModifier) modifier).getQuality();
+        } else {
+            modifier.modify();
+        }
+    }
+
+    private void crop(@NonNull final PhotoCropModifier cropModifier) throws IOException {
+        final int rotation = mPhoto.getRotationForDisplay() % 360;
+        if (mBitmap == null) {
+            mBitmap = decodeRotatedRegion(mPhoto.getData(), rotation, cropModifier);
+        } else {
+            final Bitmap rotated = rotate(mBitmap, rotation);
+            final Rect cropRect = cropModifier.getCropRectInPhoto(rotated.getWidth(),
+                    rotated.getHeight());
+            replaceBitmap(Bitmap.createBitmap(rotated, cropRect.left, cropRect.top,
+                    cropRect.width(), cropRect.height()));
+            if (rotated != mBitmap) {
+                rotated.recycle();
+            }
+        }
+        mPhoto.setRotationForDisplay(0);
+        if (mQuality == NO_QUALITY) {
+            mQuality = cropModifier.getQuality();
+        }
+    }
+
+    @NonNull
+    private Bitmap decodeRotatedRegion(@NonNull final byte[] jpeg, final int rotation,
+                                       @NonNull final PhotoCropModifier cropModifier)
+            throws IOException {
+        @SuppressWarnings("deprecation") final BitmapRegionDecoder regionDecoder =
+                BitmapRegionDecoder.newInstance(jpeg, 0, jpeg.length, false);
+        if (regionDecoder == null) {
+            throw new IOException("Could not create region decoder");
+        }
+        try {
+            final int width = regionDecoder.getWidth();
+            final int height = regionDecoder.getHeight();
+            final boolean isSideways = rotation == 90 || rotation == 270;
+            final int rotatedWidth = isSideways ? height : width;
+            final int rotatedHeight = isSideways ? width : height;
+
+            final Rect rotatedCropRect = cropModifier.getCropRectInPhoto(rotatedWidth,
+                    rotatedHeight);
+            final Rect sourceRect = toSourceRect(rotatedCropRect, rotation, width, height);
+
+            final BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inSampleSize = 1;
+            mDecodeCount++;
+            final Bitmap region = regionDecoder.decodeRegion(sourceRect, options);
+            if (region == null) {
+                throw new IOException("Could not decode crop region");
+            }
+            final Bitmap rotatedRegion = rotate(region, rotation);
+            if (rotatedRegion != region) {
+                region.recycle();
+            }
+            return rotatedRegion;
+        } finally {
+            regionDecoder.recycle();
+        }
+    }
+
+    /**
+     * Maps a rect in the coordinate space of the photo rotated clockwise by {@code rotation}
+     * degrees back to the coordinate space of the unrotated jpeg.
+     */
+    @VisibleForTesting
+    @NonNull
+    static Rect toSourceRect(@NonNull final Rect rotatedRect, final int rotation,
+                             final int sourceWidth, final int sourceHeight) {
+        switch (rotation) {
+            case 90:
+                return new Rect(rotatedRect.top, sourceHeight - rotatedRect.right,
+                        rotatedRect.bottom, sourceHeight - rotatedRect.left);
+            case 180:
+                return new Rect(sourceWidth - rotatedRect.right, sourceHeight - rotatedRect.bottom,
+                        sourceWidth - rotatedRect.left, sourceHeight - rotatedRect.top);
+            case 270:
+                return new Rect(sourceWidth - rotatedRect.bottom, rotatedRect.left,
+                        sourceWidth - rotatedRect.top, rotatedRect.right);
+            default:
+                return new Rect(rotatedRect);
+        }
+    }
+
+    @NonNull
+    private Bitmap decode(@NonNull final byte[] jpeg) throws IOException {
+        mDecodeCount++;
+        final Bitmap bitmap = BitmapFactory.decodeByteArray(jpeg, 0, jpeg.length);
+        if (bitmap == null) {
+            throw new IOException("Could not decode jpeg");
+        }
+        return bitmap;
+    }
+
+    @NonNull
+    private static Bitmap rotate(@NonNull final Bitmap bitmap, final int rotation) {
+        if (rotation == 0) {
+            return bitmap;
+        }
+        final Matrix matrix = new Matrix();
+        matrix.postRotate(rotation);
+        return Bitmap.createBitmap(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight(), matrix,
+                false);
+    }
+
+    private void replaceBitmap(@NonNull final Bitmap bitmap) {
+        if (mBitmap != null && mBitmap != bitmap) {
+            mBitmap.recycle();
+        }
+        mBitmap = bitmap;
+    }
+
+    @NonNull
+    private byte[] encode(@NonNull final Bitmap bitmap, final int quality)
+            throws IOException {
+        mEncodeCount++;
+        try (ByteArrayOutputStream stream = new ByteArrayOutputStream()) {
+            bitmap.compress(Bitmap.CompressFormat.JPEG, quality, stream);
+            return stream.toByteArray();
+        }
+    }
+}
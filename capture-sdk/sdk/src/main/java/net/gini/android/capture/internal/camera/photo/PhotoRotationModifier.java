@@ -2,6 +2,8 @@ package net.gini.android.capture.internal.camera.photo;
 
 import androidx.annotation.NonNull;
 
+import java.util.Collections;
+
 /**
  * Internal use only.
  *
@@ -17,16 +19,12 @@ class PhotoRotationModifier implements PhotoModifier {
         mPhoto = photo;
     }
 
+    int getRotationDegrees() {
+        return mRotationDegrees;
+    }
+
     @Override
     public void modify() {
-        if (mPhoto.getData() == null) {
-            return;
-        }
-        synchronized (mPhoto) {
-            mPhoto.updateRotationDeltaBy(mRotationDegrees - mPhoto.getRotationForDisplay());
-            mPhoto.setRotationForDisplay(mRotationDegrees);
-
-            mPhoto.updateExif();
-        }
+        new PhotoEditPipeline(mPhoto, Collections.<PhotoModifier>singletonList(this)).apply();
     }
 }
@@ -1,19 +1,25 @@
 package net.gini.android.capture.internal.document;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 
 import net.gini.android.capture.AsyncCallback;
 import net.gini.android.capture.GiniCapture;
 import net.gini.android.capture.document.ImageDocument;
 import net.gini.android.capture.internal.cache.PhotoMemoryCache;
+import net.gini.android.capture.internal.cache.ThumbnailMemoryCache;
 import net.gini.android.capture.internal.camera.photo.Photo;
 import net.gini.android.capture.internal.camera.photo.PhotoFactoryDocumentAsyncTask;
+import net.gini.android.capture.internal.util.DownsampledBitmapAsyncTask;
 import net.gini.android.capture.internal.util.Size;
 
 import androidx.annotation.NonNull;
 
 /**
- * Internal use only.
+ * Renders image documents downsampled to the target size. The bitmaps are cached by document id and size bucket in
+ * the {@link ThumbnailMemoryCache}.
+ *
+ * <p> Internal use only.
  *
  * @suppress
  */
@@ -21,6 +27,8 @@ class ImageDocumentRenderer implements DocumentRenderer {
 
     private final ImageDocument mImageDocument;
     private Photo mPhoto;
+    private Bitmap mBitmap;
+    private int mBitmapSizeBucket;
 
     ImageDocumentRenderer(@NonNull final ImageDocument document) {
         mImageDocument = document;
@@ -29,6 +37,22 @@ class ImageDocumentRenderer implements DocumentRenderer {
     @Override
     public void toBitmap(@NonNull final Context context, @NonNull final Size targetSize,
             @NonNull final Callback callback) {
+        if (targetSize.width <= 0 || targetSize.height <= 0) {
+            // Without a target size the preview is used
+            toPreviewBitmap(context, callback);
+            return;
+        }
+        final int sizeBucket = ThumbnailMemoryCache.getSizeBucket(targetSize);
+        if (GiniCapture.hasInstance()) {
+            getThumbnailFromCache(context, sizeBucket, callback);
+        } else if (mBitmap == null || mBitmapSizeBucket != sizeBucket) {
+            createThumbnailWithAsyncTask(sizeBucket, callback);
+        } else {
+            callback.onBitmapReady(mBitmap, mImageDocument.getRotationForDisplay());
+        }
+    }
+
+    private void toPreviewBitmap(@NonNull final Context context, @NonNull final Callback callback) {
         if (GiniCapture.hasInstance()) {
             getFromCache(context, callback);
         } else if (mPhoto == null) {
@@ -39,6 +63,58 @@ class ImageDocumentRenderer implements DocumentRenderer {
         }
     }
 
+    private void getThumbnailFromCache(@NonNull final Context context, final int sizeBucket,
+            @NonNull final Callback callback) {
+        final ThumbnailMemoryCache thumbnailMemoryCache =
+                GiniCapture.getInstance().internal().getThumbnailMemoryCache();
+        thumbnailMemoryCache.get(context, new ThumbnailMemoryCache.Key(mImageDocument, sizeBucket),
+                new AsyncCallback<Bitmap, Exception>() {
+                    @Override
+                    public void onSuccess(final Bitmap result) {
+                        callback.onBitmapReady(result, mImageDocument.getRotationForDisplay());
+                    }
+
+                    @Override
+                    public void onError(final Exception exception) {
+                        callback.onBitmapReady(null, 0);
+                    }
+
+                    @Override
+                    public void onCancelled() {
+                        callback.onBitmapReady(null, 0);
+                    }
+                });
+    }
+
+    private void createThumbnailWithAsyncTask(final int sizeBucket, @NonNull final Callback callback) {
+        final byte[] data = mImageDocument.getData();
+        if (data == null) {
+            callback.onBitmapReady(null, 0);
+            return;
+        }
+        final DownsampledBitmapAsyncTask asyncTask = new DownsampledBitmapAsyncTask(
+                new Size(sizeBucket, sizeBucket),
+                new AsyncCallback<Bitmap, Exception>() {
+                    @Override
+                    public void onSuccess(final Bitmap result) {
+                        mBitmap = result;
+                        mBitmapSizeBucket = sizeBucket;
+                        callback.onBitmapReady(mBitmap, mImageDocument.getRotationForDisplay());
+                    }
+
+                    @Override
+                    public void onError(final Exception exception) {
+                        callback.onBitmapReady(null, 0);
+                    }
+
+                    @Override
+                    public void onCancelled() {
+                        callback.onBitmapReady(null, 0);
+                    }
+                });
+        asyncTask.execute(data);
+    }
+
     private void createWithAsyncTask(@NonNull final Callback callback) {
         final PhotoFactoryDocumentAsyncTask asyncTask = new PhotoFactoryDocumentAsyncTask(
                 new AsyncCallback<Photo, Exception>() {
@@ -4,7 +4,9 @@ import android.content.Context;
 import android.graphics.Bitmap;
 
 import net.gini.android.capture.AsyncCallback;
+import net.gini.android.capture.GiniCapture;
 import net.gini.android.capture.document.PdfDocument;
+import net.gini.android.capture.internal.cache.ThumbnailMemoryCache;
 import net.gini.android.capture.internal.pdf.Pdf;
 import net.gini.android.capture.internal.util.Size;
 
@@ -31,7 +33,7 @@ class PdfDocumentRenderer implements DocumentRenderer {
             @NonNull final Callback callback) {
         final Pdf pdf = getPdf();
         if (mBitmap == null) {
-            pdf.toBitmap(targetSize, context, new AsyncCallback<Bitmap, Exception>() {
+            final AsyncCallback<Bitmap, Exception> asyncCallback = new AsyncCallback<Bitmap, Exception>() {
                 @Override
                 public void onSuccess(final Bitmap result) {
                     mBitmap = result;
@@ -47,7 +49,14 @@ class PdfDocumentRenderer implements DocumentRenderer {
                 public void onCancelled() {
                     callback.onBitmapReady(null, 0);
                 }
-            });
+            };
+            if (GiniCapture.hasInstance()) {
+                // Thumbnails are kept on the disk to not render the pdf again after screen re-entries
+                pdf.toThumbnail(mPdfDocument.getId(), ThumbnailMemoryCache.getSizeBucket(targetSize),
+                        GiniCapture.getInstance().internal().getThumbnailDiskCache(), context, asyncCallback);
+            } else {
+                pdf.toBitmap(targetSize, context, asyncCallback);
+            }
         } else {
             callback.onBitmapReady(mBitmap, 0);
         }
@@ -3,10 +3,13 @@ package net.gini.android.capture.internal.fileimport;
 import android.annotation.SuppressLint;
 import android.content.Context;
 import android.content.Intent;
+import android.graphics.BitmapFactory;
 import android.net.Uri;
 import android.os.AsyncTask;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
 
 import net.gini.android.capture.AsyncCallback;
 import net.gini.android.capture.Document;
@@ -21,6 +24,7 @@ import net.gini.android.capture.internal.util.DeviceHelper;
 import net.gini.android.capture.internal.util.FileImportValidator;
 import net.gini.android.capture.internal.util.LogSanitizer;
 import net.gini.android.capture.internal.util.MimeType;
+import net.gini.android.capture.internal.util.StreamHelper;
 import net.gini.android.capture.util.IntentHelper;
 import net.gini.android.capture.util.UriHelper;
 
@@ -28,6 +32,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Created by Alpar Szotyori on 25.05.2018.
@@ -38,6 +52,14 @@ import java.io.IOException;
 /**
  * Internal use only.
  *
+ * <p> Imports the uris in parallel on up to as many threads as there are CPU cores. The image header is read first
+ * to reject files which are not images before loading them. Loading and compressing is limited by a memory budget
+ * estimated from the image size, so that large images are not all decoded at the same time. Images of all formats
+ * are converted to compressed jpegs.
+ *
+ * <p> The documents are added in the order of the uris. Progress is published as the number of processed uris and
+ * the number of all uris each time a uri was processed.
+ *
  * @suppress
  */
 public abstract class AbstractImportImageUrisAsyncTask extends
@@ -47,6 +69,8 @@ public abstract class AbstractImportImageUrisAsyncTask extends
             AbstractImportImageUrisAsyncTask.class);
     private static final String LOG_IMPORT_CANCELLED = "Import cancelled for uri {}";
     private static final String LOG_HALT_ON_ERROR = "Halt on error for uri {}";
+    private static final int BYTES_PER_PIXEL = 4;
+    private static final int MEMORY_BUDGET_DIVISOR = 4;
 
     @SuppressLint("StaticFieldLeak")
     private final Context mContext;
@@ -55,6 +79,13 @@ public abstract class AbstractImportImageUrisAsyncTask extends
     private final GiniCapture mGiniCapture;
     private final Document.Source mSource;
     private final Document.ImportMethod mImportMethod;
+    private final AtomicInteger mImportedUriCount = new AtomicInteger();
+    private final AtomicInteger mRunningImageImportCount = new AtomicInteger();
+    private final AtomicInteger mPeakRunningImageImportCount = new AtomicInteger();
+    private MemoryBudget mMemoryBudget = new MemoryBudget(
+            Runtime.getRuntime().maxMemory() / MEMORY_BUDGET_DIVISOR);
+    private volatile int mUriCount;
+    private volatile boolean mStopped;
 
     protected AbstractImportImageUrisAsyncTask(@NonNull final Context context,
             @NonNull final Intent intent,
@@ -77,49 +108,44 @@ public abstract class AbstractImportImageUrisAsyncTask extends
                 LogSanitizer.sanitize(mImportMethod));
         final ImageMultiPageDocument multiPageDocument = new ImageMultiPageDocument(mSource,
                 mImportMethod);
-        FileImportValidator fileImportValidator = new FileImportValidator(mContext, mGiniCapture.getImportedFileSizeBytesLimit());
+        final FileImportValidator fileImportValidator = new FileImportValidator(mContext, mGiniCapture.getImportedFileSizeBytesLimit());
         if (!fileImportValidator.matchesCriteria(uris)) {
             onHaltingError(new ImportedFileValidationException(fileImportValidator.getError()));
             return null;
         }
-        for (final Uri uri : uris) {
-            LOG.debug("Importing from uri {}", LogSanitizer.sanitize(uri));
-            if (isCancelled()) {
-                LOG.debug(LOG_IMPORT_CANCELLED, LogSanitizer.sanitize(uri));
-                return null;
-            }
-            if (!UriHelper.isUriInputStreamAvailable(uri, mContext)) {
-                LOG.error("Uri input stream not available for uri {}", LogSanitizer.sanitize(uri));
-                if (shouldHaltOnError(multiPageDocument, new ImportedFileValidationException( // NOPMD
-                        "InputStream not available for one of the Intent's data Uris"))) {
-                    LOG.debug(LOG_HALT_ON_ERROR, LogSanitizer.sanitize(uri));
-                    return null;
-                }
-                continue;
+        mUriCount = uris.length;
+        final ExecutorService executor = createExecutor(uris.length);
+        try {
+            final List<Future<ImportResult>> futures = new ArrayList<>(uris.length);
+            for (final Uri uri : uris) {
+                futures.add(executor.submit(new Callable<ImportResult>() {
+                    @Override
+                    public ImportResult call() {
+                        return importUri(uri);
+                    }
+                }));
             }
-            fileImportValidator = new FileImportValidator(mContext, mGiniCapture.getImportedFileSizeBytesLimit()); // NOPMD
-            if (fileImportValidator.matchesCriteria(uri)) {
-                if (isCancelled()) {
+            // Results are handled in the order of the uris to keep the order of the pages
+            for (int i = 0; i < uris.length; i++) {
+                final Uri uri = uris[i];
+                final ImportResult result = waitForResult(futures.get(i));
+                if (isCancelled() || result.isCancelled()) {
                     LOG.debug(LOG_IMPORT_CANCELLED, LogSanitizer.sanitize(uri));
                     return null;
                 }
-                if (isImage(uri)) {
-                    final ImageDocument imageDocument = processImageUri(uri, multiPageDocument);
-                    if (imageDocument == null) {
-                        // Stop, because no document means processing has to be abandoned
-                        // (cancellation or stopping on an error was requested)
+                if (result.getError() != null) {
+                    if (shouldHaltOnError(multiPageDocument, result.getError())) {
+                        LOG.debug(LOG_HALT_ON_ERROR, LogSanitizer.sanitize(uri));
                         return null;
                     }
-                }
-            } else {
-                LOG.error("File validation failed for uri {} with error {}", LogSanitizer.sanitize(uri),
-                        LogSanitizer.sanitize(fileImportValidator.getError()));
-                if (shouldHaltOnError(multiPageDocument,
-                        new ImportedFileValidationException(fileImportValidator.getError()))) { // NOPMD
-                    LOG.debug(LOG_HALT_ON_ERROR, LogSanitizer.sanitize(uri));
-                    return null;
+                } else if (result.getDocument() != null) {
+                    multiPageDocument.addDocument(result.getDocument());
                 }
             }
+        } finally {
+            // Stops imports which are still running after halting or cancelling
+            mStopped = true;
+            executor.shutdown();
         }
         if (isCancelled()) {
             LOG.debug("Import cancelled");
@@ -135,67 +161,264 @@ public abstract class AbstractImportImageUrisAsyncTask extends
         return multiPageDocument;
     }
 
-    private ImageDocument processImageUri(@NonNull final Uri uri,
-            @NonNull final ImageMultiPageDocument multiPageDocument) {
+    @NonNull
+    private ImportResult importUri(@NonNull final Uri uri) {
+        try {
+            return validateAndImportUri(uri);
+        } finally {
+            publishProgress(mImportedUriCount.incrementAndGet(), mUriCount);
+        }
+    }
+
+    @NonNull
+    private ImportResult validateAndImportUri(@NonNull final Uri uri) {
+        LOG.debug("Importing from uri {}", LogSanitizer.sanitize(uri));
+        if (isStopped()) {
+            LOG.debug(LOG_IMPORT_CANCELLED, LogSanitizer.sanitize(uri));
+            return ImportResult.cancelled();
+        }
+        if (!isImage(uri)) {
+            // Other files are only validated
+            if (!UriHelper.isUriInputStreamAvailable(uri, mContext)) {
+                return inputStreamNotAvailable(uri);
+            }
+            final ImportedFileValidationException validationError = validate(uri);
+            return validationError != null ? ImportResult.error(validationError)
+                    : ImportResult.skipped();
+        }
+        // Only the header is read to reject unreadable images before loading them
+        final BitmapFactory.Options bounds = decodeBounds(uri);
+        if (bounds == null) {
+            return inputStreamNotAvailable(uri);
+        }
+        final ImportedFileValidationException validationError = validate(uri);
+        if (validationError != null) {
+            return ImportResult.error(validationError);
+        }
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) {
+            LOG.error("Could not decode image bounds for uri {}", LogSanitizer.sanitize(uri));
+            return ImportResult.error(new ImportedFileValidationException(
+                    FileImportValidator.Error.TYPE_NOT_SUPPORTED));
+        }
+        if (isStopped()) {
+            LOG.debug(LOG_IMPORT_CANCELLED, LogSanitizer.sanitize(uri));
+            return ImportResult.cancelled();
+        }
+        final int fileSize = getFileSize(uri);
+        final long reservation;
+        try {
+            reservation = mMemoryBudget.reserve(estimateMemoryUsage(bounds, fileSize));
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ImportResult.cancelled();
+        }
+        updatePeakRunningImageImportCount(mRunningImageImportCount.incrementAndGet());
+        try {
+            return processImageUri(uri, fileSize);
+        } finally {
+            mRunningImageImportCount.decrementAndGet();
+            mMemoryBudget.release(reservation);
+        }
+    }
+
+    @NonNull
+    private ImportResult inputStreamNotAvailable(@NonNull final Uri uri) {
+        LOG.error("Uri input stream not available for uri {}", LogSanitizer.sanitize(uri));
+        return ImportResult.error(new ImportedFileValidationException(
+                "InputStream not available for one of the Intent's data Uris"));
+    }
+
+    @Nullable
+    private ImportedFileValidationException validate(@NonNull final Uri uri) {
+        final FileImportValidator fileImportValidator = new FileImportValidator(mContext,
+                mGiniCapture.getImportedFileSizeBytesLimit());
+        if (fileImportValidator.matchesCriteria(uri)) {
+            return null;
+        }
+        LOG.error("File validation failed for uri {} with error {}", LogSanitizer.sanitize(uri),
+                LogSanitizer.sanitize(fileImportValidator.getError()));
+        return new ImportedFileValidationException(fileImportValidator.getError());
+    }
+
+    @NonNull
+    private ImportResult processImageUri(@NonNull final Uri uri, final int fileSize) {
         final ImageDocument document = createDocument(uri);
         LOG.debug("ImageDocument created from uri {}", LogSanitizer.sanitize(uri));
         // Load uri into memory
         try {
             LOG.debug("Read uri into memory {}", LogSanitizer.sanitize(uri));
-            final byte[] bytesFromUri = UriHelper.getBytesFromUri(uri, mContext);
-            document.setData(bytesFromUri);
+            document.setData(readBytes(uri, fileSize));
         } catch (final IOException e) {
             LOG.error("Failed to read uri into memory {}", LogSanitizer.sanitize(uri));
-            if (shouldHaltOnError(multiPageDocument,
-                    new ImportedFileValidationException(
-                            "Failed to read file into memory"))) {
-                LOG.debug(LOG_HALT_ON_ERROR, LogSanitizer.sanitize(uri));
-                return null;
-            }
-            return document;
+            return ImportResult.error(new ImportedFileValidationException(
+                    "Failed to read file into memory"));
         }
-        if (isCancelled()) {
+        if (isStopped()) {
             LOG.debug(LOG_IMPORT_CANCELLED, LogSanitizer.sanitize(uri));
-            return null;
+            return ImportResult.cancelled();
         }
         // Create Photo
         LOG.debug("Create Photo from uri {}", LogSanitizer.sanitize(uri));
         final Photo photo = PhotoFactory.newPhotoFromDocument(document);
-        if (isCancelled()) {
+        if (isStopped()) {
             LOG.debug(LOG_IMPORT_CANCELLED, LogSanitizer.sanitize(uri));
-            return null;
+            return ImportResult.cancelled();
         }
         // Compress Photo
         LOG.debug("Compress Photo created from uri {}", LogSanitizer.sanitize(uri));
         photo.edit().compressByDefault().apply();
-        if (isCancelled()) {
+        if (isStopped()) {
             LOG.debug(LOG_IMPORT_CANCELLED, LogSanitizer.sanitize(uri));
-            return null;
+            return ImportResult.cancelled();
         }
         // Save to local storage
         LOG.debug("Save compressed Photo to local storage created from uri {}", LogSanitizer.sanitize(uri));
         final Uri localUri = mGiniCapture.internal().getImageDiskStore()
                 .save(mContext, photo.getData());
         if (localUri == null) {
-            LOG.error("Failed to copy to app storage uri {}", LogSanitizer.sanitize(uri));
-            if (shouldHaltOnError(multiPageDocument,
-                    new ImportedFileValidationException(
-                            "Failed to copy to app storage"))) {
-                LOG.debug(LOG_HALT_ON_ERROR, LogSanitizer.sanitize(uri));
-                return null;
-            }
-            return document;
+            return failedToCopy(uri);
         }
-        if (isCancelled()) {
+        return createStoredDocument(uri, photo, localUri);
+    }
+
+    @NonNull
+    private ImportResult createStoredDocument(@NonNull final Uri uri, @NonNull final Photo photo,
+            @NonNull final Uri localUri) {
+        if (isStopped()) {
             LOG.debug(LOG_IMPORT_CANCELLED, LogSanitizer.sanitize(uri));
-            return null;
+            return ImportResult.cancelled();
         }
         // Create compressed Document
         final ImageDocument compressedDocument =
                 DocumentFactory.newImageDocumentFromPhoto(photo, localUri);
         LOG.debug("Compressed ImageDocument created from uri {}", LogSanitizer.sanitize(uri));
-        multiPageDocument.addDocument(compressedDocument);
-        return compressedDocument;
+        return ImportResult.success(compressedDocument);
+    }
+
+    @NonNull
+    private ImportResult failedToCopy(@NonNull final Uri uri) {
+        LOG.error("Failed to copy to app storage uri {}", LogSanitizer.sanitize(uri));
+        return ImportResult.error(new ImportedFileValidationException(
+                "Failed to copy to app storage"));
+    }
+
+    @Nullable
+    private BitmapFactory.Options decodeBounds(@NonNull final Uri uri) {
+        InputStream inputStream = null;
+        try {
+            inputStream = mContext.getContentResolver().openInputStream(uri);
+            if (inputStream == null) {
+                return null;
+            }
+            final BitmapFactory.Options options = new BitmapFactory.Options();
+            options.inJustDecodeBounds = true;
+            BitmapFactory.decodeStream(inputStream, null, options);
+            return options;
+        } catch (final IOException | SecurityException e) {
+            return null;
+        } finally {
+            closeQuietly(inputStream);
+        }
+    }
+
+    @NonNull
+    private byte[] readBytes(@NonNull final Uri uri, final int fileSize) throws IOException {
+        InputStream inputStream = null;
+        try {
+            inputStream = mContext.getContentResolver().openInputStream(uri);
+            if (inputStream == null) {
+                throw new IOException("Couldn't open input stream");
+            }
+            return StreamHelper.inputStreamToByteArray(inputStream, fileSize);
+        } finally {
+            closeQuietly(inputStream);
+        }
+    }
+
+    private int getFileSize(@NonNull final Uri uri) {
+        try {
+            return UriHelper.getFileSizeFromUri(uri, mContext);
+        } catch (final IllegalStateException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Images of every format are decoded in full resolution for converting them to compressed jpegs and both the
+     * original file and the compressed jpeg are kept in memory during that time.
+     */
+    private static long estimateMemoryUsage(@NonNull final BitmapFactory.Options bounds,
+            final int fileSize) {
+        final long encodedSize = Math.max(0, fileSize);
+        return (long) bounds.outWidth * bounds.outHeight * BYTES_PER_PIXEL + 2 * encodedSize;
+    }
+
+    @NonNull
+    private ImportResult waitForResult(@NonNull final Future<ImportResult> future) {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return ImportResult.cancelled();
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    private boolean isStopped() {
+        return mStopped || isCancelled();
+    }
+
+    @VisibleForTesting
+    void setMemoryBudgetBytes(final long memoryBudgetBytes) {
+        mMemoryBudget = new MemoryBudget(memoryBudgetBytes);
+    }
+
+    @VisibleForTesting
+    long getPeakReservedMemoryBytes() {
+        return mMemoryBudget.getPeakReservedBytes();
+    }
+
+    @VisibleForTesting
+    int getPeakRunningImageImportCount() {
+        return mPeakRunningImageImportCount.get();
+    }
+
+    private void updatePeakRunningImageImportCount(final int runningCount) {
+        int peak = mPeakRunningImageImportCount.get();
+        while (runningCount > peak
+                && !mPeakRunningImageImportCount.compareAndSet(peak, runningCount)) {
+            peak = mPeakRunningImageImportCount.get();
+        }
+    }
+
+    @NonNull
+    private static ExecutorService createExecutor(final int uriCount) {
+        final int threadCount = Math.max(1,
+                Math.min(Runtime.getRuntime().availableProcessors(), uriCount));
+        final AtomicInteger threadNumber = new AtomicInteger();
+        return Executors.newFixedThreadPool(threadCount, new ThreadFactory() {
+            @Override
+            public Thread newThread(@NonNull final Runnable runnable) {
+                return new Thread(runnable, "gc-uri-import-" + threadNumber.incrementAndGet());
+            }
+        });
+    }
+
+    private static void closeQuietly(@Nullable final InputStream inputStream) {
+        if (inputStream != null) {
+            try {
+                inputStream.close();
+            } catch (final IOException ignored) {
+            }
+        }
     }
 
     @NonNull
@@ -240,4 +463,51 @@ public abstract class AbstractImportImageUrisAsyncTask extends
     public AsyncCallback<ImageMultiPageDocument, ImportedFileValidationException> getCallback() {
         return mCallback;
     }
+
+    /**
+     * The outcome of importing one uri.
+     */
+    private static final class ImportResult {
+
+        private final ImageDocument mDocument;
+        private final ImportedFileValidationException mError;
+        private final boolean mCancelled;
+
+        static ImportResult success(@NonNull final ImageDocument document) {
+            return new ImportResult(document, null, false);
+        }
+
+        static ImportResult skipped() {
+            return new ImportResult(null, null, false);
+        }
+
+        static ImportResult error(@NonNull final ImportedFileValidationException error) {
+            return new ImportResult(null, error, false);
+        }
+
+        static ImportResult cancelled() {
+            return new ImportResult(null, null, true);
+        }
+
+        private ImportResult(@Nullable final ImageDocument document,
+                @Nullable final ImportedFileValidationException error, final boolean cancelled) {
+            mDocument = document;
+            mError = error;
+            mCancelled = cancelled;
+        }
+
+        @Nullable
+        ImageDocument getDocument() {
+            return mDocument;
+        }
+
+        @Nullable
+        ImportedFileValidationException getError() {
+            return mError;
+        }
+
+        boolean isCancelled() {
+            return mCancelled;
+        }
+    }
 }
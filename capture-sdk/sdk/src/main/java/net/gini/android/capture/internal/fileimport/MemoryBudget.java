@@ -0,0 +1,49 @@
+package net.gini.android.capture.internal.fileimport;
+
+import androidx.annotation.VisibleForTesting;
+
+/**
+ * Internal use only.
+ *
+ * <p> Limits how many bytes parallel imports may use at the same time. Imports reserve their estimated memory usage
+ * before loading an image and wait while the budget is exhausted. A reservation larger than the whole budget is
+ * reduced to the budget, so that a large image can still be imported on its own.
+ *
+ * @suppress
+ */
+final class MemoryBudget {
+
+    private final long mBudgetBytes;
+    // Guarded by this
+    private long mReservedBytes;
+    private long mPeakReservedBytes;
+
+    MemoryBudget(final long budgetBytes) {
+        mBudgetBytes = Math.max(1, budgetBytes);
+    }
+
+    /**
+     * Waits until the bytes fit into the budget and reserves them.
+     *
+     * @return the reserved bytes which have to be passed to {@link #release(long)}
+     */
+    synchronized long reserve(final long bytes) throws InterruptedException {
+        final long reservation = Math.min(Math.max(0, bytes), mBudgetBytes);
+        while (mReservedBytes + reservation > mBudgetBytes) {
+            wait();
+        }
+        mReservedBytes += reservation;
+        mPeakReservedBytes = Math.max(mPeakReservedBytes, mReservedBytes);
+        return reservation;
+    }
+
+    synchronized void release(final long reservation) {
+        mReservedBytes -= reservation;
+        notifyAll();
+    }
+
+    @VisibleForTesting
+    synchronized long getPeakReservedBytes() {
+        return mPeakReservedBytes;
+    }
+}
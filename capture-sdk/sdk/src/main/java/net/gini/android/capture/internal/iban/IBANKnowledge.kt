@@ -23,6 +23,25 @@ object IBANKnowledge {
         "AE" to 23, "VG" to 24, "CH" to 21
     )
 
+    private const val COUNTRY_CODE_LETTERS = 26
+
+    // IBAN lengths indexed by the two country code letters for lookups without allocating a String
+    private val ibanLengths = IntArray(COUNTRY_CODE_LETTERS * COUNTRY_CODE_LETTERS).also { lengths ->
+        countryIbanDictionary.forEach { (countryCode, length) ->
+            lengths[(countryCode[0] - 'A') * COUNTRY_CODE_LETTERS + (countryCode[1] - 'A')] = length
+        }
+    }
+
+    /**
+     * Returns the IBAN length for the country code made of the two characters or 0 if it is not a known country code.
+     */
+    internal fun ibanLength(first: Char, second: Char): Int {
+        if (first !in 'A'..'Z' || second !in 'A'..'Z') {
+            return 0
+        }
+        return ibanLengths[(first - 'A') * COUNTRY_CODE_LETTERS + (second - 'A')]
+    }
+
     private val countryCodes = countryIbanDictionary.keys.map { "${it[0]}?${it[1]}" }
 
     private val countryCodesRegex = countryCodes.joinToString(prefix = "(?:", separator = "|", postfix = ")").toRegex()
@@ -19,7 +19,7 @@ internal class IBANRecognizerImpl @JvmOverloads constructor(
     private val preferredIBANRegex: Regex = IBANKnowledge.germanIBANRegex
 ): IBANRecognizer {
 
-    private val ibanValidator = IBANValidator()
+    private val ibanScanner = IBANScanner()
 
     /**
      * Processes the given [Image] and returns the first recognized IBAN in the callback.
@@ -51,26 +51,9 @@ internal class IBANRecognizerImpl @JvmOverloads constructor(
 
     private fun extractIBAN(recognizedText: String?, doneCallback: (List<String>) -> Unit) {
         if (!recognizedText.isNullOrEmpty()) {
-            val ibansFromRegex = (singleLineIBANs(recognizedText) + ibanInBlocks(recognizedText))
-                .removeWhitespace()
-                .distinct()
-
-            var ibans = ibansFromRegex
-                .removeInvalidIBANs()
-
-            if (ibans.isEmpty()) {
-                ibans = ibansFromRegex.map { iban ->
-                    iban.substring(0, 2) + iban.substring(2).map { char ->
-                        when (char) {
-                            'S', 's' -> '5'
-                            'B' -> '8'
-                            'Z' -> '7'
-                            'I', 'i', 'l' ,'T' -> '1'
-                            'O', 'o', 'Q' -> '0'
-                            else -> char
-                        }
-                    }.joinToString("")
-                }.removeInvalidIBANs()
+            // The scanner reuses its buffers and text recognizer callbacks may arrive on different threads
+            val ibans = synchronized(ibanScanner) {
+                ibanScanner.scan(recognizedText)
             }
 
             val preferredIBANs = ibans.filter(::isPreferredIBAN)
@@ -87,21 +70,6 @@ internal class IBANRecognizerImpl @JvmOverloads constructor(
 
     private fun isPreferredIBAN(iban: String): Boolean = preferredIBANRegex.matches(iban)
 
-    private fun List<String>.removeInvalidIBANs(): List<String> {
-        return this.filter { iban ->
-            try {
-                ibanValidator.validate(iban)
-                true
-            } catch (e: IBANValidator.IllegalIBANException) {
-                false
-            }
-        }
-    }
-
-    private fun List<String>.removeWhitespace(): List<String> {
-        return this.map { it.replace("""\s""".toRegex(), "") }
-    }
-
     /**
      * Processes the given image byte array and returns the recognized IBAN in the callback.
      *
@@ -137,16 +105,6 @@ internal class IBANRecognizerImpl @JvmOverloads constructor(
         }
     }
 
-    private fun singleLineIBANs(text: String): List<String> {
-        return IBANKnowledge.universalIBANRegex.findAll(text)
-            .map { it.value }.toList()
-    }
-
-    private fun ibanInBlocks(text: String): List<String> {
-        return IBANKnowledge.ibanInBlocksRegex.findAll(text)
-            .map { it.value }.toList()
-    }
-
     /**
      * Closes the IBAN recognizer.
      *
@@ -0,0 +1,121 @@
+package net.gini.android.capture.internal.iban
+
+/**
+ * Finds valid IBANs in recognized text in a single pass over the characters.
+ *
+ * A candidate starts at a known country code followed by two check digits and is collected up to the country's IBAN
+ * length. Whitespace, including line breaks, may separate the characters, like in IBANs printed in blocks of four or
+ * wrapped onto the next line. Candidates are validated in reusable buffers, so only valid IBANs allocate a String.
+ *
+ * Not thread-safe: use one instance per thread.
+ */
+internal class IBANScanner(private val ibanValidator: IBANValidator = IBANValidator()) {
+
+    private val candidate = CharArray(MAX_IBAN_LENGTH)
+    private val correctedCandidate = CharArray(MAX_IBAN_LENGTH)
+    private var candidateEnd = 0
+
+    /**
+     * Returns the distinct valid IBANs in the order they appear in the text, without whitespace.
+     *
+     * If none of the IBANs are valid as recognized, then the IBANs which became valid after correcting common OCR
+     * confusions (for example `S` instead of `5` or `O` instead of `0`) are returned.
+     */
+    fun scan(text: CharSequence): List<String> {
+        var ibans: MutableList<String>? = null
+        var correctedIbans: MutableList<String>? = null
+        var i = 0
+        while (i <= text.length - MIN_CANDIDATE_LENGTH) {
+            val length = IBANKnowledge.ibanLength(text[i], text[i + 1])
+            if (length == 0 || !collectCandidate(text, i, length)) {
+                i++
+                continue
+            }
+            if (ibanValidator.check(candidate, length) == null) {
+                ibans = addDistinct(ibans, String(candidate, 0, length))
+                i = candidateEnd
+            } else if (ibans == null && correctOcrConfusions(length)
+                && ibanValidator.check(correctedCandidate, length) == null
+            ) {
+                correctedIbans = addDistinct(correctedIbans, String(correctedCandidate, 0, length))
+                i = candidateEnd
+            } else {
+                i++
+            }
+        }
+        return ibans ?: correctedIbans ?: emptyList()
+    }
+
+    /**
+     * Copies the candidate starting at [start] into the buffer and stores its end index in [candidateEnd].
+     *
+     * @return `false` if there was no candidate with the required [length]
+     */
+    private fun collectCandidate(text: CharSequence, start: Int, length: Int): Boolean {
+        candidate[0] = text[start]
+        candidate[1] = text[start + 1]
+        var count = 2
+        var j = start + 2
+        while (count < length && j < text.length) {
+            val char = text[j]
+            if (isAsciiLetterOrDigit(char)) {
+                candidate[count++] = char
+                j++
+            } else if (isSeparator(char)) {
+                j++
+            } else {
+                return false
+            }
+        }
+        // The IBAN must not continue with more letters or digits
+        if (count < length || (j < text.length && isAsciiLetterOrDigit(text[j]))) {
+            return false
+        }
+        candidateEnd = j
+        return true
+    }
+
+    /**
+     * Copies the candidate into the corrected buffer and replaces letters after the country code which OCR often
+     * confuses with digits.
+     *
+     * @return `true` if at least one character was replaced
+     */
+    private fun correctOcrConfusions(length: Int): Boolean {
+        var corrected = false
+        for (k in 0 until length) {
+            val char = candidate[k]
+            val correctedChar = if (k < COUNTRY_CODE_END) char else correctOcrConfusion(char)
+            correctedCandidate[k] = correctedChar
+            corrected = corrected || correctedChar != char
+        }
+        return corrected
+    }
+
+    private fun correctOcrConfusion(char: Char): Char = when (char) {
+        'S', 's' -> '5'
+        'B' -> '8'
+        'Z' -> '7'
+        'I', 'i', 'l', 'T' -> '1'
+        'O', 'o', 'Q' -> '0'
+        else -> char
+    }
+
+    private fun addDistinct(ibans: MutableList<String>?, iban: String): MutableList<String> {
+        val list = ibans ?: ArrayList(1)
+        if (iban !in list) {
+            list.add(iban)
+        }
+        return list
+    }
+
+    private fun isAsciiLetterOrDigit(char: Char) = char in 'A'..'Z' || char in 'a'..'z' || char in '0'..'9'
+
+    private fun isSeparator(char: Char) = Character.isWhitespace(char)
+
+    private companion object {
+        const val MAX_IBAN_LENGTH = 34
+        const val COUNTRY_CODE_END = 2
+        const val MIN_CANDIDATE_LENGTH = 4
+    }
+}
@@ -1,8 +1,5 @@
 package net.gini.android.capture.internal.iban
 
-import java.math.BigInteger
-import java.util.regex.Pattern
-
 /**
  * Checks that an IBAN string conforms to the IBAN standard.
  *
@@ -10,8 +7,6 @@ import java.util.regex.Pattern
  */
 class IBANValidator {
 
-    private val mPattern: Pattern = Pattern.compile("^[A-Z0-9]+$")
-
     /**
      * Verifies, that the IBAN string conforms to the IBAN standard.
      *
@@ -20,87 +15,107 @@ class IBANValidator {
      */
     @Throws(IllegalIBANException::class)
     fun validate(iban: String?) {
+        check(iban)?.let { throw IllegalIBANException(it) }
+    }
+
+    /**
+     * Checks the IBAN string without allocating and without throwing. Leading and trailing whitespace and spaces
+     * between the characters are ignored.
+     *
+     * @param iban an IBAN string
+     * @return the [IBANError] or `null` if the IBAN was valid
+     */
+    internal fun check(iban: CharSequence?): IBANError? {
         if (iban.isNullOrEmpty()) {
-            throw IllegalIBANException(IBANError.EMPTY)
+            return IBANError.EMPTY
         }
-        val sanitizedIban = sanitizeIBAN(iban)
-        val matcher = mPattern.matcher(sanitizedIban)
-        if (!matcher.matches()) {
-            throw IllegalIBANException(IBANError.INVALID_CHARACTERS)
+        var start = 0
+        var end = iban.length
+        while (start < end && iban[start] <= ' ') {
+            start++
         }
-        validateCountryAndChecksum(sanitizedIban)
-        validateLength(sanitizedIban)
-        validateChecksum(sanitizedIban)
-    }
-
-    private fun getBban(iban: String): String {
-        return iban.substring(4, iban.length)
-    }
-
-    private fun getCheckDigit(iban: String): String {
-        return iban.substring(2, 4)
-    }
-
-    private fun getChecksum(iban: String): String {
-        val countryCodeNumbers = lettersToNumbers(getCountryCode(iban))
-        val checkDigit = getCheckDigit(iban)
-        val bban = lettersToNumbers(getBban(iban))
-        return bban + countryCodeNumbers + checkDigit
+        while (end > start && iban[end - 1] <= ' ') {
+            end--
+        }
+        return checkChars(start, end) { iban[it] }
     }
 
-    private fun getCountryCode(iban: String): String {
-        return iban.substring(0, 2)
+    /**
+     * Checks the first [length] characters of the array like [check].
+     */
+    internal fun check(chars: CharArray, length: Int): IBANError? {
+        if (length == 0) {
+            return IBANError.EMPTY
+        }
+        return checkChars(0, length) { chars[it] }
     }
 
-    private fun lettersToNumbers(letters: String): String {
-        val numbers = StringBuilder()
-        val chars = letters.toCharArray()
-        for (character in chars) {
-            val number = character.code - 55
-            if (number >= 10 && number <= 35) {
-                numbers.append(number.toString())
-            } else {
-                numbers.append(character.toString())
+    /**
+     * Validates in a single pass. The checksum is calculated incrementally with int arithmetic on the rearranged
+     * IBAN (BBAN followed by the country code and the check digits).
+     */
+    private inline fun checkChars(start: Int, end: Int, charAt: (Int) -> Char): IBANError? {
+        var length = 0
+        var countryCode0 = ' '
+        var countryCode1 = ' '
+        var checkDigit0 = ' '
+        var checkDigit1 = ' '
+        var remainder = 0
+        for (i in start until end) {
+            val char = charAt(i)
+            if (char == ' ') {
+                continue
             }
+            val upperChar = if (char in 'a'..'z') char.uppercaseChar() else char
+            if (upperChar !in 'A'..'Z' && upperChar !in '0'..'9') {
+                return IBANError.INVALID_CHARACTERS
+            }
+            when (length) {
+                0 -> countryCode0 = upperChar
+                1 -> countryCode1 = upperChar
+                2 -> checkDigit0 = upperChar
+                3 -> checkDigit1 = upperChar
+                else -> remainder = mod97(remainder, upperChar)
+            }
+            length++
         }
-        return numbers.toString()
-    }
-
-    private fun sanitizeIBAN(iban: String): String {
-        var sanitizedIban = iban.trim { it <= ' ' }
-        sanitizedIban = sanitizedIban.replace(" ", "")
-        sanitizedIban = sanitizedIban.uppercase()
-        return sanitizedIban
-    }
-
-    @Throws(IllegalIBANException::class)
-    private fun validateChecksum(iban: String) {
-        val bigInt = BigInteger(getChecksum(iban))
-        val divisionResult = bigInt.divideAndRemainder(BigInteger("97"))
-        if (divisionResult[1].compareTo(BigInteger.ONE) != 0) {
-            throw IllegalIBANException(IBANError.INVALID_CHECKSUM)
+        if (length == 0) {
+            // Only spaces
+            return IBANError.INVALID_CHARACTERS
         }
-    }
-
-    @Throws(IllegalIBANException::class)
-    private fun validateCountryAndChecksum(iban: String) {
-        if (!iban.matches("^[A-Z]{2}[0-9]{2}.*".toRegex())) {
-            throw IllegalIBANException(IBANError.INVALID_FORMAT)
+        if (length < 4 || countryCode0 !in 'A'..'Z' || countryCode1 !in 'A'..'Z'
+            || checkDigit0 !in '0'..'9' || checkDigit1 !in '0'..'9'
+        ) {
+            return IBANError.INVALID_FORMAT
         }
-    }
-
-    @Throws(IllegalIBANException::class)
-    private fun validateLength(iban: String) {
-        val requiredLength = IBANKnowledge.countryIbanDictionary[getCountryCode(iban)]
-            ?: throw IllegalIBANException(IBANError.INVALID_COUNTRY)
-        if (iban.length > requiredLength) {
-            throw IllegalIBANException(IBANError.TOO_LONG)
+        val requiredLength = IBANKnowledge.ibanLength(countryCode0, countryCode1)
+        if (requiredLength == 0) {
+            return IBANError.INVALID_COUNTRY
         }
-        if (iban.length < requiredLength) {
-            throw IllegalIBANException(IBANError.TOO_SHORT)
+        if (length > requiredLength) {
+            return IBANError.TOO_LONG
         }
+        if (length < requiredLength) {
+            return IBANError.TOO_SHORT
+        }
+        remainder = mod97(remainder, countryCode0)
+        remainder = mod97(remainder, countryCode1)
+        remainder = mod97(remainder, checkDigit0)
+        remainder = mod97(remainder, checkDigit1)
+        return if (remainder == 1) null else IBANError.INVALID_CHECKSUM
     }
 
+    /**
+     * Appends the character to the number represented by [remainder] and returns the new remainder. Letters count as
+     * two digits (A = 10, ..., Z = 35).
+     */
+    private fun mod97(remainder: Int, upperChar: Char): Int =
+        if (upperChar in '0'..'9') {
+            (remainder * 10 + (upperChar - '0')) % 97
+        } else {
+            (remainder * 100 + (upperChar - 'A' + 10)) % 97
+        }
+
     internal enum class IBANError {
         EMPTY, INVALID_CHARACTERS, UNKNOWN_STRING_ERROR, INVALID_FORMAT, INVALID_COUNTRY, TOO_LONG, TOO_SHORT, INVALID_CHECKSUM
     }
@@ -116,5 +131,4 @@ class IBANValidator {
         override val message: String
             get() = "IBAN error: $iBANError"
     }
-
-}
\ No newline at end of file
+}
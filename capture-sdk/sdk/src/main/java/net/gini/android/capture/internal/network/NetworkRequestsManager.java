@@ -7,6 +7,8 @@ package net.gini.android.capture.internal.network;
  */
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -32,9 +34,11 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CancellationException;
 
@@ -58,20 +62,40 @@ public class NetworkRequestsManager {
             AnalysisNetworkRequestResult<GiniCaptureMultiPageDocument>>> mDocumentAnalyzeFutures;
     private final Map<UUID, CompletableFuture<ConfigurationNetworkResult>> mConfigurationFutures;
     private final Map<UUID, CompletableFuture<String>> mUserJourneyEventsFutures;
+    private final Set<String> mStartedUploadIds;
 
     private final GiniCaptureNetworkService mGiniCaptureNetworkService;
     private final DocumentDataMemoryCache mDocumentDataMemoryCache;
+    private final UploadQueue mUploadQueue;
+    private final RetryPolicy mRetryPolicy;
+    private Handler mRetryHandler;
 
     public NetworkRequestsManager(@NonNull final GiniCaptureNetworkService giniCaptureNetworkService,
                                   @NonNull final DocumentDataMemoryCache documentDataMemoryCache) {
+        this(giniCaptureNetworkService, documentDataMemoryCache, UploadQueue.inMemory(),
+                RetryPolicy.NONE);
+    }
+
+    /**
+     * @param uploadQueue records the partial document uploads to resume them after the app was
+     *                    restarted
+     * @param retryPolicy decides which failed uploads are retried
+     */
+    public NetworkRequestsManager(@NonNull final GiniCaptureNetworkService giniCaptureNetworkService,
+                                  @NonNull final DocumentDataMemoryCache documentDataMemoryCache,
+                                  @NonNull final UploadQueue uploadQueue,
+                                  @NonNull final RetryPolicy retryPolicy) {
         mGiniCaptureNetworkService = giniCaptureNetworkService;
         mDocumentDataMemoryCache = documentDataMemoryCache;
+        mUploadQueue = uploadQueue;
+        mRetryPolicy = retryPolicy;
         mApiDocumentIds = new HashMap<>();
         mDocumentUploadFutures = new HashMap<>();
         mDocumentDeleteFutures = new HashMap<>();
         mDocumentAnalyzeFutures = new HashMap<>();
         mConfigurationFutures = new HashMap<>();
         mUserJourneyEventsFutures = new HashMap<>();
+        mStartedUploadIds = new HashSet<>();
     }
 
 
@@ -192,13 +216,18 @@ public class NetworkRequestsManager {
     }
 
 
+    /**
+     * Uploads the document once. Later calls for the same document return the pending or completed upload, so pages
+     * which were uploaded while capturing are not uploaded again for the analysis. A cancelled upload is started
+     * again.
+     */
     public CompletableFuture<NetworkRequestResult<GiniCaptureDocument>> upload(
             @NonNull final Context context,
             @NonNull final GiniCaptureDocument document) {
         LOG.debug("Upload document {}", document.getId());
         final CompletableFuture<NetworkRequestResult<GiniCaptureDocument>> documentUploadFuture =
                 mDocumentUploadFutures.get(document.getId());
-        if (documentUploadFuture != null) {
+        if (documentUploadFuture != null && !documentUploadFuture.isCancelled()) {
             LOG.debug("Document upload already requested for {}", document.getId());
             return documentUploadFuture;
         }
@@ -207,43 +236,33 @@ public class NetworkRequestsManager {
                 new CompletableFuture<>();
         mDocumentUploadFutures.put(document.getId(), future);
 
+        final UploadQueue.Entry queuedUpload = mUploadQueue.get(document.getId());
+        if (queuedUpload != null && queuedUpload.isCompleted()) {
+            // Uploaded before the app was restarted
+            LOG.debug("Document already uploaded for {}", document.getId());
+            mApiDocumentIds.put(document.getId(), queuedUpload.getApiDocumentId());
+            future.complete(new NetworkRequestResult<>(document,
+                    queuedUpload.getApiDocumentId(),
+                    queuedUpload.getApiDocumentFilename()));
+            return future;
+        }
+
         LOG.debug("Load document data for {}", document.getId());
         mDocumentDataMemoryCache.get(context, document, new AsyncCallback<byte[], Exception>() {
             @Override
             public void onSuccess(final byte[] result) {
+                if (future.isCancelled()) {
+                    LOG.debug("Document upload cancelled for {} before it started", document.getId());
+                    removeUploadFuture(document.getId(), future);
+                    return;
+                }
                 LOG.debug("Document data loaded for {}", document.getId());
                 GiniCaptureDebug.writeDocumentToFile(context, document, "-upload");
-                final CancellationToken cancellationToken =
-                        mGiniCaptureNetworkService.upload(document,
-                                new GiniCaptureNetworkCallback<Result, Error>() {
-                                    @Override
-                                    public void failure(final Error error) {
-                                        LOG.error("Document upload failed for {}: {}",
-                                                document.getId(),
-                                                error.getMessage());
-                                        ErrorType errorType = ErrorType.typeFromError(error, false);
-                                        future.completeExceptionally(new FailureException(errorType));
-                                    }
-
-                                    @Override
-                                    public void success(final Result result) {
-                                        LOG.debug("Document upload success for {}: {}",
-                                                document.getId(),
-                                                result);
-                                        mApiDocumentIds.put(document.getId(),
-                                                result.getGiniApiDocumentId());
-                                        future.complete(new NetworkRequestResult<>(document,
-                                                result.getGiniApiDocumentId(),
-                                                result.getGiniApiDocumentFilename()));
-                                    }
-
-                                    @Override
-                                    public void cancelled() {
-                                        LOG.debug("Document upload cancelled for {}",
-                                                document.getId());
-                                        future.cancel(false);
-                                    }
-                                });
+                final UploadQueue.Entry entry = mUploadQueue.getOrCreate(context, document);
+                final RetryingUpload retryingUpload = new RetryingUpload(document,
+                        entry.getIdempotencyKey(), future);
+                mStartedUploadIds.add(document.getId());
+                retryingUpload.start();
 
                 future.handle(
                         new CompletableFuture.BiFun<NetworkRequestResult<GiniCaptureDocument>,
@@ -255,11 +274,16 @@ public class NetworkRequestsManager {
                                     final Throwable throwable) {
                                 if (throwable != null) {
                                     if (isCancellation(throwable)) {
-                                        cancellationToken.cancel();
+                                        retryingUpload.cancel();
+                                        mUploadQueue.remove(document.getId());
                                     } else {
+                                        // Keep the queue entry to reuse the idempotency key next time
                                         ErrorLogger.log(new ErrorLog("Document upload failed", throwable));
                                     }
-                                    mDocumentUploadFutures.remove(document.getId());
+                                    removeUploadFuture(document.getId(), future);
+                                    if (!mDocumentUploadFutures.containsKey(document.getId())) {
+                                        mStartedUploadIds.remove(document.getId());
+                                    }
                                 }
                                 return networkRequestResult;
                             }
@@ -270,6 +294,7 @@ public class NetworkRequestsManager {
             public void onError(final Exception exception) {
                 LOG.error("Document data loading failed for {}: {}", document.getId(),
                         exception.getMessage());
+                removeUploadFuture(document.getId(), future);
                 future.completeExceptionally(exception);
             }
 
@@ -282,6 +307,114 @@ public class NetworkRequestsManager {
         return future;
     }
 
+    /**
+     * Uploads a document and retries failed attempts according to the {@link RetryPolicy}. All attempts use the same
+     * idempotency key.
+     */
+    private class RetryingUpload {
+
+        private final GiniCaptureDocument mDocument;
+        private final String mIdempotencyKey;
+        private final CompletableFuture<NetworkRequestResult<GiniCaptureDocument>> mFuture;
+        private int mAttempt;
+        private CancellationToken mCancellationToken;
+        private Runnable mScheduledRetry;
+
+        RetryingUpload(@NonNull final GiniCaptureDocument document,
+                @NonNull final String idempotencyKey,
+                @NonNull final CompletableFuture<NetworkRequestResult<GiniCaptureDocument>> future) {
+            mDocument = document;
+            mIdempotencyKey = idempotencyKey;
+            mFuture = future;
+        }
+
+        void start() {
+            mScheduledRetry = null;
+            if (mFuture.isDone()) {
+                return;
+            }
+            mAttempt++;
+            mUploadQueue.recordAttempt(mDocument.getId());
+            mCancellationToken = mGiniCaptureNetworkService.upload(mDocument, mIdempotencyKey,
+                    new GiniCaptureNetworkCallback<Result, Error>() {
+                        @Override
+                        public void failure(final Error error) {
+                            LOG.error("Document upload attempt {} failed for {}: {}",
+                                    mAttempt,
+                                    mDocument.getId(),
+                                    error.getMessage());
+                            if (mFuture.isDone()) {
+                                return;
+                            }
+                            if (mRetryPolicy.shouldRetry(mAttempt, error)) {
+                                scheduleRetry(mRetryPolicy.getDelayMillis(mAttempt));
+                                return;
+                            }
+                            ErrorType errorType = ErrorType.typeFromError(error, false);
+                            mFuture.completeExceptionally(new FailureException(errorType));
+                        }
+
+                        @Override
+                        public void success(final Result result) {
+                            LOG.debug("Document upload success for {}: {}",
+                                    mDocument.getId(),
+                                    result);
+                            mApiDocumentIds.put(mDocument.getId(),
+                                    result.getGiniApiDocumentId());
+                            mUploadQueue.complete(mDocument.getId(), result.getGiniApiDocumentId(),
+                                    result.getGiniApiDocumentFilename());
+                            mFuture.complete(new NetworkRequestResult<>(mDocument,
+                                    result.getGiniApiDocumentId(),
+                                    result.getGiniApiDocumentFilename()));
+                        }
+
+                        @Override
+                        public void cancelled() {
+                            LOG.debug("Document upload cancelled for {}",
+                                    mDocument.getId());
+                            mFuture.cancel(false);
+                        }
+                    });
+        }
+
+        private void scheduleRetry(final long delayMillis) {
+            LOG.debug("Retry document upload for {} in {} ms", mDocument.getId(), delayMillis);
+            mScheduledRetry = new Runnable() {
+                @Override
+                public void run() {
+                    start();
+                }
+            };
+            getRetryHandler().postDelayed(mScheduledRetry, delayMillis);
+        }
+
+        void cancel() {
+            if (mScheduledRetry != null) {
+                getRetryHandler().removeCallbacks(mScheduledRetry);
+                mScheduledRetry = null;
+            }
+            if (mCancellationToken != null) {
+                mCancellationToken.cancel();
+            }
+        }
+    }
+
+    @NonNull
+    private Handler getRetryHandler() {
+        if (mRetryHandler == null) {
+            mRetryHandler = new Handler(Looper.getMainLooper());
+        }
+        return mRetryHandler;
+    }
+
+    private void removeUploadFuture(@NonNull final String documentId,
+            @NonNull final CompletableFuture<NetworkRequestResult<GiniCaptureDocument>> future) {
+        // A newer upload might have replaced a cancelled one
+        if (mDocumentUploadFutures.get(documentId) == future) {
+            mDocumentUploadFutures.remove(documentId);
+        }
+    }
+
     public static boolean isCancellation(@NonNull final Throwable throwable) {
         return throwable instanceof CancellationException ||
                 (throwable.getCause() != null && throwable.getCause() instanceof CancellationException);
@@ -436,6 +569,7 @@ public class NetworkRequestsManager {
                             mDocumentAnalyzeFutures.remove(
                                     document.getId());
                             mApiDocumentIds.remove(document.getId());
+                            mUploadQueue.remove(document.getId());
                         }
                         mDocumentDeleteFutures.remove(document.getId());
                         return requestResult;
@@ -601,6 +735,22 @@ public class NetworkRequestsManager {
         return documentFutures;
     }
 
+    /**
+     * Cancels the upload of the document only while its data is still being loaded. Uploads which were already
+     * sent to the Gini API are not cancelled.
+     *
+     * @return true if the upload was cancelled
+     */
+    public boolean cancelUploadIfNotStarted(@NonNull final GiniCaptureDocument document) {
+        final CompletableFuture<NetworkRequestResult<GiniCaptureDocument>> future =
+                mDocumentUploadFutures.get(document.getId());
+        if (future == null || future.isDone() || mStartedUploadIds.contains(document.getId())) {
+            return false;
+        }
+        LOG.debug("Cancel document upload for {} before it started", document.getId());
+        return future.cancel(false);
+    }
+
     public void cancel(@NonNull final GiniCaptureDocument document) {
         cancelFuture(mDocumentUploadFutures.get(document.getId()));
         cancelFuture(mDocumentAnalyzeFutures.get(document.getId()));
@@ -619,6 +769,8 @@ public class NetworkRequestsManager {
         mDocumentUploadFutures.clear();
         mDocumentAnalyzeFutures.clear();
         mDocumentDeleteFutures.clear();
+        mStartedUploadIds.clear();
+        mUploadQueue.clear();
         mGiniCaptureNetworkService.cleanup();
     }
 
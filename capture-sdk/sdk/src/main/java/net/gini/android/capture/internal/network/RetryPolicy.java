@@ -0,0 +1,82 @@
+package net.gini.android.capture.internal.network;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import net.gini.android.capture.network.Error;
+
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Internal use only.
+ *
+ * <p> Decides whether a failed request is retried and how long to wait before the next attempt. Connection failures,
+ * timeouts, rate limiting and server errors are retried. The delay grows exponentially and half of it is random to
+ * avoid that many clients retry at the same time.
+ *
+ * @suppress
+ */
+public class RetryPolicy {
+
+    /**
+     * Never retries.
+     */
+    public static final RetryPolicy NONE = new RetryPolicy(0, 0, 0, new Random());
+
+    private static final int DEFAULT_MAX_RETRIES = 5;
+    private static final long DEFAULT_BASE_DELAY_MILLIS = 1000;
+    private static final long DEFAULT_MAX_DELAY_MILLIS = 60 * 1000;
+
+    private final int mMaxRetries;
+    private final long mBaseDelayMillis;
+    private final long mMaxDelayMillis;
+    private final Random mRandom;
+
+    @NonNull
+    public static RetryPolicy createDefault() {
+        return new RetryPolicy(DEFAULT_MAX_RETRIES, DEFAULT_BASE_DELAY_MILLIS, DEFAULT_MAX_DELAY_MILLIS,
+                new Random());
+    }
+
+    @VisibleForTesting
+    RetryPolicy(final int maxRetries, final long baseDelayMillis, final long maxDelayMillis,
+            @NonNull final Random random) {
+        mMaxRetries = maxRetries;
+        mBaseDelayMillis = baseDelayMillis;
+        mMaxDelayMillis = maxDelayMillis;
+        mRandom = random;
+    }
+
+    /**
+     * @param attempt the number of the failed attempt, starting with 1
+     * @param error   the error of the failed attempt
+     * @return whether another attempt should be made
+     */
+    boolean shouldRetry(final int attempt, @Nullable final Error error) {
+        return attempt <= mMaxRetries && isRetryable(error);
+    }
+
+    /**
+     * @param attempt the number of the failed attempt, starting with 1
+     * @return the delay before the next attempt
+     */
+    long getDelayMillis(final int attempt) {
+        final int exponent = Math.min(Math.max(0, attempt - 1), 30);
+        final long delay = Math.min(mMaxDelayMillis, mBaseDelayMillis << exponent);
+        final long half = delay / 2;
+        return half + (half > 0 ? (long) (mRandom.nextDouble() * (delay - half)) : 0);
+    }
+
+    private static boolean isRetryable(@Nullable final Error error) {
+        if (error == null) {
+            return false;
+        }
+        final Integer statusCode = error.getStatusCode();
+        if (statusCode == null) {
+            return error.getCause() instanceof IOException;
+        }
+        return statusCode >= 500 || statusCode == 408 || statusCode == 429;
+    }
+}
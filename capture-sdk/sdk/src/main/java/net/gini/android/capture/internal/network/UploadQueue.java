@@ -0,0 +1,362 @@
+package net.gini.android.capture.internal.network;
+
+import android.content.Context;
+import android.net.Uri;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+
+import net.gini.android.capture.document.GiniCaptureDocument;
+import net.gini.android.capture.internal.storage.ImageDiskStore;
+import net.gini.android.capture.internal.util.StreamHelper;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Internal use only.
+ *
+ * <p> Records the partial document uploads on the disk, so that they survive process death. Each upload has an
+ * idempotency key which stays the same for all attempts of the upload, also after the app was restarted. Completed
+ * uploads keep the Gini API document id to not upload the same page again after a restart.
+ *
+ * <p> Uploads are resumed when the restored screens request them again. Records older than a day and records of
+ * pages which were deleted from the {@link ImageDiskStore} are dropped when the queue is loaded.
+ *
+ * <p> Not thread-safe, it must be used on the main thread like the {@link NetworkRequestsManager}. The file is written
+ * on a background thread.
+ *
+ * @suppress
+ */
+public class UploadQueue {
+
+    private static final Logger LOG = LoggerFactory.getLogger(UploadQueue.class);
+
+    @VisibleForTesting
+    static final String FILE_NAME = "gc-upload-queue.json";
+    private static final String TEMP_FILE_EXTENSION = ".tmp";
+    private static final long MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Executor IO_EXECUTOR = createIOExecutor();
+
+    @Nullable
+    private final File mFile;
+    private final Executor mIOExecutor;
+    private final Clock mClock;
+    private final Map<String, Entry> mEntries = new LinkedHashMap<>();
+    private boolean mLoaded;
+
+    /**
+     * @return a queue which is only kept in memory
+     */
+    @NonNull
+    public static UploadQueue inMemory() {
+        return new UploadQueue(null, IO_EXECUTOR, Clock.SYSTEM);
+    }
+
+    /**
+     * @return a queue which is stored in the app's files folder
+     */
+    @NonNull
+    public static UploadQueue persistent(@NonNull final Context context) {
+        return new UploadQueue(new File(context.getFilesDir(), FILE_NAME), IO_EXECUTOR, Clock.SYSTEM);
+    }
+
+    @VisibleForTesting
+    UploadQueue(@Nullable final File file, @NonNull final Executor ioExecutor,
+            @NonNull final Clock clock) {
+        mFile = file;
+        mIOExecutor = ioExecutor;
+        mClock = clock;
+    }
+
+    /**
+     * Returns the record of the document's upload or creates a new one with a new idempotency key.
+     */
+    @NonNull
+    Entry getOrCreate(@NonNull final Context context, @NonNull final GiniCaptureDocument document) {
+        load();
+        Entry entry = mEntries.get(document.getId());
+        if (entry == null) {
+            final Uri uri = document.getUri();
+            entry = new Entry(document.getId(), UUID.randomUUID().toString(),
+                    ImageDiskStore.isStoreUri(context, uri) ? uri.getPath() : null, document.getMimeType(),
+                    mClock.currentTimeMillis());
+            mEntries.put(entry.getDocumentId(), entry);
+            save();
+        }
+        return entry;
+    }
+
+    @Nullable
+    Entry get(@NonNull final String documentId) {
+        load();
+        return mEntries.get(documentId);
+    }
+
+    void recordAttempt(@NonNull final String documentId) {
+        final Entry entry = get(documentId);
+        if (entry != null) {
+            entry.mAttempts++;
+            save();
+        }
+    }
+
+    void complete(@NonNull final String documentId, @NonNull final String apiDocumentId,
+            @Nullable final String apiDocumentFilename) {
+        final Entry entry = get(documentId);
+        if (entry != null) {
+            entry.mApiDocumentId = apiDocumentId;
+            entry.mApiDocumentFilename = apiDocumentFilename;
+            save();
+        }
+    }
+
+    void remove(@NonNull final String documentId) {
+        load();
+        if (mEntries.remove(documentId) != null) {
+            save();
+        }
+    }
+
+    void clear() {
+        mLoaded = true;
+        mEntries.clear();
+        save();
+    }
+
+    private void load() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        if (mFile == null || !mFile.isFile()) {
+            return;
+        }
+        try {
+            final JSONArray entries = new JSONArray(readFile(mFile));
+            final long now = mClock.currentTimeMillis();
+            for (int i = 0; i < entries.length(); i++) {
+                final Entry entry = Entry.fromJson(entries.getJSONObject(i));
+                if (now - entry.getCreatedAtMillis() > MAX_AGE_MILLIS) {
+                    continue;
+                }
+                if (!entry.isCompleted() && entry.getFilePath() != null
+                        && !new File(entry.getFilePath()).isFile()) {
+                    // The page can't be uploaded anymore
+                    continue;
+                }
+                mEntries.put(entry.getDocumentId(), entry);
+            }
+            LOG.debug("Loaded {} upload records", mEntries.size());
+        } catch (final IOException | JSONException e) {
+            LOG.error("Failed to load the upload queue", e);
+        }
+    }
+
+    private void save() {
+        if (mFile == null) {
+            return;
+        }
+        final String json = toJson().toString();
+        final File file = mFile;
+        mIOExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writeAtomically(file, json);
+                } catch (final IOException e) {
+                    LOG.error("Failed to save the upload queue", e);
+                }
+            }
+        });
+    }
+
+    @NonNull
+    private JSONArray toJson() {
+        final JSONArray entries = new JSONArray();
+        for (final Entry entry : mEntries.values()) {
+            try {
+                entries.put(entry.toJson());
+            } catch (final JSONException e) {
+                LOG.error("Failed to serialize upload record", e);
+            }
+        }
+        return entries;
+    }
+
+    @NonNull
+    private static String readFile(@NonNull final File file) throws IOException {
+        final InputStream inputStream = new FileInputStream(file);
+        try {
+            return new String(StreamHelper.inputStreamToByteArray(inputStream, (int) file.length()), UTF_8);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    private static void writeAtomically(@NonNull final File file, @NonNull final String contents)
+            throws IOException {
+        final File tempFile = new File(file.getParentFile(), file.getName() + TEMP_FILE_EXTENSION);
+        final FileOutputStream outputStream = new FileOutputStream(tempFile);
+        try {
+            outputStream.write(contents.getBytes(UTF_8));
+            outputStream.flush();
+            outputStream.getFD().sync();
+        } finally {
+            outputStream.close();
+        }
+        if (!tempFile.renameTo(file)) {
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+            throw new IOException("Failed to rename " + tempFile.getName());
+        }
+    }
+
+    @NonNull
+    private static Executor createIOExecutor() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(@NonNull final Runnable runnable) {
+                        return new Thread(runnable, "gc-upload-queue");
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * Source of the current time. Replaced with a fake clock in tests.
+     */
+    interface Clock {
+
+        Clock SYSTEM = new Clock() {
+            @Override
+            public long currentTimeMillis() {
+                return System.currentTimeMillis();
+            }
+        };
+
+        long currentTimeMillis();
+    }
+
+    /**
+     * The record of a partial document upload.
+     */
+    static final class Entry {
+
+        private final String mDocumentId;
+        private final String mIdempotencyKey;
+        private final String mFilePath;
+        private final String mMimeType;
+        private final long mCreatedAtMillis;
+        private int mAttempts;
+        private String mApiDocumentId;
+        private String mApiDocumentFilename;
+
+        Entry(@NonNull final String documentId, @NonNull final String idempotencyKey,
+                @Nullable final String filePath, @Nullable final String mimeType,
+                final long createdAtMillis) {
+            mDocumentId = documentId;
+            mIdempotencyKey = idempotencyKey;
+            mFilePath = filePath;
+            mMimeType = mimeType;
+            mCreatedAtMillis = createdAtMillis;
+        }
+
+        @NonNull
+        String getDocumentId() {
+            return mDocumentId;
+        }
+
+        @NonNull
+        String getIdempotencyKey() {
+            return mIdempotencyKey;
+        }
+
+        @Nullable
+        String getFilePath() {
+            return mFilePath;
+        }
+
+        @Nullable
+        String getMimeType() {
+            return mMimeType;
+        }
+
+        long getCreatedAtMillis() {
+            return mCreatedAtMillis;
+        }
+
+        int getAttempts() {
+            return mAttempts;
+        }
+
+        @Nullable
+        String getApiDocumentId() {
+            return mApiDocumentId;
+        }
+
+        @Nullable
+        String getApiDocumentFilename() {
+            return mApiDocumentFilename;
+        }
+
+        boolean isCompleted() {
+            return mApiDocumentId != null;
+        }
+
+        @NonNull
+        JSONObject toJson() throws JSONException {
+            final JSONObject json = new JSONObject();
+            json.put("documentId", mDocumentId);
+            json.put("idempotencyKey", mIdempotencyKey);
+            json.putOpt("filePath", mFilePath);
+            json.putOpt("mimeType", mMimeType);
+            json.put("createdAt", mCreatedAtMillis);
+            json.put("attempts", mAttempts);
+            json.putOpt("apiDocumentId", mApiDocumentId);
+            json.putOpt("apiDocumentFilename", mApiDocumentFilename);
+            return json;
+        }
+
+        @NonNull
+        static Entry fromJson(@NonNull final JSONObject json) throws JSONException {
+            final Entry entry = new Entry(json.getString("documentId"),
+                    json.getString("idempotencyKey"),
+                    optString(json, "filePath"),
+                    optString(json, "mimeType"),
+                    json.getLong("createdAt"));
+            entry.mAttempts = json.optInt("attempts");
+            entry.mApiDocumentId = optString(json, "apiDocumentId");
+            entry.mApiDocumentFilename = optString(json, "apiDocumentFilename");
+            return entry;
+        }
+
+        @Nullable
+        private static String optString(@NonNull final JSONObject json, @NonNull final String name) {
+            return json.isNull(name) ? null : json.optString(name);
+        }
+    }
+}
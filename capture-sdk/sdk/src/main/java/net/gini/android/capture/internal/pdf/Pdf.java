@@ -9,6 +9,8 @@ import android.os.Parcelable;
 
 import net.gini.android.capture.AsyncCallback;
 import net.gini.android.capture.document.PdfDocument;
+import net.gini.android.capture.internal.camera.api.UIExecutor;
+import net.gini.android.capture.internal.storage.ThumbnailDiskCache;
 import net.gini.android.capture.internal.util.Size;
 
 import androidx.annotation.NonNull;
@@ -44,6 +46,47 @@ public final class Pdf implements Parcelable {
         getRenderer(context).toBitmap(targetSize, asyncCallback);
     }
 
+    /**
+     * Renders the page in the background. The bitmap is null if the page could not be rendered.
+     */
+    public void toBitmap(final int pageIndex, @NonNull final Size targetSize,
+            @NonNull final Context context,
+            @NonNull final AsyncCallback<Bitmap, Exception> asyncCallback) {
+        getRenderer(context).toBitmap(pageIndex, targetSize, asyncCallback);
+    }
+
+    /**
+     * Renders the first page in the background to fit into a square of the size bucket. The thumbnail is read from
+     * the {@link ThumbnailDiskCache} if it was rendered before and stored there otherwise. The bitmap is null if the
+     * page could not be rendered.
+     */
+    public void toThumbnail(@NonNull final String documentId, final int sizeBucket,
+            @NonNull final ThumbnailDiskCache thumbnailDiskCache, @NonNull final Context context,
+            @NonNull final AsyncCallback<Bitmap, Exception> asyncCallback) {
+        final Renderer renderer = getRenderer(context);
+        final Context appContext = context.getApplicationContext();
+        final UIExecutor uiExecutor = new UIExecutor();
+        PdfRendererSession.getExecutor().execute(new Runnable() {
+            @Override
+            public void run() {
+                Bitmap thumbnail = thumbnailDiskCache.get(appContext, documentId, sizeBucket);
+                if (thumbnail == null) {
+                    thumbnail = renderer.toBitmap(0, new Size(sizeBucket, sizeBucket));
+                    if (thumbnail != null) {
+                        thumbnailDiskCache.put(appContext, documentId, sizeBucket, thumbnail);
+                    }
+                }
+                final Bitmap result = thumbnail;
+                uiExecutor.runOnUiThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        asyncCallback.onSuccess(result);
+                    }
+                });
+            }
+        });
+    }
+
     public void getPageCount(@NonNull final Context context,
             @NonNull final AsyncCallback<Integer, Exception> asyncCallback) {
         getRenderer(context).getPageCount(asyncCallback);
@@ -0,0 +1,307 @@
+package net.gini.android.capture.internal.pdf;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.pdf.PdfRenderer;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+import android.util.LruCache;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.RequiresApi;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import net.gini.android.capture.internal.util.Size;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static net.gini.android.capture.internal.pdf.Pdf.DEFAULT_PREVIEW_HEIGHT;
+import static net.gini.android.capture.internal.pdf.Pdf.DEFAULT_PREVIEW_WIDTH;
+
+/**
+ * Internal use only.
+ *
+ * <p> Keeps a {@link PdfRenderer} open for a Uri and shares it between all users of the same Uri. Sessions are
+ * reference counted with {@link #acquire(Context, Uri)} and {@link #release()}. A session is closed a few seconds
+ * after its last release, so that validating, counting the pages and rendering an imported pdf open the file only
+ * once.
+ *
+ * <p> Rendered pages are kept in a small cache until the session is closed.
+ *
+ * <p> Thread-safe. Calls to the {@link PdfRenderer} are serialized because it is not thread-safe.
+ *
+ * @suppress
+ */
+@RequiresApi(21)
+final class PdfRendererSession {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PdfRendererSession.class);
+
+    private static final long CLOSE_DELAY_MS = 5000;
+    private static final int PAGE_CACHE_SIZE_BYTES = 8 * 1024 * 1024;
+
+    // Guarded by itself
+    private static final Map<Uri, PdfRendererSession> SESSIONS = new HashMap<>();
+    private static final ScheduledThreadPoolExecutor EXECUTOR = createExecutor();
+    private static final AtomicInteger OPEN_COUNT = new AtomicInteger();
+
+    private final Context mContext;
+    private final Uri mUri;
+    // Guarded by SESSIONS
+    private int mRefCount;
+    private ScheduledFuture<?> mScheduledClose;
+    // Guarded by this
+    private ParcelFileDescriptor mFileDescriptor;
+    private PdfRenderer mPdfRenderer;
+    private boolean mPasswordProtected;
+    private final LruCache<String, Bitmap> mPageCache = new LruCache<String, Bitmap>(
+            PAGE_CACHE_SIZE_BYTES) {
+        @Override
+        protected int sizeOf(final String key, final Bitmap value) {
+            return value.getAllocationByteCount();
+        }
+    };
+
+    private PdfRendererSession(@NonNull final Context context, @NonNull final Uri uri) {
+        mContext = context.getApplicationContext();
+        mUri = uri;
+    }
+
+    /**
+     * Returns the open session for the Uri or creates a new one. The pdf is opened when it is first needed.
+     *
+     * <p> Each call must be balanced with a call to {@link #release()}.
+     */
+    @NonNull
+    static PdfRendererSession acquire(@NonNull final Context context, @NonNull final Uri uri) {
+        synchronized (SESSIONS) {
+            PdfRendererSession session = SESSIONS.get(uri);
+            if (session == null) {
+                session = new PdfRendererSession(context, uri);
+                SESSIONS.put(uri, session);
+            }
+            session.mRefCount++;
+            if (session.mScheduledClose != null) {
+                session.mScheduledClose.cancel(false);
+                session.mScheduledClose = null;
+            }
+            return session;
+        }
+    }
+
+    void release() {
+        synchronized (SESSIONS) {
+            mRefCount--;
+            if (mRefCount > 0) {
+                return;
+            }
+            mScheduledClose = EXECUTOR.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    closeIfUnused();
+                }
+            }, CLOSE_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * The executor for rendering in the background. It has a single thread because the {@link PdfRenderer} can only
+     * be used by one thread at a time.
+     */
+    @NonNull
+    static Executor getExecutor() {
+        return EXECUTOR;
+    }
+
+    /**
+     * @return how often a pdf file was opened since the process started
+     */
+    @VisibleForTesting
+    static int getOpenCount() {
+        return OPEN_COUNT.get();
+    }
+
+    @WorkerThread
+    synchronized int getPageCount() {
+        try {
+            final PdfRenderer pdfRenderer = getPdfRenderer();
+            return pdfRenderer != null ? pdfRenderer.getPageCount() : 0;
+        } catch (final IOException e) {
+            LOG.error("Could not read pdf", e);
+            return 0;
+        }
+    }
+
+    @WorkerThread
+    synchronized boolean isPasswordProtected() {
+        try {
+            getPdfRenderer();
+        } catch (final IOException e) {
+            LOG.error("Could not read pdf", e);
+        }
+        return mPasswordProtected;
+    }
+
+    /**
+     * Renders the page scaled to fit into the target size. The returned bitmap is cached and must not be recycled.
+     *
+     * @return the rendered page or null if the pdf or the page could not be read
+     */
+    @Nullable
+    @WorkerThread
+    synchronized Bitmap renderPage(final int pageIndex, @NonNull final Size targetSize) {
+        final String cacheKey = pageIndex + ":" + targetSize.width + "x" + targetSize.height;
+        final Bitmap cachedBitmap = mPageCache.get(cacheKey);
+        if (cachedBitmap != null) {
+            return cachedBitmap;
+        }
+        try {
+            final PdfRenderer pdfRenderer = getPdfRenderer();
+            if (pdfRenderer == null || pageIndex < 0 || pageIndex >= pdfRenderer.getPageCount()) {
+                return null;
+            }
+            final PdfRenderer.Page page = pdfRenderer.openPage(pageIndex);
+            try {
+                final Size optimalSize = calculateOptimalRenderingSize(page, targetSize);
+                final Bitmap bitmap = createWhiteBitmap(optimalSize);
+                page.render(bitmap, null, null, PdfRenderer.Page.RENDER_MODE_FOR_DISPLAY);
+                mPageCache.put(cacheKey, bitmap);
+                return bitmap;
+            } finally {
+                page.close();
+            }
+        } catch (final IOException e) {
+            LOG.error("Could not read pdf", e);
+        }
+        return null;
+    }
+
+    /**
+     * Opens the pdf on first use. A {@link SecurityException} means that the pdf is password protected, which is
+     * remembered to not open it again.
+     */
+    @Nullable
+    private PdfRenderer getPdfRenderer() throws IOException {
+        if (mPdfRenderer != null || mPasswordProtected) {
+            return mPdfRenderer;
+        }
+        try {
+            OPEN_COUNT.incrementAndGet();
+            mFileDescriptor = mContext.getContentResolver().openFileDescriptor(mUri, "r");
+            if (mFileDescriptor == null) {
+                return null;
+            }
+            mPdfRenderer = new PdfRenderer(mFileDescriptor);
+            return mPdfRenderer;
+        } catch (final SecurityException e) {
+            LOG.error("Could not read pdf", e);
+            mPasswordProtected = true;
+            closeFileDescriptor();
+            return null;
+        } catch (final IOException e) {
+            closeFileDescriptor();
+            throw e;
+        }
+    }
+
+    private void closeIfUnused() {
+        synchronized (SESSIONS) {
+            if (mRefCount > 0 || SESSIONS.get(mUri) != this) {
+                return;
+            }
+            SESSIONS.remove(mUri);
+        }
+        close();
+    }
+
+    private synchronized void close() {
+        mPageCache.evictAll();
+        if (mPdfRenderer != null) {
+            // Closes the file descriptor, too
+            mPdfRenderer.close();
+            mPdfRenderer = null;
+            mFileDescriptor = null;
+        } else {
+            closeFileDescriptor();
+        }
+    }
+
+    private void closeFileDescriptor() {
+        if (mFileDescriptor != null) {
+            try {
+                mFileDescriptor.close();
+            } catch (final IOException e) {
+                LOG.error("Could not close file descriptor", e);
+            }
+            mFileDescriptor = null;
+        }
+    }
+
+    @NonNull
+    private static Size calculateOptimalRenderingSize(@NonNull final PdfRenderer.Page page,
+            @NonNull final Size previewSize) {
+        final Size newPreviewSize = getDefaultPreviewSizeIfEmpty(previewSize);
+        final float pageRatio = (float) page.getWidth() / (float) page.getHeight();
+        final float previewRatio = (float) newPreviewSize.width / (float) newPreviewSize.height;
+        if (pageRatio < previewRatio) {
+            // The PDF page is taller than wide, or at least more so than the preview => fit the
+            // height of the pdf page
+            // to the preview and resize the width according to the pdf page's aspect ratio
+            final int height = newPreviewSize.height;
+            final int width = (int) ((float) height * pageRatio);
+            return new Size(width, height);
+        } else {
+            // The PDF page is wider than tall, or at least more so than the preview => fit the
+            // width of the pdf page
+            // to the preview and resize the height according to the pdf page's aspect ratio
+            final int width = newPreviewSize.width;
+            final int height = (int) ((float) width / pageRatio);
+            return new Size(width, height);
+        }
+    }
+
+    @NonNull
+    private static Bitmap createWhiteBitmap(@NonNull final Size renderingSize) {
+        final Bitmap bitmap = Bitmap.createBitmap(renderingSize.width, renderingSize.height,
+                Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(bitmap);
+        canvas.drawColor(Color.WHITE);
+        return bitmap;
+    }
+
+    @NonNull
+    private static Size getDefaultPreviewSizeIfEmpty(@NonNull final Size size) {
+        if (size.width == 0 || size.height == 0) {
+            return new Size(DEFAULT_PREVIEW_WIDTH, DEFAULT_PREVIEW_HEIGHT);
+        }
+        return size;
+    }
+
+    @NonNull
+    private static ScheduledThreadPoolExecutor createExecutor() {
+        final ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1,
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(@NonNull final Runnable runnable) {
+                        return new Thread(runnable, "gc-pdf-renderer");
+                    }
+                });
+        executor.setRemoveOnCancelPolicy(true);
+        return executor;
+    }
+}
@@ -6,6 +6,7 @@ import net.gini.android.capture.AsyncCallback;
 import net.gini.android.capture.internal.util.Size;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 /**
  * Internal use only.
@@ -17,6 +18,12 @@ public interface Renderer {
     void toBitmap(@NonNull final Size targetSize,
             @NonNull final AsyncCallback<Bitmap, Exception> asyncCallback);
 
+    void toBitmap(final int pageIndex, @NonNull final Size targetSize,
+            @NonNull final AsyncCallback<Bitmap, Exception> asyncCallback);
+
+    @Nullable
+    Bitmap toBitmap(final int pageIndex, @NonNull final Size targetSize);
+
     void getPageCount(@NonNull final AsyncCallback<Integer, Exception> asyncCallback);
 
     int getPageCount();
@@ -6,6 +6,7 @@ import net.gini.android.capture.AsyncCallback;
 import net.gini.android.capture.internal.util.Size;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 /**
  * Internal use only.
@@ -20,6 +21,18 @@ class RendererPreLollipop implements Renderer {
         asyncCallback.onSuccess(null);
     }
 
+    @Override
+    public void toBitmap(final int pageIndex, @NonNull final Size targetSize,
+            @NonNull final AsyncCallback<Bitmap, Exception> asyncCallback) {
+        asyncCallback.onSuccess(null);
+    }
+
+    @Nullable
+    @Override
+    public Bitmap toBitmap(final int pageIndex, @NonNull final Size targetSize) {
+        return null;
+    }
+
     @Override
     public void getPageCount(@NonNull final AsyncCallback<Integer, Exception> asyncCallback) {
         asyncCallback.onSuccess(0);
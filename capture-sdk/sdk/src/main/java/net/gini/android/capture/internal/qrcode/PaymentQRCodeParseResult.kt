@@ -0,0 +1,19 @@
+package net.gini.android.capture.internal.qrcode
+
+/**
+ * Result of parsing a QRCode content string with [PaymentQRCodeParser.tryParse].
+ */
+internal sealed class PaymentQRCodeParseResult {
+
+    /**
+     * The content was in a supported format and contained valid payment data.
+     */
+    class Success(val paymentQRCodeData: PaymentQRCodeData) : PaymentQRCodeParseResult()
+
+    /**
+     * The content was not in a supported format or the payment data was invalid.
+     *
+     * @property reason describes why the content could not be parsed
+     */
+    class Failure(val reason: String) : PaymentQRCodeParseResult()
+}
@@ -1,9 +1,9 @@
 package net.gini.android.capture.internal.qrcode;
 
-import java.util.ArrayList;
-import java.util.List;
+import android.net.Uri;
 
 import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
 
 import net.gini.android.capture.internal.util.FeatureConfiguration;
 
@@ -33,21 +33,31 @@ import net.gini.android.capture.internal.util.FeatureConfiguration;
  */
 class PaymentQRCodeParser implements QRCodeParser<PaymentQRCodeData> {
 
-    private final List<QRCodeParser<PaymentQRCodeData>> mParsers;
+    private static final String BEZAHL_CODE_PREFIX = "bank:";
+    private static final String EPS_PAYMENT_PREFIX = "epspayment:";
+    private static final String URL_AUTHORITY_PREFIX = "//";
+    private static final String EPC069_12_HEADER = "BCD";
+    private static final String SPC_HEADER = "SPC";
+    private static final String SPD_PREFIX = "SPD*";
+    private static final String UPNQR_HEADER = "UPNQR";
+    private static final String HUB3_HEADER = "HRVHUB30";
+    private static final String PAY_BY_SQUARE_ALPHABET = "0123456789ABCDEFGHIJKLMNOPQRSTUV";
+    // A Pay by Square code decodes to more than the 4 header bytes
+    private static final int PAY_BY_SQUARE_MIN_LENGTH = 8;
+
+    private final boolean mPaymentFormatsEnabled;
+    private final QRCodeParser<PaymentQRCodeData> mBezahlCodeParser = new BezahlCodeParser();
+    private final QRCodeParser<PaymentQRCodeData> mEPC069_12Parser = new EPC069_12Parser();
+    private final QRCodeParser<PaymentQRCodeData> mEPSPaymentParser = new EPSPaymentParser();
+    private final QRCodeParser<PaymentQRCodeData> mSPCParser = new SPCParser();
+    private final QRCodeParser<PaymentQRCodeData> mSPDParser = new SPDParser();
+    private final QRCodeParser<PaymentQRCodeData> mUPNQRParser = new UPNQRParser();
+    private final QRCodeParser<PaymentQRCodeData> mHUB3Parser = new HUB3Parser();
+    private final QRCodeParser<PaymentQRCodeData> mPayBySquareParser = new PayBySquareParser();
+    private final QRCodeParser<PaymentQRCodeData> mGiniPaymentParser = new GiniPaymentParser();
 
     PaymentQRCodeParser() {
-        mParsers = new ArrayList<>();
-        if (FeatureConfiguration.isQRCodeScanningEnabled()) {
-            mParsers.add(new BezahlCodeParser());
-            mParsers.add(new EPC069_12Parser());
-            mParsers.add(new EPSPaymentParser());
-            mParsers.add(new SPCParser());
-            mParsers.add(new SPDParser());
-            mParsers.add(new UPNQRParser());
-            mParsers.add(new HUB3Parser());
-            mParsers.add(new PayBySquareParser());
-        }
-        mParsers.add(new GiniPaymentParser());
+        mPaymentFormatsEnabled = FeatureConfiguration.isQRCodeScanningEnabled();
     }
 
     /**
@@ -61,12 +71,103 @@ class PaymentQRCodeParser implements QRCodeParser<PaymentQRCodeData> {
     @Override
     public PaymentQRCodeData parse(@NonNull final String qrCodeContent)
             throws IllegalArgumentException {
-        for (final QRCodeParser<PaymentQRCodeData> parser : mParsers) {
-            try {
-                return parser.parse(qrCodeContent);
-            } catch (final IllegalArgumentException ignore) { // NOPMD
+        final PaymentQRCodeParseResult result = tryParse(qrCodeContent);
+        if (result instanceof PaymentQRCodeParseResult.Success) {
+            return ((PaymentQRCodeParseResult.Success) result).getPaymentQRCodeData();
+        }
+        throw new IllegalArgumentException(((PaymentQRCodeParseResult.Failure) result).getReason());
+    }
+
+    /**
+     * Parses the content of a QRCode to retrieve the payment data without throwing.
+     * <p>
+     * The format is detected from the prefix of the content and only the matching parser is
+     * used. Content which doesn't look like any of the supported formats is rejected without
+     * parsing it.
+     *
+     * @param qrCodeContent content of a QRCode
+     * @return a {@link PaymentQRCodeParseResult.Success} with the payment information or a
+     * {@link PaymentQRCodeParseResult.Failure} if the QRCode was not a valid payment QRCode
+     */
+    @NonNull
+    PaymentQRCodeParseResult tryParse(@NonNull final String qrCodeContent) {
+        final QRCodeParser<PaymentQRCodeData> parser = findParser(qrCodeContent);
+        if (parser == null) {
+            return new PaymentQRCodeParseResult.Failure("Unknown QRCode content format.");
+        }
+        try {
+            return new PaymentQRCodeParseResult.Success(parser.parse(qrCodeContent));
+        } catch (final IllegalArgumentException e) {
+            // Only content which looks like a supported format but is malformed gets here
+            return new PaymentQRCodeParseResult.Failure(String.valueOf(e.getMessage()));
+        }
+    }
+
+    @Nullable
+    private QRCodeParser<PaymentQRCodeData> findParser(@NonNull final String qrCodeContent) {
+        if (mPaymentFormatsEnabled) {
+            final QRCodeParser<PaymentQRCodeData> parser = findPaymentFormatParser(qrCodeContent);
+            if (parser != null) {
+                return parser;
+            }
+        }
+        if (qrCodeContent.contains(URL_AUTHORITY_PREFIX)
+                && GiniPaymentParser.GINIPAYMENT_HOST.equals(Uri.parse(qrCodeContent).getHost())) {
+            return mGiniPaymentParser;
+        }
+        return null;
+    }
+
+    @Nullable
+    private QRCodeParser<PaymentQRCodeData> findPaymentFormatParser(@NonNull final String qrCodeContent) {
+        if (qrCodeContent.startsWith(BEZAHL_CODE_PREFIX)) {
+            return mBezahlCodeParser;
+        } else if (qrCodeContent.startsWith(EPS_PAYMENT_PREFIX)) {
+            return mEPSPaymentParser;
+        } else if (hasHeaderLine(qrCodeContent, EPC069_12_HEADER)) {
+            return mEPC069_12Parser;
+        } else if (hasHeaderLine(qrCodeContent, SPC_HEADER)) {
+            return mSPCParser;
+        } else if (qrCodeContent.startsWith(SPD_PREFIX)) {
+            return mSPDParser;
+        } else if (hasHeaderLine(qrCodeContent, UPNQR_HEADER)) {
+            return mUPNQRParser;
+        } else if (hasHeaderLine(qrCodeContent, HUB3_HEADER)) {
+            return mHUB3Parser;
+        } else if (isPayBySquareCandidate(qrCodeContent)) {
+            return mPayBySquareParser;
+        }
+        return null;
+    }
+
+    private static boolean hasHeaderLine(@NonNull final String qrCodeContent,
+                                         @NonNull final String header) {
+        if (!qrCodeContent.startsWith(header)) {
+            return false;
+        }
+        if (qrCodeContent.length() == header.length()) {
+            return true;
+        }
+        final char next = qrCodeContent.charAt(header.length());
+        return next == '\n' || next == '\r';
+    }
+
+    private static boolean isPayBySquareCandidate(@NonNull final String qrCodeContent) {
+        if (qrCodeContent.length() < PAY_BY_SQUARE_MIN_LENGTH) {
+            return false;
+        }
+        // The first character holds the bysquare type in its upper bits and PAY (0) only allows
+        // '0' or '1'
+        final char first = qrCodeContent.charAt(0);
+        if (first != '0' && first != '1') {
+            return false;
+        }
+        for (int i = 1; i < qrCodeContent.length(); i++) {
+            final char c = Character.toUpperCase(qrCodeContent.charAt(i));
+            if (PAY_BY_SQUARE_ALPHABET.indexOf(c) < 0) {
+                return false;
             }
         }
-        throw new IllegalArgumentException("Unknown QRCode content format.");
+        return true;
     }
 }
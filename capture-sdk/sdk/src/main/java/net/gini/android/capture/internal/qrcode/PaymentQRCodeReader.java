@@ -1,6 +1,8 @@
 package net.gini.android.capture.internal.qrcode;
 
 import android.media.Image;
+import android.os.SystemClock;
+import android.util.LruCache;
 
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
@@ -8,7 +10,9 @@ import androidx.annotation.VisibleForTesting;
 
 import net.gini.android.capture.internal.util.Size;
 
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CancellationException;
 
 /**
@@ -28,8 +32,13 @@ import java.util.concurrent.CancellationException;
  */
 public class PaymentQRCodeReader {
 
+    private static final int PARSE_RESULT_CACHE_SIZE = 16;
+    // Identical content is delivered again after this interval to allow the camera screen to react
+    // to it once it shows its QRCode UI again
+    private static final long SAME_CONTENT_DELIVERY_INTERVAL_MS = 1000;
+
     private final QRCodeDetector mDetector;
-    private final QRCodeParser<PaymentQRCodeData> mParser;
+    private final PaymentQRCodeParser mParser;
     private Listener mListener = new Listener() {
         @Override
         public void onPaymentQRCodeDataAvailable(
@@ -48,6 +57,12 @@ public class PaymentQRCodeReader {
         }
     };
     private boolean isReleased = false;
+    // Consecutive frames usually contain the same QRCode, so parse results are cached by content
+    private final LruCache<String, PaymentQRCodeParseResult> mParseResultCache =
+            new LruCache<>(PARSE_RESULT_CACHE_SIZE);
+    // Delivery times of the contents which were visible in the previous frame. A frame can contain
+    // several QRCodes, so each content is debounced on its own.
+    private final Map<String, Long> mDeliveryTimesMs = new HashMap<>();
 
     /**
      * Create a new instance which uses the provided {@link QRCodeDetectorTask} to do QRCode
@@ -63,9 +78,10 @@ public class PaymentQRCodeReader {
                 new PaymentQRCodeParser());
     }
 
-    private PaymentQRCodeReader(
+    @VisibleForTesting
+    PaymentQRCodeReader(
             @NonNull final QRCodeDetector detector,
-            @NonNull final QRCodeParser<PaymentQRCodeData> parser) {
+            @NonNull final PaymentQRCodeParser parser) {
         mDetector = detector;
         mParser = parser;
         mDetector.setListener(new QRCodeDetector.Listener() {
@@ -74,12 +90,18 @@ public class PaymentQRCodeReader {
                 if (isReleased) {
                     return;
                 }
+                // Contents which left the frame are delivered right away when they come back
+                mDeliveryTimesMs.keySet().retainAll(qrCodes);
                 for (final String qrCodeContent : qrCodes) {
-                    try {
-                        final PaymentQRCodeData paymentData = mParser.parse(qrCodeContent);
-                        mListener.onPaymentQRCodeDataAvailable(paymentData);
+                    final PaymentQRCodeParseResult result = getParseResult(qrCodeContent);
+                    if (result instanceof PaymentQRCodeParseResult.Success) {
+                        if (shouldDeliver(qrCodeContent)) {
+                            mListener.onPaymentQRCodeDataAvailable(
+                                    ((PaymentQRCodeParseResult.Success) result).getPaymentQRCodeData());
+                        }
                         return;
-                    } catch (final IllegalArgumentException ignored) {
+                    }
+                    if (shouldDeliver(qrCodeContent)) {
                         mListener.onNonPaymentQRCodeDetected(qrCodeContent);
                     }
                 }
@@ -101,6 +123,41 @@ public class PaymentQRCodeReader {
         return mDetector;
     }
 
+    @NonNull
+    private PaymentQRCodeParseResult getParseResult(@NonNull final String qrCodeContent) {
+        PaymentQRCodeParseResult result = mParseResultCache.get(qrCodeContent);
+        if (result == null) {
+            result = mParser.tryParse(qrCodeContent);
+            mParseResultCache.put(qrCodeContent, result);
+        }
+        return result;
+    }
+
+    private boolean shouldDeliver(@NonNull final String qrCodeContent) {
+        final long nowMs = SystemClock.elapsedRealtime();
+        final Long lastDeliveryTimeMs = mDeliveryTimesMs.get(qrCodeContent);
+        if (lastDeliveryTimeMs != null
+                && nowMs - lastDeliveryTimeMs < SAME_CONTENT_DELIVERY_INTERVAL_MS) {
+            return false;
+        }
+        mDeliveryTimesMs.put(qrCodeContent, nowMs);
+        return true;
+    }
+
+    /**
+     * @return the number of QRCodes whose parse result was found in the cache
+     */
+    public int getParseCacheHitCount() {
+        return mParseResultCache.hitCount();
+    }
+
+    /**
+     * @return the number of QRCodes which had to be parsed
+     */
+    public int getParseCacheMissCount() {
+        return mParseResultCache.missCount();
+    }
+
     /**
      * Reads the first supported QRCode payment data from the image.
      *
@@ -131,6 +188,8 @@ public class PaymentQRCodeReader {
     public void release() {
         isReleased = true;
         mDetector.release();
+        mParseResultCache.evictAll();
+        mDeliveryTimesMs.clear();
     }
 
     public void setListener(@Nullable final Listener listener) {
@@ -6,18 +6,32 @@ import android.net.Uri;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import net.gini.android.capture.AsyncCallback;
+import net.gini.android.capture.internal.camera.api.UIExecutor;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.BufferedOutputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import static net.gini.android.capture.util.UriHelper.getFileExtension;
 
@@ -28,7 +42,16 @@ import static net.gini.android.capture.util.UriHelper.getFileExtension;
  */
 
 /**
- * Internal use only.
+ * Stores images in the app's files folder.
+ *
+ * <p> Images are written to a temporary file first which is synced to the disk and then renamed. If the process is
+ * killed mid-write only the temporary file is left behind and it is deleted by {@link #trimAsync(Context)}.
+ *
+ * <p> {@link #trimAsync(Context)} also enforces a byte and age quota on images from previous sessions. Images
+ * written by this instance are never evicted because documents may still reference them. It must only be called when
+ * a new flow starts, because documents restored after process death reference images from the previous process.
+ *
+ * <p> Internal use only.
  *
  * @suppress
  */
@@ -38,16 +61,47 @@ public class ImageDiskStore {
 
     @VisibleForTesting
     static final String STORE_DIR = "gc-images";
+    @VisibleForTesting
+    static final String TEMP_FILE_EXTENSION = ".tmp";
+    public static final long DEFAULT_MAX_SIZE_BYTES = 200L * 1024 * 1024;
+    public static final long DEFAULT_MAX_AGE_MILLIS = TimeUnit.DAYS.toMillis(1);
+    private static final int BUFFER_SIZE = 65536;
+
+    private static final Executor IO_EXECUTOR = createIOExecutor();
+
+    private final Executor mIOExecutor;
+    private UIExecutor mUIExecutor;
+    private final long mMaxSizeBytes;
+    private final long mMaxAgeMillis;
+    // Rounded down to whole seconds because some file systems store modification times only with second precision
+    private final long mCreatedAtMillis = System.currentTimeMillis() / 1000 * 1000;
+
+    public ImageDiskStore() {
+        this(DEFAULT_MAX_SIZE_BYTES, DEFAULT_MAX_AGE_MILLIS);
+    }
+
+    /**
+     * @param maxSizeBytes the maximum size of the images from previous sessions
+     * @param maxAgeMillis images from previous sessions older than this are deleted
+     */
+    public ImageDiskStore(final long maxSizeBytes, final long maxAgeMillis) {
+        this(IO_EXECUTOR, maxSizeBytes, maxAgeMillis);
+    }
+
+    @VisibleForTesting
+    ImageDiskStore(@NonNull final Executor ioExecutor, final long maxSizeBytes,
+            final long maxAgeMillis) {
+        mIOExecutor = ioExecutor;
+        mMaxSizeBytes = maxSizeBytes;
+        mMaxAgeMillis = maxAgeMillis;
+    }
 
     @Nullable
+    @WorkerThread
     public Uri save(@NonNull final Context context, @NonNull final byte[] bytes) {
         final Uri uri = generateUri(context, null);
-        final File file = createFile(uri);
-        if (file == null) {
-            return null;
-        }
         try {
-            writeToFile(file, bytes);
+            writeToFile(new File(uri.getPath()), bytes);
             return uri;
         } catch (final IOException e) {
             LOG.error("Failed to write file", e);
@@ -55,7 +109,22 @@ public class ImageDiskStore {
         }
     }
 
+    /**
+     * Saves the bytes on the IO thread and calls the callback on the main thread.
+     */
+    public void saveAsync(@NonNull final Context context, @NonNull final byte[] bytes,
+            @NonNull final AsyncCallback<Uri, Exception> callback) {
+        final Context appContext = context.getApplicationContext();
+        mIOExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                postResult(save(appContext, bytes), callback);
+            }
+        });
+    }
+
     @Nullable
+    @WorkerThread
     public Uri save(@NonNull final Context context, @NonNull final Uri fromUri) {
         InputStream inputStream = null;
         try {
@@ -65,11 +134,7 @@ public class ImageDiskStore {
             }
             final String extension = getFileExtension(fromUri, context);
             final Uri uri = generateUri(context, extension);
-            final File file = createFile(uri);
-            if (file == null) {
-                return null;
-            }
-            writeToFile(file, inputStream);
+            writeToFile(new File(uri.getPath()), inputStream);
             return uri;
         } catch (final FileNotFoundException e) {
             LOG.error("Failed to open uri", e);
@@ -87,6 +152,42 @@ public class ImageDiskStore {
         }
     }
 
+    /**
+     * Copies the contents of the uri on the IO thread and calls the callback on the main thread.
+     */
+    public void saveAsync(@NonNull final Context context, @NonNull final Uri fromUri,
+            @NonNull final AsyncCallback<Uri, Exception> callback) {
+        final Context appContext = context.getApplicationContext();
+        mIOExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                postResult(save(appContext, fromUri), callback);
+            }
+        });
+    }
+
+    private void postResult(@Nullable final Uri uri,
+            @NonNull final AsyncCallback<Uri, Exception> callback) {
+        getUIExecutor().runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                if (uri != null) {
+                    callback.onSuccess(uri);
+                } else {
+                    callback.onError(new IOException("Failed to save image"));
+                }
+            }
+        });
+    }
+
+    @NonNull
+    private synchronized UIExecutor getUIExecutor() {
+        if (mUIExecutor == null) {
+            mUIExecutor = new UIExecutor();
+        }
+        return mUIExecutor;
+    }
+
     @NonNull
     private Uri generateUri(@NonNull final Context context, @Nullable final String extension) {
         final String filename =
@@ -96,62 +197,80 @@ public class ImageDiskStore {
     }
 
     @Nullable
-    private File createFile(final Uri uri) {
-        final File file = new File(uri.getPath());
-        if (!file.exists()) {
-            try {
-                //noinspection ResultOfMethodCallIgnored
-                file.createNewFile();
-            } catch (final IOException e) {
-                LOG.error("Failed to create file", e);
-                return null;
-            }
+    private File getExistingFile(@NonNull final Uri uri) {
+        final String path = uri.getPath();
+        if (path == null || path.isEmpty()) {
+            return null;
         }
-        return file;
+        final File file = new File(path);
+        return file.isFile() ? file : null;
     }
 
     @VisibleForTesting
     void writeToFile(@NonNull final File file, @NonNull final byte[] bytes)
             throws IOException {
-        OutputStream outputStream = null;
-        try {
-            outputStream = new FileOutputStream(file);
-            outputStream.write(bytes);
-            outputStream.flush();
-        } finally {
-            if (outputStream != null) {
-                try {
-                    outputStream.close();
-                } catch (final IOException ignore) {
-                }
+        writeAtomically(file, new ContentWriter() {
+            @Override
+            public void writeTo(@NonNull final OutputStream outputStream) throws IOException {
+                outputStream.write(bytes);
             }
-        }
+        });
     }
 
     private void writeToFile(@NonNull final File file, @NonNull final InputStream inputStream)
             throws IOException {
-        OutputStream outputStream = null;
-        try {
-            outputStream = new BufferedOutputStream(new FileOutputStream(file), 65536);
-            final byte[] buffer = new byte[8192];
-            int read;
-            while ((read = inputStream.read(buffer)) != -1) {
-                outputStream.write(buffer, 0, read);
+        writeAtomically(file, new ContentWriter() {
+            @Override
+            public void writeTo(@NonNull final OutputStream outputStream) throws IOException {
+                final byte[] buffer = new byte[8192];
+                int read;
+                while ((read = inputStream.read(buffer)) != -1) {
+                    outputStream.write(buffer, 0, read);
+                }
             }
+        });
+    }
+
+    /**
+     * Writes to a temporary file next to the target file and renames it after the contents were synced to the disk.
+     * The target file is either left untouched or contains the complete contents.
+     */
+    private void writeAtomically(@NonNull final File file, @NonNull final ContentWriter writer)
+            throws IOException {
+        final File tempFile = new File(file.getParentFile(), file.getName() + TEMP_FILE_EXTENSION);
+        FileOutputStream fileOutputStream = null;
+        boolean written = false;
+        try {
+            fileOutputStream = new FileOutputStream(tempFile);
+            final OutputStream outputStream = new BufferedOutputStream(fileOutputStream, BUFFER_SIZE);
+            writer.writeTo(outputStream);
             outputStream.flush();
+            fileOutputStream.getFD().sync();
+            written = true;
         } finally {
-            if (outputStream != null) {
+            if (fileOutputStream != null) {
                 try {
-                    outputStream.close();
+                    fileOutputStream.close();
                 } catch (final IOException ignore) {
                 }
             }
+            if (!written) {
+                //noinspection ResultOfMethodCallIgnored
+                tempFile.delete();
+            }
+        }
+        if (!tempFile.renameTo(file)) {
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+            throw new IOException("Failed to rename " + tempFile.getName());
         }
     }
 
+    @WorkerThread
     public boolean update(@NonNull final Uri uri, @NonNull final byte[] bytes) {
-        final File file = createFile(uri);
+        final File file = getExistingFile(uri);
         if (file == null) {
+            LOG.error("Failed to update file: no file at uri");
             return false;
         }
         try {
@@ -163,12 +282,147 @@ public class ImageDiskStore {
         }
     }
 
+    /**
+     * @return true if the uri points to a file in the store folder of the app's files folder
+     */
+    public static boolean isStoreUri(@NonNull final Context context, @Nullable final Uri uri) {
+        if (uri == null || !"file".equals(uri.getScheme()) || uri.getPath() == null) {
+            return false;
+        }
+        try {
+            // Canonical paths resolve "..", so the uri can't point out of the store folder
+            final File parent = new File(uri.getPath()).getCanonicalFile().getParentFile();
+            return parent != null
+                    && parent.equals(new File(context.getFilesDir(), STORE_DIR).getCanonicalFile());
+        } catch (final IOException e) {
+            LOG.error("Failed to resolve the path of the uri", e);
+            return false;
+        }
+    }
+
+    /**
+     * Reads a file from this store.
+     *
+     * @return the contents or null if the file could not be read
+     */
+    @Nullable
+    @WorkerThread
+    public static byte[] read(@NonNull final Context context, @NonNull final Uri uri) {
+        if (!isStoreUri(context, uri)) {
+            return null;
+        }
+        final File file = new File(uri.getPath());
+        InputStream inputStream = null;
+        try {
+            inputStream = new FileInputStream(file);
+            final byte[] bytes = new byte[(int) file.length()];
+            int offset = 0;
+            int read;
+            while (offset < bytes.length
+                    && (read = inputStream.read(bytes, offset, bytes.length - offset)) != -1) {
+                offset += read;
+            }
+            if (offset != bytes.length) {
+                throw new IOException("Unexpected end of file");
+            }
+            return bytes;
+        } catch (final IOException e) {
+            LOG.error("Failed to read file", e);
+            return null;
+        } finally {
+            if (inputStream != null) {
+                try {
+                    inputStream.close();
+                } catch (final IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Runs the task on the IO thread after the pending writes.
+     */
+    public static void executeOnIOThread(@NonNull final Runnable task) {
+        IO_EXECUTOR.execute(task);
+    }
+
     public void delete(@NonNull final Uri uri) {
         final File file = new File(uri.getPath());
         //noinspection ResultOfMethodCallIgnored
         file.delete();
     }
 
+    /**
+     * Deletes leftover temporary files and evicts images from previous sessions which are older than the maximum
+     * age or exceed the byte quota. The oldest images are evicted first.
+     */
+    public void trimAsync(@NonNull final Context context) {
+        final Context appContext = context.getApplicationContext();
+        mIOExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                trim(appContext);
+            }
+        });
+    }
+
+    @VisibleForTesting
+    @WorkerThread
+    void trim(@NonNull final Context context) {
+        final File storeDir = new File(context.getFilesDir(), STORE_DIR);
+        final File[] files = storeDir.listFiles();
+        if (files == null) {
+            return;
+        }
+        final long expiredBeforeMillis = System.currentTimeMillis() - mMaxAgeMillis;
+        final List<File> previousSessionFiles = new ArrayList<>();
+        long sizeBytes = 0;
+        for (final File file : files) {
+            final long lastModified = file.lastModified();
+            if (lastModified >= mCreatedAtMillis) {
+                // Written by this instance: in use or being written
+                continue;
+            }
+            if (file.getName().endsWith(TEMP_FILE_EXTENSION)) {
+                LOG.debug("Deleting interrupted write {}", file.getName());
+                deleteFile(file);
+            } else if (lastModified < expiredBeforeMillis) {
+                LOG.debug("Deleting expired image {}", file.getName());
+                deleteFile(file);
+            } else {
+                previousSessionFiles.add(file);
+                sizeBytes += file.length();
+            }
+        }
+        if (sizeBytes <= mMaxSizeBytes) {
+            return;
+        }
+        Collections.sort(previousSessionFiles, new Comparator<File>() {
+            @Override
+            public int compare(final File file1, final File file2) {
+                return Long.compare(file1.lastModified(), file2.lastModified());
+            }
+        });
+        for (final File file : previousSessionFiles) {
+            if (sizeBytes <= mMaxSizeBytes) {
+                break;
+            }
+            final long length = file.length();
+            if (deleteFile(file)) {
+                LOG.debug("Deleted image {} to stay within the quota", file.getName());
+                sizeBytes -= length;
+            }
+        }
+    }
+
+    private static boolean deleteFile(@NonNull final File file) {
+        final boolean deleted = file.delete();
+        if (!deleted) {
+            LOG.warn("Failed to delete {}", file.getName());
+        }
+        return deleted;
+    }
+
     public static void clear(@NonNull final Context context) {
         final File storeDir = getStoreDir(context);
         if (!storeDir.isDirectory()) {
@@ -199,4 +453,24 @@ public class ImageDiskStore {
         return storeDir;
     }
 
+    /**
+     * A single background thread keeps the disk writes sequential. It is stopped when idle.
+     */
+    @NonNull
+    private static Executor createIOExecutor() {
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(1, 1, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    @Override
+                    public Thread newThread(@NonNull final Runnable runnable) {
+                        return new Thread(runnable, "gc-image-disk-store");
+                    }
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    private interface ContentWriter {
+        void writeTo(@NonNull OutputStream outputStream) throws IOException;
+    }
+
 }
@@ -0,0 +1,248 @@
+package net.gini.android.capture.internal.storage;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+import androidx.annotation.VisibleForTesting;
+import androidx.annotation.WorkerThread;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Stores small JPEG thumbnails of documents in the app's files folder next to the {@link ImageDiskStore}, so that
+ * they survive screen re-entries and process death.
+ *
+ * <p> Thumbnails are keyed by document id and size bucket. When the thumbnails exceed the byte quota the least
+ * recently used ones are deleted.
+ *
+ * <p> Thread-safe. Reading and writing should be done on a background thread.
+ *
+ * <p> Internal use only.
+ *
+ * @suppress
+ */
+public class ThumbnailDiskCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ThumbnailDiskCache.class);
+
+    @VisibleForTesting
+    static final String STORE_DIR = "gc-thumbnails";
+    private static final long DEFAULT_MAX_SIZE_BYTES = 16L * 1024 * 1024;
+    private static final int JPEG_QUALITY = 85;
+    private static final String FILE_EXTENSION = ".jpg";
+    private static final String TEMP_FILE_EXTENSION = ".tmp";
+
+    // Incremented by clear(), so that all instances scan the store folder again
+    private static final AtomicInteger CLEAR_COUNT = new AtomicInteger();
+
+    private final long mMaxSizeBytes;
+    // Guarded by this, -1 until the store folder was scanned
+    private long mSizeBytes = -1;
+    // Guarded by this, the clear count when the store folder was scanned
+    private int mScannedClearCount;
+
+    public ThumbnailDiskCache() {
+        this(DEFAULT_MAX_SIZE_BYTES);
+    }
+
+    @VisibleForTesting
+    ThumbnailDiskCache(final long maxSizeBytes) {
+        mMaxSizeBytes = maxSizeBytes;
+    }
+
+    /**
+     * @return the thumbnail or null if there was none for the document and size bucket
+     */
+    @Nullable
+    @WorkerThread
+    public synchronized Bitmap get(@NonNull final Context context, @NonNull final String documentId,
+            final int sizeBucket) {
+        final File file = getFile(context, documentId, sizeBucket);
+        if (!file.isFile()) {
+            return null;
+        }
+        final Bitmap bitmap = BitmapFactory.decodeFile(file.getAbsolutePath());
+        if (bitmap == null) {
+            LOG.warn("Deleting unreadable thumbnail {}", file.getName());
+            deleteFile(file);
+            return null;
+        }
+        // Mark as recently used
+        //noinspection ResultOfMethodCallIgnored
+        file.setLastModified(System.currentTimeMillis());
+        return bitmap;
+    }
+
+    /**
+     * Stores the thumbnail and deletes the least recently used thumbnails if the byte quota was exceeded.
+     */
+    @WorkerThread
+    public synchronized void put(@NonNull final Context context, @NonNull final String documentId,
+            final int sizeBucket, @NonNull final Bitmap thumbnail) {
+        // Scan the folder before writing to not count the new thumbnail twice
+        final long sizeBytes = getSizeBytes(context);
+        final File file = getFile(context, documentId, sizeBucket);
+        // Write to a temporary file and sync it to the disk first to never leave a truncated thumbnail behind
+        final File tempFile = new File(file.getParentFile(), file.getName() + TEMP_FILE_EXTENSION);
+        FileOutputStream fileOutputStream = null;
+        try {
+            fileOutputStream = new FileOutputStream(tempFile);
+            final OutputStream outputStream = new BufferedOutputStream(fileOutputStream);
+            if (!thumbnail.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, outputStream)) {
+                throw new IOException("Failed to compress thumbnail");
+            }
+            outputStream.flush();
+            fileOutputStream.getFD().sync();
+        } catch (final IOException e) {
+            LOG.error("Failed to write thumbnail", e);
+            closeQuietly(fileOutputStream);
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+            return;
+        }
+        closeQuietly(fileOutputStream);
+
+        final long previousLength = file.length();
+        if (!tempFile.renameTo(file)) {
+            LOG.error("Failed to rename thumbnail {}", tempFile.getName());
+            //noinspection ResultOfMethodCallIgnored
+            tempFile.delete();
+            return;
+        }
+        mSizeBytes = sizeBytes - previousLength + file.length();
+        trimToSize(context, mMaxSizeBytes);
+    }
+
+    /**
+     * Deletes the thumbnails of the document in all sizes.
+     */
+    public synchronized void delete(@NonNull final Context context, @NonNull final String documentId) {
+        final String prefix = getFilenamePrefix(documentId);
+        final File[] files = getStoreDir(context).listFiles();
+        if (files == null) {
+            return;
+        }
+        for (final File file : files) {
+            if (file.getName().startsWith(prefix)) {
+                deleteFile(file);
+            }
+        }
+    }
+
+    /**
+     * Deletes all thumbnails. Instances scan the store folder again on their next write.
+     */
+    public static void clear(@NonNull final Context context) {
+        final File storeDir = new File(context.getFilesDir(), STORE_DIR);
+        if (storeDir.isDirectory()) {
+            final File[] files = storeDir.listFiles();
+            if (files != null) {
+                for (final File file : files) {
+                    //noinspection ResultOfMethodCallIgnored
+                    file.delete();
+                }
+            }
+            //noinspection ResultOfMethodCallIgnored
+            storeDir.delete();
+        }
+        CLEAR_COUNT.incrementAndGet();
+    }
+
+    @VisibleForTesting
+    synchronized long getSizeBytes(@NonNull final Context context) {
+        final int clearCount = CLEAR_COUNT.get();
+        if (mSizeBytes < 0 || mScannedClearCount != clearCount) {
+            long sizeBytes = 0;
+            final File[] files = getStoreDir(context).listFiles();
+            if (files != null) {
+                for (final File file : files) {
+                    sizeBytes += file.length();
+                }
+            }
+            mSizeBytes = sizeBytes;
+            mScannedClearCount = clearCount;
+        }
+        return mSizeBytes;
+    }
+
+    private void trimToSize(@NonNull final Context context, final long maxSizeBytes) {
+        if (getSizeBytes(context) <= maxSizeBytes) {
+            return;
+        }
+        final File[] files = getStoreDir(context).listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(final File file1, final File file2) {
+                return Long.compare(file1.lastModified(), file2.lastModified());
+            }
+        });
+        for (final File file : files) {
+            if (mSizeBytes <= maxSizeBytes) {
+                break;
+            }
+            deleteFile(file);
+        }
+    }
+
+    private void deleteFile(@NonNull final File file) {
+        final long length = file.length();
+        if (file.delete() && mSizeBytes >= 0) {
+            mSizeBytes = Math.max(0, mSizeBytes - length);
+        }
+    }
+
+    @NonNull
+    private File getFile(@NonNull final Context context, @NonNull final String documentId,
+            final int sizeBucket) {
+        return new File(getStoreDir(context), getFilenamePrefix(documentId) + sizeBucket + FILE_EXTENSION);
+    }
+
+    /**
+     * Document ids are not guaranteed to be valid filenames, so a name based UUID is used instead.
+     */
+    @NonNull
+    private String getFilenamePrefix(@NonNull final String documentId) {
+        return UUID.nameUUIDFromBytes(documentId.getBytes(Charset.forName("UTF-8"))) + "_";
+    }
+
+    @NonNull
+    private static File getStoreDir(@NonNull final Context context) {
+        final File storeDir = new File(context.getFilesDir(), STORE_DIR);
+        if (!storeDir.exists()) {
+            try {
+                //noinspection ResultOfMethodCallIgnored
+                storeDir.mkdir();
+            } catch (final SecurityException e) {
+                LOG.error("Failed to create store folder", e);
+            }
+        }
+        return storeDir;
+    }
+
+    private static void closeQuietly(@Nullable final OutputStream outputStream) {
+        if (outputStream != null) {
+            try {
+                outputStream.close();
+            } catch (final IOException ignore) {
+            }
+        }
+    }
+}
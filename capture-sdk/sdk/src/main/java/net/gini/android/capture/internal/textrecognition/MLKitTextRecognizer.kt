@@ -16,6 +16,7 @@ import org.slf4j.helpers.NOPLogger
 internal class MLKitTextRecognizer(private val recognizer: com.google.mlkit.vision.text.TextRecognizer) :
     TextRecognizer {
 
+    @Volatile
     private var processingTask: Task<Text>? = null
 
     /**
@@ -0,0 +1,85 @@
+package net.gini.android.capture.internal.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * Internal use only.
+ *
+ * @suppress
+ */
+public final class BitmapHelper {
+
+    /**
+     * Decodes the image scaled down to fit into the target size while keeping the aspect ratio. Images smaller than
+     * the target size are not scaled up.
+     *
+     * <p> Only the image bounds are decoded first to subsample the image while decoding. This way the full resolution
+     * bitmap is never allocated.
+     *
+     * @param data the encoded image
+     * @param targetSize the maximum size of the bitmap
+     * @return the bitmap or null if the data could not be decoded
+     */
+    @Nullable
+    public static Bitmap decodeDownsampled(@NonNull final byte[] data, @NonNull final Size targetSize) {
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        options.inSampleSize = calculateInSampleSize(options.outWidth, options.outHeight, targetSize);
+        options.inJustDecodeBounds = false;
+        final Bitmap sampled = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+        if (sampled == null) {
+            return null;
+        }
+
+        final Size scaledSize = calculateSizeToFit(sampled.getWidth(), sampled.getHeight(), targetSize);
+        if (scaledSize.width == sampled.getWidth() && scaledSize.height == sampled.getHeight()) {
+            return sampled;
+        }
+        final Bitmap scaled = Bitmap.createScaledBitmap(sampled, scaledSize.width, scaledSize.height, true);
+        if (scaled != sampled) {
+            sampled.recycle();
+        }
+        return scaled;
+    }
+
+    /**
+     * Returns the largest power of two sample size which keeps the subsampled image at least as large as the target
+     * size in both dimensions.
+     */
+    public static int calculateInSampleSize(final int width, final int height, @NonNull final Size targetSize) {
+        int inSampleSize = 1;
+        if (targetSize.width <= 0 || targetSize.height <= 0) {
+            return inSampleSize;
+        }
+        while (width / (inSampleSize * 2) >= targetSize.width
+                && height / (inSampleSize * 2) >= targetSize.height) {
+            inSampleSize *= 2;
+        }
+        return inSampleSize;
+    }
+
+    /**
+     * Returns the largest size with the aspect ratio of the image which fits into the target size. The image size is
+     * returned if it already fits.
+     */
+    @NonNull
+    public static Size calculateSizeToFit(final int width, final int height, @NonNull final Size targetSize) {
+        if (width <= targetSize.width && height <= targetSize.height) {
+            return new Size(width, height);
+        }
+        final float scale = Math.min((float) targetSize.width / width, (float) targetSize.height / height);
+        return new Size(Math.max(1, Math.round(width * scale)), Math.max(1, Math.round(height * scale)));
+    }
+
+    private BitmapHelper() {
+    }
+}
@@ -0,0 +1,41 @@
+package net.gini.android.capture.internal.util;
+
+import android.graphics.Bitmap;
+import android.os.AsyncTask;
+
+import net.gini.android.capture.AsyncCallback;
+
+import androidx.annotation.NonNull;
+
+/**
+ * Decodes an image scaled down to fit into the target size with {@link BitmapHelper#decodeDownsampled(byte[], Size)}.
+ *
+ * <p> Internal use only.
+ *
+ * @suppress
+ */
+public class DownsampledBitmapAsyncTask extends AsyncTask<byte[], Void, Bitmap> {
+
+    private final Size mTargetSize;
+    private final AsyncCallback<Bitmap, Exception> mListener;
+
+    public DownsampledBitmapAsyncTask(@NonNull final Size targetSize,
+            @NonNull final AsyncCallback<Bitmap, Exception> listener) {
+        mTargetSize = targetSize;
+        mListener = listener;
+    }
+
+    @Override
+    protected Bitmap doInBackground(final byte[]... data) {
+        return BitmapHelper.decodeDownsampled(data[0], mTargetSize);
+    }
+
+    @Override
+    protected void onPostExecute(final Bitmap bitmap) {
+        if (bitmap == null) {
+            mListener.onError(new IllegalArgumentException("Could not decode the image"));
+            return;
+        }
+        mListener.onSuccess(bitmap);
+    }
+}
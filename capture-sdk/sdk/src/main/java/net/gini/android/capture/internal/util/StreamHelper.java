@@ -37,6 +37,49 @@ public final class StreamHelper {
         return out.toByteArray();
     }
 
+    /**
+     * Reads the input stream to a byte array which is allocated with the expected size. This avoids growing and
+     * copying the buffer when the size is known beforehand, e.g. from the file's metadata.
+     *
+     * @param inputStream  an open {@link InputStream} to read from, caller is responsible for
+     *                     closing
+     * @param expectedSize the expected number of bytes or a negative value if unknown
+     * @return byte array with input streams content
+     * @throws IOException if the input stream could not be read
+     * @suppress
+     */
+    public static byte[] inputStreamToByteArray(@NonNull final InputStream inputStream,
+            final int expectedSize) throws IOException {
+        if (expectedSize < 0) {
+            return inputStreamToByteArray(inputStream);
+        }
+        final byte[] bytes = new byte[expectedSize];
+        int offset = 0;
+        int nrRead;
+        while (offset < bytes.length
+                && (nrRead = inputStream.read(bytes, offset, bytes.length - offset)) != -1) { // NOPMD
+            offset += nrRead;
+        }
+        if (offset < bytes.length) {
+            final byte[] shorter = new byte[offset];
+            System.arraycopy(bytes, 0, shorter, 0, offset);
+            return shorter;
+        }
+        // The size was only a hint, read the rest if the stream is longer
+        final int next = inputStream.read();
+        if (next == -1) {
+            return bytes;
+        }
+        final ByteArrayOutputStream out = new ByteArrayOutputStream(bytes.length + 8192);
+        out.write(bytes);
+        out.write(next);
+        final byte[] buffer = new byte[8192];
+        while ((nrRead = inputStream.read(buffer)) > 0) { // NOPMD
+            out.write(buffer, 0, nrRead);
+        }
+        return out.toByteArray();
+    }
+
     private StreamHelper() {
     }
 }
@@ -56,6 +56,25 @@ public interface GiniCaptureNetworkService extends ErrorLoggerListener {
     CancellationToken upload(@NonNull final Document document,
                              @NonNull final GiniCaptureNetworkCallback<Result, Error> callback);
 
+    /**
+     * Called when a document needs to be uploaded to the Gini API. Failed uploads are retried with
+     * the same idempotency key, also after the app was restarted.
+     *
+     * <p> Override it if your backend can detect repeated uploads by sending the key, for example
+     * in an {@code Idempotency-Key} header. The default implementation ignores the key and
+     * delegates to {@link #upload(Document, GiniCaptureNetworkCallback)}.
+     *
+     * @param document       a {@link Document} containing an image, pdf or other supported formats
+     * @param idempotencyKey a key which is the same for all attempts to upload the document
+     * @param callback       a callback implementation to return the outcome of the upload
+     * @return a {@link CancellationToken} to be used for requesting upload cancellation
+     */
+    default CancellationToken upload(@NonNull final Document document,
+                                     @NonNull final String idempotencyKey,
+                                     @NonNull final GiniCaptureNetworkCallback<Result, Error> callback) {
+        return upload(document, callback);
+    }
+
     /**
      * Called when a document needs to be deleted from the Gini API.
      *
@@ -124,11 +143,57 @@ public interface GiniCaptureNetworkService extends ErrorLoggerListener {
         return null;
     }
 
+    /**
+     * Download a file (for example a page image) of a document.
+     *
+     * @param fileUrl  the url of the file
+     * @param callback a callback implementation to return the outcome
+     * @return a {@link CancellationToken} or {@code null}
+     * @deprecated Boxing every byte of the file needs several times more memory than the file itself. Use
+     * {@link #getFileAsByteArray(String, GiniCaptureNetworkCallback)} instead.
+     */
+    @Deprecated
     default CancellationToken getFile(@NonNull final String fileUrl,
                                       @NonNull final GiniCaptureNetworkCallback<Byte[], Error> callback) {
         return null;
     }
 
+    /**
+     * Download a file (for example a page image) of a document into a primitive byte array.
+     *
+     * <p> The default implementation delegates to the deprecated {@link #getFile(String,
+     * GiniCaptureNetworkCallback)} to stay compatible with existing implementations. Override it to
+     * return the downloaded bytes without boxing them.
+     *
+     * @param fileUrl  the url of the file
+     * @param callback a callback implementation to return the outcome
+     * @return a {@link CancellationToken} or {@code null}
+     */
+    @SuppressWarnings("deprecation")
+    default CancellationToken getFileAsByteArray(@NonNull final String fileUrl,
+                                                 @NonNull final GiniCaptureNetworkCallback<byte[], Error> callback) {
+        return getFile(fileUrl, new GiniCaptureNetworkCallback<Byte[], Error>() {
+            @Override
+            public void failure(final Error error) {
+                callback.failure(error);
+            }
+
+            @Override
+            public void success(final Byte[] result) {
+                final byte[] bytes = new byte[result.length];
+                for (int i = 0; i < result.length; i++) {
+                    bytes[i] = result[i];
+                }
+                callback.success(bytes);
+            }
+
+            @Override
+            public void cancelled() {
+                callback.cancelled();
+            }
+        });
+    }
+
     default CancellationToken sendEvents(
             @NonNull final AmplitudeRootModel amplitudeRootModel,
             @NonNull final GiniCaptureNetworkCallback<Void, Error> callback) {
@@ -1,6 +1,7 @@
 package net.gini.android.capture.review.multipage;
 
 import android.app.Activity;
+import android.content.Context;
 import android.content.DialogInterface;
 import android.net.Uri;
 import android.os.Bundle;
@@ -45,6 +46,7 @@ import net.gini.android.capture.internal.ui.IntervalClickListener;
 import net.gini.android.capture.internal.util.AlertDialogHelperCompat;
 import net.gini.android.capture.internal.util.CancelListener;
 import net.gini.android.capture.internal.util.ContextHelper;
+import net.gini.android.capture.internal.util.FeatureConfiguration;
 import net.gini.android.capture.internal.util.FileImportHelper;
 import net.gini.android.capture.review.multipage.previews.MiddlePageManager;
 import net.gini.android.capture.review.multipage.previews.PreviewFragmentListener;
@@ -705,6 +707,11 @@ public class MultiPageReviewFragment extends Fragment implements PreviewFragment
             final NetworkRequestsManager networkRequestsManager =
                     GiniCapture.getInstance().internal().getNetworkRequestsManager();
             if (networkRequestsManager != null) {
+                if (FeatureConfiguration.isUploadWhileCapturingEnabled()) {
+                    // Uploads started while capturing are only cancelled if nothing was sent yet,
+                    // otherwise the deletion waits for the upload to finish
+                    networkRequestsManager.cancelUploadIfNotStarted(document);
+                }
                 networkRequestsManager.delete(document);
             }
         }
@@ -725,6 +732,10 @@ public class MultiPageReviewFragment extends Fragment implements PreviewFragment
             final GiniCapture.Internal gcInternal = GiniCapture.getInstance().internal();
             gcInternal.getDocumentDataMemoryCache().invalidate(document);
             gcInternal.getPhotoMemoryCache().invalidate(document);
+            final Context context = getContext();
+            if (context != null) {
+                gcInternal.getThumbnailMemoryCache().invalidate(context, document);
+            }
         }
     }
 
@@ -1,17 +1,21 @@
 package net.gini.android.capture.review.multipage.previews
 
+import android.graphics.Bitmap
 import android.view.LayoutInflater
 import android.view.View
 import android.view.ViewGroup
 import android.widget.ImageButton
+import androidx.core.view.doOnLayout
 import androidx.recyclerview.widget.RecyclerView
 import net.gini.android.capture.AsyncCallback
 import net.gini.android.capture.GiniCapture
 import net.gini.android.capture.R
 import net.gini.android.capture.document.ImageDocument
 import net.gini.android.capture.document.ImageMultiPageDocument
+import net.gini.android.capture.internal.cache.ThumbnailMemoryCache
 import net.gini.android.capture.internal.camera.photo.Photo
 import net.gini.android.capture.internal.ui.setIntervalClickListener
+import net.gini.android.capture.internal.util.Size
 import net.gini.android.capture.review.RotatableImageViewContainer
 import net.gini.android.capture.tracking.useranalytics.UserAnalytics.getAnalyticsEventTracker
 import net.gini.android.capture.tracking.useranalytics.UserAnalyticsEvent
@@ -23,13 +27,13 @@ class PreviewPagesAdapter(
     private val previewFragmentListener: PreviewFragmentListener
 ) : RecyclerView.Adapter<PreviewPagesAdapter.PagesViewHolder>() {
 
-
     inner class PagesViewHolder(val view: View) : RecyclerView.ViewHolder(view) {
 
         val mImageViewContainer: RotatableImageViewContainer? =
             view.findViewById(R.id.gc_image_container)
         private val mDeletePage: ImageButton? = view.findViewById(R.id.gc_button_delete)
         private val screenName: UserAnalyticsScreen = UserAnalyticsScreen.Review
+        var boundDocument: ImageDocument? = null
 
         init {
 
@@ -57,30 +61,71 @@ class PreviewPagesAdapter(
 
         val mDocument = multiPageDocument.documents[position]
 
+        holder.boundDocument = mDocument
+        val imageViewContainer = holder.mImageViewContainer ?: return
         if (shouldShowPreviewImage(mDocument) && GiniCapture.hasInstance()) {
-            GiniCapture.getInstance()
-                .internal().photoMemoryCache[holder.view.context, mDocument, object :
-                AsyncCallback<Photo?, Exception?> {
-
-                override fun onCancelled() {
-                    // Not used
-                }
-
-                override fun onSuccess(result: Photo?) {
-                    holder.mImageViewContainer?.imageView?.setImageBitmap(result?.bitmapPreview)
-                    holder.mImageViewContainer?.rotateImageView(
-                        result?.rotationForDisplay ?: 0,
-                        false
-                    )
+            // The page is only measured after the first layout
+            imageViewContainer.doOnLayout { container ->
+                if (holder.boundDocument !== mDocument) {
+                    // Rebound to another page in the meantime
+                    return@doOnLayout
                 }
-
-                override fun onError(exception: Exception?) {
-                    // No-op
+                if (container.width > 0 && container.height > 0) {
+                    showThumbnail(holder, mDocument, Size(container.width, container.height))
+                } else {
+                    showPreview(holder, mDocument)
                 }
-            }]
+            }
         }
     }
 
+    /**
+     * Shows a thumbnail downsampled to the page size. It is read from the disk cache if it was created before.
+     */
+    private fun showThumbnail(holder: PagesViewHolder, document: ImageDocument, targetSize: Size) {
+        val key = ThumbnailMemoryCache.Key(document, ThumbnailMemoryCache.getSizeBucket(targetSize))
+        GiniCapture.getInstance()
+            .internal().thumbnailMemoryCache[holder.view.context, key, object :
+            AsyncCallback<Bitmap?, Exception?> {
+
+            override fun onCancelled() {
+                // Not used
+            }
+
+            override fun onSuccess(result: Bitmap?) {
+                holder.mImageViewContainer?.imageView?.setImageBitmap(result)
+                holder.mImageViewContainer?.rotateImageView(document.rotationForDisplay, false)
+            }
+
+            override fun onError(exception: Exception?) {
+                showPreview(holder, document)
+            }
+        }]
+    }
+
+    private fun showPreview(holder: PagesViewHolder, document: ImageDocument) {
+        GiniCapture.getInstance()
+            .internal().photoMemoryCache[holder.view.context, document, object :
+            AsyncCallback<Photo?, Exception?> {
+
+            override fun onCancelled() {
+                // Not used
+            }
+
+            override fun onSuccess(result: Photo?) {
+                holder.mImageViewContainer?.imageView?.setImageBitmap(result?.bitmapPreview)
+                holder.mImageViewContainer?.rotateImageView(
+                    result?.rotationForDisplay ?: 0,
+                    false
+                )
+            }
+
+            override fun onError(exception: Exception?) {
+                // No-op
+            }
+        }]
+    }
+
     private fun shouldShowPreviewImage(
         mDocument: ImageDocument?
     ): Boolean {
@@ -0,0 +1,89 @@
+package net.gini.android.capture.document
+
+import android.content.Context
+import android.os.Looper
+import android.os.Parcel
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.google.common.truth.Truth.assertThat
+import net.gini.android.capture.Document
+import net.gini.android.capture.internal.camera.photo.PhotoFactory
+import net.gini.android.capture.internal.storage.ImageDiskStore
+import net.gini.android.capture.test.Helpers
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.Shadows.shadowOf
+
+@RunWith(AndroidJUnit4::class)
+class ImageDocumentParcelingTest {
+
+    private val context: Context = ApplicationProvider.getApplicationContext()
+
+    @Test
+    fun `parcels documents stored in the image disk store without their data`() {
+        // Given
+        val photo = PhotoFactory.newPhotoFromJpeg(
+            Helpers.getTestJpeg(), 0, "portrait", "photo", Document.Source.newCameraSource()
+        )
+        val uri = ImageDiskStore().save(context, photo.data)!!
+        val document = DocumentFactory.newImageDocumentFromPhoto(photo, uri)
+
+        // When
+        val documentFromParcel = simulateProcessDeath(document)
+
+        // Then
+        assertThat(documentFromParcel.id).isEqualTo(document.id)
+        assertThat(documentFromParcel.uri).isEqualTo(uri)
+        // Loaded again from the file with loadData()
+        assertThat(documentFromParcel.data).isNull()
+        assertThat(ImageDiskStore.read(context, uri)).isEqualTo(document.data)
+    }
+
+    @Test
+    fun `parcels the data of documents not stored in the image disk store`() {
+        // Given
+        val photo = PhotoFactory.newPhotoFromJpeg(
+            Helpers.getTestJpeg(), 0, "portrait", "photo", Document.Source.newCameraSource()
+        )
+        val document = DocumentFactory.newImageDocumentFromPhoto(photo)
+
+        // When
+        val documentFromParcel = Helpers.doParcelingRoundTrip(document, ImageDocument.CREATOR)
+
+        // Then
+        assertThat(documentFromParcel.data).isEqualTo(document.data)
+    }
+
+    @Test
+    fun `parcels the data of stored documents after their data changed`() {
+        // Given
+        val photo = PhotoFactory.newPhotoFromJpeg(
+            Helpers.getTestJpeg(), 0, "portrait", "photo", Document.Source.newCameraSource()
+        )
+        val uri = ImageDiskStore().save(context, photo.data)!!
+        val document = DocumentFactory.newImageDocumentFromPhoto(photo, uri)
+        val changedData = byteArrayOf(1, 2, 3)
+
+        // When
+        document.setData(changedData)
+        val documentFromParcel = Helpers.doParcelingRoundTrip(document, ImageDocument.CREATOR)
+
+        // Then
+        assertThat(documentFromParcel.data).isEqualTo(changedData)
+    }
+
+    private fun simulateProcessDeath(document: ImageDocument): ImageDocument {
+        val marshalled = Parcel.obtain().run {
+            document.writeToParcel(this, 0)
+            marshall().also { recycle() }
+        }
+        assertThat(marshalled.size).isLessThan(document.data!!.size)
+        // Only the marshalled bytes and the files survive a process death
+        shadowOf(Looper.getMainLooper()).idle()
+        return Parcel.obtain().run {
+            unmarshall(marshalled, 0, marshalled.size)
+            setDataPosition(0)
+            ImageDocument.CREATOR.createFromParcel(this).also { recycle() }
+        }
+    }
+}
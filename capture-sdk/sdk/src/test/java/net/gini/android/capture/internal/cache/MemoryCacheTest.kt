@@ -0,0 +1,139 @@
+package net.gini.android.capture.internal.cache
+
+import android.content.ComponentCallbacks2
+import android.content.Context
+import android.util.LruCache
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.google.common.truth.Truth.assertThat
+import net.gini.android.capture.AsyncCallback
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+@RunWith(AndroidJUnit4::class)
+class MemoryCacheTest {
+
+    private val context: Context = ApplicationProvider.getApplicationContext()
+
+    @Test
+    fun `loads only once for concurrent gets of the same key`() {
+        val finishLoad = CountDownLatch(1)
+        val cache = TestMemoryCache(finishLoad)
+        val results = AsyncCallbackRecorder(CONCURRENT_GETS)
+        val startGets = CountDownLatch(1)
+        val executor = Executors.newFixedThreadPool(8)
+
+        repeat(CONCURRENT_GETS) {
+            executor.execute {
+                startGets.await()
+                cache.get(context, "key", results)
+            }
+        }
+        startGets.countDown()
+        executor.shutdown()
+        assertThat(executor.awaitTermination(5, TimeUnit.SECONDS)).isTrue()
+        finishLoad.countDown()
+
+        assertThat(results.await()).isTrue()
+        assertThat(cache.loadCount.get()).isEqualTo(1)
+        assertThat(results.successCount.get()).isEqualTo(CONCURRENT_GETS)
+    }
+
+    @Test
+    fun `does not run more workers than the limit`() {
+        val finishLoad = CountDownLatch(1)
+        val cache = TestMemoryCache(finishLoad)
+        val results = AsyncCallbackRecorder(RUNNING_WORKERS_LIMIT * 2)
+
+        repeat(RUNNING_WORKERS_LIMIT * 2) { cache.get(context, "key$it", results) }
+
+        assertThat(cache.loadCount.get()).isEqualTo(RUNNING_WORKERS_LIMIT)
+
+        finishLoad.countDown()
+
+        assertThat(results.await()).isTrue()
+        assertThat(cache.loadCount.get()).isEqualTo(RUNNING_WORKERS_LIMIT * 2)
+    }
+
+    @Test
+    fun `does not cache values of keys invalidated while loading`() {
+        val finishLoad = CountDownLatch(1)
+        val cache = TestMemoryCache(finishLoad)
+        val results = AsyncCallbackRecorder(1)
+
+        cache.get(context, "key", results)
+        cache.invalidate("key")
+        finishLoad.countDown()
+
+        assertThat(results.await()).isTrue()
+        assertThat(cache.size()).isEqualTo(0)
+    }
+
+    @Test
+    fun `shrinks and clears on trim memory`() {
+        val cache = TestMemoryCache(CountDownLatch(0))
+        val results = AsyncCallbackRecorder(4)
+        repeat(4) { cache.get(context, "key$it", results) }
+        assertThat(results.await()).isTrue()
+
+        cache.trimMemory(ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN)
+        assertThat(cache.size()).isEqualTo(4)
+
+        cache.trimMemory(ComponentCallbacks2.TRIM_MEMORY_BACKGROUND)
+        assertThat(cache.size()).isEqualTo(2)
+
+        cache.trimMemory(ComponentCallbacks2.TRIM_MEMORY_COMPLETE)
+        assertThat(cache.size()).isEqualTo(0)
+    }
+
+    private class TestMemoryCache(private val finishLoad: CountDownLatch) :
+        MemoryCache<String, String>(RUNNING_WORKERS_LIMIT) {
+
+        val loadCount = AtomicInteger()
+
+        override fun createCache(): LruCache<String, String> = LruCache(4)
+
+        override fun createWorker(
+            subject: String,
+            callback: AsyncCallback<String, Exception>
+        ): Worker<String, String> = object : Worker<String, String>(subject, callback) {
+            override fun doExecute(context: Context, subject: String, callback: AsyncCallback<String, Exception>) {
+                loadCount.incrementAndGet()
+                Thread {
+                    finishLoad.await()
+                    callback.onSuccess("value of $subject")
+                }.start()
+            }
+        }
+    }
+
+    private class AsyncCallbackRecorder(count: Int) : AsyncCallback<String, Exception> {
+
+        private val latch = CountDownLatch(count)
+        val successCount = AtomicInteger()
+
+        fun await() = latch.await(5, TimeUnit.SECONDS)
+
+        override fun onSuccess(result: String) {
+            successCount.incrementAndGet()
+            latch.countDown()
+        }
+
+        override fun onError(exception: Exception) {
+            latch.countDown()
+        }
+
+        override fun onCancelled() {
+            latch.countDown()
+        }
+    }
+
+    private companion object {
+        const val CONCURRENT_GETS = 100
+        const val RUNNING_WORKERS_LIMIT = 3
+    }
+}
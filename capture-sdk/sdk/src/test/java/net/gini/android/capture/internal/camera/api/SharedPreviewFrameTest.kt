@@ -0,0 +1,28 @@
+package net.gini.android.capture.internal.camera.api
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+
+class SharedPreviewFrameTest {
+
+    @Test
+    fun `releases the frame after every detector released it`() {
+        var releaseCount = 0
+        val frame = SharedPreviewFrame(2) { releaseCount++ }
+
+        frame.release()
+        assertThat(releaseCount).isEqualTo(0)
+
+        frame.release()
+        assertThat(releaseCount).isEqualTo(1)
+    }
+
+    @Test
+    fun `releases the frame immediately when there are no detectors`() {
+        var releaseCount = 0
+
+        SharedPreviewFrame(0) { releaseCount++ }
+
+        assertThat(releaseCount).isEqualTo(1)
+    }
+}
@@ -0,0 +1,73 @@
+package net.gini.android.capture.internal.camera.api.camerax
+
+import com.google.common.truth.Truth.assertThat
+import net.gini.android.capture.camera.FrameAnalysisMetrics
+import net.gini.android.capture.camera.FrameAnalysisRate
+import org.junit.Test
+
+class FrameAnalysisThrottlerTest {
+
+    @Test
+    fun `analyzes the first frame`() {
+        val throttler = FrameAnalysisThrottler(FrameAnalysisRate.fixed(10))
+
+        assertThat(throttler.shouldAnalyzeFrame(0)).isTrue()
+    }
+
+    @Test
+    fun `skips frames arriving faster than the fixed rate`() {
+        val metrics = FrameAnalysisMetrics()
+        val throttler = FrameAnalysisThrottler(FrameAnalysisRate.fixed(10), metrics)
+
+        assertThat(throttler.shouldAnalyzeFrame(1_000)).isTrue()
+        assertThat(throttler.shouldAnalyzeFrame(1_050)).isFalse()
+        assertThat(throttler.shouldAnalyzeFrame(1_099)).isFalse()
+        assertThat(throttler.shouldAnalyzeFrame(1_100)).isTrue()
+
+        assertThat(metrics.skippedFrameCount).isEqualTo(2)
+    }
+
+    @Test
+    fun `fixed rate ignores the detector latency`() {
+        val throttler = FrameAnalysisThrottler(FrameAnalysisRate.fixed(10))
+
+        throttler.onFrameAnalyzed(500)
+
+        assertThat(throttler.minFrameIntervalMs()).isEqualTo(100)
+    }
+
+    @Test
+    fun `adaptive rate waits longer when the detectors are slow`() {
+        val throttler = FrameAnalysisThrottler(FrameAnalysisRate.adaptive(10))
+
+        throttler.onFrameAnalyzed(300)
+
+        assertThat(throttler.minFrameIntervalMs()).isEqualTo(600)
+        assertThat(throttler.shouldAnalyzeFrame(0)).isTrue()
+        assertThat(throttler.shouldAnalyzeFrame(500)).isFalse()
+        assertThat(throttler.shouldAnalyzeFrame(600)).isTrue()
+    }
+
+    @Test
+    fun `adaptive rate keeps the max rate when the detectors are fast`() {
+        val throttler = FrameAnalysisThrottler(FrameAnalysisRate.adaptive(10))
+
+        throttler.onFrameAnalyzed(20)
+
+        assertThat(throttler.minFrameIntervalMs()).isEqualTo(100)
+    }
+
+    @Test
+    fun `records the latency of analyzed frames`() {
+        val metrics = FrameAnalysisMetrics()
+        val throttler = FrameAnalysisThrottler(FrameAnalysisRate.adaptive(10), metrics)
+
+        throttler.onFrameAnalyzed(40)
+        throttler.onFrameAnalyzed(80)
+
+        assertThat(metrics.analyzedFrameCount).isEqualTo(2)
+        assertThat(metrics.lastLatencyMs).isEqualTo(80)
+        assertThat(metrics.maxLatencyMs).isEqualTo(80)
+        assertThat(metrics.averageLatencyMs).isEqualTo(60)
+    }
+}
@@ -0,0 +1,120 @@
+package net.gini.android.capture.internal.camera.photo
+
+import android.graphics.Rect
+import android.util.Size
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.google.common.truth.Truth.assertThat
+import net.gini.android.capture.Document
+import net.gini.android.capture.test.Helpers
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.annotation.GraphicsMode
+
+// Native graphics are needed to decode and encode real jpegs
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+@RunWith(AndroidJUnit4::class)
+class PhotoEditPipelineTest {
+
+    @Test
+    fun `maps crop rect of a photo rotated by 90 degrees back to the jpeg`() {
+        // A 400x300 jpeg rotated by 90 degrees is displayed as 300x400
+        val sourceRect = PhotoEditPipeline.toSourceRect(Rect(10, 20, 110, 220), 90, 400, 300)
+
+        assertThat(sourceRect).isEqualTo(Rect(20, 190, 220, 290))
+    }
+
+    @Test
+    fun `maps crop rect of a photo rotated by 180 degrees back to the jpeg`() {
+        val sourceRect = PhotoEditPipeline.toSourceRect(Rect(10, 20, 110, 220), 180, 400, 300)
+
+        assertThat(sourceRect).isEqualTo(Rect(290, 80, 390, 280))
+    }
+
+    @Test
+    fun `maps crop rect of a photo rotated by 270 degrees back to the jpeg`() {
+        val sourceRect = PhotoEditPipeline.toSourceRect(Rect(10, 20, 110, 220), 270, 400, 300)
+
+        assertThat(sourceRect).isEqualTo(Rect(180, 10, 380, 110))
+    }
+
+    @Test
+    fun `decodes the jpeg only once for crop and compression`() {
+        // Given
+        val photo = newPhoto()
+        val modifiers = listOf(
+            PhotoCropModifier(photo, CAMERA_PREVIEW_SIZE, CROP_RECT, 50),
+            PhotoCompressionModifier(50, photo)
+        )
+        val pipeline = PhotoEditPipeline(photo, modifiers)
+
+        // When
+        pipeline.apply()
+
+        // Then
+        assertThat(pipeline.decodeCount).isEqualTo(1)
+        assertThat(photo.rotationForDisplay).isEqualTo(0)
+        assertThat(photo.bitmapPreview).isNotNull()
+    }
+
+    @Test
+    fun `keeps the user comment after crop and compression`() {
+        // Given
+        val photo = newPhoto()
+
+        // When
+        PhotoEditPipeline(
+            photo, listOf(
+                PhotoCropModifier(photo, CAMERA_PREVIEW_SIZE, CROP_RECT, 50),
+                PhotoCompressionModifier(50, photo)
+            )
+        ).apply()
+
+        // Then
+        val userComment = ExifReader.forJpeg(photo.data).userComment
+        assertThat(ExifReader.getValueForKeyFromUserComment(Exif.USER_COMMENT_CONTENT_ID, userComment))
+            .isEqualTo((photo as MutablePhoto).contentId)
+    }
+
+    @Test
+    fun `decodes and encodes the jpeg only once for rotation, crop and compression`() {
+        // Given
+        val photo = newPhoto()
+        val pipeline = PhotoEditPipeline(
+            photo, listOf(
+                PhotoRotationModifier(180, photo),
+                PhotoCropModifier(photo, CAMERA_PREVIEW_SIZE, CROP_RECT, 50),
+                PhotoCompressionModifier(50, photo)
+            )
+        )
+
+        // When
+        pipeline.apply()
+
+        // Then
+        assertThat(pipeline.decodeCount).isEqualTo(1)
+        assertThat(pipeline.encodeCount).isEqualTo(1)
+    }
+
+    @Test
+    fun `does not decode or encode the jpeg for rotation only`() {
+        // Given
+        val photo = newPhoto()
+        val pipeline = PhotoEditPipeline(photo, listOf(PhotoRotationModifier(180, photo)))
+
+        // When
+        pipeline.apply()
+
+        // Then
+        assertThat(pipeline.decodeCount).isEqualTo(0)
+        assertThat(pipeline.encodeCount).isEqualTo(0)
+        assertThat(photo.rotationForDisplay).isEqualTo(180)
+    }
+
+    private fun newPhoto(): Photo =
+        PhotoFactory.newPhotoFromJpeg(Helpers.getTestJpeg(), 90, "portrait", "phone", Document.Source.newCameraSource())
+
+    private companion object {
+        val CAMERA_PREVIEW_SIZE = Size(1080, 1920)
+        val CROP_RECT = Rect(100, 200, 980, 1600)
+    }
+}
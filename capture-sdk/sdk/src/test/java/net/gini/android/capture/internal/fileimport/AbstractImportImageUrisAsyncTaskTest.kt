@@ -0,0 +1,172 @@
+package net.gini.android.capture.internal.fileimport
+
+import android.content.Context
+import android.content.Intent
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
+import android.graphics.Color
+import android.net.Uri
+import android.os.Looper
+import android.webkit.MimeTypeMap
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.google.common.truth.Truth.assertThat
+import com.nhaarman.mockitokotlin2.mock
+import net.gini.android.capture.AsyncCallback
+import net.gini.android.capture.Document
+import net.gini.android.capture.GiniCapture
+import net.gini.android.capture.GiniCaptureHelper
+import net.gini.android.capture.ImportImageFileUrisAsyncTask
+import net.gini.android.capture.ImportedFileValidationException
+import net.gini.android.capture.document.ImageDocument
+import net.gini.android.capture.document.ImageMultiPageDocument
+import net.gini.android.capture.internal.storage.ImageDiskStore
+import org.apache.commons.imaging.Imaging
+import org.apache.commons.imaging.formats.jpeg.JpegImageMetadata
+import org.apache.commons.imaging.formats.tiff.constants.ExifTagConstants
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.Shadows.shadowOf
+import org.robolectric.annotation.GraphicsMode
+import java.io.File
+import java.util.concurrent.TimeUnit
+
+@RunWith(AndroidJUnit4::class)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+class AbstractImportImageUrisAsyncTaskTest {
+
+    private val context: Context = ApplicationProvider.getApplicationContext()
+    private lateinit var importDir: File
+
+    @Before
+    fun setup() {
+        shadowOf(MimeTypeMap.getSingleton()).addExtensionMimeTypeMapping("jpg", "image/jpeg")
+        shadowOf(MimeTypeMap.getSingleton()).addExtensionMimeTypeMapping("png", "image/png")
+        GiniCapture.newInstance(context).build()
+        importDir = File(context.cacheDir, "import").apply { mkdirs() }
+    }
+
+    @After
+    fun teardown() {
+        GiniCaptureHelper.setGiniCaptureInstance(null)
+        ImageDiskStore.clear(context)
+        importDir.deleteRecursively()
+    }
+
+    @Test
+    fun `imports a batch of large jpegs in order within the memory budget`() {
+        // 12 MP each, ~48 MB when decoded
+        val widths = (0 until 8).map { LARGE_WIDTH - it * 16 }
+        val uris = widths.mapIndexed { index, width -> createJpeg("large_$index.jpg", width, LARGE_HEIGHT) }
+        val memoryBudgetBytes = 2L * LARGE_WIDTH * LARGE_HEIGHT * 4 + 1024 * 1024
+        val task = createTask().apply { setMemoryBudgetBytes(memoryBudgetBytes) }
+
+        val multiPageDocument = task.execute(*uris.toTypedArray()).get(60, TimeUnit.SECONDS)
+
+        assertThat(multiPageDocument.documents).hasSize(uris.size)
+        // Pages keep the order of the uris although they were imported in parallel
+        assertThat(multiPageDocument.documents.map { decodeWidth(it.data!!) }).isEqualTo(widths)
+        assertThat(multiPageDocument.documents.all { ImageDiskStore.isStoreUri(context, it.uri) }).isTrue()
+        assertThat(task.peakReservedMemoryBytes).isGreaterThan(0L)
+        assertThat(task.peakReservedMemoryBytes).isAtMost(memoryBudgetBytes)
+        // The budget fits only two decoded images
+        assertThat(task.peakRunningImageImportCount).isIn(1..2)
+    }
+
+    @Test
+    fun `imports large images one by one when the memory budget fits only one`() {
+        val uris = (0 until 3).map { createJpeg("large_$it.jpg", LARGE_WIDTH, LARGE_HEIGHT) }
+        val task = createTask().apply { setMemoryBudgetBytes(1L * LARGE_WIDTH * LARGE_HEIGHT * 4 + 1024 * 1024) }
+
+        val multiPageDocument = task.execute(*uris.toTypedArray()).get(60, TimeUnit.SECONDS)
+
+        assertThat(multiPageDocument.documents).hasSize(uris.size)
+        assertThat(task.peakRunningImageImportCount).isEqualTo(1)
+    }
+
+    @Test
+    fun `converts images which are not jpegs to jpegs`() {
+        val uri = createImage("image.png", 400, 300, Bitmap.CompressFormat.PNG)
+
+        val multiPageDocument = createTask().execute(uri).get(30, TimeUnit.SECONDS)
+
+        assertThat(multiPageDocument.documents).hasSize(1)
+        val document = multiPageDocument.documents[0]
+        assertThat(document.format).isEqualTo(ImageDocument.ImageFormat.JPEG)
+        assertThat(decodeMimeType(document.data!!)).isEqualTo("image/jpeg")
+        val metadata = Imaging.getMetadata(document.data!!) as JpegImageMetadata
+        assertThat(metadata.findEXIFValue(ExifTagConstants.EXIF_TAG_USER_COMMENT)).isNotNull()
+    }
+
+    @Test
+    fun `reports progress for each uri`() {
+        val uris = (0 until 3).map { createJpeg("image_$it.jpg", 400, 300) }
+        val progress = mutableListOf<List<Int>>()
+        val task = object : ImportImageFileUrisAsyncTask(context, Intent(), GiniCapture.getInstance(),
+            Document.Source.newExternalSource(), Document.ImportMethod.PICKER, mock()) {
+            override fun onProgressUpdate(vararg values: Int?) {
+                progress.add(values.map { it!! })
+            }
+        }
+
+        task.execute(*uris.toTypedArray()).get(30, TimeUnit.SECONDS)
+        shadowOf(Looper.getMainLooper()).idle()
+
+        assertThat(progress.map { it[0] }).containsExactly(1, 2, 3)
+        assertThat(progress.map { it[1] }).containsExactly(3, 3, 3)
+    }
+
+    @Test
+    fun `rejects files which are not images without loading them`() {
+        val notAnImage = File(importDir, "not_an_image.jpg").apply { writeBytes(ByteArray(1024) { 42 }) }
+        val callback = mock<AsyncCallback<ImageMultiPageDocument, ImportedFileValidationException>>()
+        val task = createTask(callback)
+
+        val multiPageDocument = task.execute(createJpeg("image.jpg", 400, 300), Uri.fromFile(notAnImage))
+            .get(30, TimeUnit.SECONDS)
+
+        assertThat(multiPageDocument).isNull()
+        assertThat(task.peakReservedMemoryBytes).isAtMost(400L * 300 * 4 + 1024 * 1024)
+        // Only the valid image may have been copied
+        val storeFiles = File(context.filesDir, ImageDiskStore.STORE_DIR).list().orEmpty()
+        assertThat(storeFiles.size).isAtMost(1)
+    }
+
+    private fun createTask(
+        callback: AsyncCallback<ImageMultiPageDocument, ImportedFileValidationException> = mock()
+    ) = ImportImageFileUrisAsyncTask(
+        context, Intent(), GiniCapture.getInstance(), Document.Source.newExternalSource(),
+        Document.ImportMethod.PICKER, callback
+    )
+
+    private fun createJpeg(name: String, width: Int, height: Int): Uri =
+        createImage(name, width, height, Bitmap.CompressFormat.JPEG)
+
+    private fun createImage(name: String, width: Int, height: Int, format: Bitmap.CompressFormat): Uri {
+        val bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
+        bitmap.eraseColor(Color.GRAY)
+        val file = File(importDir, name)
+        file.outputStream().use { outputStream ->
+            bitmap.compress(format, 90, outputStream)
+        }
+        bitmap.recycle()
+        return Uri.fromFile(file)
+    }
+
+    private fun decodeWidth(jpeg: ByteArray): Int = decodeBounds(jpeg).outWidth
+
+    private fun decodeMimeType(image: ByteArray): String? = decodeBounds(image).outMimeType
+
+    private fun decodeBounds(image: ByteArray): BitmapFactory.Options {
+        val options = BitmapFactory.Options().apply { inJustDecodeBounds = true }
+        BitmapFactory.decodeByteArray(image, 0, image.size, options)
+        return options
+    }
+
+    private companion object {
+        const val LARGE_WIDTH = 4000
+        const val LARGE_HEIGHT = 3000
+    }
+}
@@ -0,0 +1,76 @@
+package net.gini.android.capture.internal.iban
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+
+class IBANScannerTest {
+
+    private val scanner = IBANScanner()
+    private val validator = IBANValidator()
+
+    @Test
+    fun `finds IBANs printed in blocks`() {
+        assertThat(scanner.scan("IBAN: DE78 5001 0517 2594 1814 38 BIC: INGDDEFFXXX"))
+            .containsExactly("DE78500105172594181438")
+    }
+
+    @Test
+    fun `finds IBANs with whitespace between the country code and the check digits`() {
+        assertThat(scanner.scan("IBAN-N DE 92 6808 0030 0672 2702 00")).containsExactly("DE92680800300672270200")
+    }
+
+    @Test
+    fun `finds IBANs separated by line breaks or several spaces`() {
+        assertThat(scanner.scan("DE78 5001 0517\n2594 1814 38")).containsExactly("DE78500105172594181438")
+        assertThat(scanner.scan("DE78    500105172594181438")).containsExactly("DE78500105172594181438")
+    }
+
+    @Test
+    fun `finds all IBANs in the order of appearance without duplicates`() {
+        val text = "AT19 5400 0713 4136 4866\nDE78500105172594181438\nAT195400071341364866"
+
+        assertThat(scanner.scan(text)).containsExactly("AT195400071341364866", "DE78500105172594181438").inOrder()
+    }
+
+    @Test
+    fun `ignores IBANs which continue with more letters or digits`() {
+        assertThat(scanner.scan("DE785001051725941814380")).isEmpty()
+        assertThat(scanner.scan("DE78500105172594181438X")).isEmpty()
+    }
+
+    @Test
+    fun `ignores IBANs split by other characters`() {
+        assertThat(scanner.scan("DE78-5001-0517-2594-1814-38")).isEmpty()
+    }
+
+    @Test
+    fun `corrects OCR confusions only if no IBAN was valid as recognized`() {
+        assertThat(scanner.scan("DE78 5OO1 O517 2594 1814 38")).containsExactly("DE78500105172594181438")
+        assertThat(scanner.scan("DE78 5OO1 O517 2594 1814 38\nAT195400071341364866"))
+            .containsExactly("AT195400071341364866")
+    }
+
+    @Test
+    fun `corrects OCR confusions in the check digits`() {
+        assertThat(scanner.scan("DE7B 5001 0517 2594 1814 38")).containsExactly("DE78500105172594181438")
+    }
+
+    @Test
+    fun `returns an empty list for text without IBANs`() {
+        assertThat(scanner.scan("")).isEmpty()
+        assertThat(scanner.scan("Ust-IdNr: DE815314378")).isEmpty()
+    }
+
+    @Test
+    fun `validator checks without allocating the same as validate`() {
+        assertThat(validator.check("DE78500105172594181438")).isNull()
+        assertThat(validator.check(" de78 5001 0517 2594 1814 38 ")).isNull()
+        assertThat(validator.check("")).isEqualTo(IBANValidator.IBANError.EMPTY)
+        assertThat(validator.check("DE78-5001")).isEqualTo(IBANValidator.IBANError.INVALID_CHARACTERS)
+        assertThat(validator.check("D178500105172594181438")).isEqualTo(IBANValidator.IBANError.INVALID_FORMAT)
+        assertThat(validator.check("XX78500105172594181438")).isEqualTo(IBANValidator.IBANError.INVALID_COUNTRY)
+        assertThat(validator.check("DE785001051725941814380")).isEqualTo(IBANValidator.IBANError.TOO_LONG)
+        assertThat(validator.check("DE7850010517259418143")).isEqualTo(IBANValidator.IBANError.TOO_SHORT)
+        assertThat(validator.check("DE79500105172594181438")).isEqualTo(IBANValidator.IBANError.INVALID_CHECKSUM)
+    }
+}
@@ -0,0 +1,106 @@
+package net.gini.android.capture.internal.network
+
+import android.os.Handler
+import android.os.Looper
+import net.gini.android.capture.Document
+import net.gini.android.capture.network.AnalysisResult
+import net.gini.android.capture.network.Error
+import net.gini.android.capture.network.GiniCaptureNetworkCallback
+import net.gini.android.capture.network.GiniCaptureNetworkService
+import net.gini.android.capture.network.Result
+import net.gini.android.capture.network.model.GiniCaptureCompoundExtraction
+import net.gini.android.capture.network.model.GiniCaptureSpecificExtraction
+import net.gini.android.capture.util.CancellationToken
+import okhttp3.Call
+import okhttp3.Callback
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.RequestBody.Companion.toRequestBody
+import okhttp3.Response
+import okhttp3.mockwebserver.MockWebServer
+import java.io.IOException
+import java.util.LinkedHashMap
+
+/**
+ * Uploads to the mock server and calls the callbacks on the main thread like the default network service. Partial
+ * uploads send their idempotency key in the `Idempotency-Key` header.
+ */
+internal class MockWebServerNetworkService(private val mockWebServer: MockWebServer) : GiniCaptureNetworkService {
+
+    private val client = OkHttpClient()
+    private val mainHandler = Handler(Looper.getMainLooper())
+
+    override fun upload(document: Document, callback: GiniCaptureNetworkCallback<Result, Error>) =
+        post(PARTIAL_PATH, document.data!!, null, callback) { Result(it) }
+
+    override fun upload(
+        document: Document,
+        idempotencyKey: String,
+        callback: GiniCaptureNetworkCallback<Result, Error>
+    ) = post(PARTIAL_PATH, document.data!!, idempotencyKey, callback) { Result(it) }
+
+    override fun analyze(
+        giniApiDocumentIdRotationMap: LinkedHashMap<String, Int>,
+        callback: GiniCaptureNetworkCallback<AnalysisResult, Error>
+    ) = post(COMPOSITE_PATH, giniApiDocumentIdRotationMap.keys.joinToString(",").toByteArray(), null, callback) {
+        AnalysisResult(it, emptyMap())
+    }
+
+    override fun delete(giniApiDocumentId: String, callback: GiniCaptureNetworkCallback<Result, Error>) =
+        CancellationToken { }.also { callback.success(Result(giniApiDocumentId)) }
+
+    override fun sendFeedback(
+        extractions: Map<String, GiniCaptureSpecificExtraction>,
+        compoundExtractions: Map<String, GiniCaptureCompoundExtraction>,
+        callback: GiniCaptureNetworkCallback<Void, Error>
+    ) = callback.success(null)
+
+    override fun deleteGiniUserCredentials() {}
+
+    override fun cleanup() {}
+
+    private fun <T> post(
+        path: String,
+        body: ByteArray,
+        idempotencyKey: String?,
+        callback: GiniCaptureNetworkCallback<T, Error>,
+        createResult: (String) -> T
+    ): CancellationToken {
+        val request = Request.Builder().url(mockWebServer.url(path)).post(body.toRequestBody()).apply {
+            if (idempotencyKey != null) header(IDEMPOTENCY_KEY_HEADER, idempotencyKey)
+        }.build()
+        val call = client.newCall(request)
+        call.enqueue(object : Callback {
+            override fun onFailure(call: Call, e: IOException) {
+                mainHandler.post {
+                    if (call.isCanceled()) callback.cancelled() else callback.failure(Error("Request failed", e))
+                }
+            }
+
+            override fun onResponse(call: Call, response: Response) {
+                val statusCode = response.code
+                val headers = response.headers.toMultimap()
+                val responseBody = try {
+                    response.use { it.body!!.string() }
+                } catch (e: IOException) {
+                    onFailure(call, e)
+                    return
+                }
+                mainHandler.post {
+                    if (statusCode in 200..299) {
+                        callback.success(createResult(responseBody))
+                    } else {
+                        callback.failure(Error(statusCode, headers, null))
+                    }
+                }
+            }
+        })
+        return CancellationToken { call.cancel() }
+    }
+
+    companion object {
+        const val PARTIAL_PATH = "/documents/partial"
+        const val COMPOSITE_PATH = "/documents/composite"
+        const val IDEMPOTENCY_KEY_HEADER = "Idempotency-Key"
+    }
+}
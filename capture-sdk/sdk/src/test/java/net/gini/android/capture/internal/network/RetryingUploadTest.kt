@@ -0,0 +1,259 @@
+package net.gini.android.capture.internal.network
+
+import android.content.Context
+import android.net.Uri
+import android.os.Looper
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.google.common.collect.Range
+import com.google.common.truth.Truth.assertThat
+import com.nhaarman.mockitokotlin2.any
+import com.nhaarman.mockitokotlin2.doAnswer
+import com.nhaarman.mockitokotlin2.doReturn
+import com.nhaarman.mockitokotlin2.mock
+import com.nhaarman.mockitokotlin2.whenever
+import jersey.repackaged.jsr166e.CompletableFuture
+import net.gini.android.capture.AsyncCallback
+import net.gini.android.capture.document.GiniCaptureDocument
+import net.gini.android.capture.internal.cache.DocumentDataMemoryCache
+import net.gini.android.capture.network.Error
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import okhttp3.mockwebserver.SocketPolicy
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.Shadows.shadowOf
+import java.io.File
+import java.io.IOException
+import java.time.Duration
+import java.util.Random
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Injects network faults with the mock server. The main looper's clock is advanced instead of waiting for the
+ * backoff delays. The mock server detects repeated uploads by their idempotency key like the Gini API.
+ */
+@RunWith(AndroidJUnit4::class)
+class RetryingUploadTest {
+
+    private val context: Context = ApplicationProvider.getApplicationContext()
+    private lateinit var mockWebServer: MockWebServer
+    private lateinit var queueFile: File
+    private lateinit var storeDir: File
+    private val faults = LinkedBlockingQueue<MockResponse>()
+    private val createdDocuments = ConcurrentHashMap<String, String>()
+    private val requestCount = AtomicInteger()
+    private var now = System.currentTimeMillis()
+    private val networkRequestsManagers = mutableListOf<NetworkRequestsManager>()
+
+    @Before
+    fun setup() {
+        mockWebServer = MockWebServer()
+        mockWebServer.dispatcher = IdempotentDispatcher()
+        mockWebServer.start()
+        queueFile = File(context.filesDir, UploadQueue.FILE_NAME)
+        storeDir = File(context.filesDir, "gc-images").apply { mkdirs() }
+    }
+
+    @After
+    fun teardown() {
+        networkRequestsManagers.forEach { it.cancelAll() }
+        mockWebServer.shutdown()
+        queueFile.delete()
+        storeDir.deleteRecursively()
+    }
+
+    @Test
+    fun `retries server errors and dropped connections until the upload succeeds`() {
+        faults.add(MockResponse().setResponseCode(503))
+        faults.add(MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AT_START))
+        faults.add(MockResponse().setResponseCode(429))
+        val networkRequestsManager = createNetworkRequestsManager(RetryPolicy(5, 1000, 60_000, Random(1)))
+        val page = createPage("flaky")
+
+        val result = await(networkRequestsManager.upload(context, page))
+
+        assertThat(result.apiDocumentId).startsWith("document-")
+        assertThat(requestCount.get()).isEqualTo(4)
+        // All attempts used the same key
+        assertThat(mockWebServer.takeRequests(4).map { it.getHeader(IDEMPOTENCY_KEY) }.toSet()).hasSize(1)
+    }
+
+    @Test
+    fun `does not retry client errors`() {
+        faults.add(MockResponse().setResponseCode(400))
+        val networkRequestsManager = createNetworkRequestsManager(RetryPolicy(5, 1000, 60_000, Random(1)))
+
+        val upload = networkRequestsManager.upload(context, createPage("invalid"))
+
+        assertThat(awaitFailure(upload)).isNotNull()
+        assertThat(requestCount.get()).isEqualTo(1)
+    }
+
+    @Test
+    fun `gives up after the maximum number of retries`() {
+        repeat(3) { faults.add(MockResponse().setResponseCode(500)) }
+        val networkRequestsManager = createNetworkRequestsManager(RetryPolicy(2, 1000, 60_000, Random(1)))
+
+        val upload = networkRequestsManager.upload(context, createPage("down"))
+
+        assertThat(awaitFailure(upload)).isNotNull()
+        assertThat(requestCount.get()).isEqualTo(3)
+    }
+
+    @Test
+    fun `backoff delays grow exponentially with jitter up to the maximum`() {
+        val retryPolicy = RetryPolicy(10, 1000, 60_000, Random(42))
+
+        for (attempt in 1..10) {
+            val maxDelay = minOf(60_000L, 1000L shl (attempt - 1))
+            assertThat(retryPolicy.getDelayMillis(attempt)).isIn(Range.closed(maxDelay / 2, maxDelay))
+        }
+        assertThat(retryPolicy.shouldRetry(1, Error("Request failed", IOException()))).isTrue()
+        assertThat(retryPolicy.shouldRetry(1, Error(503, emptyMap(), null))).isTrue()
+        assertThat(retryPolicy.shouldRetry(1, Error(401, emptyMap(), null))).isFalse()
+        assertThat(retryPolicy.shouldRetry(11, Error(503, emptyMap(), null))).isFalse()
+    }
+
+    @Test
+    fun `resumes a failed upload after a restart with the same idempotency key`() {
+        // The server creates the document, but the response is lost
+        faults.add(MockResponse().setSocketPolicy(SocketPolicy.DISCONNECT_AFTER_REQUEST))
+        val page = createPage("lost-response")
+        assertThat(awaitFailure(createNetworkRequestsManager(RetryPolicy.NONE).upload(context, page))).isNotNull()
+
+        // Restart
+        val result = await(createNetworkRequestsManager(RetryPolicy.NONE).upload(context, page))
+
+        val keys = mockWebServer.takeRequests(2).map { it.getHeader(IDEMPOTENCY_KEY) }
+        assertThat(keys[0]).isEqualTo(keys[1])
+        assertThat(createdDocuments).hasSize(1)
+        assertThat(result.apiDocumentId).isEqualTo(createdDocuments.values.single())
+    }
+
+    @Test
+    fun `does not upload a completed page again after a restart`() {
+        val page = createPage("completed")
+        val firstResult = await(createNetworkRequestsManager(RetryPolicy.NONE).upload(context, page))
+
+        // Restart
+        val result = await(createNetworkRequestsManager(RetryPolicy.NONE).upload(context, page))
+
+        assertThat(result.apiDocumentId).isEqualTo(firstResult.apiDocumentId)
+        assertThat(requestCount.get()).isEqualTo(1)
+    }
+
+    @Test
+    fun `starts over with a new idempotency key when the failed upload expired`() {
+        faults.add(MockResponse().setResponseCode(503))
+        val page = createPage("expired")
+        assertThat(awaitFailure(createNetworkRequestsManager(RetryPolicy.NONE).upload(context, page))).isNotNull()
+
+        // Restart two days later
+        now += TimeUnit.DAYS.toMillis(2)
+        await(createNetworkRequestsManager(RetryPolicy.NONE).upload(context, page))
+
+        val keys = mockWebServer.takeRequests(2).map { it.getHeader(IDEMPOTENCY_KEY) }
+        assertThat(keys[0]).isNotEqualTo(keys[1])
+    }
+
+    @Test
+    fun `cancelling an upload removes it from the queue`() {
+        faults.add(MockResponse().setResponseCode(503))
+        val networkRequestsManager = createNetworkRequestsManager(RetryPolicy(5, 1000, 60_000, Random(1)))
+        val page = createPage("cancelled")
+
+        val upload = networkRequestsManager.upload(context, page)
+        awaitRequests(1)
+        networkRequestsManager.cancel(page)
+        shadowOf(Looper.getMainLooper()).idleFor(Duration.ofMinutes(1))
+
+        assertThat(upload.isCancelled).isTrue()
+        assertThat(requestCount.get()).isEqualTo(1)
+        assertThat(createUploadQueue().get(page.id)).isNull()
+    }
+
+    private fun createNetworkRequestsManager(retryPolicy: RetryPolicy): NetworkRequestsManager {
+        val documentDataMemoryCache = mock<DocumentDataMemoryCache>()
+        doAnswer { invocation ->
+            @Suppress("UNCHECKED_CAST")
+            (invocation.arguments[2] as AsyncCallback<ByteArray, Exception>).onSuccess(ByteArray(1024))
+        }.whenever(documentDataMemoryCache).get(any(), any(), any())
+        return NetworkRequestsManager(
+            MockWebServerNetworkService(mockWebServer), documentDataMemoryCache, createUploadQueue(), retryPolicy
+        ).also { networkRequestsManagers.add(it) }
+    }
+
+    private fun createUploadQueue() = UploadQueue(queueFile, { it.run() }, { now })
+
+    private fun createPage(id: String): GiniCaptureDocument {
+        val file = File(storeDir, "$id.jpeg").apply { writeBytes(ByteArray(1024)) }
+        return mock {
+            on { this.id } doReturn id
+            on { uri } doReturn Uri.fromFile(file)
+            on { data } doReturn ByteArray(1024)
+        }
+    }
+
+    private fun <T> await(future: CompletableFuture<T>): T {
+        awaitDone(future)
+        return future.get(0, TimeUnit.MILLISECONDS)
+    }
+
+    private fun awaitFailure(future: CompletableFuture<*>): Throwable? {
+        awaitDone(future)
+        return try {
+            future.get(0, TimeUnit.MILLISECONDS)
+            null
+        } catch (e: ExecutionException) {
+            e.cause
+        }
+    }
+
+    private fun awaitDone(future: CompletableFuture<*>) {
+        val deadline = System.currentTimeMillis() + 10_000
+        while (!future.isDone && System.currentTimeMillis() < deadline) {
+            // Advances the clock past the scheduled retries
+            shadowOf(Looper.getMainLooper()).idleFor(Duration.ofSeconds(1))
+            Thread.sleep(5)
+        }
+    }
+
+    private fun awaitRequests(count: Int) {
+        val deadline = System.currentTimeMillis() + 10_000
+        while (requestCount.get() < count && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5)
+        }
+        // Let the failure callback schedule the retry
+        Thread.sleep(100)
+        shadowOf(Looper.getMainLooper()).idle()
+    }
+
+    private fun MockWebServer.takeRequests(count: Int) = (1..count).map { takeRequest(1, TimeUnit.SECONDS)!! }
+
+    private inner class IdempotentDispatcher : Dispatcher() {
+
+        override fun dispatch(request: RecordedRequest): MockResponse {
+            requestCount.incrementAndGet()
+            val key = request.getHeader(IDEMPOTENCY_KEY) ?: return MockResponse().setResponseCode(400)
+            val fault = faults.poll()
+            if (fault != null && fault.socketPolicy != SocketPolicy.DISCONNECT_AFTER_REQUEST) {
+                return fault
+            }
+            val documentId = createdDocuments.getOrPut(key) { "document-${createdDocuments.size + 1}" }
+            return fault ?: MockResponse().setBody(documentId)
+        }
+    }
+
+    private companion object {
+        const val IDEMPOTENCY_KEY = MockWebServerNetworkService.IDEMPOTENCY_KEY_HEADER
+    }
+}
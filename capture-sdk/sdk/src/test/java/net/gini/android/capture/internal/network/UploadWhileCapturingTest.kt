@@ -0,0 +1,201 @@
+package net.gini.android.capture.internal.network
+
+import android.content.Context
+import android.os.Looper
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.google.common.truth.Truth.assertThat
+import com.nhaarman.mockitokotlin2.any
+import com.nhaarman.mockitokotlin2.doAnswer
+import com.nhaarman.mockitokotlin2.doReturn
+import com.nhaarman.mockitokotlin2.mock
+import com.nhaarman.mockitokotlin2.whenever
+import jersey.repackaged.jsr166e.CompletableFuture
+import net.gini.android.capture.AsyncCallback
+import net.gini.android.capture.document.GiniCaptureDocument
+import net.gini.android.capture.document.GiniCaptureDocumentError
+import net.gini.android.capture.document.GiniCaptureMultiPageDocument
+import net.gini.android.capture.internal.cache.DocumentDataMemoryCache
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.Shadows.shadowOf
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Checks which requests are left to send after the last page was captured. Instead of measuring time the tests wait
+ * for each upload request to reach the mock server before the next page is captured.
+ */
+@RunWith(AndroidJUnit4::class)
+class UploadWhileCapturingTest {
+
+    private val context: Context = ApplicationProvider.getApplicationContext()
+    private lateinit var mockWebServer: MockWebServer
+    private lateinit var networkRequestsManager: NetworkRequestsManager
+    private val partialUploadCount = AtomicInteger()
+    private val compositeCount = AtomicInteger()
+
+    @Before
+    fun setup() {
+        mockWebServer = MockWebServer()
+        mockWebServer.dispatcher = DocumentsDispatcher()
+        mockWebServer.start()
+
+        val documentDataMemoryCache = mock<DocumentDataMemoryCache>()
+        doAnswer { invocation ->
+            @Suppress("UNCHECKED_CAST")
+            (invocation.arguments[2] as AsyncCallback<ByteArray, Exception>).onSuccess(ByteArray(1024))
+        }.whenever(documentDataMemoryCache).get(any(), any(), any())
+
+        networkRequestsManager = NetworkRequestsManager(
+            MockWebServerNetworkService(mockWebServer), documentDataMemoryCache
+        )
+    }
+
+    @After
+    fun teardown() {
+        networkRequestsManager.cancelAll()
+        mockWebServer.shutdown()
+    }
+
+    @Test
+    fun `uploading while capturing leaves only the analysis request after the last capture`() {
+        val requestsAfterCapturing = captureAndAnalyze(createPages("while"), uploadWhileCapturing = true)
+
+        assertThat(requestsAfterCapturing).containsExactly(MockWebServerNetworkService.COMPOSITE_PATH)
+    }
+
+    @Test
+    fun `uploading after capturing sends all pages after the last capture`() {
+        val requestsAfterCapturing = captureAndAnalyze(createPages("after"), uploadWhileCapturing = false)
+
+        assertThat(requestsAfterCapturing).containsExactlyElementsIn(
+            List(PAGE_COUNT) { MockWebServerNetworkService.PARTIAL_PATH } + MockWebServerNetworkService.COMPOSITE_PATH
+        ).inOrder()
+    }
+
+    @Test
+    fun `analysis reuses the uploads started while capturing`() {
+        val pages = createPages("reuse")
+
+        captureAndAnalyze(pages, uploadWhileCapturing = true)
+
+        assertThat(partialUploadCount.get()).isEqualTo(PAGE_COUNT)
+        assertThat(compositeCount.get()).isEqualTo(1)
+    }
+
+    @Test
+    fun `cancelling the upload of a deleted page allows uploading it again`() {
+        val page = createPage("deleted")
+
+        val upload = networkRequestsManager.upload(context, page)
+        networkRequestsManager.cancel(page)
+        val newUpload = networkRequestsManager.upload(context, page)
+
+        assertThat(upload.isCancelled).isTrue()
+        assertThat(newUpload).isNotSameInstanceAs(upload)
+        assertThat(await(newUpload).apiDocumentId).startsWith("partial-")
+    }
+
+    @Test
+    fun `does not cancel the upload of a deleted page which was already sent`() {
+        val page = createPage("sent")
+        val upload = networkRequestsManager.upload(context, page)
+
+        val cancelled = networkRequestsManager.cancelUploadIfNotStarted(page)
+
+        assertThat(cancelled).isFalse()
+        assertThat(await(upload).apiDocumentId).startsWith("partial-")
+    }
+
+    @Test
+    fun `cancels the upload of a deleted page while its data is still loading`() {
+        val pendingDataCallbacks = mutableListOf<AsyncCallback<ByteArray, Exception>>()
+        val documentDataMemoryCache = mock<DocumentDataMemoryCache>()
+        doAnswer { invocation ->
+            @Suppress("UNCHECKED_CAST")
+            pendingDataCallbacks.add(invocation.arguments[2] as AsyncCallback<ByteArray, Exception>)
+        }.whenever(documentDataMemoryCache).get(any(), any(), any())
+        val manager = NetworkRequestsManager(MockWebServerNetworkService(mockWebServer), documentDataMemoryCache)
+        val page = createPage("loading")
+        val upload = manager.upload(context, page)
+
+        val cancelled = manager.cancelUploadIfNotStarted(page)
+        pendingDataCallbacks.forEach { it.onSuccess(ByteArray(1024)) }
+
+        assertThat(cancelled).isTrue()
+        assertThat(upload.isCancelled).isTrue()
+        assertThat(partialUploadCount.get()).isEqualTo(0)
+    }
+
+    /**
+     * Returns the paths of the requests which reached the mock server after the last page was captured.
+     */
+    private fun captureAndAnalyze(
+        pages: List<GiniCaptureDocument>,
+        uploadWhileCapturing: Boolean
+    ): List<String?> {
+        for (page in pages) {
+            if (uploadWhileCapturing) {
+                networkRequestsManager.upload(context, page)
+                // The upload reaches the server before the user takes the next picture
+                assertThat(mockWebServer.takeRequest(10, TimeUnit.SECONDS)?.path)
+                    .isEqualTo(MockWebServerNetworkService.PARTIAL_PATH)
+            }
+        }
+        assertThat(mockWebServer.requestCount).isEqualTo(if (uploadWhileCapturing) pages.size else 0)
+
+        // Same as the analysis screen: upload all pages and analyze them
+        pages.forEach { networkRequestsManager.upload(context, it) }
+        val analysisResult = await(networkRequestsManager.analyze(createMultiPageDocument(pages)))
+        assertThat(analysisResult.apiDocumentId).isEqualTo("composite")
+
+        return generateSequence { mockWebServer.takeRequest(0, TimeUnit.MILLISECONDS) }.map { it.path }.toList()
+    }
+
+    private fun <T> await(future: CompletableFuture<T>): T {
+        val deadline = System.currentTimeMillis() + 10_000
+        while (!future.isDone && System.currentTimeMillis() < deadline) {
+            shadowOf(Looper.getMainLooper()).idle()
+            Thread.sleep(5)
+        }
+        return future.get(0, TimeUnit.MILLISECONDS)
+    }
+
+    private fun createPages(prefix: String) = (1..PAGE_COUNT).map { createPage("$prefix-$it") }
+
+    private fun createPage(id: String): GiniCaptureDocument = mock {
+        on { this.id } doReturn id
+        on { data } doReturn ByteArray(1024)
+    }
+
+    private fun createMultiPageDocument(pages: List<GiniCaptureDocument>) =
+        mock<GiniCaptureMultiPageDocument<GiniCaptureDocument, GiniCaptureDocumentError>> {
+            on { id } doReturn "multi-page-${pages.first().id}"
+            on { documents } doReturn pages
+        }
+
+    private inner class DocumentsDispatcher : Dispatcher() {
+
+        override fun dispatch(request: RecordedRequest): MockResponse =
+            when (request.path) {
+                MockWebServerNetworkService.PARTIAL_PATH ->
+                    MockResponse().setBody("partial-${partialUploadCount.incrementAndGet()}")
+                MockWebServerNetworkService.COMPOSITE_PATH -> {
+                    compositeCount.incrementAndGet()
+                    MockResponse().setBody("composite")
+                }
+                else -> MockResponse().setResponseCode(404)
+            }
+    }
+
+    private companion object {
+        const val PAGE_COUNT = 5
+    }
+}
@@ -0,0 +1,112 @@
+package net.gini.android.capture.internal.qrcode
+
+import org.tukaani.xz.LZMA2Options
+import org.tukaani.xz.LZMAOutputStream
+import java.io.ByteArrayOutputStream
+
+/**
+ * Creates Pay by Square QR code contents for tests.
+ */
+internal object PayBySquarePayloads {
+
+    /**
+     * Builds a real bysquare-compatible QR code string for testing.
+     *
+     * Binary structure produced (per the bysquare spec):
+     *   [2-byte bysquare header] [2-byte payload length] [raw LZMA body (header stripped)]
+     *
+     * Uncompressed content (before LZMA):
+     *   [4-byte CRC32 placeholder] [TAB-separated fields]
+     *
+     * TAB-separated field layout for a single payment with one bank account:
+     *   0:invoiceId, 1:paymentsCount, 2:paymentType, 3:amount, 4:currency,
+     *   5:dueDate, 6:variableSymbol, 7:constantSymbol, 8:specificSymbol,
+     *   9:originatorRef, 10:paymentNote, 11:bankAccountsCount,
+     *   12:IBAN, 13:BIC, 14:standingOrderExt, 15:directDebitExt,
+     *   16:beneficiaryName, 17:beneficiaryStreet, 18:beneficiaryCity
+     */
+    fun build(
+        amount: String = "100.00",
+        currency: String = "EUR",
+        iban: String = "SK6807200002891987426353",
+        bic: String = "TATRSKBX",
+        beneficiaryName: String = "Jan Novak",
+        variableSymbol: String = "9876",
+        paymentNote: String = "Invoice",
+    ): String {
+        val fields = listOf(
+            "",             // 0: invoiceId
+            "1",            // 1: paymentsCount
+            "1",            // 2: payment type (1 = regular payment)
+            amount,         // 3: amount
+            currency,       // 4: currencyCode
+            "",             // 5: paymentDueDate
+            variableSymbol, // 6: variableSymbol
+            "",             // 7: constantSymbol
+            "",             // 8: specificSymbol
+            "",             // 9: originatorsReferenceInformation
+            paymentNote,    // 10: paymentNote
+            "1",            // 11: bankAccountsCount
+            iban,           // 12: IBAN
+            bic,            // 13: BIC
+            "0",            // 14: standingOrderExt
+            "0",            // 15: directDebitExt
+            beneficiaryName, // 16: beneficiaryName
+            "",             // 17: beneficiaryStreet
+            "",             // 18: beneficiaryCity
+        )
+        val tabSeparated = fields.joinToString("\t")
+
+        // Prepend 4-byte CRC32 placeholder (zeros) then LZMA-compress the whole thing
+        val uncompressed = ByteArray(4) + tabSeparated.toByteArray(Charsets.UTF_8)
+        val compressed = lzmaCompress(uncompressed)
+
+        // Strip the 13-byte LZMA "alone" header (the bysquare encoder always strips it)
+        val lzmaBody = compressed.copyOfRange(13, compressed.size)
+        val payloadLength = uncompressed.size
+
+        // Build the bysquare binary: [header] [payload length] [lzma body]
+        val raw = byteArrayOf(0x00, 0x00) +
+                byteArrayOf(
+                    (payloadLength and 0xFF).toByte(),
+                    ((payloadLength shr 8) and 0xFF).toByte(),
+                ) +
+                lzmaBody
+
+        return encodeBase32(raw)
+    }
+
+    fun lzmaCompress(data: ByteArray): ByteArray {
+        val bos = ByteArrayOutputStream()
+        val options = LZMA2Options().apply { dictSize = 131072 }
+        LZMAOutputStream(bos, options, data.size.toLong()).use { it.write(data) }
+        return bos.toByteArray()
+    }
+
+    /**
+     * Encodes raw bytes into a bysquare base32hex string.
+     * Each output character encodes 5 bits (MSB first), using the alphabet 0–9A–V.
+     */
+    fun encodeBase32(bytes: ByteArray): String {
+        val alphabet = "0123456789ABCDEFGHIJKLMNOPQRSTUV"
+        val totalBits = bytes.size * 8
+        val numChars = (totalBits + 4) / 5
+        val sb = StringBuilder(numChars)
+        for (charIndex in 0 until numChars) {
+            val bitStart = charIndex * 5
+            var value = 0
+            for (i in 0..4) {
+                val bitPos = bitStart + i
+                if (bitPos < totalBits) {
+                    val byteIdx = bitPos / 8
+                    val bitInByte = 7 - (bitPos % 8)
+                    if ((bytes[byteIdx].toInt() shr bitInByte) and 1 == 1) {
+                        value = value or (1 shl (4 - i))
+                    }
+                }
+            }
+            sb.append(alphabet[value])
+        }
+        return sb.toString()
+    }
+}
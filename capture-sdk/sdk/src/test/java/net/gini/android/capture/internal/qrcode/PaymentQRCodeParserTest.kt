@@ -0,0 +1,154 @@
+package net.gini.android.capture.internal.qrcode
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.google.common.truth.Truth.assertThat
+import com.nhaarman.mockitokotlin2.mock
+import com.nhaarman.mockitokotlin2.whenever
+import net.gini.android.capture.GiniCapture
+import net.gini.android.capture.GiniCaptureHelper
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+
+@RunWith(AndroidJUnit4::class)
+class PaymentQRCodeParserTest {
+
+    private lateinit var parser: PaymentQRCodeParser
+
+    @Before
+    fun setup() {
+        val giniCapture = mock<GiniCapture>()
+        whenever(giniCapture.isQRCodeScanningEnabled).thenReturn(true)
+        GiniCaptureHelper.setGiniCaptureInstance(giniCapture)
+        parser = PaymentQRCodeParser()
+    }
+
+    @After
+    fun teardown() {
+        GiniCaptureHelper.setGiniCaptureInstance(null)
+    }
+
+    @Test
+    fun `parses each supported format`() {
+        val expectedFormats = mapOf(
+            BEZAHL_CODE to PaymentQRCodeData.Format.BEZAHL_CODE,
+            GIRO_CODE to PaymentQRCodeData.Format.EPC069_12,
+            GIRO_CODE.replace("\n", "\r\n") to PaymentQRCodeData.Format.EPC069_12,
+            EPS_PAYMENT to PaymentQRCodeData.Format.EPS_PAYMENT,
+            SPC to PaymentQRCodeData.Format.SPC,
+            SPD to PaymentQRCodeData.Format.SPD,
+            UPNQR to PaymentQRCodeData.Format.UPNQR,
+            HUB3 to PaymentQRCodeData.Format.HUB3,
+            GINI_PAYMENT to PaymentQRCodeData.Format.GINI_PAYMENT,
+            PayBySquarePayloads.build() to PaymentQRCodeData.Format.PAY_BY_SQUARE,
+        )
+
+        expectedFormats.forEach { (content, format) ->
+            val result = parser.tryParse(content)
+
+            assertThat(result).isInstanceOf(PaymentQRCodeParseResult.Success::class.java)
+            assertThat((result as PaymentQRCodeParseResult.Success).paymentQRCodeData.format).isEqualTo(format)
+        }
+    }
+
+    @Test
+    fun `returns failure for unknown content`() {
+        JUNK.forEach { content ->
+            assertThat(parser.tryParse(content)).isInstanceOf(PaymentQRCodeParseResult.Failure::class.java)
+        }
+    }
+
+    @Test
+    fun `returns failure with the reason for malformed content of a supported format`() {
+        val result = parser.tryParse(GIRO_CODE.replace("AT736000000002386492", "AT00INVALID"))
+
+        assertThat(result).isInstanceOf(PaymentQRCodeParseResult.Failure::class.java)
+        assertThat((result as PaymentQRCodeParseResult.Failure).reason).contains("Invalid IBAN")
+    }
+
+    @Test
+    fun `does not mistake a header prefix for a header line`() {
+        assertThat(parser.tryParse("BCDE\n001\n2\nSCT")).isInstanceOf(PaymentQRCodeParseResult.Failure::class.java)
+        assertThat(parser.tryParse("SPCX\n0200")).isInstanceOf(PaymentQRCodeParseResult.Failure::class.java)
+    }
+
+    @Test
+    fun `only parses gini payment urls when payment formats are disabled`() {
+        GiniCaptureHelper.setGiniCaptureInstance(null)
+        val giniPaymentOnlyParser = PaymentQRCodeParser()
+
+        assertThat(giniPaymentOnlyParser.tryParse(GIRO_CODE))
+            .isInstanceOf(PaymentQRCodeParseResult.Failure::class.java)
+        assertThat(giniPaymentOnlyParser.tryParse(GINI_PAYMENT))
+            .isInstanceOf(PaymentQRCodeParseResult.Success::class.java)
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun `parse throws for unknown content`() {
+        parser.parse("https://www.example.com")
+    }
+
+    @Test
+    fun `parses swiss qr bills`() {
+        val result = parser.tryParse(SPC)
+
+        assertThat(result).isInstanceOf(PaymentQRCodeParseResult.Success::class.java)
+        val data = (result as PaymentQRCodeParseResult.Success).paymentQRCodeData
+        assertThat(data.getFormat()).isEqualTo(PaymentQRCodeData.Format.SPC)
+        assertThat(data.getIBAN()).isEqualTo("CH5604835012345678009")
+        assertThat(data.getPaymentRecipient()).isEqualTo("Robert Schneider AG")
+        assertThat(data.getAmount()).isEqualTo("100.00:CHF")
+    }
+
+    @Test
+    fun `parses pay by square codes`() {
+        val result = parser.tryParse(PayBySquarePayloads.build())
+
+        assertThat(result).isInstanceOf(PaymentQRCodeParseResult.Success::class.java)
+        val data = (result as PaymentQRCodeParseResult.Success).paymentQRCodeData
+        assertThat(data.getFormat()).isEqualTo(PaymentQRCodeData.Format.PAY_BY_SQUARE)
+        assertThat(data.getIBAN()).isEqualTo("SK6807200002891987426353")
+        assertThat(data.getPaymentRecipient()).isEqualTo("Jan Novak")
+        assertThat(data.getAmount()).isEqualTo("100.00:EUR")
+    }
+
+    private companion object {
+        const val BEZAHL_CODE =
+            "bank://singlepaymentsepa?name=Gini%20GmbH&reason=Invoice%201234&iban=DE89370400440532013000&bic=COBADEFFXXX&amount=12,34"
+        const val GIRO_CODE = "BCD\n001\n2\nSCT\nBAWAATWW\nMagistrat der Stadt Wien\nAT736000000002386492\n" +
+                "EUR58.99\n\n\nFuer Franz Mustermann"
+        const val EPS_PAYMENT = "epspayment://eps.or.at/?transactionid=epsJMG15K752"
+        val SPC = listOf(
+            "SPC", "0200", "1", "CH5604835012345678009",
+            "S", "Robert Schneider AG", "Rue du Lac", "1268", "2501", "Biel", "CH",
+            "", "", "", "", "", "", "",
+            "100.00", "CHF",
+            "", "", "", "", "", "", "",
+            "QRR", "210000000003139471430009017", "Invoice 1234",
+            "EPD", "",
+        ).joinToString("\n")
+        const val SPD = "SPD*1.0*ACC:SK6807200002891987426353*AM:100.00*CC:EUR*RN:Jan Novak*MSG:Invoice*"
+        val UPNQR = listOf(
+            "UPNQR", "", "", "", "", "Marko Kranjc", "Slovenčeva 22", "1000 Ljubljana", "0000010000",
+            "01012024", "", "GDSV", "SI00RI-123-456", "", "SI56020170014356205", "", "Janez Novak",
+            "Rožna dolina 5", "1000 Ljubljana", "474"
+        ).joinToString("\n")
+        val HUB3 = listOf(
+            "HRVHUB30", "EUR", "000000010000", "Platitelj Marko", "Ilica 1", "10000 Zagreb",
+            "Primatelj d.o.o.", "Vukovarska 2", "10000 Zagreb", "HR1723600001101234565", "HR99",
+            "HR99 123-456", "COST", "Uplata po računu"
+        ).joinToString("\n")
+        const val GINI_PAYMENT = "https://pay.gini.net/pay/1234567890"
+
+        val JUNK = listOf(
+            "https://www.example.com/product/42",
+            "WIFI:S:Gini Guest;T:WPA;P:secret;;",
+            "BEGIN:VCARD\nVERSION:3.0\nN:Mustermann;Max\nEND:VCARD",
+            "4006381333931",
+            "VUTSRQPONMLKJIHGFEDCBA9876543210",
+            "Hello, world!",
+            "",
+        )
+    }
+}
@@ -0,0 +1,123 @@
+package net.gini.android.capture.internal.qrcode
+
+import android.media.Image
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.google.common.truth.Truth.assertThat
+import com.nhaarman.mockitokotlin2.any
+import com.nhaarman.mockitokotlin2.mock
+import com.nhaarman.mockitokotlin2.times
+import com.nhaarman.mockitokotlin2.verify
+import com.nhaarman.mockitokotlin2.whenever
+import net.gini.android.capture.GiniCapture
+import net.gini.android.capture.GiniCaptureHelper
+import net.gini.android.capture.internal.util.Size
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.shadows.ShadowSystemClock
+import java.time.Duration
+
+@RunWith(AndroidJUnit4::class)
+class PaymentQRCodeReaderTest {
+
+    private lateinit var detector: FakeQRCodeDetector
+    private lateinit var listener: PaymentQRCodeReader.Listener
+    private lateinit var reader: PaymentQRCodeReader
+
+    @Before
+    fun setup() {
+        val giniCapture = mock<GiniCapture>()
+        whenever(giniCapture.isQRCodeScanningEnabled).thenReturn(true)
+        GiniCaptureHelper.setGiniCaptureInstance(giniCapture)
+
+        detector = FakeQRCodeDetector()
+        listener = mock()
+        reader = PaymentQRCodeReader(detector, PaymentQRCodeParser())
+        reader.setListener(listener)
+    }
+
+    @After
+    fun teardown() {
+        GiniCaptureHelper.setGiniCaptureInstance(null)
+    }
+
+    @Test
+    fun `parses the same content only once`() {
+        repeat(5) { detector.detected(listOf(GIRO_CODE)) }
+
+        assertThat(reader.parseCacheMissCount).isEqualTo(1)
+        assertThat(reader.parseCacheHitCount).isEqualTo(4)
+    }
+
+    @Test
+    fun `caches the verdict for non payment content`() {
+        repeat(3) { detector.detected(listOf(NON_PAYMENT_CODE)) }
+
+        assertThat(reader.parseCacheMissCount).isEqualTo(1)
+        assertThat(reader.parseCacheHitCount).isEqualTo(2)
+    }
+
+    @Test
+    fun `notifies the listener only once for the same content in consecutive frames`() {
+        repeat(5) { detector.detected(listOf(GIRO_CODE)) }
+
+        verify(listener, times(1)).onPaymentQRCodeDataAvailable(any())
+    }
+
+    @Test
+    fun `notifies the listener when the content changes`() {
+        detector.detected(listOf(GIRO_CODE))
+        detector.detected(listOf(NON_PAYMENT_CODE))
+        detector.detected(listOf(GIRO_CODE))
+
+        verify(listener, times(2)).onPaymentQRCodeDataAvailable(any())
+        verify(listener, times(1)).onNonPaymentQRCodeDetected(NON_PAYMENT_CODE)
+    }
+
+    @Test
+    fun `notifies the listener only once for each of two codes in consecutive frames`() {
+        repeat(5) { detector.detected(listOf(NON_PAYMENT_CODE, GIRO_CODE)) }
+
+        verify(listener, times(1)).onNonPaymentQRCodeDetected(NON_PAYMENT_CODE)
+        verify(listener, times(1)).onPaymentQRCodeDataAvailable(any())
+    }
+
+    @Test
+    fun `notifies the listener again for the same content after the delivery interval`() {
+        detector.detected(listOf(GIRO_CODE))
+        ShadowSystemClock.advanceBy(Duration.ofMillis(1000))
+        detector.detected(listOf(GIRO_CODE))
+
+        verify(listener, times(2)).onPaymentQRCodeDataAvailable(any())
+    }
+
+    private class FakeQRCodeDetector : QRCodeDetector {
+
+        private var listener: QRCodeDetector.Listener? = null
+
+        fun detected(qrCodes: List<String>) {
+            listener?.onQRCodesDetected(qrCodes)
+        }
+
+        override fun detect(image: Image, imageSize: Size, rotation: Int, callback: QRCodeDetector.Callback) {
+            callback.onDetectionFinished()
+        }
+
+        override fun detect(image: ByteArray, imageSize: Size, rotation: Int) {
+        }
+
+        override fun release() {
+        }
+
+        override fun setListener(listener: QRCodeDetector.Listener?) {
+            this.listener = listener
+        }
+    }
+
+    private companion object {
+        const val GIRO_CODE = "BCD\n001\n2\nSCT\nBAWAATWW\nMagistrat der Stadt Wien\nAT736000000002386492\n" +
+                "EUR58.99\n\n\nFuer Franz Mustermann"
+        const val NON_PAYMENT_CODE = "https://www.example.com/product/42"
+    }
+}
@@ -16,6 +16,8 @@ import android.content.ContentResolver;
 import android.net.Uri;
 import android.webkit.MimeTypeMap;
 
+import net.gini.android.capture.AsyncCallback;
+
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.mockito.Mockito;
@@ -26,8 +28,15 @@ import org.robolectric.shadows.ShadowContentResolver;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.UUID;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import androidx.test.ext.junit.runners.AndroidJUnit4;
 
@@ -71,6 +80,25 @@ public class ImageDiskStoreTest {
         assertThat(storeDir.listFiles()[0].getAbsolutePath()).isEqualTo(uri.getPath());
     }
 
+    @Test
+    public void should_onlyTreatUris_inTheStoreFolder_asStoreUris() throws Exception {
+        // Given
+        final ImageDiskStore imageDiskStore = new ImageDiskStore();
+        final Application appContext = getApplicationContext();
+
+        // When
+        final Uri uri = imageDiskStore.save(appContext, getTestJpeg());
+
+        // Then
+        final File storeDir = new File(appContext.getFilesDir(), ImageDiskStore.STORE_DIR);
+        assertThat(ImageDiskStore.isStoreUri(appContext, uri)).isTrue();
+        assertThat(ImageDiskStore.isStoreUri(appContext,
+                Uri.fromFile(new File(new File(appContext.getCacheDir(), ImageDiskStore.STORE_DIR), "image"))))
+                .isFalse();
+        assertThat(ImageDiskStore.isStoreUri(appContext,
+                Uri.fromFile(new File(storeDir, "../../" + ImageDiskStore.STORE_DIR + "/image")))).isFalse();
+    }
+
     @Test
     public void should_notUseExtension_whenSavingByteArray() throws Exception {
         // Given
@@ -271,6 +299,207 @@ public class ImageDiskStoreTest {
         assertThat(nonStoreFile.exists()).isTrue();
     }
 
+    @Test
+    public void should_notLeavePartialFiles_whenWriteIsInterrupted() throws Exception {
+        // Given
+        final ImageDiskStore imageDiskStore = new ImageDiskStore();
+        final Application appContext = getApplicationContext();
+        final Uri uri = Uri.parse("content://test/interrupted.jpg");
+        // Fails after more than the write buffer was written to the disk
+        shadowOf(appContext.getContentResolver()).registerInputStream(uri,
+                new FailingInputStream(200_000));
+
+        // When
+        final Uri resultUri = imageDiskStore.save(appContext, uri);
+
+        // Then
+        assertThat(resultUri).isNull();
+        final File storeDir = new File(appContext.getFilesDir(), ImageDiskStore.STORE_DIR);
+        assertThat(storeDir.listFiles()).isEmpty();
+    }
+
+    @Test
+    public void should_keepPreviousContents_whenUpdateIsInterrupted() throws Exception {
+        // Given
+        final ImageDiskStore imageDiskStore = spy(new ImageDiskStore());
+        final Application appContext = getApplicationContext();
+        final byte[] jpeg = getTestJpeg();
+        final Uri uri = imageDiskStore.save(appContext, jpeg);
+        Mockito.doThrow(new IOException()).when(imageDiskStore).writeToFile(any(File.class),
+                any(byte[].class));
+
+        // When
+        final boolean result = imageDiskStore.update(uri, new byte[]{10, 20, 1, 34, 42});
+
+        // Then
+        assertThat(result).isFalse();
+        assertThat(new File(uri.getPath()).length()).isEqualTo(jpeg.length);
+    }
+
+    @Test
+    public void should_deleteTemporaryFiles_ofWritesInterruptedByProcessDeath_whenTrimming()
+            throws Exception {
+        // Given
+        final Application appContext = getApplicationContext();
+        final File storeDir = new File(appContext.getFilesDir(), ImageDiskStore.STORE_DIR);
+        final Uri savedUri = new ImageDiskStore().save(appContext, getTestJpeg());
+        // A killed process leaves only the temporary file behind
+        final File tempFile = new File(storeDir, UUID.randomUUID() + ImageDiskStore.TEMP_FILE_EXTENSION);
+        writeBytes(tempFile, new byte[1000]);
+        setLastModified(storeDir, System.currentTimeMillis() - TimeUnit.MINUTES.toMillis(5));
+
+        // When
+        new ImageDiskStore().trim(appContext);
+
+        // Then
+        assertThat(storeDir.listFiles()).hasLength(1);
+        assertThat(storeDir.listFiles()[0].getAbsolutePath()).isEqualTo(savedUri.getPath());
+    }
+
+    @Test
+    public void should_deleteImagesOlderThanMaxAge_fromPreviousSessions_whenTrimming()
+            throws Exception {
+        // Given
+        final Application appContext = getApplicationContext();
+        final File storeDir = new File(appContext.getFilesDir(), ImageDiskStore.STORE_DIR);
+        final Uri expiredUri = new ImageDiskStore().save(appContext, getTestJpeg());
+        new File(expiredUri.getPath()).setLastModified(
+                System.currentTimeMillis() - TimeUnit.HOURS.toMillis(25));
+        final Uri recentUri = new ImageDiskStore().save(appContext, getTestJpeg());
+        new File(recentUri.getPath()).setLastModified(
+                System.currentTimeMillis() - TimeUnit.HOURS.toMillis(1));
+
+        // When
+        new ImageDiskStore(ImageDiskStore.DEFAULT_MAX_SIZE_BYTES, TimeUnit.HOURS.toMillis(24))
+                .trim(appContext);
+
+        // Then
+        assertThat(storeDir.listFiles()).hasLength(1);
+        assertThat(storeDir.listFiles()[0].getAbsolutePath()).isEqualTo(recentUri.getPath());
+    }
+
+    @Test
+    public void should_deleteOldestImages_fromPreviousSessions_whenExceedingMaxSize()
+            throws Exception {
+        // Given
+        final Application appContext = getApplicationContext();
+        final File storeDir = new File(appContext.getFilesDir(), ImageDiskStore.STORE_DIR);
+        final byte[] jpeg = getTestJpeg();
+        final long now = System.currentTimeMillis();
+        final Uri oldestUri = new ImageDiskStore().save(appContext, jpeg);
+        new File(oldestUri.getPath()).setLastModified(now - 3000);
+        final Uri olderUri = new ImageDiskStore().save(appContext, jpeg);
+        new File(olderUri.getPath()).setLastModified(now - 2000);
+        final Uri newestUri = new ImageDiskStore().save(appContext, jpeg);
+        new File(newestUri.getPath()).setLastModified(now - 1000);
+
+        // When
+        new ImageDiskStore(jpeg.length * 2L, ImageDiskStore.DEFAULT_MAX_AGE_MILLIS).trim(appContext);
+
+        // Then
+        assertThat(new File(oldestUri.getPath()).exists()).isFalse();
+        assertThat(new File(olderUri.getPath()).exists()).isTrue();
+        assertThat(new File(newestUri.getPath()).exists()).isTrue();
+    }
+
+    @Test
+    public void should_notEvictImages_ofCurrentSession() throws Exception {
+        // Given
+        final ImageDiskStore imageDiskStore = new ImageDiskStore(0, 0);
+        final Application appContext = getApplicationContext();
+
+        // When
+        final Uri uri = imageDiskStore.save(appContext, getTestJpeg());
+        imageDiskStore.trim(appContext);
+
+        // Then
+        assertThat(new File(uri.getPath()).exists()).isTrue();
+    }
+
+    @Test
+    public void should_saveAsync_onIOExecutor() throws Exception {
+        // Given
+        final QueueingExecutor ioExecutor = new QueueingExecutor();
+        final ImageDiskStore imageDiskStore = new ImageDiskStore(ioExecutor,
+                ImageDiskStore.DEFAULT_MAX_SIZE_BYTES, ImageDiskStore.DEFAULT_MAX_AGE_MILLIS);
+        final Application appContext = getApplicationContext();
+        final AtomicReference<Uri> savedUri = new AtomicReference<>();
+
+        // When
+        imageDiskStore.saveAsync(appContext, getTestJpeg(), new AsyncCallback<Uri, Exception>() {
+            @Override
+            public void onSuccess(final Uri result) {
+                savedUri.set(result);
+            }
+
+            @Override
+            public void onError(final Exception exception) {
+            }
+
+            @Override
+            public void onCancelled() {
+            }
+        });
+
+        // Then
+        final File storeDir = new File(appContext.getFilesDir(), ImageDiskStore.STORE_DIR);
+        assertThat(savedUri.get()).isNull();
+        assertThat(storeDir.listFiles()).isEmpty();
+
+        ioExecutor.runAll();
+
+        assertThat(savedUri.get()).isNotNull();
+        assertThat(storeDir.listFiles()[0].getAbsolutePath()).isEqualTo(savedUri.get().getPath());
+    }
+
+    private static void writeBytes(final File file, final byte[] bytes) throws IOException {
+        try (FileOutputStream outputStream = new FileOutputStream(file)) {
+            outputStream.write(bytes);
+        }
+    }
+
+    private static void setLastModified(final File dir, final long lastModified) {
+        for (final File file : dir.listFiles()) {
+            file.setLastModified(lastModified);
+        }
+    }
+
+    private static class FailingInputStream extends InputStream {
+
+        private final int mFailAfterBytes;
+        private int mReadBytes;
+
+        FailingInputStream(final int failAfterBytes) {
+            mFailAfterBytes = failAfterBytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (mReadBytes >= mFailAfterBytes) {
+                throw new IOException("Write interrupted");
+            }
+            mReadBytes++;
+            return 42;
+        }
+    }
+
+    private static class QueueingExecutor implements Executor {
+
+        private final List<Runnable> mRunnables = new ArrayList<>();
+
+        @Override
+        public void execute(final Runnable runnable) {
+            mRunnables.add(runnable);
+        }
+
+        void runAll() {
+            for (final Runnable runnable : mRunnables) {
+                runnable.run();
+            }
+            mRunnables.clear();
+        }
+    }
+
     @Implements(ContentResolver.class)
     public static class ContentResolverShadow extends ShadowContentResolver {
 
@@ -0,0 +1,112 @@
+package net.gini.android.capture.internal.storage
+
+import android.content.Context
+import android.graphics.Bitmap
+import android.graphics.Color
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.google.common.truth.Truth.assertThat
+import org.junit.After
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.annotation.GraphicsMode
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.util.UUID
+
+@RunWith(AndroidJUnit4::class)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+class ThumbnailDiskCacheTest {
+
+    private val context: Context = ApplicationProvider.getApplicationContext()
+    private val thumbnail = Bitmap.createBitmap(256, 192, Bitmap.Config.ARGB_8888).apply {
+        eraseColor(Color.GRAY)
+    }
+
+    @After
+    fun teardown() {
+        ThumbnailDiskCache.clear(context)
+    }
+
+    @Test
+    fun `returns stored thumbnails`() {
+        val diskCache = ThumbnailDiskCache()
+
+        diskCache.put(context, "document", 256, thumbnail)
+        val stored = diskCache.get(context, "document", 256)!!
+
+        assertThat(stored.width).isEqualTo(256)
+        assertThat(stored.height).isEqualTo(192)
+        assertThat(diskCache.get(context, "document", 512)).isNull()
+        assertThat(diskCache.get(context, "other document", 256)).isNull()
+    }
+
+    @Test
+    fun `keeps thumbnails for new instances after process death`() {
+        ThumbnailDiskCache().put(context, "document", 256, thumbnail)
+
+        assertThat(ThumbnailDiskCache().get(context, "document", 256)).isNotNull()
+    }
+
+    @Test
+    fun `deletes the least recently used thumbnails when exceeding the quota`() {
+        val thumbnailSize = jpegSize(thumbnail)
+        val diskCache = ThumbnailDiskCache(thumbnailSize * 2 + thumbnailSize / 2)
+
+        diskCache.put(context, "first", 256, thumbnail)
+        thumbnailFile("first", 256).setLastModified(1_000)
+        diskCache.put(context, "second", 256, thumbnail)
+        thumbnailFile("second", 256).setLastModified(2_000)
+        // Reading marks it as recently used
+        diskCache.get(context, "first", 256)
+        diskCache.put(context, "third", 256, thumbnail)
+
+        assertThat(thumbnailFile("first", 256).exists()).isTrue()
+        assertThat(thumbnailFile("second", 256).exists()).isFalse()
+        assertThat(thumbnailFile("third", 256).exists()).isTrue()
+        assertThat(diskCache.getSizeBytes(context)).isAtMost(thumbnailSize * 2 + thumbnailSize / 2)
+    }
+
+    @Test
+    fun `deletes the thumbnails of a document in all sizes`() {
+        val diskCache = ThumbnailDiskCache()
+        diskCache.put(context, "document", 256, thumbnail)
+        diskCache.put(context, "document", 512, thumbnail)
+        diskCache.put(context, "other document", 256, thumbnail)
+
+        diskCache.delete(context, "document")
+
+        assertThat(diskCache.get(context, "document", 256)).isNull()
+        assertThat(diskCache.get(context, "document", 512)).isNull()
+        assertThat(diskCache.get(context, "other document", 256)).isNotNull()
+    }
+
+    @Test
+    fun `counts the size from zero after clearing`() {
+        val diskCache = ThumbnailDiskCache()
+        diskCache.put(context, "first", 256, thumbnail)
+
+        ThumbnailDiskCache.clear(context)
+        diskCache.put(context, "second", 256, thumbnail)
+
+        assertThat(diskCache.getSizeBytes(context)).isEqualTo(thumbnailFile("second", 256).length())
+    }
+
+    @Test
+    fun `does not leave temporary files behind`() {
+        ThumbnailDiskCache().put(context, "document", 256, thumbnail)
+
+        val storeDir = File(context.filesDir, ThumbnailDiskCache.STORE_DIR)
+        assertThat(storeDir.list()!!.filter { it.endsWith(".tmp") }).isEmpty()
+    }
+
+    private fun thumbnailFile(documentId: String, sizeBucket: Int): File {
+        val prefix = UUID.nameUUIDFromBytes(documentId.toByteArray(Charsets.UTF_8)).toString()
+        return File(File(context.filesDir, ThumbnailDiskCache.STORE_DIR), "${prefix}_$sizeBucket.jpg")
+    }
+
+    private fun jpegSize(bitmap: Bitmap): Long = ByteArrayOutputStream().use { outputStream ->
+        bitmap.compress(Bitmap.CompressFormat.JPEG, 85, outputStream)
+        outputStream.size().toLong()
+    }
+}
@@ -0,0 +1,75 @@
+package net.gini.android.capture.internal.util
+
+import android.graphics.Bitmap
+import android.graphics.Color
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.google.common.truth.Truth.assertThat
+import net.gini.android.capture.internal.cache.ThumbnailMemoryCache
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.annotation.GraphicsMode
+import java.io.ByteArrayOutputStream
+
+@RunWith(AndroidJUnit4::class)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+class BitmapHelperTest {
+
+    @Test
+    fun `decodes a large jpeg downsampled to fit into the target size`() {
+        val jpeg = createJpeg(LARGE_WIDTH, LARGE_HEIGHT)
+        val targetSize = Size(512, 512)
+
+        val bitmap = BitmapHelper.decodeDownsampled(jpeg, targetSize)!!
+
+        assertThat(bitmap.width).isEqualTo(512)
+        assertThat(bitmap.height).isEqualTo(384)
+        // A full resolution ARGB_8888 bitmap would need ~48 MB
+        assertThat(bitmap.allocationByteCount).isAtMost(512 * 384 * 4)
+    }
+
+    @Test
+    fun `does not scale up images smaller than the target size`() {
+        val jpeg = createJpeg(200, 100)
+
+        val bitmap = BitmapHelper.decodeDownsampled(jpeg, Size(512, 512))!!
+
+        assertThat(bitmap.width).isEqualTo(200)
+        assertThat(bitmap.height).isEqualTo(100)
+    }
+
+    @Test
+    fun `returns null for data which is not an image`() {
+        assertThat(BitmapHelper.decodeDownsampled(ByteArray(100), Size(512, 512))).isNull()
+    }
+
+    @Test
+    fun `calculates the largest sample size keeping the image larger than the target size`() {
+        assertThat(BitmapHelper.calculateInSampleSize(LARGE_WIDTH, LARGE_HEIGHT, Size(512, 512))).isEqualTo(4)
+        assertThat(BitmapHelper.calculateInSampleSize(LARGE_WIDTH, LARGE_HEIGHT, Size(4000, 3000))).isEqualTo(1)
+        assertThat(BitmapHelper.calculateInSampleSize(LARGE_WIDTH, LARGE_HEIGHT, Size(0, 0))).isEqualTo(1)
+    }
+
+    @Test
+    fun `uses size buckets in 256 pixel steps for thumbnails`() {
+        assertThat(ThumbnailMemoryCache.getSizeBucket(Size(10, 20))).isEqualTo(256)
+        assertThat(ThumbnailMemoryCache.getSizeBucket(Size(300, 512))).isEqualTo(512)
+        assertThat(ThumbnailMemoryCache.getSizeBucket(Size(1080, 600))).isEqualTo(1280)
+        assertThat(ThumbnailMemoryCache.getSizeBucket(Size(20000, 600))).isEqualTo(8192)
+    }
+
+    private fun createJpeg(width: Int, height: Int): ByteArray {
+        val bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888)
+        bitmap.eraseColor(Color.GRAY)
+        return ByteArrayOutputStream().use { outputStream ->
+            bitmap.compress(Bitmap.CompressFormat.JPEG, 90, outputStream)
+            bitmap.recycle()
+            outputStream.toByteArray()
+        }
+    }
+
+    private companion object {
+        // 12 MP
+        const val LARGE_WIDTH = 4000
+        const val LARGE_HEIGHT = 3000
+    }
+}
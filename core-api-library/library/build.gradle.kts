@@ -112,6 +112,7 @@ dependencies {
     testImplementation(libs.kotlinx.coroutines.test)
     testImplementation(libs.robolectric)
     testImplementation(libs.androidx.test.junit.ktx)
+    testImplementation(libs.okhttp3.mockwebserver)
 }
 
 apply<PublishToMavenPlugin>()
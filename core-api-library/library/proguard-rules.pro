@@ -75,3 +75,8 @@
 -dontwarn org.openjsse.javax.net.ssl.SSLParameters
 -dontwarn org.openjsse.javax.net.ssl.SSLSocket
 -dontwarn org.openjsse.net.ssl.OpenJSSE
+
+# DocumentRepository looks up overrides of extractionFromApiResponse() by name.
+-keepclassmembernames class * extends net.gini.android.core.api.DocumentRepository {
+    net.gini.android.core.api.models.Extraction extractionFromApiResponse(org.json.JSONObject);
+}
@@ -199,6 +199,83 @@ class AnonymousSessionManagerTest {
         assertEquals("10", headerValue?.get(0) ?: 0)
     }
 
+    @Test
+    @SdkSuppress(minSdkVersion = 28)
+    @Throws(InterruptedException::class)
+    fun testThatPersistedSessionIsUsedWithoutLogin() = runTest {
+        val userCredentials = UserCredentials(email("foobar"), "1234")
+        every { mCredentialsStore!!.userCredentials } returns (userCredentials)
+        val persistedSession = Session(UUID.randomUUID().toString(), Date(Date().time + 3_600_000))
+        val sessionStore: EncryptedSessionStore = mockk()
+        every { sessionStore.getSession(userCredentials.username) } returns persistedSession
+        val sessionManager = AnonymousSessionManager(mUserRepository!!, mCredentialsStore!!, mEmailDomain!!, sessionStore)
+
+        val session = sessionManager.getSession().data
+
+        assertSame(persistedSession, session)
+        coVerify(exactly = 0) { mUserRepository?.loginUser(any()) }
+    }
+
+    @Test
+    @SdkSuppress(minSdkVersion = 28)
+    @Throws(InterruptedException::class)
+    fun testThatExpiringPersistedSessionIsNotUsed() = runTest {
+        val userCredentials = UserCredentials(email("foobar"), "1234")
+        every { mCredentialsStore!!.userCredentials } returns (userCredentials)
+        val sessionStore: EncryptedSessionStore = mockk(relaxed = true)
+        every { sessionStore.getSession(userCredentials.username) } returns Session(UUID.randomUUID().toString(), Date(Date().time + 1_000))
+        val newSession = Session.fromAPIResponse(SessionToken(accessToken = UUID.randomUUID().toString(), tokenType = "bearer", expiresIn = 30000))
+        coEvery { mUserRepository?.loginUser(any()) } returns Resource.Success(newSession)
+        val sessionManager = AnonymousSessionManager(mUserRepository!!, mCredentialsStore!!, mEmailDomain!!, sessionStore)
+
+        val session = sessionManager.getSession().data
+
+        assertSame(newSession, session)
+        verify { sessionStore.storeSession(newSession, userCredentials.username) }
+    }
+
+    @Test
+    @SdkSuppress(minSdkVersion = 28)
+    @Throws(InterruptedException::class)
+    fun testThatInvalidatedSessionIsDeletedFromTheSessionStore() = runTest {
+        val userCredentials = UserCredentials(email("foobar"), "1234")
+        every { mCredentialsStore!!.userCredentials } returns (userCredentials)
+        val persistedSession = Session(UUID.randomUUID().toString(), Date(Date().time + 3_600_000))
+        val sessionStore: EncryptedSessionStore = mockk(relaxed = true)
+        every { sessionStore.getSession(userCredentials.username) } returns persistedSession
+        val sessionManager = AnonymousSessionManager(mUserRepository!!, mCredentialsStore!!, mEmailDomain!!, sessionStore)
+        sessionManager.getSession()
+
+        sessionManager.invalidateSession(persistedSession)
+
+        verify { sessionStore.deleteSession() }
+    }
+
+    @Test
+    @SdkSuppress(minSdkVersion = 28)
+    @Throws(InterruptedException::class)
+    fun testThatBackgroundRefreshDoesNotRecreateTheUser() = runTest {
+        val userCredentials = UserCredentials(email("foobar"), "1234")
+        every { mCredentialsStore!!.userCredentials } returns (userCredentials)
+        // Expires within the background refresh window but is still usable
+        val persistedSession = Session(UUID.randomUUID().toString(), Date(Date().time + 30_000))
+        val sessionStore: EncryptedSessionStore = mockk(relaxed = true)
+        every { sessionStore.getSession(userCredentials.username) } returns persistedSession
+        coEvery { mUserRepository?.loginUser(any()) } returns Resource.Error(responseStatusCode = 401)
+        val sessionManager = AnonymousSessionManager(
+            mUserRepository!!, mCredentialsStore!!, mEmailDomain!!, sessionStore, backgroundScope = this
+        )
+
+        val session = sessionManager.getSession().data
+        testScheduler.advanceUntilIdle()
+
+        assertSame(persistedSession, session)
+        coVerify(exactly = 1) { mUserRepository?.loginUser(any()) }
+        coVerify(exactly = 0) { mUserRepository?.createUser(any()) }
+        verify(exactly = 0) { mCredentialsStore!!.deleteUserCredentials() }
+        assertSame(persistedSession, sessionManager.getSession().data)
+    }
+
     @Test
     fun testHasUserCredentialsEmailDomainReturnsTrueIfUsernameEmailDomainIsSameAsEmailDomain() {
         val userCredentials = UserCredentials("1234@example.com", "1234")
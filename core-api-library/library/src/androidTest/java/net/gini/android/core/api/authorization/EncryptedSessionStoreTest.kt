@@ -0,0 +1,80 @@
+package net.gini.android.core.api.authorization
+
+import android.content.Context
+import android.content.SharedPreferences
+import androidx.test.core.app.ApplicationProvider
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import org.junit.After
+import org.junit.Assert.assertEquals
+import org.junit.Assert.assertNotEquals
+import org.junit.Assert.assertNull
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import java.util.Date
+
+@RunWith(AndroidJUnit4::class)
+class EncryptedSessionStoreTest {
+
+    private lateinit var sharedPreferences: SharedPreferences
+    private lateinit var sessionStore: EncryptedSessionStore
+
+    @Before
+    fun setUp() {
+        sharedPreferences = ApplicationProvider.getApplicationContext<Context>()
+            .getSharedPreferences("GiniTests", Context.MODE_PRIVATE)
+        sharedPreferences.edit().clear().commit()
+        sessionStore = EncryptedSessionStore(sharedPreferences)
+    }
+
+    @After
+    fun tearDown() {
+        sharedPreferences.edit().clear().commit()
+    }
+
+    @Test
+    fun testStoresSessionEncrypted() {
+        // Given
+        val session = Session("1234-5678-9012", Date(Date().time + 3_600_000))
+        // When
+        sessionStore.storeSession(session, "testuser@gini.net")
+        // Then
+        val storedValues = sharedPreferences.all.values.filterIsInstance<String>()
+        storedValues.forEach { value ->
+            assertNotEquals(session.accessToken, value)
+            assertNotEquals("testuser@gini.net", value)
+        }
+    }
+
+    @Test
+    fun testRestoresSessionForTheSameUser() {
+        // Given
+        val session = Session("1234-5678-9012", Date(Date().time + 3_600_000))
+        sessionStore.storeSession(session, "testuser@gini.net")
+        // When
+        val restoredSession = sessionStore.getSession("testuser@gini.net")
+        // Then
+        assertEquals(session.accessToken, restoredSession?.accessToken)
+        assertEquals(session.expirationDate, restoredSession?.expirationDate)
+    }
+
+    @Test
+    fun testDoesNotRestoreSessionForAnotherUser() {
+        // Given
+        sessionStore.storeSession(Session("1234-5678-9012", Date(Date().time + 3_600_000)), "testuser@gini.net")
+        // When
+        val restoredSession = sessionStore.getSession("otheruser@gini.net")
+        // Then
+        assertNull(restoredSession)
+    }
+
+    @Test
+    fun testDeletesSession() {
+        // Given
+        sessionStore.storeSession(Session("1234-5678-9012", Date(Date().time + 3_600_000)), "testuser@gini.net")
+        // When
+        sessionStore.deleteSession()
+        // Then
+        assertNull(sessionStore.getSession("testuser@gini.net"))
+    }
+}
@@ -0,0 +1,243 @@
+package net.gini.android.core.api
+
+import com.squareup.moshi.JsonReader
+import net.gini.android.core.api.models.CompactDocumentLayout
+import okio.BufferedSource
+
+/**
+ * Internal use only.
+ *
+ * Reads the layout response of the Gini API token by token from the response body directly into a
+ * [CompactDocumentLayout]. No objects are created for the pages, paragraphs, lines and words.
+ *
+ * Missing numbers are read as 0, missing texts as empty strings. Create a new reader for each response.
+ */
+internal class DocumentLayoutJsonReader {
+
+    private val pageNumbers = IntArrayBuilder()
+    private val pageSizes = FloatArrayBuilder()
+    private val pageTextZoneOffsets = IntArrayBuilder()
+    private val pageRegionOffsets = IntArrayBuilder()
+    private val textZoneParagraphOffsets = IntArrayBuilder()
+    private val paragraphBoxes = FloatArrayBuilder()
+    private val paragraphLineOffsets = IntArrayBuilder()
+    private val lineBoxes = FloatArrayBuilder()
+    private val lineWordOffsets = IntArrayBuilder()
+    private val wordBoxes = FloatArrayBuilder()
+    private val wordFontSizes = FloatArrayBuilder()
+    private val wordFontFamilies = IntArrayBuilder()
+    private val wordBold = IntArrayBuilder()
+    private val wordTextOffsets = IntArrayBuilder()
+    private val text = StringBuilder()
+    private val regionBoxes = FloatArrayBuilder()
+    private val regionTypes = IntArrayBuilder()
+    private val strings = LinkedHashMap<String, Int>()
+
+    fun read(source: BufferedSource): CompactDocumentLayout {
+        val reader = JsonReader.of(source)
+        reader.beginObject()
+        while (reader.hasNext()) {
+            when (reader.nextName()) {
+                "pages" -> readArray(reader) { readPage(reader) }
+                else -> reader.skipValue()
+            }
+        }
+        reader.endObject()
+
+        pageTextZoneOffsets.add(textZoneParagraphOffsets.size)
+        pageRegionOffsets.add(regionTypes.size)
+        textZoneParagraphOffsets.add(paragraphLineOffsets.size)
+        paragraphLineOffsets.add(lineWordOffsets.size)
+        lineWordOffsets.add(wordFontSizes.size)
+        wordTextOffsets.add(text.length)
+
+        return CompactDocumentLayout(
+            pageNumbers = pageNumbers.toArray(),
+            pageSizes = pageSizes.toArray(),
+            pageTextZoneOffsets = pageTextZoneOffsets.toArray(),
+            pageRegionOffsets = pageRegionOffsets.toArray(),
+            textZoneParagraphOffsets = textZoneParagraphOffsets.toArray(),
+            paragraphBoxes = CompactDocumentLayout.LayoutBoxes(paragraphBoxes.toArray()),
+            paragraphLineOffsets = paragraphLineOffsets.toArray(),
+            lineBoxes = CompactDocumentLayout.LayoutBoxes(lineBoxes.toArray()),
+            lineWordOffsets = lineWordOffsets.toArray(),
+            wordBoxes = CompactDocumentLayout.LayoutBoxes(wordBoxes.toArray()),
+            wordFontSizes = wordFontSizes.toArray(),
+            wordFontFamilies = wordFontFamilies.toArray(),
+            wordBold = wordBold.toArray().let { bold -> BooleanArray(bold.size) { bold[it] != 0 } },
+            wordTextOffsets = wordTextOffsets.toArray(),
+            text = text.toString(),
+            regionBoxes = CompactDocumentLayout.LayoutBoxes(regionBoxes.toArray()),
+            regionTypes = regionTypes.toArray(),
+            strings = strings.keys.toTypedArray()
+        )
+    }
+
+    // The parent's fields may come after its children in the response. Therefore the parent's slots are added before
+    // its children are read and are updated afterwards.
+
+    private fun readPage(reader: JsonReader) {
+        val page = pageNumbers.size
+        pageNumbers.add(0)
+        pageSizes.addZeros(2)
+        pageTextZoneOffsets.add(textZoneParagraphOffsets.size)
+        pageRegionOffsets.add(regionTypes.size)
+        reader.beginObject()
+        while (reader.hasNext()) {
+            when (reader.nextName()) {
+                "number" -> pageNumbers[page] = reader.nextInt()
+                "sizeX" -> pageSizes[page * 2] = reader.nextDouble().toFloat()
+                "sizeY" -> pageSizes[page * 2 + 1] = reader.nextDouble().toFloat()
+                "textZones" -> readArray(reader) { readTextZone(reader) }
+                "regions" -> readArray(reader) { readRegion(reader) }
+                else -> reader.skipValue()
+            }
+        }
+        reader.endObject()
+    }
+
+    private fun readTextZone(reader: JsonReader) {
+        textZoneParagraphOffsets.add(paragraphLineOffsets.size)
+        reader.beginObject()
+        while (reader.hasNext()) {
+            when (reader.nextName()) {
+                "paragraphs" -> readArray(reader) { readParagraph(reader) }
+                else -> reader.skipValue()
+            }
+        }
+        reader.endObject()
+    }
+
+    private fun readParagraph(reader: JsonReader) {
+        val paragraph = paragraphLineOffsets.size
+        paragraphLineOffsets.add(lineWordOffsets.size)
+        paragraphBoxes.addZeros(4)
+        reader.beginObject()
+        while (reader.hasNext()) {
+            val name = reader.nextName()
+            if (name == "lines") {
+                readArray(reader) { readLine(reader) }
+            } else if (!readBoxField(reader, name, paragraphBoxes, paragraph)) {
+                reader.skipValue()
+            }
+        }
+        reader.endObject()
+    }
+
+    private fun readLine(reader: JsonReader) {
+        val line = lineWordOffsets.size
+        lineWordOffsets.add(wordFontSizes.size)
+        lineBoxes.addZeros(4)
+        reader.beginObject()
+        while (reader.hasNext()) {
+            val name = reader.nextName()
+            if (name == "wds") {
+                readArray(reader) { readWord(reader) }
+            } else if (!readBoxField(reader, name, lineBoxes, line)) {
+                reader.skipValue()
+            }
+        }
+        reader.endObject()
+    }
+
+    private fun readWord(reader: JsonReader) {
+        val word = wordFontSizes.size
+        wordFontSizes.add(0f)
+        wordFontFamilies.add(intern(""))
+        wordBold.add(0)
+        wordTextOffsets.add(text.length)
+        wordBoxes.addZeros(4)
+        reader.beginObject()
+        while (reader.hasNext()) {
+            when (val name = reader.nextName()) {
+                "fontSize" -> wordFontSizes[word] = reader.nextDouble().toFloat()
+                "fontFamily" -> wordFontFamilies[word] = intern(reader.nextString())
+                "bold" -> wordBold[word] = if (reader.nextBoolean()) 1 else 0
+                "text" -> text.append(reader.nextString())
+                else -> if (!readBoxField(reader, name, wordBoxes, word)) reader.skipValue()
+            }
+        }
+        reader.endObject()
+    }
+
+    private fun readRegion(reader: JsonReader) {
+        val region = regionTypes.size
+        regionTypes.add(intern(""))
+        regionBoxes.addZeros(4)
+        reader.beginObject()
+        while (reader.hasNext()) {
+            when (val name = reader.nextName()) {
+                "type" -> regionTypes[region] = intern(reader.nextString())
+                else -> if (!readBoxField(reader, name, regionBoxes, region)) reader.skipValue()
+            }
+        }
+        reader.endObject()
+    }
+
+    private fun readBoxField(reader: JsonReader, name: String, boxes: FloatArrayBuilder, index: Int): Boolean {
+        val offset = when (name) {
+            "l" -> 0
+            "t" -> 1
+            "w" -> 2
+            "h" -> 3
+            else -> return false
+        }
+        boxes[index * 4 + offset] = reader.nextDouble().toFloat()
+        return true
+    }
+
+    private inline fun readArray(reader: JsonReader, readElement: () -> Unit) {
+        reader.beginArray()
+        while (reader.hasNext()) {
+            readElement()
+        }
+        reader.endArray()
+    }
+
+    private fun intern(string: String): Int = strings.getOrPut(string) { strings.size }
+
+    private class IntArrayBuilder {
+        private var values = IntArray(16)
+
+        var size = 0
+            private set
+
+        fun add(value: Int) {
+            if (size == values.size) {
+                values = values.copyOf(size * 2)
+            }
+            values[size++] = value
+        }
+
+        operator fun set(index: Int, value: Int) {
+            values[index] = value
+        }
+
+        fun toArray(): IntArray = values.copyOf(size)
+    }
+
+    private class FloatArrayBuilder {
+        private var values = FloatArray(64)
+
+        var size = 0
+            private set
+
+        fun add(value: Float) {
+            addZeros(1)
+            values[size - 1] = value
+        }
+
+        fun addZeros(count: Int) {
+            if (size + count > values.size) {
+                values = values.copyOf(maxOf(size * 2, size + count))
+            }
+            size += count
+        }
+
+        operator fun set(index: Int, value: Float) {
+            values[index] = value
+        }
+
+        fun toArray(): FloatArray = values.copyOf(size)
+    }
+}
@@ -1,6 +1,7 @@
 package net.gini.android.core.api
 
 import android.net.Uri
+import net.gini.android.core.api.models.CompactDocumentLayout
 import net.gini.android.core.api.models.CompoundExtraction
 import net.gini.android.core.api.models.Document
 import net.gini.android.core.api.models.DocumentLayout
@@ -16,6 +17,17 @@ import net.gini.android.core.api.models.SpecificExtraction
  */
 abstract class DocumentManager<out DR: DocumentRepository<E>, E: ExtractionsContainer>(private val documentRepository: DR) {
 
+    /**
+     * Retrieves the session of the user ahead of the first API request. Optional, call it at app start to avoid
+     * waiting for the login when the first document is uploaded.
+     *
+     * If a persisted session is still valid, no request is made.
+     *
+     * @return Empty [Resource] or information about the error
+     */
+    suspend fun preWarmSession(): Resource<Unit> =
+        documentRepository.preWarmSession()
+
     /**
      * Uploads raw data and creates a new Gini partial document.
      *
@@ -150,9 +162,10 @@ abstract class DocumentManager<out DR: DocumentRepository<E>, E: ExtractionsCont
         documentRepository.getDocument(uri)
 
     /**
-     * Continually checks the document status (via the Gini API) until the document is fully processed. To avoid
-     * flooding the network, there is a pause of at least [DocumentRepository.POLLING_INTERVAL]
-     * and a timeout of [DocumentRepository.POLLING_TIMEOUT].
+     * Continually checks the document status (via the Gini API) until the document is fully processed. The pauses
+     * between the requests and the timeout are decided by the [PollingStrategy] which was set with
+     * [net.gini.android.core.api.internal.GiniCoreAPIBuilder.setPollingStrategy]. By default the pauses start short
+     * and grow up to a few seconds, and polling stops after [DocumentRepository.POLLING_TIMEOUT].
      *
      * @param document The document which will be polled.
      * @return [Resource] with the [Document] instance representing all the document's metadata or information about the error
@@ -162,6 +175,15 @@ abstract class DocumentManager<out DR: DocumentRepository<E>, E: ExtractionsCont
     ): Resource<Document> =
         documentRepository.pollDocument(document)
 
+    /**
+     * Returns how many requests a running [pollDocument] call for the document made so far.
+     *
+     * @param documentId The id of the polled document.
+     * @return The number of polls or 0 if the document isn't being polled.
+     */
+    fun getPollCount(documentId: String): Int =
+        documentRepository.getPollCount(documentId)
+
     /**
      * Gets the pages of a document.
      *
@@ -192,6 +214,16 @@ abstract class DocumentManager<out DR: DocumentRepository<E>, E: ExtractionsCont
     suspend fun getDocumentLayout(documentId: String) : Resource<DocumentLayout> =
         documentRepository.getDocumentLayout(documentId)
 
+    /**
+     * Gets the layout of a document like [getDocumentLayout], but in a compact representation which is read directly
+     * from the response and which can find the words inside a rectangle with [CompactDocumentLayout.wordsIn].
+     *
+     * @param documentId The document ID for which the layout is requested.
+     * @return [Resource] with a [CompactDocumentLayout] instance containing the layout or information about the error
+     */
+    suspend fun getCompactDocumentLayout(documentId: String) : Resource<CompactDocumentLayout> =
+        documentRepository.getCompactDocumentLayout(documentId)
+
     /**
      * Get all extractions (specific and compound) for the given document.
      *
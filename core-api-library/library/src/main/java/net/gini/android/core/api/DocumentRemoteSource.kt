@@ -4,6 +4,7 @@ import android.net.Uri
 import kotlinx.coroutines.withContext
 import net.gini.android.core.api.mapper.toDocumentLayout
 import net.gini.android.core.api.mapper.toDocumentPage
+import net.gini.android.core.api.models.CompactDocumentLayout
 import net.gini.android.core.api.models.DocumentLayout
 import net.gini.android.core.api.models.DocumentPage
 import net.gini.android.core.api.models.Payment
@@ -15,6 +16,7 @@ import net.gini.android.core.api.response.PaymentRequestResponse
 import okhttp3.MediaType.Companion.toMediaTypeOrNull
 import okhttp3.RequestBody
 import okhttp3.RequestBody.Companion.toRequestBody
+import okio.BufferedSource
 import kotlin.coroutines.CoroutineContext
 
 /**
@@ -61,6 +63,26 @@ abstract class DocumentRemoteSource(
         response.body()?.string() ?: throw ApiException.forResponse(EMPTY_RESPONSE_BODY, response)
     }
 
+    /**
+     * Gets the document and the value of the `Retry-After` header. If [longPollingTimeoutMillis] is not null, then
+     * the Gini API is asked with a `Prefer: wait` header to answer once the document was processed.
+     */
+    internal suspend fun getDocumentForPolling(
+        accessToken: String,
+        documentId: String,
+        longPollingTimeoutMillis: Long?
+    ): PolledDocumentResponse = withContext(coroutineContext) {
+        val headers = bearerHeaderMap(accessToken).toMutableMap()
+        longPollingTimeoutMillis?.let { headers[HEADER_PREFER_KEY] = "wait=${(it + 999) / 1000}" }
+        val response = SafeApiRequest.apiRequest {
+            documentService.getDocument(headers, documentId)
+        }
+        PolledDocumentResponse(
+            response.body()?.string() ?: throw ApiException.forResponse(EMPTY_RESPONSE_BODY, response),
+            response.headers()[HEADER_RETRY_AFTER_KEY]
+        )
+    }
+
     suspend fun getDocumentFromUri(accessToken: String, uri: Uri): String = withContext(coroutineContext) {
         val response = SafeApiRequest.apiRequest {
             documentService.getDocumentFromUri(bearerHeaderMap(accessToken, contentType = giniApiType.giniJsonMediaType), uriRelativeToBaseUri(uri).toString())
@@ -75,6 +97,21 @@ abstract class DocumentRemoteSource(
         response.body()?.string() ?: throw ApiException.forResponse(EMPTY_RESPONSE_BODY, response)
     }
 
+    /**
+     * Passes the extractions response body to [read] without loading it into memory first.
+     */
+    internal suspend fun <T> readExtractions(
+        accessToken: String,
+        documentId: String,
+        read: (BufferedSource) -> T
+    ): T = withContext(coroutineContext) {
+        val response = SafeApiRequest.apiRequest {
+            documentService.getExtractions(bearerHeaderMap(accessToken, contentType = giniApiType.giniJsonMediaType), documentId)
+        }
+        val body = response.body() ?: throw ApiException.forResponse(EMPTY_RESPONSE_BODY, response)
+        body.use { read(it.source()) }
+    }
+
     suspend fun getDocumentLayout(accessToken: String, documentId: String): DocumentLayout =
         withContext(coroutineContext) {
             val response = SafeApiRequest.apiRequest {
@@ -85,6 +122,17 @@ abstract class DocumentRemoteSource(
         response.body()?.toDocumentLayout() ?: throw ApiException.forResponse(EMPTY_RESPONSE_BODY, response)
     }
 
+    suspend fun getCompactDocumentLayout(accessToken: String, documentId: String): CompactDocumentLayout =
+        withContext(coroutineContext) {
+            val response = SafeApiRequest.apiRequest {
+                documentService.getDocumentLayoutBody(
+                    bearerHeaderMap(accessToken, contentType = giniApiType.giniJsonMediaType), documentId
+                )
+            }
+            val body = response.body() ?: throw ApiException.forResponse(EMPTY_RESPONSE_BODY, response)
+            body.use { DocumentLayoutJsonReader().read(it.source()) }
+        }
+
     suspend fun getDocumentPages(accessToken: String, documentId: String): List<DocumentPage> = withContext(coroutineContext) {
         val response = SafeApiRequest.apiRequest {
             documentService.getDocumentPages(
@@ -156,7 +204,14 @@ abstract class DocumentRemoteSource(
 
     companion object {
         const val HEADER_LOCATION_KEY = "location"
+        const val HEADER_RETRY_AFTER_KEY = "Retry-After"
+        private const val HEADER_PREFER_KEY = "Prefer"
         private const val EMPTY_RESPONSE_BODY = "Empty response body"
     }
 
 }
+
+/**
+ * Internal use only.
+ */
+internal class PolledDocumentResponse(val body: String, val retryAfter: String?)
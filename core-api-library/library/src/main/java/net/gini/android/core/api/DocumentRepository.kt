@@ -1,12 +1,15 @@
 package net.gini.android.core.api
 
 import android.net.Uri
+import androidx.annotation.VisibleForTesting
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.sync.Mutex
 import kotlinx.coroutines.sync.withLock
 import net.gini.android.core.api.Resource.Companion.wrapInResource
+import net.gini.android.core.api.authorization.Session
 import net.gini.android.core.api.authorization.SessionManager
 import net.gini.android.core.api.models.Box
+import net.gini.android.core.api.models.CompactDocumentLayout
 import net.gini.android.core.api.models.CompoundExtraction
 import net.gini.android.core.api.models.Document
 import net.gini.android.core.api.models.DocumentLayout
@@ -23,6 +26,12 @@ import okhttp3.RequestBody.Companion.toRequestBody
 import org.json.JSONArray
 import org.json.JSONException
 import org.json.JSONObject
+import java.text.ParseException
+import java.text.SimpleDateFormat
+import java.util.Locale
+import java.util.TimeZone
+import java.util.concurrent.ConcurrentHashMap
+import kotlin.math.max
 
 /**
  * Internal use only.
@@ -37,9 +46,30 @@ abstract class DocumentRepository<E: ExtractionsContainer>(
     We need mutex lock because otherwise when the user upload multiple documents at first use of the app, the app
     creates multiple users (equal to number of documents) and we will get a server error (the document does not belong to the user)!
     We are using a Mutex to prevent coroutines from retrieving access tokens in parallel. This way even when multiple uploads are started only one user is created.
+    The lock only guards retrieving (or refreshing) the session. The API requests themselves run in parallel outside the lock.
      */
     val accessTokenMutex = Mutex()
 
+    /**
+     * Internal use only.
+     *
+     * Decides how often [pollDocument] requests the document.
+     */
+    var pollingStrategy: PollingStrategy = ExponentialPollingStrategy()
+
+    // Only holds documents which are being polled
+    private val pollCounts = ConcurrentHashMap<String, Int>()
+
+    @VisibleForTesting
+    internal var currentTimeMillis: () -> Long = System::currentTimeMillis
+
+    /**
+     * Retrieves the session ahead of the first API request. No request is made if the current or persisted session is
+     * still valid.
+     */
+    suspend fun preWarmSession(): Resource<Unit> =
+        getSessionForRequest().mapSuccess { Resource.Success(Unit) }
+
     suspend fun deletePartialDocumentAndParents(documentId: String): Resource<Unit> =
         withAccessToken { accessToken ->
             wrapInResource {
@@ -146,13 +176,60 @@ abstract class DocumentRepository<E: ExtractionsContainer>(
             }
         }
 
+    /**
+     * Creates the extractions container from the parsed extractions.
+     *
+     * @param responseJSON the extractions response. Unless [parsesExtractionsResponseAsJSONObject] is true it holds
+     * only the top level fields other than `extractions`, `compoundExtractions` and `candidates`, which were already
+     * parsed. Subclasses which read those fields from it have to override [parsesExtractionsResponseAsJSONObject].
+     */
     @Throws(Exception::class)
     abstract fun createExtractionsContainer(specificExtractions: Map<String, SpecificExtraction>,
                                             compoundExtractions: Map<String, CompoundExtraction>,
                                             responseJSON: JSONObject): E
 
+    /**
+     * Whether [getAllExtractions] parses the whole extractions response into a [JSONObject] like previous versions.
+     * Then [extractionFromApiResponse] is called for every extraction and candidate, and the `responseJSON` passed
+     * to [createExtractionsContainer] contains all fields of the response. Otherwise the response is streamed, which
+     * needs a lot less memory for large responses.
+     *
+     * By default it is true only if a subclass overrides [extractionFromApiResponse].
+     */
+    protected open val parsesExtractionsResponseAsJSONObject: Boolean
+        get() = overridesExtractionFromApiResponse
+
+    private val overridesExtractionFromApiResponse: Boolean by lazy {
+        generateSequence<Class<*>>(javaClass) { it.superclass }
+            .takeWhile { it != DocumentRepository::class.java }
+            .any { subclass ->
+                subclass.declaredMethods.any { method ->
+                    method.name == "extractionFromApiResponse"
+                            && method.parameterTypes.contentEquals(arrayOf(JSONObject::class.java))
+                }
+            }
+    }
+
     suspend fun getAllExtractions(document: Document): Resource<E> {
+        if (parsesExtractionsResponseAsJSONObject) {
+            return getAllExtractionsFromJSONObject(document)
+        }
         return withAccessToken { accessToken ->
+            wrapInResource {
+                val extractions = documentRemoteSource.readExtractions(accessToken, document.id) { source ->
+                    ExtractionsJsonReader().read(source)
+                }
+                createExtractionsContainer(
+                    extractions.specificExtractions,
+                    extractions.compoundExtractions,
+                    extractions.otherFields
+                )
+            }
+        }
+    }
+
+    private suspend fun getAllExtractionsFromJSONObject(document: Document): Resource<E> =
+        withAccessToken { accessToken ->
             wrapInResource {
                 val extractionsJSONObject = JSONObject(documentRemoteSource.getExtractions(accessToken, document.id))
                 val candidates = extractionCandidatesFromApiResponse(extractionsJSONObject.getJSONObject("candidates"))
@@ -164,33 +241,99 @@ abstract class DocumentRepository<E: ExtractionsContainer>(
                 createExtractionsContainer(specificExtractions, compoundExtractions, extractionsJSONObject)
             }
         }
-    }
 
     suspend fun pollDocument(document: Document): Resource<Document> {
         if (document.state != Document.ProcessingState.PENDING) {
             return Resource.Success(document)
         }
 
-        val startTimestamp = System.currentTimeMillis()
+        return try {
+            pollPendingDocument(document)
+        } finally {
+            pollCounts.remove(document.id)
+        }
+    }
+
+    /**
+     * Returns how many times the document was requested so far by a running [pollDocument] call.
+     *
+     * @param documentId the id of the polled document
+     * @return the number of polls or 0 if the document isn't being polled
+     */
+    fun getPollCount(documentId: String): Int = pollCounts[documentId] ?: 0
+
+    private suspend fun pollPendingDocument(document: Document): Resource<Document> {
+        val strategy = pollingStrategy
+        val startTimestamp = currentTimeMillis()
+        var pollCount = 0
         do {
-            when (val apiDocumentResource = getDocument(document.id)) {
+            pollCount++
+            pollCounts[document.id] = pollCount
+            val retryAfterMillis = when (val polledDocument = pollDocumentOnce(document.id, strategy)) {
                 is Resource.Success -> {
-                    if (apiDocumentResource.data.state != Document.ProcessingState.PENDING) {
-                        return apiDocumentResource
+                    if (polledDocument.data.document.state != Document.ProcessingState.PENDING) {
+                        return Resource.Success(polledDocument.data.document)
+                    }
+                    polledDocument.data.retryAfterMillis
+                }
+
+                is Resource.Error -> {
+                    // Overloaded or rate limited: keep polling if the API told us when to try again
+                    val retryAfter = polledDocument.responseHeaders?.entries
+                        ?.firstOrNull { it.key.equals(DocumentRemoteSource.HEADER_RETRY_AFTER_KEY, ignoreCase = true) }
+                        ?.value?.firstOrNull()
+                    val requestedDelayMillis = parseRetryAfterMillis(retryAfter)
+                    val statusCode = polledDocument.responseStatusCode
+                    if (statusCode == null || statusCode !in RETRY_AFTER_STATUS_CODES || requestedDelayMillis == null) {
+                        return Resource.Error(polledDocument)
                     }
+                    requestedDelayMillis
                 }
 
-                is Resource.Cancelled, is Resource.Error -> return apiDocumentResource
+                is Resource.Cancelled -> return Resource.Cancelled()
             }
 
-            val endTimeStamp = System.currentTimeMillis()
-            if (endTimeStamp - startTimestamp > POLLING_TIMEOUT) {
+            val endTimeStamp = currentTimeMillis()
+            if (endTimeStamp - startTimestamp > strategy.timeoutMillis) {
                 return Resource.Error(message = "Polling timeout")
             }
-            delay(POLLING_INTERVAL)
+            delay(strategy.getDelayMillis(pollCount, retryAfterMillis))
         } while (true)
     }
 
+    private suspend fun pollDocumentOnce(documentId: String, strategy: PollingStrategy): Resource<PolledDocument> =
+        withAccessToken { accessToken ->
+            wrapInResource {
+                val response = documentRemoteSource.getDocumentForPolling(
+                    accessToken, documentId, strategy.longPollingTimeoutMillis
+                )
+                PolledDocument(
+                    Document.fromApiResponse(JSONObject(response.body)),
+                    parseRetryAfterMillis(response.retryAfter)
+                )
+            }
+        }
+
+    /**
+     * Parses the `Retry-After` header which contains either the delay in seconds or an HTTP date.
+     */
+    private fun parseRetryAfterMillis(retryAfter: String?): Long? {
+        if (retryAfter.isNullOrBlank()) {
+            return null
+        }
+        retryAfter.trim().toLongOrNull()?.let { seconds ->
+            return if (seconds >= 0) seconds * 1000 else null
+        }
+        return try {
+            val format = SimpleDateFormat(HTTP_DATE_FORMAT, Locale.US).apply { timeZone = TimeZone.getTimeZone("GMT") }
+            format.parse(retryAfter.trim())?.let { date -> max(0L, date.time - currentTimeMillis()) }
+        } catch (e: ParseException) {
+            null
+        }
+    }
+
+    private class PolledDocument(val document: Document, val retryAfterMillis: Long?)
+
     @Throws(JSONException::class)
     suspend fun sendFeedbackForExtractions(document: Document, extractions: Map<String, SpecificExtraction>): Resource<Unit> {
         val feedbackForExtractions = JSONObject()
@@ -281,6 +424,14 @@ abstract class DocumentRepository<E: ExtractionsContainer>(
         }
     }
 
+    suspend fun getCompactDocumentLayout(documentId: String) : Resource<CompactDocumentLayout> {
+        return withAccessToken { accessToken ->
+            wrapInResource {
+                documentRemoteSource.getCompactDocumentLayout(accessToken, documentId)
+            }
+        }
+    }
+
     suspend fun getDocumentPages(documentId: String) : Resource<List<DocumentPage>> {
         return withAccessToken { accessToken ->
             wrapInResource {
@@ -396,6 +547,9 @@ abstract class DocumentRepository<E: ExtractionsContainer>(
     /**
      * Helper method which creates an Extraction instance from the JSON data which is returned by the Gini API.
      *
+     * Overriding it makes [getAllExtractions] parse the whole response into a [JSONObject] instead of streaming it.
+     * See [parsesExtractionsResponseAsJSONObject].
+     *
      * @param responseData The JSON data.
      * @return The created Extraction instance.
      * @throws JSONException If the JSON data does not have the expected structure or if there is invalid data.
@@ -444,30 +598,75 @@ abstract class DocumentRepository<E: ExtractionsContainer>(
     }
 
     protected suspend inline fun <T> withAccessToken(crossinline block: suspend (String) -> Resource<T>): Resource<T> {
-        return accessTokenMutex.withLock {
-            return@withLock when (val getSession = sessionManager.getSession()) {
-                is Resource.Cancelled -> Resource.Cancelled()
-                is Resource.Error -> Resource.Error(getSession)
-                is Resource.Success -> block(getSession.data.accessToken)
-            }
+        val session = when (val getSession = getSessionForRequest()) {
+            is Resource.Cancelled -> return Resource.Cancelled()
+            is Resource.Error -> return Resource.Error(getSession)
+            is Resource.Success -> getSession.data
+        }
+        val result = block(session.accessToken)
+        if (result !is Resource.Error || result.responseStatusCode != HTTP_UNAUTHORIZED) {
+            return result
+        }
+        // The access token was rejected: refresh the session once (shared by all failing requests) and retry
+        return when (val refreshSession = refreshSessionForRequest(session)) {
+            is Resource.Cancelled -> Resource.Cancelled()
+            is Resource.Error -> Resource.Error(refreshSession)
+            is Resource.Success -> block(refreshSession.data.accessToken)
         }
     }
 
+    /**
+     * Internal use only.
+     */
+    @PublishedApi
+    internal suspend fun getSessionForRequest(): Resource<Session> =
+        accessTokenMutex.withLock {
+            sessionManager.getSession()
+        }
+
+    /**
+     * Internal use only.
+     *
+     * Invalidates the [rejectedSession] and retrieves a new one. If another request already refreshed the session
+     * while we were waiting for the lock, then the new session is returned without invalidating it again.
+     */
+    @PublishedApi
+    internal suspend fun refreshSessionForRequest(rejectedSession: Session): Resource<Session> =
+        accessTokenMutex.withLock {
+            val currentSession = sessionManager.getSession()
+            if (currentSession !is Resource.Success || currentSession.data.accessToken != rejectedSession.accessToken) {
+                return@withLock currentSession
+            }
+            sessionManager.invalidateSession(rejectedSession)
+            sessionManager.getSession()
+        }
+
     companion object {
         /**
-         * The time in milliseconds between HTTP requests when a document is polled.
+         * The time in milliseconds between HTTP requests when a document was polled with a fixed interval.
+         *
+         * @see ExponentialPollingStrategy.fixedInterval
          */
         const val POLLING_INTERVAL = 1000L
         /**
-         * The time in milliseconds until polling is retried.
+         * The default time in milliseconds after which polling is stopped.
          */
         const val POLLING_TIMEOUT = 60000L
 
+        private val RETRY_AFTER_STATUS_CODES = setOf(429, 503)
+        private const val HTTP_DATE_FORMAT = "EEE, dd MMM yyyy HH:mm:ss zzz"
+
         /**
          * The default compression rate which is used for JPEG compression in per cent.
          */
         const val DEFAULT_COMPRESSION = 50
 
+        /**
+         * Internal use only.
+         */
+        @PublishedApi
+        internal const val HTTP_UNAUTHORIZED = 401
+
         private const val JSON_CONTENT_TYPE = "application/json; charset=utf-8"
     }
 }
@@ -24,6 +24,7 @@ interface DocumentService {
     @GET
     suspend fun getDocumentFromUri(@HeaderMap bearer: Map<String, String>, @Url uri:String): Response<ResponseBody>
 
+    @Streaming
     @GET("documents/{documentId}/extractions")
     suspend fun getExtractions(@HeaderMap bearer: Map<String, String>, @Path("documentId") documentId: String): Response<ResponseBody>
 
@@ -42,6 +43,12 @@ interface DocumentService {
         @HeaderMap bearer: Map<String, String>, @Path("documentId") documentId: String
     ) : Response<DocumentLayoutResponse>
 
+    @Streaming
+    @GET("documents/{documentId}/layout")
+    suspend fun getDocumentLayoutBody(
+        @HeaderMap bearer: Map<String, String>, @Path("documentId") documentId: String
+    ) : Response<ResponseBody>
+
     @GET("documents/{documentId}/pages")
     suspend fun getDocumentPages(
         @HeaderMap bearer: Map<String, String>, @Path("documentId") documentId: String
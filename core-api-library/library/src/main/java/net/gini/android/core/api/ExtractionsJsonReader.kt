@@ -0,0 +1,266 @@
+package net.gini.android.core.api
+
+import com.squareup.moshi.JsonReader
+import net.gini.android.core.api.models.Box
+import net.gini.android.core.api.models.CompoundExtraction
+import net.gini.android.core.api.models.Extraction
+import net.gini.android.core.api.models.SpecificExtraction
+import okio.BufferedSource
+import org.json.JSONArray
+import org.json.JSONException
+import org.json.JSONObject
+
+/**
+ * Internal use only.
+ *
+ * Reads the extractions response of the Gini API token by token from the response body. Only the parsed extractions
+ * are kept in memory, neither the response string nor a JSON tree of it.
+ *
+ * The extractions reference their candidates by name and the candidates may come after them in the response.
+ * Therefore the candidate lists are resolved after the whole response was read.
+ *
+ * Produces the same extractions as [DocumentRepository.parseSpecificExtractions] and
+ * [DocumentRepository.parseCompoundExtractions].
+ */
+internal class ExtractionsJsonReader {
+
+    /**
+     * @property otherFields the remaining top level fields, e.g. the return reasons
+     */
+    class Result(
+        val specificExtractions: Map<String, SpecificExtraction>,
+        val compoundExtractions: Map<String, CompoundExtraction>,
+        val otherFields: JSONObject
+    )
+
+    private class UnresolvedSpecificExtraction(
+        val name: String,
+        val extraction: Extraction,
+        val candidatesName: String?
+    )
+
+    @Throws(JSONException::class)
+    fun read(source: BufferedSource): Result {
+        val reader = JsonReader.of(source)
+        var specificExtractions: List<UnresolvedSpecificExtraction>? = null
+        var compoundExtractions: Map<String, List<List<UnresolvedSpecificExtraction>>> = emptyMap()
+        var candidates: Map<String, List<Extraction>>? = null
+        val otherFields = JSONObject()
+
+        reader.beginObject()
+        while (reader.hasNext()) {
+            when (val name = reader.nextName()) {
+                EXTRACTIONS -> specificExtractions = readSpecificExtractions(reader)
+                CANDIDATES -> candidates = readCandidates(reader)
+                COMPOUND_EXTRACTIONS -> if (reader.peek() == JsonReader.Token.BEGIN_OBJECT) {
+                    compoundExtractions = readCompoundExtractions(reader)
+                } else {
+                    reader.skipValue()
+                }
+                else -> otherFields.put(name, readJsonValue(reader))
+            }
+        }
+        reader.endObject()
+
+        if (candidates == null) {
+            throw JSONException("No value for $CANDIDATES")
+        }
+        if (specificExtractions == null) {
+            throw JSONException("No value for $EXTRACTIONS")
+        }
+
+        val compoundExtractionsByName = HashMap<String, CompoundExtraction>()
+        for ((name, specificExtractionMaps) in compoundExtractions) {
+            compoundExtractionsByName[name] = CompoundExtraction(
+                name,
+                specificExtractionMaps.map { resolveCandidates(it, candidates) }
+            )
+        }
+        return Result(
+            resolveCandidates(specificExtractions, candidates),
+            compoundExtractionsByName,
+            otherFields
+        )
+    }
+
+    private fun resolveCandidates(
+        specificExtractions: List<UnresolvedSpecificExtraction>,
+        candidates: Map<String, List<Extraction>>
+    ): Map<String, SpecificExtraction> {
+        val resolved = LinkedHashMap<String, SpecificExtraction>(specificExtractions.size * 2)
+        for (unresolved in specificExtractions) {
+            val extraction = unresolved.extraction
+            resolved[unresolved.name] = SpecificExtraction(
+                unresolved.name, extraction.value, extraction.entity, extraction.box,
+                unresolved.candidatesName?.let { candidates[it] } ?: emptyList()
+            )
+        }
+        return resolved
+    }
+
+    private fun readSpecificExtractions(reader: JsonReader): List<UnresolvedSpecificExtraction> {
+        val specificExtractions = ArrayList<UnresolvedSpecificExtraction>()
+        reader.beginObject()
+        while (reader.hasNext()) {
+            val name = reader.nextName()
+            var candidatesName: String? = null
+            val extraction = readExtraction(reader) { fieldName ->
+                if (fieldName == CANDIDATES) {
+                    candidatesName = readString(reader)
+                    true
+                } else {
+                    false
+                }
+            }
+            specificExtractions.add(UnresolvedSpecificExtraction(name, extraction, candidatesName))
+        }
+        reader.endObject()
+        return specificExtractions
+    }
+
+    private fun readCompoundExtractions(reader: JsonReader): Map<String, List<List<UnresolvedSpecificExtraction>>> {
+        val compoundExtractions = LinkedHashMap<String, List<List<UnresolvedSpecificExtraction>>>()
+        reader.beginObject()
+        while (reader.hasNext()) {
+            val name = reader.nextName()
+            val specificExtractionMaps = ArrayList<List<UnresolvedSpecificExtraction>>()
+            reader.beginArray()
+            while (reader.hasNext()) {
+                specificExtractionMaps.add(readSpecificExtractions(reader))
+            }
+            reader.endArray()
+            compoundExtractions[name] = specificExtractionMaps
+        }
+        reader.endObject()
+        return compoundExtractions
+    }
+
+    private fun readCandidates(reader: JsonReader): Map<String, List<Extraction>> {
+        val candidates = HashMap<String, List<Extraction>>()
+        reader.beginObject()
+        while (reader.hasNext()) {
+            val entityName = reader.nextName()
+            val extractions = ArrayList<Extraction>()
+            reader.beginArray()
+            while (reader.hasNext()) {
+                extractions.add(readExtraction(reader) { false })
+            }
+            reader.endArray()
+            candidates[entityName] = extractions
+        }
+        reader.endObject()
+        return candidates
+    }
+
+    /**
+     * Reads an extraction object. Fields which are not part of [Extraction] are passed to [readOtherField] which
+     * returns whether it consumed the value.
+     */
+    private inline fun readExtraction(reader: JsonReader, readOtherField: (String) -> Boolean): Extraction {
+        var value: String? = null
+        var entity: String? = null
+        var box: Box? = null
+        reader.beginObject()
+        while (reader.hasNext()) {
+            when (val fieldName = reader.nextName()) {
+                VALUE -> value = readString(reader)
+                ENTITY -> entity = readString(reader)
+                BOX -> box = readBox(reader)
+                else -> if (!readOtherField(fieldName)) reader.skipValue()
+            }
+        }
+        reader.endObject()
+        return Extraction(
+            value ?: throw JSONException("No value for $VALUE"),
+            entity ?: throw JSONException("No value for $ENTITY"),
+            box
+        )
+    }
+
+    private fun readBox(reader: JsonReader): Box {
+        var pageNumber: Int? = null
+        var left: Double? = null
+        var top: Double? = null
+        var width: Double? = null
+        var height: Double? = null
+        reader.beginObject()
+        while (reader.hasNext()) {
+            when (reader.nextName()) {
+                "page" -> pageNumber = reader.nextInt()
+                "left" -> left = reader.nextDouble()
+                "top" -> top = reader.nextDouble()
+                "width" -> width = reader.nextDouble()
+                "height" -> height = reader.nextDouble()
+                else -> reader.skipValue()
+            }
+        }
+        reader.endObject()
+        return Box(
+            pageNumber ?: throw JSONException("No value for page"),
+            left ?: throw JSONException("No value for left"),
+            top ?: throw JSONException("No value for top"),
+            width ?: throw JSONException("No value for width"),
+            height ?: throw JSONException("No value for height")
+        )
+    }
+
+    /**
+     * Reads a value as a string in the same way as [JSONObject.getString]. Numbers are formatted like org.json
+     * formats the numbers it parsed.
+     */
+    private fun readString(reader: JsonReader): String =
+        when (reader.peek()) {
+            JsonReader.Token.STRING -> reader.nextString()
+            JsonReader.Token.NUMBER -> reader.nextString().let { number ->
+                number.toLongOrNull()?.toString() ?: number.toDouble().toString()
+            }
+            JsonReader.Token.BOOLEAN -> reader.nextBoolean().toString()
+            JsonReader.Token.NULL -> reader.nextNull<Any>().let { "null" }
+            else -> throw JSONException("Value at ${reader.path} is not a string")
+        }
+
+    /**
+     * Reads a value into the same types as [JSONObject] parses it. Integers stay [Int]s or [Long]s instead of
+     * becoming [Double]s.
+     */
+    private fun readJsonValue(reader: JsonReader): Any =
+        when (reader.peek()) {
+            JsonReader.Token.BEGIN_OBJECT -> JSONObject().also { jsonObject ->
+                reader.beginObject()
+                while (reader.hasNext()) {
+                    jsonObject.put(reader.nextName(), readJsonValue(reader))
+                }
+                reader.endObject()
+            }
+            JsonReader.Token.BEGIN_ARRAY -> JSONArray().also { jsonArray ->
+                reader.beginArray()
+                while (reader.hasNext()) {
+                    jsonArray.put(readJsonValue(reader))
+                }
+                reader.endArray()
+            }
+            JsonReader.Token.STRING -> reader.nextString()
+            JsonReader.Token.NUMBER -> parseNumber(reader.nextString())
+            JsonReader.Token.BOOLEAN -> reader.nextBoolean()
+            JsonReader.Token.NULL -> reader.nextNull<Any>().let { JSONObject.NULL }
+            else -> throw JSONException("Unexpected value at ${reader.path}")
+        }
+
+    private fun parseNumber(number: String): Number {
+        if (number.none { it == '.' || it == 'e' || it == 'E' }) {
+            number.toLongOrNull()?.let { long ->
+                return if (long in Int.MIN_VALUE..Int.MAX_VALUE) long.toInt() else long
+            }
+        }
+        return number.toDouble()
+    }
+
+    private companion object {
+        const val EXTRACTIONS = "extractions"
+        const val CANDIDATES = "candidates"
+        const val COMPOUND_EXTRACTIONS = "compoundExtractions"
+        const val VALUE = "value"
+        const val ENTITY = "entity"
+        const val BOX = "box"
+    }
+}
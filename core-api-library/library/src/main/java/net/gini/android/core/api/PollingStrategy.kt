@@ -0,0 +1,81 @@
+package net.gini.android.core.api
+
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.pow
+
+/**
+ * Decides how often [DocumentManager.pollDocument] asks the Gini API whether a document was processed.
+ *
+ * Set a custom strategy with [net.gini.android.core.api.internal.GiniCoreAPIBuilder.setPollingStrategy].
+ */
+interface PollingStrategy {
+
+    /**
+     * The time in milliseconds after which polling is stopped with an error.
+     */
+    val timeoutMillis: Long
+
+    /**
+     * If not null, then each poll asks the Gini API to hold the request for up to the given time in milliseconds
+     * until the document was processed (long-polling). The API answers immediately if it doesn't support it.
+     *
+     * The read timeout of the HTTP client must be longer than this time.
+     */
+    val longPollingTimeoutMillis: Long?
+        get() = null
+
+    /**
+     * Returns the time to wait before the next poll.
+     *
+     * @param pollCount the number of polls which were done for the document, starting with 1
+     * @param retryAfterMillis the delay requested by the Gini API with a `Retry-After` header or null
+     * @return the delay in milliseconds
+     */
+    fun getDelayMillis(pollCount: Int, retryAfterMillis: Long?): Long
+}
+
+/**
+ * Starts with a short delay and multiplies it after each poll up to a maximum. A delay requested by the Gini API with
+ * a `Retry-After` header is never shortened.
+ *
+ * The defaults poll after 250, 500, 1000 and 2000 ms and then every 3 seconds.
+ *
+ * @param initialDelayMillis the delay after the first poll
+ * @param multiplier the factor by which the delay grows after each poll
+ * @param maxDelayMillis the maximum delay between polls
+ * @param timeoutMillis the time after which polling is stopped
+ * @param longPollingTimeoutMillis see [PollingStrategy.longPollingTimeoutMillis]
+ */
+class ExponentialPollingStrategy @JvmOverloads constructor(
+    val initialDelayMillis: Long = 250L,
+    val multiplier: Double = 2.0,
+    val maxDelayMillis: Long = 3000L,
+    override val timeoutMillis: Long = DocumentRepository.POLLING_TIMEOUT,
+    override val longPollingTimeoutMillis: Long? = null
+) : PollingStrategy {
+
+    init {
+        require(initialDelayMillis >= 0) { "initialDelayMillis can't be less than 0" }
+        require(multiplier >= 1.0) { "multiplier can't be less than 1" }
+        require(maxDelayMillis >= initialDelayMillis) { "maxDelayMillis can't be less than initialDelayMillis" }
+        require(longPollingTimeoutMillis == null || longPollingTimeoutMillis > 0) {
+            "longPollingTimeoutMillis must be greater than 0"
+        }
+    }
+
+    override fun getDelayMillis(pollCount: Int, retryAfterMillis: Long?): Long {
+        val delay = min(maxDelayMillis.toDouble(), initialDelayMillis * multiplier.pow(max(0, pollCount - 1))).toLong()
+        return if (retryAfterMillis != null) max(delay, retryAfterMillis) else delay
+    }
+
+    companion object {
+        /**
+         * Polls every [DocumentRepository.POLLING_INTERVAL] like previous versions of the library.
+         */
+        @JvmStatic
+        fun fixedInterval(): ExponentialPollingStrategy = ExponentialPollingStrategy(
+            DocumentRepository.POLLING_INTERVAL, 1.0, DocumentRepository.POLLING_INTERVAL
+        )
+    }
+}
@@ -3,25 +3,99 @@ package net.gini.android.core.api.authorization
 import net.gini.android.core.api.Resource
 import net.gini.android.core.api.Utils
 import net.gini.android.core.api.authorization.apimodels.UserRequestModel
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.launch
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
 import org.json.JSONObject
 import java.util.*
+import java.util.concurrent.atomic.AtomicBoolean
 
 /**
  * The [AnonymousSessionManager] is a [SessionManager] implementation that uses anonymous Gini users.
+ *
+ * If a [sessionStore] is provided, the session is persisted and reused after a process restart as long as it is
+ * still valid. Sessions which are about to expire are refreshed in the background.
  */
 internal class AnonymousSessionManager(
     private val userRepository: UserRepository,
     private val credentialsStore: CredentialsStore,
-    private val emailDomain: String
+    private val emailDomain: String,
+    private val sessionStore: EncryptedSessionStore? = null,
+    private val backgroundScope: CoroutineScope = CoroutineScope(SupervisorJob() + Dispatchers.IO)
 ): SessionManager {
+    @Volatile
     private var currentSession: Session? = null
+    @Volatile
+    private var isSessionRestored = false
+    private val loginMutex = Mutex()
+    private val isRefreshingInBackground = AtomicBoolean(false)
 
     override suspend fun getSession(): Resource<Session> {
-        currentSession?.takeUnless { it.hasExpired() }?.let { return Resource.Success(it) }
-        return if (credentialsStore.userCredentials == null) {
-            createUserAndLogin()
-        } else {
-            loginOrRecreateUser()
+        getUsableSession()?.let { session ->
+            if (session.expiresWithin(BACKGROUND_REFRESH_WINDOW_MS)) {
+                refreshInBackground(session)
+            }
+            return Resource.Success(session)
+        }
+        return loginMutex.withLock {
+            // Another coroutine might have logged in while we were waiting for the lock
+            getUsableSession()?.let { return@withLock Resource.Success(it) }
+            if (credentialsStore.userCredentials == null) {
+                createUserAndLogin()
+            } else {
+                loginOrRecreateUser()
+            }
+        }
+    }
+
+    override fun invalidateSession(session: Session) {
+        if (currentSession?.accessToken == session.accessToken) {
+            currentSession = null
+            sessionStore?.deleteSession()
+        }
+    }
+
+    private fun getUsableSession(): Session? {
+        if (currentSession == null) {
+            currentSession = restoreSession()
+        }
+        return currentSession?.takeUnless { it.expiresWithin(EXPIRATION_MARGIN_MS) }
+    }
+
+    private fun restoreSession(): Session? {
+        val store = sessionStore ?: return null
+        if (isSessionRestored) return null
+        isSessionRestored = true
+        val username = credentialsStore.userCredentials?.username ?: return null
+        return store.getSession(username)
+    }
+
+    private fun refreshInBackground(session: Session) {
+        if (!isRefreshingInBackground.compareAndSet(false, true)) return
+        backgroundScope.launch {
+            try {
+                loginMutex.withLock {
+                    if (currentSession?.accessToken == session.accessToken) {
+                        // Only the token is refreshed. If the user is invalid, the next getSession() call recreates it
+                        // once the current session expired.
+                        (loginUser() as? Resource.Success)?.let { cacheSession(it.data) }
+                    }
+                }
+            } finally {
+                isRefreshingInBackground.set(false)
+            }
+        }
+    }
+
+    private fun cacheSession(session: Session?) {
+        currentSession = session
+        val store = sessionStore ?: return
+        if (session == null) return
+        credentialsStore.userCredentials?.let { userCredentials ->
+            store.storeSession(session, userCredentials.username)
         }
     }
 
@@ -36,7 +110,7 @@ internal class AnonymousSessionManager(
     private suspend fun loginOrRecreateUser(): Resource<Session> {
         return when (val loginResponse = loginUser()) {
             is Resource.Success -> {
-                currentSession = loginResponse.data
+                cacheSession(loginResponse.data)
                 loginResponse
             }
             is Resource.Error -> handleLoginError(loginResponse)
@@ -47,13 +121,14 @@ internal class AnonymousSessionManager(
     private suspend fun handleLoginError(error: Resource.Error<Session>): Resource<Session> {
         if (!isInvalidUserError(error)) return error
         currentSession = null
+        sessionStore?.deleteSession()
         credentialsStore.deleteUserCredentials()
         return createUserAndLogin()
     }
 
     private suspend fun loginAndCacheSession(): Resource<Session> {
         val loginResponse = loginUser()
-        currentSession = (loginResponse as? Resource.Success)?.data
+        cacheSession((loginResponse as? Resource.Success)?.data)
         return loginResponse
     }
 
@@ -106,5 +181,15 @@ internal class AnonymousSessionManager(
     companion object {
         const val ERROR_KEY = "error"
         const val GRANT_VALUE = "invalid_grant"
+
+        /**
+         * Sessions expiring within this time span are not used anymore and a new login is done instead.
+         */
+        const val EXPIRATION_MARGIN_MS = 5_000L
+
+        /**
+         * Sessions expiring within this time span are still used but refreshed in the background.
+         */
+        const val BACKGROUND_REFRESH_WINDOW_MS = 60_000L
     }
 }
@@ -0,0 +1,63 @@
+package net.gini.android.core.api.authorization
+
+import android.content.SharedPreferences
+import net.gini.android.core.api.authorization.crypto.GiniCrypto
+import net.gini.android.core.api.authorization.crypto.GiniCryptoException
+import java.util.Date
+
+/**
+ * Internal use only.
+ *
+ * Persists the [Session] of a user encrypted with [GiniCrypto]. This allows reusing a still valid access token after
+ * a process restart instead of logging in again.
+ *
+ * The session is stored together with the username it belongs to and is only restored for the same user.
+ */
+internal class EncryptedSessionStore(
+    private val sharedPreferences: SharedPreferences,
+    private val crypto: GiniCrypto = GiniCrypto.newInstance()
+) {
+
+    fun storeSession(session: Session, username: String): Boolean {
+        return try {
+            sharedPreferences.edit()
+                .putString(ACCESS_TOKEN_KEY, crypto.encrypt(session.accessToken))
+                .putString(USERNAME_KEY, crypto.encrypt(username))
+                .putLong(EXPIRATION_DATE_KEY, session.expirationDate.time)
+                .apply()
+            true
+        } catch (ignored: GiniCryptoException) {
+            // Encryption failed — the session is not persisted and a login will be required after a restart
+            false
+        }
+    }
+
+    fun getSession(username: String): Session? {
+        val encryptedAccessToken = sharedPreferences.getString(ACCESS_TOKEN_KEY, null) ?: return null
+        val encryptedUsername = sharedPreferences.getString(USERNAME_KEY, null) ?: return null
+        val expirationDate = sharedPreferences.getLong(EXPIRATION_DATE_KEY, 0)
+        return try {
+            if (crypto.decrypt(encryptedUsername) != username) {
+                return null
+            }
+            Session(crypto.decrypt(encryptedAccessToken), Date(expirationDate))
+        } catch (ignored: GiniCryptoException) {
+            // Decryption failed — behave as if there was no stored session
+            null
+        }
+    }
+
+    fun deleteSession() {
+        sharedPreferences.edit()
+            .remove(ACCESS_TOKEN_KEY)
+            .remove(USERNAME_KEY)
+            .remove(EXPIRATION_DATE_KEY)
+            .apply()
+    }
+
+    companion object {
+        private const val ACCESS_TOKEN_KEY = "GiniSessionAccessToken"
+        private const val USERNAME_KEY = "GiniSessionUsername"
+        private const val EXPIRATION_DATE_KEY = "GiniSessionExpirationDate"
+    }
+}
@@ -37,6 +37,17 @@ public class Session {
         return now.after(mExpirationDate);
     }
 
+    /**
+     * Uses the current locale's time to check whether or not this session expires in the given time span.
+     *
+     * @param timeInMillis The time span in milliseconds.
+     * @return Whether or not the session has expired or will expire in the given time span.
+     */
+    public boolean expiresWithin(final long timeInMillis) {
+        final Date now = new Date();
+        return now.getTime() + timeInMillis >= mExpirationDate.getTime();
+    }
+
     public static Session fromAPIResponse(final SessionToken apiResponse) {
         final String accessToken = apiResponse.getAccessToken();
         final Date now = new Date();
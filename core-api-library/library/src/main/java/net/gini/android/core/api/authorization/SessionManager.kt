@@ -10,4 +10,12 @@ import net.gini.android.core.api.authorization.apimodels.SessionToken
  */
 fun interface SessionManager {
     suspend fun getSession(): Resource<Session>
+
+    /**
+     * Called when the Gini API rejected the [session]'s access token (HTTP 401). The next [getSession] call
+     * should not return the rejected session anymore.
+     *
+     * The default implementation does nothing.
+     */
+    fun invalidateSession(session: Session) {}
 }
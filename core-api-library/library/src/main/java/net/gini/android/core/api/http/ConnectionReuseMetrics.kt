@@ -0,0 +1,64 @@
+package net.gini.android.core.api.http
+
+import okhttp3.Call
+import okhttp3.Connection
+import okhttp3.EventListener
+import java.net.InetSocketAddress
+import java.net.Proxy
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Counts how many HTTP calls of the Gini API libraries opened a new connection and how many reused a pooled one.
+ *
+ * All API clients created by one builder share a connection pool, so a login followed by document requests should
+ * show one new connection and pooled connections for the rest. A high [newConnectionCount] hints at a connection
+ * pool which evicts idle connections too early (see the API builder's `setConnectionPool()`).
+ */
+class ConnectionReuseMetrics {
+
+    private val newConnections = AtomicInteger(0)
+    private val pooledConnections = AtomicInteger(0)
+
+    /**
+     * The number of calls which had to open a new connection (including TCP and TLS handshakes).
+     */
+    val newConnectionCount: Int
+        get() = newConnections.get()
+
+    /**
+     * The number of calls which reused a connection from the connection pool.
+     */
+    val pooledConnectionCount: Int
+        get() = pooledConnections.get()
+
+    /**
+     * Resets both counters to zero.
+     */
+    fun reset() {
+        newConnections.set(0)
+        pooledConnections.set(0)
+    }
+
+    override fun toString(): String =
+        "ConnectionReuseMetrics(newConnectionCount=$newConnectionCount, pooledConnectionCount=$pooledConnectionCount)"
+
+    internal val eventListenerFactory = EventListener.Factory { CallListener() }
+
+    private inner class CallListener : EventListener() {
+        // connectStart() is only called when OkHttp has to open a new connection for the call
+        private var isNewConnection = false
+
+        override fun connectStart(call: Call, inetSocketAddress: InetSocketAddress, proxy: Proxy) {
+            isNewConnection = true
+        }
+
+        override fun connectionAcquired(call: Call, connection: Connection) {
+            if (isNewConnection) {
+                newConnections.incrementAndGet()
+            } else {
+                pooledConnections.incrementAndGet()
+            }
+            isNewConnection = false
+        }
+    }
+}
@@ -7,6 +7,7 @@ import androidx.annotation.XmlRes
 import net.gini.android.core.api.authorization.PubKeyManager
 import net.gini.android.core.api.authorization.X509TrustManagerAdapter
 import okhttp3.Cache
+import okhttp3.ConnectionPool
 import okhttp3.OkHttpClient
 import okhttp3.logging.HttpLoggingInterceptor
 import java.security.KeyManagementException
@@ -25,6 +26,7 @@ import javax.net.ssl.TrustManager
  * - TLS/SSL configuration with optional certificate pinning
  * - Connection timeouts
  * - Optional caching
+ * - Connection pooling
  * - Optional debug logging
  *
  * Use the [Builder] to configure and create instances.
@@ -46,6 +48,8 @@ import javax.net.ssl.TrustManager
  * @param trustManager Custom trust manager (optional)
  * @param connectionTimeoutInMs Connection timeout in milliseconds
  * @param isDebuggingEnabled Whether to enable HTTP request/response logging
+ * @param maxIdleConnections Maximum number of idle connections kept in the connection pool
+ * @param keepAliveDurationInMs Time in milliseconds after which idle connections are evicted from the pool
  */
 class DefaultGiniHttpClientProvider private constructor(
     private val context: Context,
@@ -54,7 +58,9 @@ class DefaultGiniHttpClientProvider private constructor(
     private val cache: Cache?,
     private val trustManager: TrustManager?,
     private val connectionTimeoutInMs: Int,
-    private val isDebuggingEnabled: Boolean
+    private val isDebuggingEnabled: Boolean,
+    private val maxIdleConnections: Int,
+    private val keepAliveDurationInMs: Long
 ) : GiniHttpClientProvider {
 
     private val httpLoggingInterceptor: HttpLoggingInterceptor by lazy {
@@ -105,6 +111,7 @@ class DefaultGiniHttpClientProvider private constructor(
         .connectTimeout(connectionTimeoutInMs.toLong(), TimeUnit.MILLISECONDS)
         .readTimeout(connectionTimeoutInMs.toLong(), TimeUnit.MILLISECONDS)
         .writeTimeout(connectionTimeoutInMs.toLong(), TimeUnit.MILLISECONDS)
+        .connectionPool(ConnectionPool(maxIdleConnections, keepAliveDurationInMs, TimeUnit.MILLISECONDS))
         .build()
 
     private fun createSSLSocketFactory(trustManagers: Array<TrustManager>?): SSLSocketFactory? {
@@ -163,6 +170,8 @@ class DefaultGiniHttpClientProvider private constructor(
         private var trustManager: TrustManager? = null
         private var connectionTimeoutInMs: Int = DEFAULT_TIMEOUT_MS
         private var isDebuggingEnabled = false
+        private var maxIdleConnections: Int = DEFAULT_MAX_IDLE_CONNECTIONS
+        private var keepAliveDurationInMs: Long = DEFAULT_KEEP_ALIVE_DURATION_MS
 
         /**
          * Set the hostnames for certificate pinning.
@@ -228,6 +237,24 @@ class DefaultGiniHttpClientProvider private constructor(
             return this
         }
 
+        /**
+         * Configure the connection pool which is shared by all requests of the Gini API libraries.
+         *
+         * Defaults to 5 idle connections which are kept alive for 5 minutes.
+         *
+         * @param maxIdleConnections Maximum number of idle connections to keep in the pool (must be >= 0)
+         * @param keepAliveDurationInMs Time in milliseconds after which an idle connection is evicted (must be > 0)
+         * @return This builder instance for chaining
+         * @throws IllegalArgumentException if one of the values is out of range
+         */
+        fun setConnectionPool(maxIdleConnections: Int, keepAliveDurationInMs: Long): Builder {
+            require(maxIdleConnections >= 0) { "maxIdleConnections can't be less than 0" }
+            require(keepAliveDurationInMs > 0) { "keepAliveDurationInMs must be greater than 0" }
+            this.maxIdleConnections = maxIdleConnections
+            this.keepAliveDurationInMs = keepAliveDurationInMs
+            return this
+        }
+
         /**
          * Enable or disable debugging.
          *
@@ -261,7 +288,9 @@ class DefaultGiniHttpClientProvider private constructor(
                 cache = cache,
                 trustManager = trustManager,
                 connectionTimeoutInMs = connectionTimeoutInMs,
-                isDebuggingEnabled = isDebuggingEnabled
+                isDebuggingEnabled = isDebuggingEnabled,
+                maxIdleConnections = maxIdleConnections,
+                keepAliveDurationInMs = keepAliveDurationInMs
             )
         }
     }
@@ -269,6 +298,8 @@ class DefaultGiniHttpClientProvider private constructor(
     companion object {
         private const val LOG_TAG = "DefaultGiniHttpClientProvider"
         private const val DEFAULT_TIMEOUT_MS = 60_000
+        private const val DEFAULT_MAX_IDLE_CONNECTIONS = 5
+        private const val DEFAULT_KEEP_ALIVE_DURATION_MS = 5 * 60 * 1000L
         private val FALLBACK_USER_AGENT =
             "okhttp/${okhttp3.OkHttp.VERSION} (Android ${Build.VERSION.RELEASE}; ${Build.MODEL} Build/${Build.ID})"
 
@@ -9,24 +9,30 @@ import com.squareup.moshi.Moshi
 import kotlinx.coroutines.Dispatchers
 import net.gini.android.core.api.DocumentManager
 import net.gini.android.core.api.DocumentRepository
+import net.gini.android.core.api.ExponentialPollingStrategy
 import net.gini.android.core.api.GiniApiType
+import net.gini.android.core.api.PollingStrategy
 import net.gini.android.core.api.Utils
 import net.gini.android.core.api.authorization.AnonymousSessionManager
 import net.gini.android.core.api.authorization.CredentialsStore
 import net.gini.android.core.api.authorization.EncryptedCredentialsStore
+import net.gini.android.core.api.authorization.EncryptedSessionStore
 import net.gini.android.core.api.authorization.SessionManager
 import net.gini.android.core.api.authorization.UserRemoteSource
 import net.gini.android.core.api.authorization.UserRepository
 import net.gini.android.core.api.authorization.UserService
+import net.gini.android.core.api.http.ConnectionReuseMetrics
 import net.gini.android.core.api.http.DefaultGiniHttpClientProvider
 import net.gini.android.core.api.http.GiniHttpClientProvider
 import net.gini.android.core.api.models.ExtractionsContainer
 import okhttp3.Cache
+import okhttp3.ConnectionPool
 import okhttp3.OkHttpClient
 import retrofit2.Retrofit
 import retrofit2.converter.moshi.MoshiConverterFactory
 import java.net.MalformedURLException
 import java.net.URL
+import java.util.concurrent.TimeUnit
 import javax.net.ssl.TrustManager
 
 /**
@@ -65,7 +71,13 @@ abstract class GiniCoreAPIBuilder<DM : DocumentManager<DR, E>, G : GiniCoreAPI<D
     private var mDocumentManager: DM? = null
     private var mDocumentRepository: DR? = null
     private var mHttpClientProvider: GiniHttpClientProvider? = null
+    private var mRootOkHttpClient: OkHttpClient? = null
+    private var mMaxIdleConnections: Int? = null
+    private var mKeepAliveDurationInMs: Long? = null
+    private var mConnectionReuseMetrics: ConnectionReuseMetrics? = null
+    private var mPollingStrategy: PollingStrategy? = null
     private var isDebuggingEnabled = false
+    private var isSessionPersistenceEnabled = false
 
     /**
      * Set the resource id for the network security configuration xml to enable public key pinning.
@@ -204,6 +216,7 @@ abstract class GiniCoreAPIBuilder<DM : DocumentManager<DR, E>, G : GiniCoreAPI<D
      * If a provider is set, it will be used instead of the SDK's default client creation.
      * The provider's client will override any HTTP-related settings configured via other
      * builder methods (e.g., [setCache], [setTrustManager], [setConnectionTimeoutInMs]).
+     * Only [setConnectionPool] and [setConnectionReuseMetrics] are still applied on top of it.
      *
      * @param provider A [GiniHttpClientProvider] implementation
      * @return The builder instance to enable chaining.
@@ -214,6 +227,72 @@ abstract class GiniCoreAPIBuilder<DM : DocumentManager<DR, E>, G : GiniCoreAPI<D
         return this
     }
 
+    /**
+     * Configure the connection pool which is shared by the requests to the Gini API and the Gini User Center API.
+     *
+     * If no connection pool is configured, OkHttp's defaults are used (5 idle connections kept alive for 5 minutes).
+     * If a [GiniHttpClientProvider] is set, the configured pool replaces the pool of the provided client.
+     *
+     * @param maxIdleConnections maximum number of idle connections to keep in the pool
+     * @param keepAliveDurationInMs time in milliseconds after which an idle connection is evicted from the pool
+     * @return The builder instance to enable chaining.
+     */
+    open fun setConnectionPool(maxIdleConnections: Int, keepAliveDurationInMs: Long): GiniCoreAPIBuilder<DM, G, DR, E> {
+        require(maxIdleConnections >= 0) { "maxIdleConnections can't be less than 0" }
+        require(keepAliveDurationInMs > 0) { "keepAliveDurationInMs must be greater than 0" }
+        mMaxIdleConnections = maxIdleConnections
+        mKeepAliveDurationInMs = keepAliveDurationInMs
+        return this
+    }
+
+    /**
+     * Enable or disable persisting the session of anonymous Gini users.
+     *
+     * Disabled by default.
+     *
+     * When enabled the access token is stored encrypted (like the user credentials) and reused after the app was
+     * restarted until it expires. This avoids a login request before the first API call on app start.
+     *
+     * Has no effect if a custom [SessionManager] was passed to the builder.
+     *
+     * @param enabled pass `true` to enable and `false` to disable session persistence
+     * @return The builder instance to enable chaining.
+     */
+    open fun setSessionPersistenceEnabled(enabled: Boolean): GiniCoreAPIBuilder<DM, G, DR, E> {
+        isSessionPersistenceEnabled = enabled
+        return this
+    }
+
+    /**
+     * Set a [ConnectionReuseMetrics] instance to count how many requests opened a new connection and how many
+     * reused a pooled one.
+     *
+     * The metrics are collected with an OkHttp `EventListener`. If a [GiniHttpClientProvider] is set, it replaces the
+     * `EventListener.Factory` of the provided client.
+     *
+     * @param connectionReuseMetrics the metrics instance which will be updated by all requests
+     * @return The builder instance to enable chaining.
+     */
+    open fun setConnectionReuseMetrics(connectionReuseMetrics: ConnectionReuseMetrics): GiniCoreAPIBuilder<DM, G, DR, E> {
+        mConnectionReuseMetrics = connectionReuseMetrics
+        return this
+    }
+
+    /**
+     * Set the [PollingStrategy] which decides how often [DocumentManager.pollDocument] requests a document until it
+     * was processed.
+     *
+     * If no strategy is set, an [ExponentialPollingStrategy] with its default values is used. Use
+     * [ExponentialPollingStrategy.fixedInterval] to poll every second like previous versions.
+     *
+     * @param pollingStrategy a [PollingStrategy] implementation
+     * @return The builder instance to enable chaining.
+     */
+    open fun setPollingStrategy(pollingStrategy: PollingStrategy): GiniCoreAPIBuilder<DM, G, DR, E> {
+        mPollingStrategy = pollingStrategy
+        return this
+    }
+
     /**
      * Builds an instance with the configuration settings of the builder instance.
      *
@@ -314,11 +393,19 @@ abstract class GiniCoreAPIBuilder<DM : DocumentManager<DR, E>, G : GiniCoreAPI<D
     open fun getSessionManager(): SessionManager {
         if (sessionManager == null) {
             sessionManager =
-                AnonymousSessionManager(getUserRepository(), getCredentialsStore(), emailDomain)
+                AnonymousSessionManager(
+                    getUserRepository(),
+                    getCredentialsStore(),
+                    emailDomain,
+                    if (isSessionPersistenceEnabled) createSessionStore() else null
+                )
         }
         return sessionManager as SessionManager
     }
 
+    private fun createSessionStore(): EncryptedSessionStore =
+        EncryptedSessionStore(context.getSharedPreferences("Gini", Context.MODE_PRIVATE))
+
     @Synchronized
     private fun getUserApiRetrofit(): Retrofit {
         val retrofit = Retrofit.Builder()
@@ -342,7 +429,28 @@ abstract class GiniCoreAPIBuilder<DM : DocumentManager<DR, E>, G : GiniCoreAPI<D
         return retrofit
     }
 
-    private fun createOkHttpClient(): OkHttpClient {
+    /**
+     * Creates the [OkHttpClient] for one of the APIs. All clients are derived from the same root client via
+     * [OkHttpClient.newBuilder] and share its connection pool, dispatcher and TLS session cache.
+     */
+    private fun createOkHttpClient(): OkHttpClient =
+        getRootOkHttpClient().newBuilder().build()
+
+    @Synchronized
+    private fun getRootOkHttpClient(): OkHttpClient {
+        mRootOkHttpClient?.let { return it }
+        val rootClient = createRootOkHttpClient().let { client ->
+            mConnectionReuseMetrics?.let { metrics ->
+                client.newBuilder()
+                    .eventListenerFactory(metrics.eventListenerFactory)
+                    .build()
+            } ?: client
+        }
+        mRootOkHttpClient = rootClient
+        return rootClient
+    }
+
+    private fun createRootOkHttpClient(): OkHttpClient {
         // If a custom provider is set, use it as a base and add SDK's required configuration on top
         if (mHttpClientProvider != null) {
             val baseClient = mHttpClientProvider!!.provideOkHttpClient()
@@ -350,6 +458,11 @@ abstract class GiniCoreAPIBuilder<DM : DocumentManager<DR, E>, G : GiniCoreAPI<D
             // Clone the consumer's client and add SDK's required interceptors
             return baseClient.newBuilder()
                 .apply {
+                    if (mMaxIdleConnections != null && mKeepAliveDurationInMs != null) {
+                        connectionPool(
+                            ConnectionPool(mMaxIdleConnections!!, mKeepAliveDurationInMs!!, TimeUnit.MILLISECONDS)
+                        )
+                    }
                     // Add SDK's required User-Agent header
                     // This is placed at the end of the interceptor chain so consumer's interceptors run first
                     addInterceptor { chain ->
@@ -384,6 +497,9 @@ abstract class GiniCoreAPIBuilder<DM : DocumentManager<DR, E>, G : GiniCoreAPI<D
                 mTrustManager?.let { setTrustManager(it) }
                 setConnectionTimeoutInMs(mTimeoutInMs)
                 setDebuggingEnabled(isDebuggingEnabled)
+                if (mMaxIdleConnections != null && mKeepAliveDurationInMs != null) {
+                    setConnectionPool(mMaxIdleConnections!!, mKeepAliveDurationInMs!!)
+                }
             }
             .build()
 
@@ -420,7 +536,9 @@ abstract class GiniCoreAPIBuilder<DM : DocumentManager<DR, E>, G : GiniCoreAPI<D
 
     protected fun getDocumentRepository(): DR {
         if (mDocumentRepository == null) {
-            mDocumentRepository = createDocumentRepository()
+            mDocumentRepository = createDocumentRepository().apply {
+                mPollingStrategy?.let { pollingStrategy = it }
+            }
         }
         return mDocumentRepository as DR
     }
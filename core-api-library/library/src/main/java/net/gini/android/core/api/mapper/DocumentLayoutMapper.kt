@@ -1,5 +1,6 @@
 package net.gini.android.core.api.mapper
 
+import net.gini.android.core.api.models.CompactDocumentLayout
 import net.gini.android.core.api.models.DocumentLayout
 import net.gini.android.core.api.response.DocumentLayoutResponse
 
@@ -45,4 +46,49 @@ fun DocumentLayoutResponse.PageResponse.TextZoneResponse.ParagraphResponse.LineR
 
 fun DocumentLayoutResponse.PageResponse.RegionResponse.toRegion() = DocumentLayout.Page.Region(
     width = width, height = height, top = top, left = left, type = type
-)
\ No newline at end of file
+)
+
+fun CompactDocumentLayout.toDocumentLayout() = DocumentLayout(
+    pages = (0 until pageCount).map { page ->
+        DocumentLayout.Page(number = getPageNumber(page),
+            sizeX = getPageSizeX(page),
+            sizeY = getPageSizeY(page),
+            textZones = getTextZones(page).map { textZone ->
+                DocumentLayout.Page.TextZone(paragraphs = getParagraphs(textZone).map { toParagraph(it) })
+            },
+            regions = getRegions(page).map { toRegion(it) })
+    }
+)
+
+private fun CompactDocumentLayout.toParagraph(paragraph: Int) = DocumentLayout.Page.TextZone.Paragraph(
+    width = paragraphBoxes.getWidth(paragraph),
+    height = paragraphBoxes.getHeight(paragraph),
+    top = paragraphBoxes.getTop(paragraph),
+    left = paragraphBoxes.getLeft(paragraph),
+    lines = getLines(paragraph).map { toLine(it) })
+
+private fun CompactDocumentLayout.toLine(line: Int) = DocumentLayout.Page.TextZone.Paragraph.Line(
+    width = lineBoxes.getWidth(line),
+    height = lineBoxes.getHeight(line),
+    top = lineBoxes.getTop(line),
+    left = lineBoxes.getLeft(line),
+    words = getWords(line).map { toWord(it) })
+
+private fun CompactDocumentLayout.toWord(word: Int) = DocumentLayout.Page.TextZone.Paragraph.Line.Word(
+    width = wordBoxes.getWidth(word),
+    height = wordBoxes.getHeight(word),
+    top = wordBoxes.getTop(word),
+    left = wordBoxes.getLeft(word),
+    fontSize = getWordFontSize(word),
+    fontFamily = getWordFontFamily(word),
+    bold = isWordBold(word),
+    text = getWordText(word)
+)
+
+private fun CompactDocumentLayout.toRegion(region: Int) = DocumentLayout.Page.Region(
+    width = regionBoxes.getWidth(region),
+    height = regionBoxes.getHeight(region),
+    top = regionBoxes.getTop(region),
+    left = regionBoxes.getLeft(region),
+    type = getRegionType(region)
+)
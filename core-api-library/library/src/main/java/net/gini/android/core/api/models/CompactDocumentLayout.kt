@@ -0,0 +1,265 @@
+package net.gini.android.core.api.models
+
+import kotlin.math.ceil
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.math.sqrt
+
+/**
+ * The layout of a document like [DocumentLayout], but stored in a few primitive arrays instead of an object per page,
+ * text zone, paragraph, line, word and region.
+ *
+ * Pages, text zones, paragraphs, lines, words and regions are referenced by their index. The index ranges of the
+ * children of an element are returned by [getTextZones], [getParagraphs], [getLines], [getWords] and [getRegions].
+ * The texts of all words are stored in one shared [text].
+ *
+ * Use [wordsIn] to find the words inside a rectangle, e.g. for highlighting an extraction's [Box].
+ */
+class CompactDocumentLayout internal constructor(
+    private val pageNumbers: IntArray,
+    private val pageSizes: FloatArray,
+    private val pageTextZoneOffsets: IntArray,
+    private val pageRegionOffsets: IntArray,
+    private val textZoneParagraphOffsets: IntArray,
+    /**
+     * The boxes of all paragraphs.
+     */
+    val paragraphBoxes: LayoutBoxes,
+    private val paragraphLineOffsets: IntArray,
+    /**
+     * The boxes of all lines.
+     */
+    val lineBoxes: LayoutBoxes,
+    private val lineWordOffsets: IntArray,
+    /**
+     * The boxes of all words.
+     */
+    val wordBoxes: LayoutBoxes,
+    private val wordFontSizes: FloatArray,
+    private val wordFontFamilies: IntArray,
+    private val wordBold: BooleanArray,
+    private val wordTextOffsets: IntArray,
+    /**
+     * The texts of all words one after the other. The text of a word is between [getWordTextStart] and
+     * [getWordTextEnd].
+     */
+    val text: String,
+    /**
+     * The boxes of all regions.
+     */
+    val regionBoxes: LayoutBoxes,
+    private val regionTypes: IntArray,
+    private val strings: Array<String>
+) {
+
+    private val wordIndexes = arrayOfNulls<WordGridIndex>(pageNumbers.size)
+
+    val pageCount: Int
+        get() = pageNumbers.size
+
+    val wordCount: Int
+        get() = wordFontSizes.size
+
+    fun getPageNumber(page: Int): Int = pageNumbers[page]
+
+    fun getPageSizeX(page: Int): Float = pageSizes[page * 2]
+
+    fun getPageSizeY(page: Int): Float = pageSizes[page * 2 + 1]
+
+    /**
+     * @return the index of the page with the given page number or -1 if there is none
+     */
+    fun findPage(pageNumber: Int): Int = pageNumbers.indexOf(pageNumber)
+
+    fun getTextZones(page: Int): IntRange = pageTextZoneOffsets.rangeAt(page)
+
+    fun getParagraphs(textZone: Int): IntRange = textZoneParagraphOffsets.rangeAt(textZone)
+
+    fun getLines(paragraph: Int): IntRange = paragraphLineOffsets.rangeAt(paragraph)
+
+    fun getWords(line: Int): IntRange = lineWordOffsets.rangeAt(line)
+
+    fun getRegions(page: Int): IntRange = pageRegionOffsets.rangeAt(page)
+
+    /**
+     * @return the words of the page, in the order in which they appear in the layout
+     */
+    fun getPageWords(page: Int): IntRange {
+        val textZones = getTextZones(page)
+        if (textZones.isEmpty()) {
+            return IntRange.EMPTY
+        }
+        val firstLine = paragraphLineOffsets[textZoneParagraphOffsets[textZones.first]]
+        val lineEnd = paragraphLineOffsets[textZoneParagraphOffsets[textZones.last + 1]]
+        return lineWordOffsets[firstLine] until lineWordOffsets[lineEnd]
+    }
+
+    fun getWordText(word: Int): String = text.substring(wordTextOffsets[word], wordTextOffsets[word + 1])
+
+    fun getWordTextStart(word: Int): Int = wordTextOffsets[word]
+
+    fun getWordTextEnd(word: Int): Int = wordTextOffsets[word + 1]
+
+    fun getWordFontSize(word: Int): Float = wordFontSizes[word]
+
+    fun getWordFontFamily(word: Int): String = strings[wordFontFamilies[word]]
+
+    fun isWordBold(word: Int): Boolean = wordBold[word]
+
+    fun getRegionType(region: Int): String = strings[regionTypes[region]]
+
+    /**
+     * Finds the words which intersect the given box. The box's coordinates must be in the same units as the layout.
+     *
+     * @return the indexes of the words in the order in which they appear in the layout
+     */
+    fun wordsIn(box: Box): IntArray = wordsIn(
+        box.pageNumber,
+        box.left.toFloat(),
+        box.top.toFloat(),
+        (box.left + box.width).toFloat(),
+        (box.top + box.height).toFloat()
+    )
+
+    /**
+     * Finds the words which intersect the given rectangle. The coordinates must be in the same units as the layout.
+     *
+     * The lookup uses a grid index of the page's words which is created on the first lookup on the page.
+     *
+     * @return the indexes of the words in the order in which they appear in the layout
+     */
+    fun wordsIn(pageNumber: Int, left: Float, top: Float, right: Float, bottom: Float): IntArray {
+        val page = findPage(pageNumber)
+        if (page == -1 || left >= right || top >= bottom) {
+            return IntArray(0)
+        }
+        val index = synchronized(wordIndexes) {
+            wordIndexes[page] ?: WordGridIndex(wordBoxes, getPageWords(page)).also { wordIndexes[page] = it }
+        }
+        return index.query(left, top, right, bottom)
+    }
+
+    private fun IntArray.rangeAt(index: Int): IntRange = this[index] until this[index + 1]
+
+    /**
+     * The boxes of layout elements stored as left, top, width and height in one array.
+     */
+    class LayoutBoxes internal constructor(private val values: FloatArray) {
+
+        val size: Int
+            get() = values.size / 4
+
+        fun getLeft(index: Int): Float = values[index * 4]
+
+        fun getTop(index: Int): Float = values[index * 4 + 1]
+
+        fun getWidth(index: Int): Float = values[index * 4 + 2]
+
+        fun getHeight(index: Int): Float = values[index * 4 + 3]
+
+        fun getRight(index: Int): Float = getLeft(index) + getWidth(index)
+
+        fun getBottom(index: Int): Float = getTop(index) + getHeight(index)
+
+        /**
+         * Uses the same rules as `android.graphics.RectF.intersects()`.
+         */
+        fun intersects(index: Int, left: Float, top: Float, right: Float, bottom: Float): Boolean =
+            getLeft(index) < right && left < getRight(index) && getTop(index) < bottom && top < getBottom(index)
+    }
+
+    /**
+     * A uniform grid over the words of a page. Each cell lists the words which overlap it.
+     */
+    private class WordGridIndex(private val boxes: LayoutBoxes, words: IntRange) {
+
+        private val minX: Float
+        private val minY: Float
+        private val cellWidth: Float
+        private val cellHeight: Float
+        private val columns: Int
+        private val rows: Int
+        private val cellOffsets: IntArray
+        private val cellWords: IntArray
+
+        init {
+            var minX = Float.MAX_VALUE
+            var minY = Float.MAX_VALUE
+            var maxX = -Float.MAX_VALUE
+            var maxY = -Float.MAX_VALUE
+            for (word in words) {
+                minX = min(minX, boxes.getLeft(word))
+                minY = min(minY, boxes.getTop(word))
+                maxX = max(maxX, boxes.getRight(word))
+                maxY = max(maxY, boxes.getBottom(word))
+            }
+            val wordCount = words.last - words.first + 1
+            // About one word per cell
+            val cellsPerSide = max(1, ceil(sqrt(wordCount.toDouble())).toInt())
+            this.minX = minX
+            this.minY = minY
+            columns = cellsPerSide
+            rows = cellsPerSide
+            cellWidth = max((maxX - minX) / columns, Float.MIN_VALUE)
+            cellHeight = max((maxY - minY) / rows, Float.MIN_VALUE)
+
+            cellOffsets = IntArray(columns * rows + 1)
+            for (word in words) {
+                forEachCell(word) { cell -> cellOffsets[cell + 1]++ }
+            }
+            for (cell in 1 until cellOffsets.size) {
+                cellOffsets[cell] += cellOffsets[cell - 1]
+            }
+            cellWords = IntArray(cellOffsets.last())
+            val fill = cellOffsets.copyOf(cellOffsets.size - 1)
+            for (word in words) {
+                forEachCell(word) { cell -> cellWords[fill[cell]++] = word }
+            }
+        }
+
+        fun query(left: Float, top: Float, right: Float, bottom: Float): IntArray {
+            if (cellWords.isEmpty()) {
+                return IntArray(0)
+            }
+            val firstColumn = column(left)
+            val lastColumn = column(right)
+            val firstRow = row(top)
+            val lastRow = row(bottom)
+            var result = IntArray(16)
+            var count = 0
+            for (row in firstRow..lastRow) {
+                for (column in firstColumn..lastColumn) {
+                    val cell = row * columns + column
+                    for (i in cellOffsets[cell] until cellOffsets[cell + 1]) {
+                        val word = cellWords[i]
+                        // A word is listed in every cell it overlaps. Report it only in the first of those which
+                        // is also inside the query.
+                        if (column != max(firstColumn, column(boxes.getLeft(word)))
+                            || row != max(firstRow, row(boxes.getTop(word)))
+                            || !boxes.intersects(word, left, top, right, bottom)
+                        ) {
+                            continue
+                        }
+                        if (count == result.size) {
+                            result = result.copyOf(count * 2)
+                        }
+                        result[count++] = word
+                    }
+                }
+            }
+            return result.copyOf(count).apply { sort() }
+        }
+
+        private inline fun forEachCell(word: Int, action: (Int) -> Unit) {
+            for (row in row(boxes.getTop(word))..row(boxes.getBottom(word))) {
+                for (column in column(boxes.getLeft(word))..column(boxes.getRight(word))) {
+                    action(row * columns + column)
+                }
+            }
+        }
+
+        private fun column(x: Float): Int = ((x - minX) / cellWidth).toInt().coerceIn(0, columns - 1)
+
+        private fun row(y: Float): Int = ((y - minY) / cellHeight).toInt().coerceIn(0, rows - 1)
+    }
+}
@@ -0,0 +1,229 @@
+package net.gini.android.core.api
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.google.common.truth.Truth.assertThat
+import com.squareup.moshi.Moshi
+import net.gini.android.core.api.mapper.toDocumentLayout
+import net.gini.android.core.api.models.Box
+import net.gini.android.core.api.models.CompactDocumentLayout
+import net.gini.android.core.api.models.DocumentLayout
+import net.gini.android.core.api.response.DocumentLayoutResponse
+import okio.Buffer
+import org.json.JSONObject
+import org.junit.Test
+import org.junit.runner.RunWith
+import kotlin.random.Random
+
+@RunWith(AndroidJUnit4::class)
+class CompactDocumentLayoutTest {
+
+    private val json = createLayoutJson(PAGE_COUNT)
+
+    @Test
+    fun `reads the same layout as the Moshi models`() {
+        // When
+        val compactLayout = readCompactLayout(json)
+
+        // Then
+        assertThat(compactLayout.pageCount).isEqualTo(PAGE_COUNT)
+        assertThat(compactLayout.wordCount).isEqualTo(PAGE_COUNT * WORDS_PER_PAGE)
+        assertThat(compactLayout.toDocumentLayout()).isEqualTo(readLayout(json))
+    }
+
+    @Test
+    fun `wordsIn finds the same words as a linear scan`() {
+        // Given
+        val compactLayout = readCompactLayout(json)
+        val layout = readLayout(json)
+        val random = Random(7)
+
+        repeat(500) {
+            val pageNumber = random.nextInt(1, PAGE_COUNT + 2)
+            val left = random.nextInt(-50, PAGE_WIDTH).toFloat()
+            val top = random.nextInt(-50, PAGE_HEIGHT).toFloat()
+            val right = left + random.nextInt(1, PAGE_WIDTH)
+            val bottom = top + random.nextInt(1, PAGE_HEIGHT / 4)
+
+            // When
+            val words = compactLayout.wordsIn(pageNumber, left, top, right, bottom)
+
+            // Then
+            assertThat(words.map { compactLayout.getWordText(it) })
+                .containsExactlyElementsIn(linearScan(layout, pageNumber, left, top, right, bottom).map { it.text })
+                .inOrder()
+        }
+    }
+
+    @Test
+    fun `wordsIn finds the words inside an extraction box`() {
+        // Given
+        val compactLayout = readCompactLayout(json)
+        val page = compactLayout.findPage(3)
+        val firstWord = compactLayout.getPageWords(page).first
+        val boxes = compactLayout.wordBoxes
+
+        // When
+        val words = compactLayout.wordsIn(
+            Box(3, boxes.getLeft(firstWord).toDouble(), boxes.getTop(firstWord).toDouble(), 1.0, 1.0)
+        )
+
+        // Then
+        assertThat(words).asList().containsExactly(firstWord)
+        assertThat(compactLayout.wordsIn(Box(3, -10.0, -10.0, 1.0, 1.0))).isEmpty()
+    }
+
+    @Test
+    fun `stores each element once in flat arrays`() {
+        // When
+        val compactLayout = readCompactLayout(json)
+
+        // Then
+        val paragraphCount = PAGE_COUNT * PARAGRAPHS_PER_PAGE
+        val lineCount = paragraphCount * LINES_PER_PARAGRAPH
+        assertThat(compactLayout.paragraphBoxes.size).isEqualTo(paragraphCount)
+        assertThat(compactLayout.lineBoxes.size).isEqualTo(lineCount)
+        assertThat(compactLayout.wordBoxes.size).isEqualTo(compactLayout.wordCount)
+        assertThat(compactLayout.regionBoxes.size).isEqualTo(PAGE_COUNT)
+        // The word texts are stored one after the other without separators
+        val words = 0 until compactLayout.wordCount
+        assertThat(compactLayout.text.length).isEqualTo(words.sumOf { compactLayout.getWordText(it).length })
+        assertThat(compactLayout.getWordTextStart(0)).isEqualTo(0)
+        for (word in 1 until compactLayout.wordCount) {
+            assertThat(compactLayout.getWordTextStart(word)).isEqualTo(compactLayout.getWordTextEnd(word - 1))
+        }
+        // Repeated strings are shared
+        val arialWords = words.filter { compactLayout.getWordFontFamily(it) == "Arial" }
+        assertThat(arialWords.map { compactLayout.getWordFontFamily(it) }.distinctBy { System.identityHashCode(it) })
+            .hasSize(1)
+    }
+
+    @Test
+    fun `pages reference contiguous ranges of their elements`() {
+        // Given
+        val compactLayout = readCompactLayout(json)
+
+        for (page in 0 until compactLayout.pageCount) {
+            // When
+            val pageWords = compactLayout.getPageWords(page)
+            val lines = compactLayout.getTextZones(page)
+                .flatMap { compactLayout.getParagraphs(it) }
+                .flatMap { compactLayout.getLines(it) }
+
+            // Then
+            assertThat(compactLayout.getPageNumber(page)).isEqualTo(page + 1)
+            assertThat(pageWords.first).isEqualTo(page * WORDS_PER_PAGE)
+            assertThat(pageWords.count()).isEqualTo(WORDS_PER_PAGE)
+            assertThat(lines).hasSize(PARAGRAPHS_PER_PAGE * LINES_PER_PARAGRAPH)
+            assertThat(lines.flatMap { compactLayout.getWords(it) }).containsExactlyElementsIn(pageWords).inOrder()
+            assertThat(compactLayout.getRegions(page).count()).isEqualTo(1)
+        }
+    }
+
+    @Test
+    fun `wordsIn returns all words of the page and nothing of the other pages for a page sized rectangle`() {
+        // Given
+        val compactLayout = readCompactLayout(json)
+
+        for (pageNumber in 1..PAGE_COUNT) {
+            // When
+            val words = compactLayout.wordsIn(pageNumber, 0f, 0f, PAGE_WIDTH.toFloat(), PAGE_HEIGHT.toFloat())
+
+            // Then
+            assertThat(words.toList())
+                .containsExactlyElementsIn(compactLayout.getPageWords(pageNumber - 1).toList())
+                .inOrder()
+        }
+        assertThat(compactLayout.wordsIn(PAGE_COUNT + 1, 0f, 0f, PAGE_WIDTH.toFloat(), PAGE_HEIGHT.toFloat()))
+            .isEmpty()
+    }
+
+    @Test
+    fun `wordsIn reports words which overlap several grid cells only once`() {
+        // Given
+        val compactLayout = readCompactLayout(json)
+        val boxes = compactLayout.wordBoxes
+        val line = compactLayout.getLines(compactLayout.getParagraphs(compactLayout.getTextZones(0).first).first).first
+
+        // When
+        val words = compactLayout.wordsIn(
+            1, boxes.getLeft(compactLayout.getWords(line).first), compactLayout.lineBoxes.getTop(line),
+            compactLayout.lineBoxes.getRight(line), compactLayout.lineBoxes.getBottom(line)
+        )
+
+        // Then
+        assertThat(words.toList()).containsNoDuplicates()
+        assertThat(words.toList()).containsAtLeastElementsIn(compactLayout.getWords(line).toList())
+    }
+
+    private fun readCompactLayout(json: String): CompactDocumentLayout =
+        DocumentLayoutJsonReader().read(Buffer().writeUtf8(json))
+
+    private fun readLayout(json: String): DocumentLayout =
+        Moshi.Builder().build().adapter(DocumentLayoutResponse::class.java).fromJson(json)!!.toDocumentLayout()
+
+    private fun linearScan(
+        layout: DocumentLayout,
+        pageNumber: Int,
+        left: Float,
+        top: Float,
+        right: Float,
+        bottom: Float
+    ): List<DocumentLayout.Page.TextZone.Paragraph.Line.Word> {
+        val page = layout.pages.find { it.number == pageNumber } ?: return emptyList()
+        return page.textZones.flatMap { it.paragraphs }.flatMap { it.lines }.flatMap { it.words }.filter { word ->
+            word.left < right && left < word.left + word.width && word.top < bottom && top < word.top + word.height
+        }
+    }
+
+    /**
+     * Creates a layout with two columns of paragraphs per page. Some paragraphs have their box after their lines to
+     * check that the order of the fields doesn't matter.
+     */
+    private fun createLayoutJson(pageCount: Int): String {
+        val random = Random(42)
+        val fontFamilies = listOf("Arial", "Helvetica", "Times New Roman")
+        val pages = (1..pageCount).joinToString(",") { pageNumber ->
+            val paragraphs = (0 until PARAGRAPHS_PER_PAGE).joinToString(",") { paragraph ->
+                val paragraphLeft = 30f + (paragraph % 2) * 280
+                val paragraphTop = 30f + (paragraph / 2) * 80
+                val lines = (0 until LINES_PER_PARAGRAPH).joinToString(",") { line ->
+                    val lineTop = paragraphTop + line * 14
+                    val words = (0 until WORDS_PER_LINE).joinToString(",") { word ->
+                        val text = if (word == 0) "Straße \"$pageNumber\"" else "w$pageNumber.$paragraph.$line.$word"
+                        """
+                        {"w": ${20 + random.nextInt(6)}.5, "h": 10.0, "t": ${lineTop + random.nextInt(3)},
+                         "l": ${paragraphLeft + word * 26}, "fontSize": ${8 + random.nextInt(4)}.0,
+                         "fontFamily": "${fontFamilies[random.nextInt(fontFamilies.size)]}",
+                         "bold": ${random.nextBoolean()}, "text": ${JSONObject.quote(text)}}
+                        """.trimIndent()
+                    }
+                    """{"w": 260.0, "h": 12.0, "t": $lineTop, "l": $paragraphLeft, "wds": [$words]}"""
+                }
+                val box = """"w": 260.0, "h": ${LINES_PER_PARAGRAPH * 14}.0, "t": $paragraphTop, "l": $paragraphLeft"""
+                if (paragraph % 2 == 0) {
+                    """{$box, "lines": [$lines]}"""
+                } else {
+                    """{"lines": [$lines], $box}"""
+                }
+            }
+            """
+            {
+              "number": $pageNumber, "sizeX": $PAGE_WIDTH.0, "sizeY": $PAGE_HEIGHT.0,
+              "textZones": [{"paragraphs": [$paragraphs]}],
+              "regions": [{"w": 535.0, "h": 782.0, "t": 30.0, "l": 30.0, "type": "text"}]
+            }
+            """.trimIndent()
+        }
+        return """{"pages": [$pages]}"""
+    }
+
+    private companion object {
+        const val PAGE_COUNT = 10
+        const val PAGE_WIDTH = 595
+        const val PAGE_HEIGHT = 842
+        const val PARAGRAPHS_PER_PAGE = 20
+        const val LINES_PER_PARAGRAPH = 5
+        const val WORDS_PER_LINE = 10
+        const val WORDS_PER_PAGE = PARAGRAPHS_PER_PAGE * LINES_PER_PARAGRAPH * WORDS_PER_LINE
+    }
+}
@@ -90,6 +90,15 @@ class DocumentRemoteSourceTest {
         }
     }
 
+    @Test
+    fun `sets bearer authorization header with capital case 'Bearer' in getCompactDocumentLayout`() = runTest {
+        val accessToken = UUID.randomUUID().toString()
+        val expectedAuthorizationHeader = "Bearer $accessToken"
+        verifyAuthorizationHeader(expectedAuthorizationHeader, this) {
+            getCompactDocumentLayout(accessToken, "")
+        }
+    }
+
     @Test
     fun `sets bearer authorization header with capital case 'Bearer' in getPaymentRequest`() = runTest {
         val accessToken = UUID.randomUUID().toString()
@@ -202,6 +211,14 @@ class DocumentRemoteSourceTest {
             return Response.success(DocumentLayoutResponse(emptyList()))
         }
 
+        override suspend fun getDocumentLayoutBody(
+            bearer: Map<String, String>,
+            documentId: String
+        ): Response<ResponseBody> {
+            bearerAuthHeader = bearer["Authorization"]
+            return Response.success("{\"pages\": []}".toResponseBody())
+        }
+
         override suspend fun getDocumentPages(
             bearer: Map<String, String>,
             documentId: String
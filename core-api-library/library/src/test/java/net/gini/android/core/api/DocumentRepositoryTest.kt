@@ -0,0 +1,337 @@
+package net.gini.android.core.api
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.google.common.truth.Truth.assertThat
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.ExperimentalCoroutinesApi
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.runBlocking
+import kotlinx.coroutines.test.runTest
+import net.gini.android.core.api.authorization.Session
+import net.gini.android.core.api.authorization.SessionManager
+import net.gini.android.core.api.models.CompoundExtraction
+import net.gini.android.core.api.models.Document
+import net.gini.android.core.api.models.Extraction
+import net.gini.android.core.api.models.ExtractionsContainer
+import net.gini.android.core.api.models.SpecificExtraction
+import net.gini.android.core.api.test.DocumentRemoteSourceForTests
+import net.gini.android.core.api.test.DocumentRepositoryForTests
+import net.gini.android.core.api.test.MockGiniApiType
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import org.json.JSONObject
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import retrofit2.Retrofit
+import java.util.Date
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+@OptIn(ExperimentalCoroutinesApi::class)
+@RunWith(AndroidJUnit4::class)
+class DocumentRepositoryTest {
+
+    private lateinit var mockWebServer: MockWebServer
+
+    @Before
+    fun setUp() {
+        mockWebServer = MockWebServer()
+        mockWebServer.start()
+    }
+
+    @After
+    fun tearDown() {
+        mockWebServer.shutdown()
+    }
+
+    @Test
+    fun `runs uploads in parallel`() = runBlocking {
+        // Given
+        val uploadCount = 4
+        val allUploadsStarted = CountDownLatch(uploadCount)
+        val maxConcurrentUploads = AtomicInteger(0)
+        val concurrentUploads = AtomicInteger(0)
+        mockWebServer.dispatcher = object : Dispatcher() {
+            override fun dispatch(request: RecordedRequest): MockResponse {
+                if (request.method == "POST") {
+                    maxConcurrentUploads.accumulateAndGet(concurrentUploads.incrementAndGet(), ::maxOf)
+                    allUploadsStarted.countDown()
+                    // Blocks until every upload reached the server which can only happen if they overlap
+                    allUploadsStarted.await(5, TimeUnit.SECONDS)
+                    concurrentUploads.decrementAndGet()
+                    return MockResponse().setResponseCode(201).setHeader("Location", "/documents/$DOCUMENT_ID")
+                }
+                return MockResponse().setBody(DOCUMENT_JSON)
+            }
+        }
+        val repository = createRepository(TestSessionManager())
+
+        // When
+        val results = (1..uploadCount).map {
+            async(Dispatchers.IO) {
+                repository.createPartialDocument(ByteArray(16), "image/jpeg")
+            }
+        }.awaitAll()
+
+        // Then
+        assertThat(results.all { it is Resource.Success }).isTrue()
+        assertThat(maxConcurrentUploads.get()).isEqualTo(uploadCount)
+    }
+
+    @Test
+    fun `refreshes the session once and retries requests rejected with 401`() = runBlocking {
+        // Given
+        val requestCount = 3
+        val sessionManager = TestSessionManager()
+        val rejectedRequests = CountDownLatch(requestCount)
+        mockWebServer.dispatcher = object : Dispatcher() {
+            override fun dispatch(request: RecordedRequest): MockResponse {
+                if (request.getHeader("Authorization") == "Bearer token-1") {
+                    rejectedRequests.countDown()
+                    // Let every request fail with the first token before the session is refreshed
+                    rejectedRequests.await(5, TimeUnit.SECONDS)
+                    return MockResponse().setResponseCode(401)
+                }
+                return MockResponse().setBody("file")
+            }
+        }
+        val repository = createRepository(sessionManager)
+
+        // When
+        val results = (1..requestCount).map {
+            async(Dispatchers.IO) {
+                repository.getFile("/file")
+            }
+        }.awaitAll()
+
+        // Then
+        assertThat(results.all { it is Resource.Success }).isTrue()
+        assertThat(sessionManager.invalidationCount.get()).isEqualTo(1)
+        assertThat(sessionManager.sessionCount.get()).isEqualTo(2)
+    }
+
+    @Test
+    fun `polls with exponentially growing delays`() = runTest {
+        // Given
+        val pendingPolls = AtomicInteger(4)
+        val requestTimes = CopyOnWriteArrayList<Long>()
+        val pollCounts = CopyOnWriteArrayList<Int>()
+        val repository = createRepository(TestSessionManager()).apply {
+            currentTimeMillis = { testScheduler.currentTime }
+            pollingStrategy = ExponentialPollingStrategy(250, 2.0, 1000)
+        }
+        mockWebServer.dispatcher = object : Dispatcher() {
+            override fun dispatch(request: RecordedRequest): MockResponse {
+                requestTimes.add(testScheduler.currentTime)
+                pollCounts.add(repository.getPollCount(DOCUMENT_ID))
+                val progress = if (pendingPolls.getAndDecrement() > 0) "PENDING" else "COMPLETED"
+                return MockResponse().setBody(documentJson(progress))
+            }
+        }
+
+        // When
+        val result = repository.pollDocument(pendingDocument())
+
+        // Then
+        assertThat(result is Resource.Success && result.data.state == Document.ProcessingState.COMPLETED).isTrue()
+        assertThat(requestTimes).containsExactly(0L, 250L, 750L, 1750L, 2750L).inOrder()
+        assertThat(pollCounts).containsExactly(1, 2, 3, 4, 5).inOrder()
+        assertThat(repository.getPollCount(DOCUMENT_ID)).isEqualTo(0)
+    }
+
+    @Test
+    fun `respects the Retry-After header of pending documents and of overloaded responses`() = runTest {
+        // Given
+        val responses = LinkedBlockingQueue(
+            listOf(
+                MockResponse().setBody(documentJson("PENDING")).setHeader("Retry-After", "3"),
+                MockResponse().setResponseCode(503).setHeader("Retry-After", "5"),
+                MockResponse().setBody(documentJson("COMPLETED"))
+            )
+        )
+        val requestTimes = CopyOnWriteArrayList<Long>()
+        mockWebServer.dispatcher = object : Dispatcher() {
+            override fun dispatch(request: RecordedRequest): MockResponse {
+                requestTimes.add(testScheduler.currentTime)
+                return responses.poll() ?: MockResponse().setResponseCode(500)
+            }
+        }
+        val repository = createRepository(TestSessionManager()).apply {
+            currentTimeMillis = { testScheduler.currentTime }
+            pollingStrategy = ExponentialPollingStrategy(250, 2.0, 1000)
+        }
+
+        // When
+        val result = repository.pollDocument(pendingDocument())
+
+        // Then
+        assertThat(result is Resource.Success).isTrue()
+        assertThat(requestTimes).containsExactly(0L, 3000L, 8000L).inOrder()
+    }
+
+    @Test
+    fun `stops polling after the timeout of the strategy`() = runTest {
+        // Given
+        mockWebServer.dispatcher = object : Dispatcher() {
+            override fun dispatch(request: RecordedRequest): MockResponse =
+                MockResponse().setBody(documentJson("PENDING"))
+        }
+        val repository = createRepository(TestSessionManager()).apply {
+            currentTimeMillis = { testScheduler.currentTime }
+            pollingStrategy = ExponentialPollingStrategy(1000, 1.0, 1000, timeoutMillis = 10_000)
+        }
+
+        // When
+        val result = repository.pollDocument(pendingDocument())
+
+        // Then
+        assertThat(result is Resource.Error).isTrue()
+        assertThat(mockWebServer.requestCount).isEqualTo(12)
+        assertThat(repository.getPollCount(DOCUMENT_ID)).isEqualTo(0)
+    }
+
+    @Test
+    fun `asks for long-polling if the strategy enables it`() = runTest {
+        // Given
+        mockWebServer.dispatcher = object : Dispatcher() {
+            override fun dispatch(request: RecordedRequest): MockResponse =
+                MockResponse().setBody(documentJson("COMPLETED"))
+        }
+        val repository = createRepository(TestSessionManager()).apply {
+            pollingStrategy = ExponentialPollingStrategy(longPollingTimeoutMillis = 20_000)
+        }
+
+        // When
+        repository.pollDocument(pendingDocument())
+
+        // Then
+        assertThat(mockWebServer.takeRequest().getHeader("Prefer")).isEqualTo("wait=20")
+    }
+
+    @Test
+    fun `parses the extractions like previous versions if a subclass overrides extractionFromApiResponse`() = runTest {
+        // Given
+        mockWebServer.dispatcher = object : Dispatcher() {
+            override fun dispatch(request: RecordedRequest): MockResponse =
+                MockResponse().setBody(EXTRACTIONS_JSON)
+        }
+        val repository = OverridingDocumentRepository(createRemoteSource(), TestSessionManager())
+
+        // When
+        val result = repository.getAllExtractions(Document.fromApiResponse(JSONObject(DOCUMENT_JSON)))
+
+        // Then
+        assertThat(result is Resource.Success).isTrue()
+        val specificExtractions = (result as Resource.Success).data.specificExtractions
+        assertThat(specificExtractions["amountToPay"]?.value).isEqualTo("overridden 24.99:EUR")
+        assertThat(specificExtractions["amountToPay"]?.candidate?.map { it?.value })
+            .containsExactly("overridden 24.99:EUR")
+        assertThat(repository.responseJSON?.has("extractions")).isTrue()
+        assertThat(repository.responseJSON?.has("candidates")).isTrue()
+    }
+
+    private fun pendingDocument(): Document = Document.fromApiResponse(JSONObject(documentJson("PENDING")))
+
+    private fun createRepository(sessionManager: SessionManager): DocumentRepositoryForTests =
+        DocumentRepositoryForTests(createRemoteSource(), sessionManager, MockGiniApiType())
+
+    private fun createRemoteSource(): DocumentRemoteSource {
+        val documentService = Retrofit.Builder()
+            .baseUrl(mockWebServer.url("/"))
+            .build()
+            .create(DocumentService::class.java)
+        return DocumentRemoteSourceForTests(
+            Dispatchers.IO,
+            documentService,
+            MockGiniApiType(),
+            mockWebServer.url("/").toString()
+        )
+    }
+
+    private class OverridingDocumentRepository(
+        documentRemoteSource: DocumentRemoteSource,
+        sessionManager: SessionManager
+    ) : DocumentRepository<ExtractionsContainer>(documentRemoteSource, sessionManager, MockGiniApiType()) {
+
+        var responseJSON: JSONObject? = null
+
+        override fun createExtractionsContainer(
+            specificExtractions: Map<String, SpecificExtraction>,
+            compoundExtractions: Map<String, CompoundExtraction>,
+            responseJSON: JSONObject
+        ): ExtractionsContainer {
+            this.responseJSON = responseJSON
+            return ExtractionsContainer(specificExtractions, compoundExtractions)
+        }
+
+        override fun extractionFromApiResponse(responseData: JSONObject): Extraction =
+            super.extractionFromApiResponse(responseData).apply { value = "overridden $value" }
+    }
+
+    private class TestSessionManager : SessionManager {
+        val sessionCount = AtomicInteger(0)
+        val invalidationCount = AtomicInteger(0)
+
+        @Volatile
+        private var session: Session? = null
+
+        override suspend fun getSession(): Resource<Session> {
+            val currentSession = session ?: Session(
+                "token-${sessionCount.incrementAndGet()}",
+                Date(System.currentTimeMillis() + 60_000)
+            ).also { session = it }
+            return Resource.Success(currentSession)
+        }
+
+        override fun invalidateSession(session: Session) {
+            invalidationCount.incrementAndGet()
+            this.session = null
+        }
+    }
+
+    private companion object {
+        const val DOCUMENT_ID = "626626a0-749f-11e2-bfd6-000000000000"
+        val DOCUMENT_JSON = documentJson("COMPLETED")
+        val EXTRACTIONS_JSON = """
+            {
+              "extractions": {
+                "amountToPay": {
+                  "entity": "amount",
+                  "value": "24.99:EUR",
+                  "candidates": "amounts"
+                }
+              },
+              "candidates": {
+                "amounts": [
+                  {
+                    "entity": "amount",
+                    "value": "24.99:EUR"
+                  }
+                ]
+              }
+            }
+        """.trimIndent()
+
+        fun documentJson(progress: String) = """
+            {
+              "id": "$DOCUMENT_ID",
+              "creationDate": 1360623867402,
+              "name": "scanned.jpg",
+              "progress": "$progress",
+              "pageCount": 1,
+              "sourceClassification": "SCANNED",
+              "_links": {
+                "document": "https://api.gini.net/documents/$DOCUMENT_ID"
+              }
+            }
+        """.trimIndent()
+    }
+}
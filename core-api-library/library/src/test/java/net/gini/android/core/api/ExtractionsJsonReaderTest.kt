@@ -0,0 +1,214 @@
+package net.gini.android.core.api
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.google.common.truth.Truth.assertThat
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.runBlocking
+import net.gini.android.core.api.authorization.Session
+import net.gini.android.core.api.authorization.SessionManager
+import net.gini.android.core.api.models.Box
+import net.gini.android.core.api.models.Document
+import net.gini.android.core.api.models.Extraction
+import net.gini.android.core.api.models.ExtractionsContainer
+import net.gini.android.core.api.models.SpecificExtraction
+import net.gini.android.core.api.test.DocumentRemoteSourceForTests
+import net.gini.android.core.api.test.DocumentRepositoryForTests
+import net.gini.android.core.api.test.MockGiniApiType
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okio.Buffer
+import org.json.JSONException
+import org.json.JSONObject
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import retrofit2.Retrofit
+import java.util.Date
+
+@RunWith(AndroidJUnit4::class)
+class ExtractionsJsonReaderTest {
+
+    private lateinit var mockWebServer: MockWebServer
+    private lateinit var repository: DocumentRepositoryForTests
+
+    @Before
+    fun setUp() {
+        mockWebServer = MockWebServer()
+        mockWebServer.start()
+        val documentService = Retrofit.Builder()
+            .baseUrl(mockWebServer.url("/"))
+            .build()
+            .create(DocumentService::class.java)
+        val remoteSource = DocumentRemoteSourceForTests(
+            Dispatchers.IO,
+            documentService,
+            MockGiniApiType(),
+            mockWebServer.url("/").toString()
+        )
+        repository = DocumentRepositoryForTests(remoteSource, TestSessionManager(), MockGiniApiType())
+    }
+
+    @After
+    fun tearDown() {
+        mockWebServer.shutdown()
+    }
+
+    @Test
+    fun `reads the same extractions as the org-json parser`() {
+        // Given
+        val json = readResource("extractions.json")
+
+        // When
+        val result = ExtractionsJsonReader().read(Buffer().writeUtf8(json))
+
+        // Then
+        val expected = repository.parseExtractionsWithJSONObject(json)
+        assertThat(describe(ExtractionsContainer(result.specificExtractions, result.compoundExtractions)))
+            .isEqualTo(describe(expected))
+        assertThat(result.specificExtractions.keys).containsExactlyElementsIn(expected.specificExtractions.keys).inOrder()
+        assertThat(result.otherFields.keys().asSequence().toList()).containsExactly("returnReasons")
+        assertThat(result.otherFields.getJSONArray("returnReasons").getJSONObject(1).getString("en"))
+            .isEqualTo("Doesn't like")
+    }
+
+    @Test
+    fun `getAllExtractions streams the response body`() = runBlocking {
+        // Given
+        val json = readResource("extractions.json")
+        mockWebServer.enqueue(MockResponse().setBody(json))
+
+        // When
+        val result = repository.getAllExtractions(createDocument())
+
+        // Then
+        assertThat(result is Resource.Success).isTrue()
+        assertThat(describe(result.data!!)).isEqualTo(describe(repository.parseExtractionsWithJSONObject(json)))
+        assertThat(mockWebServer.takeRequest().path).isEqualTo("/documents/$DOCUMENT_ID/extractions")
+    }
+
+    @Test
+    fun `fails like the org-json parser if the candidates are missing`() {
+        val json = """{"extractions": {}}"""
+
+        val result = runCatching { ExtractionsJsonReader().read(Buffer().writeUtf8(json)) }
+
+        assertThat(result.exceptionOrNull()).isInstanceOf(JSONException::class.java)
+    }
+
+    @Test
+    fun `reads the same extractions as the org-json parser for a large line item payload`() {
+        // Given
+        val json = createLineItemsJson(LARGE_LINE_ITEM_COUNT)
+
+        // When
+        val result = ExtractionsJsonReader().read(Buffer().writeUtf8(json))
+
+        // Then
+        assertThat(result.compoundExtractions["lineItems"]!!.specificExtractionMaps).hasSize(LARGE_LINE_ITEM_COUNT)
+        assertThat(describe(ExtractionsContainer(result.specificExtractions, result.compoundExtractions)))
+            .isEqualTo(describe(repository.parseExtractionsWithJSONObject(json)))
+    }
+
+    @Test
+    fun `keeps the number types of the other fields like the org-json parser`() {
+        // Given
+        val json = """
+            {
+              "extractions": {},
+              "candidates": {},
+              "count": 2,
+              "large": 12345678901,
+              "ratio": 1.5,
+              "nested": {"items": [1, 2.5, "three", true, null]}
+            }
+        """.trimIndent()
+
+        // When
+        val otherFields = ExtractionsJsonReader().read(Buffer().writeUtf8(json)).otherFields
+
+        // Then
+        val expected = JSONObject(json)
+        for (name in listOf("count", "large", "ratio")) {
+            assertThat(otherFields.get(name)).isEqualTo(expected.get(name))
+        }
+        assertThat(otherFields.getString("count")).isEqualTo("2")
+        assertThat(otherFields.getJSONObject("nested").toString()).isEqualTo(expected.getJSONObject("nested").toString())
+    }
+
+    private fun createLineItemsJson(lineItemCount: Int): String {
+        val lineItems = (1..lineItemCount).joinToString(",") { index ->
+            val top = index % 800
+            """
+            {
+              "description": {"entity": "text", "value": "Article $index", "box": {"page": ${index / 40 + 1}, "left": 60.0, "top": $top.5, "width": 120.0, "height": 9.0}},
+              "quantity": {"entity": "numeric", "value": ${index % 5 + 1}},
+              "baseGross": {"entity": "amount", "value": "${index % 100}.99:EUR", "candidates": "amounts", "box": {"page": ${index / 40 + 1}, "left": 400.0, "top": $top.5, "width": 40.0, "height": 9.0}},
+              "artNumber": {"entity": "text", "value": "ART-$index"}
+            }
+            """.trimIndent()
+        }
+        return """
+            {
+              "extractions": {"amountToPay": {"entity": "amount", "value": "1234.56:EUR", "candidates": "amounts"}},
+              "compoundExtractions": {"lineItems": [$lineItems]},
+              "candidates": {"amounts": [{"entity": "amount", "value": "1234.56:EUR"}]}
+            }
+        """.trimIndent()
+    }
+
+    private fun describe(container: ExtractionsContainer): String = buildString {
+        for ((name, extraction) in container.specificExtractions.toSortedMap()) {
+            appendLine("$name=${describe(extraction)}")
+        }
+        for ((name, compoundExtraction) in container.compoundExtractions.toSortedMap()) {
+            appendLine("$name=${compoundExtraction.name}")
+            for (specificExtractionMap in compoundExtraction.specificExtractionMaps) {
+                for ((itemName, extraction) in specificExtractionMap.toSortedMap()) {
+                    appendLine("  $itemName=${describe(extraction)}")
+                }
+            }
+        }
+    }
+
+    private fun describe(extraction: SpecificExtraction): String =
+        "${extraction.name}|${describe(extraction as Extraction)}|${extraction.candidate.joinToString { describe(it) }}"
+
+    private fun describe(extraction: Extraction): String =
+        "${extraction.value}|${extraction.entity}|${extraction.box?.let { describe(it) }}"
+
+    private fun describe(box: Box): String = "${box.pageNumber},${box.left},${box.top},${box.width},${box.height}"
+
+    private fun readResource(name: String): String =
+        javaClass.classLoader!!.getResource(name).readText()
+
+    private fun createDocument(): Document = Document.fromApiResponse(
+        JSONObject(
+            """
+            {
+              "id": "$DOCUMENT_ID",
+              "creationDate": 1360623867402,
+              "name": "scanned.jpg",
+              "progress": "COMPLETED",
+              "pageCount": 1,
+              "sourceClassification": "SCANNED",
+              "_links": {
+                "document": "https://api.gini.net/documents/$DOCUMENT_ID"
+              }
+            }
+            """.trimIndent()
+        )
+    )
+
+    private class TestSessionManager : SessionManager {
+        override suspend fun getSession(): Resource<Session> =
+            Resource.Success(Session("token", Date(System.currentTimeMillis() + 60_000)))
+
+        override fun invalidateSession(session: Session) {}
+    }
+
+    private companion object {
+        const val DOCUMENT_ID = "626626a0-749f-11e2-bfd6-000000000000"
+        const val LARGE_LINE_ITEM_COUNT = 5_000
+    }
+}
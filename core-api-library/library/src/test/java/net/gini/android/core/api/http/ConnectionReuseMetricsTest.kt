@@ -0,0 +1,71 @@
+package net.gini.android.core.api.http
+
+import com.google.common.truth.Truth.assertThat
+import okhttp3.OkHttpClient
+import okhttp3.Request
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+
+class ConnectionReuseMetricsTest {
+
+    private lateinit var mockWebServer: MockWebServer
+
+    @Before
+    fun setUp() {
+        mockWebServer = MockWebServer()
+        mockWebServer.start()
+    }
+
+    @After
+    fun tearDown() {
+        mockWebServer.shutdown()
+    }
+
+    @Test
+    fun `counts pooled connections of clients derived from the same root client`() {
+        // Given
+        val metrics = ConnectionReuseMetrics()
+        val rootClient = OkHttpClient.Builder()
+            .eventListenerFactory(metrics.eventListenerFactory)
+            .build()
+        val userApiClient = rootClient.newBuilder().build()
+        val documentApiClient = rootClient.newBuilder().build()
+        repeat(3) { mockWebServer.enqueue(MockResponse().setBody("ok")) }
+
+        // When
+        execute(userApiClient, "/oauth/token")
+        execute(documentApiClient, "/documents")
+        execute(documentApiClient, "/documents")
+
+        // Then
+        assertThat(metrics.newConnectionCount).isEqualTo(1)
+        assertThat(metrics.pooledConnectionCount).isEqualTo(2)
+    }
+
+    @Test
+    fun `reset clears the counters`() {
+        // Given
+        val metrics = ConnectionReuseMetrics()
+        val client = OkHttpClient.Builder()
+            .eventListenerFactory(metrics.eventListenerFactory)
+            .build()
+        mockWebServer.enqueue(MockResponse().setBody("ok"))
+        execute(client, "/documents")
+
+        // When
+        metrics.reset()
+
+        // Then
+        assertThat(metrics.newConnectionCount).isEqualTo(0)
+        assertThat(metrics.pooledConnectionCount).isEqualTo(0)
+    }
+
+    private fun execute(client: OkHttpClient, path: String) {
+        client.newCall(Request.Builder().url(mockWebServer.url(path)).build()).execute().use { response ->
+            response.body?.string()
+        }
+    }
+}
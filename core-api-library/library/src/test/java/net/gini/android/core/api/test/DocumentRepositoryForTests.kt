@@ -0,0 +1,36 @@
+package net.gini.android.core.api.test
+
+import net.gini.android.core.api.DocumentRemoteSource
+import net.gini.android.core.api.DocumentRepository
+import net.gini.android.core.api.GiniApiType
+import net.gini.android.core.api.authorization.SessionManager
+import net.gini.android.core.api.models.CompoundExtraction
+import net.gini.android.core.api.models.ExtractionsContainer
+import net.gini.android.core.api.models.SpecificExtraction
+import org.json.JSONObject
+
+class DocumentRepositoryForTests(
+    documentRemoteSource: DocumentRemoteSource,
+    sessionManager: SessionManager,
+    giniApiType: GiniApiType
+) : DocumentRepository<ExtractionsContainer>(documentRemoteSource, sessionManager, giniApiType) {
+
+    override fun createExtractionsContainer(
+        specificExtractions: Map<String, SpecificExtraction>,
+        compoundExtractions: Map<String, CompoundExtraction>,
+        responseJSON: JSONObject
+    ): ExtractionsContainer = ExtractionsContainer(specificExtractions, compoundExtractions)
+
+    /**
+     * Parses the extractions response with org.json like previous versions of [getAllExtractions].
+     */
+    fun parseExtractionsWithJSONObject(json: String): ExtractionsContainer {
+        val extractionsJSONObject = JSONObject(json)
+        val candidates = extractionCandidatesFromApiResponse(extractionsJSONObject.getJSONObject("candidates"))
+        return createExtractionsContainer(
+            parseSpecificExtractions(extractionsJSONObject.getJSONObject("extractions"), candidates),
+            parseCompoundExtractions(extractionsJSONObject.optJSONObject("compoundExtractions"), candidates),
+            extractionsJSONObject
+        )
+    }
+}
@@ -0,0 +1,29 @@
+package net.gini.android.health.api
+
+import com.squareup.moshi.JsonClass
+
+/**
+ * The `ETag` and `Last-Modified` headers of a response. They are sent with the next request for the same resource to
+ * let the server answer with `304 Not Modified` if the resource didn't change.
+ */
+@JsonClass(generateAdapter = true)
+internal data class HttpValidators(
+    val eTag: String?,
+    val lastModified: String?,
+) {
+
+    fun toConditionalHeaders(): Map<String, String> = buildMap {
+        eTag?.let { put("If-None-Match", it) }
+        lastModified?.let { put("If-Modified-Since", it) }
+    }
+}
+
+/**
+ * The result of a request which was sent with [HttpValidators].
+ */
+internal sealed class ConditionalResponse<out T> {
+
+    class Modified<T>(val body: T, val validators: HttpValidators) : ConditionalResponse<T>()
+
+    object NotModified : ConditionalResponse<Nothing>()
+}
@@ -0,0 +1,69 @@
+package net.gini.android.health.api
+
+import kotlinx.coroutines.Deferred
+import net.gini.android.health.api.models.Page
+
+/**
+ * Internal use only.
+ *
+ * Keeps the page lists of the recently viewed documents and their recently requested or prefetched page images in
+ * memory. The least recently used entries are removed first.
+ *
+ * Thread-safe.
+ */
+internal class DocumentPagesCache(
+    private val maxDocuments: Int = DEFAULT_MAX_DOCUMENTS,
+    private val maxPageImages: Int = DEFAULT_MAX_PAGE_IMAGES,
+) {
+
+    // Guarded by this
+    private val pages = lruMap<String, List<Page>>(maxDocuments)
+    private val pageImages = lruMap<PageKey, Deferred<ByteArray>>(maxPageImages)
+
+    init {
+        require(maxDocuments > 0) { "maxDocuments must be greater than 0" }
+        require(maxPageImages > 0) { "maxPageImages must be greater than 0" }
+    }
+
+    @Synchronized
+    fun getPages(documentId: String): List<Page>? = pages[documentId]
+
+    @Synchronized
+    fun putPages(documentId: String, pages: List<Page>) {
+        this.pages[documentId] = pages
+    }
+
+    /**
+     * @return the downloaded page image or the download which is still running
+     */
+    @Synchronized
+    fun getPageImage(documentId: String, pageNumber: Int): Deferred<ByteArray>? =
+        pageImages[PageKey(documentId, pageNumber)]
+
+    @Synchronized
+    fun putPageImage(documentId: String, pageNumber: Int, image: Deferred<ByteArray>) {
+        pageImages[PageKey(documentId, pageNumber)] = image
+    }
+
+    /**
+     * Removes the page image only if it wasn't replaced in the meantime.
+     */
+    @Synchronized
+    fun removePageImage(documentId: String, pageNumber: Int, image: Deferred<ByteArray>) {
+        val key = PageKey(documentId, pageNumber)
+        if (pageImages[key] === image) {
+            pageImages.remove(key)
+        }
+    }
+
+    private data class PageKey(val documentId: String, val pageNumber: Int)
+
+    companion object {
+        const val DEFAULT_MAX_DOCUMENTS = 8
+        const val DEFAULT_MAX_PAGE_IMAGES = 6
+
+        private fun <K, V> lruMap(maxSize: Int) = object : LinkedHashMap<K, V>(16, 0.75f, true) {
+            override fun removeEldestEntry(eldest: MutableMap.MutableEntry<K, V>?): Boolean = size > maxSize
+        }
+    }
+}
@@ -3,10 +3,13 @@ package net.gini.android.health.api
 import android.content.Context
 import kotlinx.coroutines.Dispatchers
 import net.gini.android.core.api.GiniApiType
+import net.gini.android.core.api.PollingStrategy
 import net.gini.android.core.api.authorization.SessionManager
+import net.gini.android.core.api.http.ConnectionReuseMetrics
 import net.gini.android.core.api.http.GiniHttpClientProvider
 import net.gini.android.core.api.internal.GiniCoreAPIBuilder
 import net.gini.android.core.api.models.ExtractionsContainer
+import java.io.File
 
 /**
  * Created by Alpár Szotyori on 14.10.22.
@@ -34,6 +37,7 @@ class GiniHealthAPIBuilder @JvmOverloads constructor(
 ) : GiniCoreAPIBuilder<HealthApiDocumentManager, GiniHealthAPI, HealthApiDocumentRepository, ExtractionsContainer>(context, clientId, clientSecret, emailDomain, sessionManager) {
 
     private val healthApiType = GiniHealthApiType(apiVersion)
+    private var paymentProviderCacheTtlMillis = PaymentProviderCache.DEFAULT_TTL_MILLIS
 
     override fun getGiniApiType(): GiniApiType {
         return healthApiType
@@ -57,7 +61,27 @@ class GiniHealthAPIBuilder @JvmOverloads constructor(
     }
 
     override fun createDocumentRepository(): HealthApiDocumentRepository {
-        return HealthApiDocumentRepository(createDocumentRemoteSource(), getSessionManager(), healthApiType)
+        return HealthApiDocumentRepository(
+            createDocumentRemoteSource(),
+            getSessionManager(),
+            healthApiType,
+            PaymentProviderCache(File(context.cacheDir, PAYMENT_PROVIDER_CACHE_DIRECTORY), paymentProviderCacheTtlMillis)
+        )
+    }
+
+    /**
+     * Set how long the payment providers and their icons are used without asking the Gini Health API again. Afterwards
+     * they are revalidated and only downloaded again if they changed.
+     *
+     * Default value is one hour.
+     *
+     * @param ttlMillis the time to live in milliseconds, 0 revalidates them on every request
+     * @return The builder instance to enable chaining
+     */
+    fun setPaymentProviderCacheTtl(ttlMillis: Long): GiniHealthAPIBuilder {
+        require(ttlMillis >= 0) { "ttlMillis can't be less than 0" }
+        paymentProviderCacheTtlMillis = ttlMillis
+        return this
     }
 
     /**
@@ -75,7 +99,56 @@ class GiniHealthAPIBuilder @JvmOverloads constructor(
         return this
     }
 
+    /**
+     * Configure the connection pool which is shared by the requests to the Gini API and the Gini User Center API.
+     *
+     * @param maxIdleConnections maximum number of idle connections to keep in the pool
+     * @param keepAliveDurationInMs time in milliseconds after which an idle connection is evicted from the pool
+     * @return The builder instance to enable chaining
+     */
+    override fun setConnectionPool(maxIdleConnections: Int, keepAliveDurationInMs: Long): GiniHealthAPIBuilder {
+        super.setConnectionPool(maxIdleConnections, keepAliveDurationInMs)
+        return this
+    }
+
+    /**
+     * Set a [ConnectionReuseMetrics] instance to count new and pooled connections of the requests.
+     *
+     * @param connectionReuseMetrics the metrics instance which will be updated by all requests
+     * @return The builder instance to enable chaining
+     */
+    override fun setConnectionReuseMetrics(connectionReuseMetrics: ConnectionReuseMetrics): GiniHealthAPIBuilder {
+        super.setConnectionReuseMetrics(connectionReuseMetrics)
+        return this
+    }
+
+    /**
+     * Set the [PollingStrategy] which decides how often a document is requested until it was processed.
+     *
+     * @param pollingStrategy a [PollingStrategy] implementation
+     * @return The builder instance to enable chaining
+     */
+    override fun setPollingStrategy(pollingStrategy: PollingStrategy): GiniHealthAPIBuilder {
+        super.setPollingStrategy(pollingStrategy)
+        return this
+    }
+
+    /**
+     * Enable or disable persisting the session of anonymous Gini users. When enabled, the access token is stored
+     * encrypted and reused after an app restart until it expires.
+     *
+     * Disabled by default.
+     *
+     * @param enabled pass `true` to enable and `false` to disable session persistence
+     * @return The builder instance to enable chaining
+     */
+    override fun setSessionPersistenceEnabled(enabled: Boolean): GiniHealthAPIBuilder {
+        super.setSessionPersistenceEnabled(enabled)
+        return this
+    }
+
     companion object {
         const val API_VERSION = 5
+        private const val PAYMENT_PROVIDER_CACHE_DIRECTORY = "gini-payment-providers"
     }
 }
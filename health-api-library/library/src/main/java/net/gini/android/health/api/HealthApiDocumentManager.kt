@@ -1,5 +1,6 @@
 package net.gini.android.health.api;
 
+import kotlinx.coroutines.flow.Flow
 import net.gini.android.core.api.DocumentManager
 import net.gini.android.core.api.Resource
 import net.gini.android.core.api.models.ExtractionsContainer
@@ -61,11 +62,25 @@ class HealthApiDocumentManager(private val documentRepository: HealthApiDocument
     /**
      * A payment provider is a Gini partner which integrated the GiniPay for Banks SDK into their mobile apps.
      *
+     * The payment providers and their icons are cached. They are requested again only after the time to live set with
+     * [GiniHealthAPIBuilder.setPaymentProviderCacheTtl] elapsed and downloaded again only if they changed.
+     *
      * @return [Resource] with a list of [PaymentProvider] instances or information about the error
      */
     suspend fun getPaymentProviders(): Resource<List<PaymentProvider>> =
         documentRepository.getPaymentProviders()
 
+    /**
+     * Emits the cached payment providers right away, also if their time to live elapsed. Expired or missing payment
+     * providers are then requested and emitted again if they changed.
+     *
+     * Errors are only emitted if there were no cached payment providers.
+     *
+     * @return [Flow] of [Resource] with a list of [PaymentProvider] instances or information about the error
+     */
+    fun getPaymentProvidersFlow(): Flow<Resource<List<PaymentProvider>>> =
+        documentRepository.getPaymentProvidersFlow()
+
     /**
      * @return [Resource] with the [PaymentProvider] instance for the given id or information about the error
      */
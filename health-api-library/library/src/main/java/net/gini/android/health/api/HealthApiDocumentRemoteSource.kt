@@ -9,6 +9,8 @@ import net.gini.android.health.api.models.toPaymentRequestBody
 import net.gini.android.health.api.response.ConfigurationResponse
 import net.gini.android.health.api.response.PageResponse
 import net.gini.android.health.api.response.PaymentProviderResponse
+import retrofit2.Response
+import java.net.HttpURLConnection
 import kotlin.coroutines.CoroutineContext
 
 /**
@@ -40,17 +42,57 @@ class HealthApiDocumentRemoteSource internal constructor(
             response.body() ?: throw ApiException.forResponse("Empty response body", response)
         }
 
-    internal suspend fun getPaymentProviders(accessToken: String): List<PaymentProviderResponse> =
+    /**
+     * @param validators if not null, then the server answers with [ConditionalResponse.NotModified] if the payment
+     * providers didn't change
+     */
+    internal suspend fun getPaymentProviders(
+        accessToken: String,
+        validators: HttpValidators? = null
+    ): ConditionalResponse<List<PaymentProviderResponse>> =
         withContext(coroutineContext) {
-            val response = SafeApiRequest.apiRequest {
-                documentService.getPaymentProviders(
-                    bearerHeaderMap(
-                        accessToken,
-                        contentType = giniApiType.giniJsonMediaType
-                    )
-                )
+            val response = documentService.getPaymentProviders(
+                bearerHeaderMap(
+                    accessToken,
+                    contentType = giniApiType.giniJsonMediaType
+                ) + validators?.toConditionalHeaders().orEmpty()
+            )
+            response.toConditionalResponse {
+                response.body() ?: throw ApiException.forResponse("Empty response body", response)
             }
-            response.body() ?: throw ApiException.forResponse("Empty response body", response)
+        }
+
+    /**
+     * @param validators if not null, then the server answers with [ConditionalResponse.NotModified] if the icon didn't
+     * change
+     */
+    internal suspend fun getPaymentProviderIcon(
+        accessToken: String,
+        location: String,
+        validators: HttpValidators? = null
+    ): ConditionalResponse<ByteArray> =
+        withContext(coroutineContext) {
+            val response = documentService.getFile(
+                bearerHeaderMap(
+                    accessToken,
+                    accept = null,
+                    contentType = giniApiType.giniJsonMediaType
+                ) + validators?.toConditionalHeaders().orEmpty(),
+                location
+            )
+            response.toConditionalResponse {
+                response.body()?.bytes() ?: throw ApiException.forResponse("Empty response body", response)
+            }
+        }
+
+    private inline fun <T> Response<*>.toConditionalResponse(readBody: () -> T): ConditionalResponse<T> =
+        when {
+            code() == HttpURLConnection.HTTP_NOT_MODIFIED -> ConditionalResponse.NotModified
+            !isSuccessful -> throw ApiException.forResponse(response = this)
+            else -> ConditionalResponse.Modified(
+                readBody(),
+                HttpValidators(headers()["ETag"], headers()["Last-Modified"])
+            )
         }
 
     internal suspend fun getPaymentProvider(
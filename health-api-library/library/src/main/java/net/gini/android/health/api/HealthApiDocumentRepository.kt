@@ -1,6 +1,21 @@
 package net.gini.android.health.api
 
 import android.util.Size
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.SupervisorJob
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.coroutineScope
+import kotlinx.coroutines.currentCoroutineContext
+import kotlinx.coroutines.ensureActive
+import kotlinx.coroutines.flow.Flow
+import kotlinx.coroutines.flow.flow
+import kotlinx.coroutines.sync.Mutex
+import kotlinx.coroutines.sync.withLock
+import kotlinx.coroutines.withContext
 import net.gini.android.core.api.DocumentManager
 import net.gini.android.core.api.DocumentMetadata
 import net.gini.android.core.api.DocumentRepository
@@ -20,6 +35,7 @@ import net.gini.android.health.api.models.toPaymentProvider
 import net.gini.android.health.api.response.ConfigurationResponse
 import net.gini.android.health.api.util.ImageCompression
 import org.json.JSONObject
+import java.io.IOException
 
 /**
  * Created by Alpár Szotyori on 14.10.22.
@@ -30,12 +46,26 @@ import org.json.JSONObject
 /**
  * Internal use only.
  */
-class HealthApiDocumentRepository(
+class HealthApiDocumentRepository internal constructor(
     private val documentRemoteSource: HealthApiDocumentRemoteSource,
     sessionManager: SessionManager,
-    private val giniApiType: GiniHealthApiType
+    private val giniApiType: GiniHealthApiType,
+    private val paymentProviderCache: PaymentProviderCache
 ) : DocumentRepository<ExtractionsContainer>(documentRemoteSource, sessionManager, giniApiType) {
 
+    constructor(
+        documentRemoteSource: HealthApiDocumentRemoteSource,
+        sessionManager: SessionManager,
+        giniApiType: GiniHealthApiType
+    ) : this(documentRemoteSource, sessionManager, giniApiType, PaymentProviderCache(directory = null))
+
+    private val paymentProvidersMutex = Mutex()
+    private val documentPagesCache = DocumentPagesCache()
+    private val prefetchScope = CoroutineScope(SupervisorJob() + documentRemoteSource.coroutineContext)
+
+    // Guarded by itself
+    private val runningPrefetches = HashMap<Pair<String, Int>, Deferred<ByteArray>>()
+
     override suspend fun createPartialDocument(documentData: ByteArray, contentType: String,
                                                filename: String?,
                                                documentType: DocumentManager.DocumentType?,
@@ -56,51 +86,187 @@ class HealthApiDocumentRepository(
         responseJSON: JSONObject
     ): ExtractionsContainer = ExtractionsContainer(specificExtractions, compoundExtractions)
 
+    /**
+     * The page list of the document is requested only once and the previous and next page images are prefetched in
+     * the background. Viewing the pages one after the other needs therefore only one request per page. Prefetches of
+     * other pages or documents which are still running are cancelled.
+     */
     suspend fun getPageImage(
         documentId: String,
         page: Int
     ): Resource<ByteArray> =
         withAccessToken { accessToken ->
             wrapInResource {
-                val imageUri = getPages(accessToken, documentId)
-                    .getPageByPageNumber(page)
-                    .getLargestImageUriSmallerThan(Size(2000, 2000))
-
-                if (imageUri != null) {
-                    documentRemoteSource.getFile(accessToken, imageUri.toString())
-                } else {
-                    throw NoSuchElementException("No page image found for page number $page in document $documentId")
-                }
+                val pages = getCachedPages(accessToken, documentId)
+                val image = getPrefetchedPageImage(documentId, page)
+                    ?: downloadPageImage(accessToken, documentId, pages, page).also { image ->
+                        documentPagesCache.putPageImage(documentId, page, CompletableDeferred(image))
+                    }
+                cancelStalePrefetches(documentId, page)
+                prefetchPageImage(documentId, pages, page + 1)
+                prefetchPageImage(documentId, pages, page - 1)
+                image
             }
         }
 
+    private suspend fun getCachedPages(accessToken: String, documentId: String): List<Page> =
+        documentPagesCache.getPages(documentId)
+            ?: getPages(accessToken, documentId).also { documentPagesCache.putPages(documentId, it) }
+
     private suspend fun getPages(accessToken: String, documentId: String): List<Page> =
         documentRemoteSource.getPages(accessToken, documentId)
             .toPageList(documentRemoteSource.baseUri)
 
+    private suspend fun getPrefetchedPageImage(documentId: String, page: Int): ByteArray? {
+        val prefetch = documentPagesCache.getPageImage(documentId, page) ?: return null
+        return try {
+            prefetch.await()
+        } catch (e: CancellationException) {
+            // Only the prefetch was cancelled if this coroutine is still active
+            currentCoroutineContext().ensureActive()
+            null
+        } catch (e: Exception) {
+            // The failed prefetch is removed from the cache and the page image is downloaded again
+            null
+        }
+    }
+
+    private fun prefetchPageImage(documentId: String, pages: List<Page>, page: Int) {
+        if (pages.none { it.number == page } || documentPagesCache.getPageImage(documentId, page) != null) {
+            return
+        }
+        val prefetch = prefetchScope.async {
+            // Requests the access token when the prefetch runs, the one of the viewed page might have expired
+            when (val image = withAccessToken { accessToken ->
+                wrapInResource { downloadPageImage(accessToken, documentId, pages, page) }
+            }) {
+                is Resource.Success -> image.data
+                is Resource.Error -> throw image.exception ?: IOException(image.message)
+                is Resource.Cancelled -> throw CancellationException("Page image prefetch cancelled")
+            }
+        }
+        val key = documentId to page
+        synchronized(runningPrefetches) {
+            runningPrefetches[key] = prefetch
+        }
+        documentPagesCache.putPageImage(documentId, page, prefetch)
+        prefetch.invokeOnCompletion { throwable ->
+            synchronized(runningPrefetches) {
+                if (runningPrefetches[key] === prefetch) {
+                    runningPrefetches.remove(key)
+                }
+            }
+            if (throwable != null) {
+                documentPagesCache.removePageImage(documentId, page, prefetch)
+            }
+        }
+    }
+
+    /**
+     * Cancels the running prefetches which are not next to the viewed page. Completed prefetches stay in the cache.
+     */
+    private fun cancelStalePrefetches(documentId: String, page: Int) {
+        val stalePrefetches = synchronized(runningPrefetches) {
+            runningPrefetches.filterKeys { (prefetchDocumentId, prefetchPage) ->
+                prefetchDocumentId != documentId || (prefetchPage != page - 1 && prefetchPage != page + 1)
+            }.values.toList()
+        }
+        stalePrefetches.forEach { it.cancel() }
+    }
+
+    private suspend fun downloadPageImage(accessToken: String, documentId: String, pages: List<Page>, page: Int): ByteArray {
+        val imageUri = pages
+            .getPageByPageNumber(page)
+            .getLargestImageUriSmallerThan(Size(2000, 2000))
+            ?: throw NoSuchElementException("No page image found for page number $page in document $documentId")
+        return documentRemoteSource.getFile(accessToken, imageUri.toString())
+    }
+
+    /**
+     * Returns the cached payment providers while they are fresh. Otherwise requests them, or revalidates the cached
+     * ones, and downloads the icons in parallel. Concurrent calls share one request.
+     */
     suspend fun getPaymentProviders(): Resource<List<PaymentProvider>> {
-        return withAccessToken { accessToken ->
+        getCachedPaymentProviders()?.takeIf { it.isFresh }?.let { return Resource.Success(it.paymentProviders) }
+        return paymentProvidersMutex.withLock {
+            // Another caller might have updated the cache while this one was waiting
+            getCachedPaymentProviders()?.takeIf { it.isFresh }?.let { Resource.Success(it.paymentProviders) }
+                ?: fetchPaymentProviders()
+        }
+    }
+
+    /**
+     * Emits the cached payment providers first, also if they are expired (stale-while-revalidate). Expired or missing
+     * payment providers are then requested and emitted if they changed.
+     *
+     * Errors are only emitted if there were no cached payment providers.
+     */
+    fun getPaymentProvidersFlow(): Flow<Resource<List<PaymentProvider>>> = flow {
+        val cached = getCachedPaymentProviders()
+        if (cached != null) {
+            emit(Resource.Success(cached.paymentProviders))
+            if (cached.isFresh) {
+                return@flow
+            }
+        }
+        val result = getPaymentProviders()
+        if (cached == null || (result is Resource.Success && result.data != cached.paymentProviders)) {
+            emit(result)
+        }
+    }
+
+    private suspend fun getCachedPaymentProviders(): CachedPaymentProviders? =
+        withContext(documentRemoteSource.coroutineContext) {
+            val snapshot = paymentProviderCache.get() ?: return@withContext null
+            val paymentProviders = snapshot.providers.map { paymentProviderResponse ->
+                val icon = paymentProviderCache.getIcon(paymentProviderResponse.iconLocation)
+                    ?: return@withContext null
+                paymentProviderResponse.toPaymentProvider(icon.bytes)
+            }
+            CachedPaymentProviders(paymentProviders, paymentProviderCache.isFresh(snapshot))
+        }
+
+    private suspend fun fetchPaymentProviders(): Resource<List<PaymentProvider>> =
+        withAccessToken { accessToken ->
             wrapInResource {
-                documentRemoteSource.getPaymentProviders(accessToken)
-                    .filter { paymentProvider ->
-                        paymentProvider.isEnabled()
-                    }
-                    .map { paymentProviderResponse ->
-                        val icon = documentRemoteSource.getFile(accessToken, paymentProviderResponse.iconLocation)
-                        paymentProviderResponse.toPaymentProvider(icon)
+                val cached = withContext(documentRemoteSource.coroutineContext) { paymentProviderCache.get() }
+                val (paymentProviderResponses, validators) =
+                    when (val response = documentRemoteSource.getPaymentProviders(accessToken, cached?.validators)) {
+                        is ConditionalResponse.Modified -> response.body.filter { it.isEnabled() } to response.validators
+                        ConditionalResponse.NotModified -> checkNotNull(cached).let { it.providers to it.validators }
                     }
+                val icons = coroutineScope {
+                    paymentProviderResponses.map { it.iconLocation }.distinct().map { location ->
+                        async { location to getPaymentProviderIcon(accessToken, location) }
+                    }.awaitAll().toMap()
+                }
+                withContext(documentRemoteSource.coroutineContext) {
+                    paymentProviderCache.put(paymentProviderResponses, validators, icons)
+                }
+                paymentProviderResponses.map { it.toPaymentProvider(icons.getValue(it.iconLocation).bytes) }
             }
         }
+
+    private suspend fun getPaymentProviderIcon(accessToken: String, location: String): PaymentProviderCache.CachedIcon {
+        val cached = withContext(documentRemoteSource.coroutineContext) { paymentProviderCache.getIcon(location) }
+        return when (val response = documentRemoteSource.getPaymentProviderIcon(accessToken, location, cached?.validators)) {
+            is ConditionalResponse.Modified -> PaymentProviderCache.CachedIcon(response.body, response.validators)
+            ConditionalResponse.NotModified -> checkNotNull(cached)
+        }
     }
 
-    suspend fun getPaymentProvider(providerId: String): Resource<PaymentProvider> =
-        withAccessToken { accessToken ->
+    suspend fun getPaymentProvider(providerId: String): Resource<PaymentProvider> {
+        getCachedPaymentProviders()?.takeIf { it.isFresh }?.paymentProviders?.find { it.id == providerId }?.let {
+            return Resource.Success(it)
+        }
+        return withAccessToken { accessToken ->
             wrapInResource {
                 val paymentProviderResponse = documentRemoteSource.getPaymentProvider(accessToken, providerId)
                 val icon = documentRemoteSource.getFile(accessToken, paymentProviderResponse.iconLocation)
                 paymentProviderResponse.toPaymentProvider(icon)
             }
         }
+    }
 
     suspend fun createPaymentRequest(paymentRequestInput: PaymentRequestInput): Resource<String> {
         return withAccessToken { accessToken ->
@@ -151,4 +317,6 @@ class HealthApiDocumentRepository(
                 documentRemoteSource.deletePaymentRequests(accessToken, paymentRequestIds)
             }
         }
-}
\ No newline at end of file
+
+    private class CachedPaymentProviders(val paymentProviders: List<PaymentProvider>, val isFresh: Boolean)
+}
@@ -0,0 +1,148 @@
+package net.gini.android.health.api
+
+import com.squareup.moshi.JsonClass
+import com.squareup.moshi.Moshi
+import net.gini.android.health.api.response.PaymentProviderResponse
+import okio.ByteString.Companion.encodeUtf8
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.util.concurrent.TimeUnit
+
+/**
+ * Internal use only.
+ *
+ * Keeps the payment providers and their icons in memory and, if a directory is given, on the disk. They are used
+ * without asking the Gini API again until the [ttlMillis] elapsed. Afterwards they are revalidated with the `ETag` and
+ * `Last-Modified` headers of their responses.
+ *
+ * Thread-safe. Reads and writes the disk on the calling thread.
+ */
+internal class PaymentProviderCache(
+    private val directory: File?,
+    val ttlMillis: Long = DEFAULT_TTL_MILLIS,
+    private val currentTimeMillis: () -> Long = System::currentTimeMillis,
+) {
+
+    private val adapter by lazy { Moshi.Builder().build().adapter(PaymentProvidersSnapshot::class.java) }
+
+    // Guarded by this
+    private var snapshot: PaymentProvidersSnapshot? = null
+    private val icons = HashMap<String, ByteArray>()
+    private var loaded = false
+
+    init {
+        require(ttlMillis >= 0) { "ttlMillis can't be less than 0" }
+    }
+
+    /**
+     * @return the cached payment providers, also if they are expired
+     */
+    @Synchronized
+    fun get(): PaymentProvidersSnapshot? {
+        load()
+        return snapshot
+    }
+
+    fun isFresh(snapshot: PaymentProvidersSnapshot): Boolean =
+        currentTimeMillis() - snapshot.fetchedAtMillis in 0 until ttlMillis
+
+    @Synchronized
+    fun getIcon(location: String): CachedIcon? {
+        val validators = get()?.iconValidators?.get(location) ?: return null
+        val bytes = icons[location] ?: readIcon(location)?.also { icons[location] = it } ?: return null
+        return CachedIcon(bytes, validators)
+    }
+
+    /**
+     * Replaces the cached payment providers and icons. The time to live starts again.
+     */
+    @Synchronized
+    fun put(providers: List<PaymentProviderResponse>, validators: HttpValidators, icons: Map<String, CachedIcon>) {
+        val newSnapshot = PaymentProvidersSnapshot(
+            providers = providers,
+            validators = validators,
+            iconValidators = icons.mapValues { it.value.validators },
+            fetchedAtMillis = currentTimeMillis()
+        )
+        val removedIcons = (this.icons.keys + snapshot?.iconValidators?.keys.orEmpty()) - icons.keys
+        snapshot = newSnapshot
+        loaded = true
+        for (location in removedIcons) {
+            this.icons.remove(location)
+            iconFile(location)?.delete()
+        }
+        for ((location, icon) in icons) {
+            if (this.icons[location]?.contentEquals(icon.bytes) != true) {
+                this.icons[location] = icon.bytes
+                iconFile(location)?.let { writeAtomically(it, icon.bytes) }
+            }
+        }
+        snapshotFile()?.let { writeAtomically(it, adapter.toJson(newSnapshot).toByteArray()) }
+    }
+
+    private fun load() {
+        if (loaded) {
+            return
+        }
+        loaded = true
+        val file = snapshotFile()?.takeIf { it.isFile } ?: return
+        snapshot = try {
+            adapter.fromJson(file.readText())
+        } catch (e: Exception) {
+            // An unreadable cache is the same as no cache
+            null
+        }
+    }
+
+    private fun readIcon(location: String): ByteArray? =
+        try {
+            iconFile(location)?.takeIf { it.isFile }?.readBytes()
+        } catch (e: IOException) {
+            null
+        }
+
+    private fun snapshotFile(): File? = directory?.let { File(it, SNAPSHOT_FILE_NAME) }
+
+    private fun iconFile(location: String): File? =
+        directory?.let { File(File(it, ICONS_DIRECTORY_NAME), location.encodeUtf8().sha256().hex()) }
+
+    private fun writeAtomically(file: File, bytes: ByteArray) {
+        try {
+            file.parentFile?.mkdirs()
+            val tempFile = File(file.parentFile, file.name + TEMP_FILE_EXTENSION)
+            FileOutputStream(tempFile).use { outputStream ->
+                outputStream.write(bytes)
+                outputStream.fd.sync()
+            }
+            if (!tempFile.renameTo(file)) {
+                tempFile.delete()
+            }
+        } catch (e: IOException) {
+            // The memory cache still works without the disk
+        }
+    }
+
+    class CachedIcon(val bytes: ByteArray, val validators: HttpValidators)
+
+    companion object {
+        val DEFAULT_TTL_MILLIS = TimeUnit.HOURS.toMillis(1)
+        private const val SNAPSHOT_FILE_NAME = "payment-providers.json"
+        private const val ICONS_DIRECTORY_NAME = "icons"
+        private const val TEMP_FILE_EXTENSION = ".tmp"
+    }
+}
+
+/**
+ * The cached payment providers with the validators of their responses.
+ *
+ * @property iconValidators the validators of the icons by their location
+ * @property fetchedAtMillis the time when the payment providers were requested or revalidated
+ */
+@JsonClass(generateAdapter = true)
+internal class PaymentProvidersSnapshot(
+    val providers: List<PaymentProviderResponse>,
+    val validators: HttpValidators,
+    val iconValidators: Map<String, HttpValidators>,
+    val fetchedAtMillis: Long,
+)
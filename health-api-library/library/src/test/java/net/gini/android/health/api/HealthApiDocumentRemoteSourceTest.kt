@@ -327,6 +327,13 @@ class HealthApiDocumentRemoteSourceTest {
             return Response.success(null)
         }
 
+        override suspend fun getDocumentLayoutBody(
+            bearer: Map<String, String>,
+            documentId: String
+        ): Response<ResponseBody> {
+            return Response.success(null)
+        }
+
         override suspend fun getDocumentPages(
             bearer: Map<String, String>,
             documentId: String
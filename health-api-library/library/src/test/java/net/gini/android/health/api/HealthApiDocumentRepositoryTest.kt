@@ -0,0 +1,327 @@
+package net.gini.android.health.api
+
+import androidx.test.ext.junit.runners.AndroidJUnit4
+import com.google.common.truth.Truth.assertThat
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.async
+import kotlinx.coroutines.awaitAll
+import kotlinx.coroutines.flow.toList
+import kotlinx.coroutines.runBlocking
+import net.gini.android.core.api.Resource
+import net.gini.android.core.api.authorization.Session
+import net.gini.android.core.api.authorization.SessionManager
+import net.gini.android.health.api.models.PaymentProvider
+import okhttp3.mockwebserver.Dispatcher
+import okhttp3.mockwebserver.MockResponse
+import okhttp3.mockwebserver.MockWebServer
+import okhttp3.mockwebserver.RecordedRequest
+import okio.Buffer
+import org.json.JSONObject
+import org.junit.After
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import org.junit.runner.RunWith
+import retrofit2.Retrofit
+import retrofit2.converter.moshi.MoshiConverterFactory
+import java.net.HttpURLConnection
+import java.util.Date
+import java.util.concurrent.CopyOnWriteArrayList
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+@RunWith(AndroidJUnit4::class)
+class HealthApiDocumentRepositoryTest {
+
+    @get:Rule
+    val temporaryFolder = TemporaryFolder()
+
+    private lateinit var mockWebServer: MockWebServer
+    private val requests = CopyOnWriteArrayList<RecordedRequest>()
+    private var currentTimeMillis = 0L
+
+    @Volatile
+    private var providersETag = "\"providers-1\""
+
+    @Volatile
+    private var allIconRequestsArrived: CountDownLatch? = null
+
+    @Volatile
+    private var blockedPageImagePath: String? = null
+    private val blockedPageImageRequested = CountDownLatch(1)
+    private val blockedPageImageReleased = CountDownLatch(1)
+
+    @Before
+    fun setUp() {
+        mockWebServer = MockWebServer()
+        mockWebServer.dispatcher = object : Dispatcher() {
+            override fun dispatch(request: RecordedRequest): MockResponse {
+                requests.add(request)
+                val path = request.path.orEmpty()
+                return when {
+                    path == "/paymentProviders" -> conditionalResponse(request, providersETag) {
+                        providersJson(providersETag)
+                    }
+                    path.startsWith("/icons/") -> {
+                        // Answers only after all icons were requested, which fails if they are requested one by one
+                        allIconRequestsArrived?.let { latch ->
+                            latch.countDown()
+                            latch.await(5, TimeUnit.SECONDS)
+                        }
+                        conditionalResponse(request, "\"${path.substringAfterLast("/")}\"") { Buffer().writeUtf8(path) }
+                    }
+                    path == "/documents/$DOCUMENT_ID/pages" -> MockResponse().setBody(pagesJson())
+                    path == blockedPageImagePath -> {
+                        // Only the first request is blocked and answered with an outdated image
+                        blockedPageImagePath = null
+                        blockedPageImageRequested.countDown()
+                        blockedPageImageReleased.await(5, TimeUnit.SECONDS)
+                        MockResponse().setBody("outdated")
+                    }
+                    path.startsWith("/documents/$DOCUMENT_ID/pages/") -> MockResponse().setBody(path)
+                    else -> MockResponse().setResponseCode(HttpURLConnection.HTTP_NOT_FOUND)
+                }
+            }
+        }
+        mockWebServer.start()
+    }
+
+    @After
+    fun tearDown() {
+        blockedPageImageReleased.countDown()
+        mockWebServer.shutdown()
+    }
+
+    @Test
+    fun `requests the payment providers only once for repeated calls`() = runBlocking {
+        // Given
+        val repository = createRepository()
+
+        // When
+        val results = List(3) { async(Dispatchers.Default) { repository.getPaymentProviders() } }.awaitAll() +
+                repository.getPaymentProviders()
+
+        // Then
+        results.forEach { result ->
+            assertThat(result).isInstanceOf(Resource.Success::class.java)
+            assertThat(result.data?.map { it.id }).containsExactly("provider-1", "provider-2").inOrder()
+        }
+        assertThat(requestCount("/paymentProviders")).isEqualTo(1)
+        assertThat(requestCount("/icons/")).isEqualTo(PROVIDER_COUNT)
+    }
+
+    @Test
+    fun `requests the icons in parallel`() = runBlocking {
+        // Given
+        allIconRequestsArrived = CountDownLatch(PROVIDER_COUNT)
+        val repository = createRepository()
+
+        // When
+        val result = repository.getPaymentProviders()
+
+        // Then
+        assertThat(allIconRequestsArrived?.count).isEqualTo(0)
+        assertThat(result.data?.map { String(it.icon) }).containsExactly("/icons/1", "/icons/2").inOrder()
+    }
+
+    @Test
+    fun `revalidates the payment providers after the time to live elapsed`() = runBlocking {
+        // Given
+        val repository = createRepository()
+        val first = repository.getPaymentProviders()
+
+        // When
+        currentTimeMillis += TTL_MILLIS
+        val second = repository.getPaymentProviders()
+
+        // Then
+        assertThat(second.data).isEqualTo(first.data)
+        assertThat(requestCount("/paymentProviders")).isEqualTo(2)
+        assertThat(requests.last { it.path == "/paymentProviders" }.getHeader("If-None-Match")).isEqualTo(providersETag)
+        assertThat(requests.filter { it.path == "/icons/1" }.last().getHeader("If-None-Match")).isEqualTo("\"1\"")
+    }
+
+    @Test
+    fun `flow emits the expired payment providers first and then the changed ones`() = runBlocking {
+        // Given
+        val repository = createRepository()
+        repository.getPaymentProviders()
+        currentTimeMillis += TTL_MILLIS
+        providersETag = "\"providers-2\""
+
+        // When
+        val results = repository.getPaymentProvidersFlow().toList()
+
+        // Then
+        assertThat(results.map { result -> result.data?.map { it.name } }).containsExactly(
+            listOf("Bank \"providers-1\" 1", "Bank \"providers-1\" 2"),
+            listOf("Bank \"providers-2\" 1", "Bank \"providers-2\" 2")
+        ).inOrder()
+    }
+
+    @Test
+    fun `flow emits fresh payment providers without requesting them`() = runBlocking {
+        // Given
+        val repository = createRepository()
+        repository.getPaymentProviders()
+
+        // When
+        val results = repository.getPaymentProvidersFlow().toList()
+
+        // Then
+        assertThat(results).hasSize(1)
+        assertThat(requestCount("/paymentProviders")).isEqualTo(1)
+    }
+
+    @Test
+    fun `uses the payment providers cached on the disk by a previous instance`() = runBlocking {
+        // Given
+        val first: List<PaymentProvider>? = createRepository().getPaymentProviders().data
+
+        // When
+        val second = createRepository().getPaymentProviders().data
+
+        // Then
+        assertThat(second).isEqualTo(first)
+        assertThat(requestCount("/paymentProviders")).isEqualTo(1)
+        assertThat(requestCount("/icons/")).isEqualTo(PROVIDER_COUNT)
+    }
+
+    @Test
+    fun `requests the page list once and each page image once when viewing the pages one after the other`() =
+        runBlocking {
+            // Given
+            val repository = createRepository()
+
+            // When
+            val images = (1..PAGE_COUNT).map { page ->
+                String(repository.getPageImage(DOCUMENT_ID, page).data!!)
+            }
+
+            // Then
+            assertThat(images).containsExactlyElementsIn((1..PAGE_COUNT).map { pageImagePath(it) }).inOrder()
+            assertThat(requestCount("/documents/$DOCUMENT_ID/pages")).isEqualTo(1 + PAGE_COUNT)
+            for (page in 1..PAGE_COUNT) {
+                assertThat(requestCount(pageImagePath(page))).isEqualTo(1)
+            }
+        }
+
+    @Test
+    fun `viewing a page again does not request it again`() = runBlocking {
+        // Given
+        val repository = createRepository()
+        repository.getPageImage(DOCUMENT_ID, 1)
+        repository.getPageImage(DOCUMENT_ID, 2)
+
+        // When
+        val image = repository.getPageImage(DOCUMENT_ID, 1)
+
+        // Then
+        assertThat(String(image.data!!)).isEqualTo(pageImagePath(1))
+        assertThat(requests.count { it.path == "/documents/$DOCUMENT_ID/pages" }).isEqualTo(1)
+        assertThat(requestCount(pageImagePath(1))).isEqualTo(1)
+    }
+
+    @Test
+    fun `prefetches request a fresh access token`() = runBlocking {
+        // Given
+        val sessionManager = TestSessionManager()
+        val repository = createRepository(sessionManager)
+
+        // When
+        repository.getPageImage(DOCUMENT_ID, 1)
+        val prefetched = repository.getPageImage(DOCUMENT_ID, 2)
+
+        // Then
+        assertThat(String(prefetched.data!!)).isEqualTo(pageImagePath(2))
+        val viewedPageToken = requests.first { it.path == pageImagePath(1) }.getHeader("Authorization")
+        val prefetchedPageToken = requests.first { it.path == pageImagePath(2) }.getHeader("Authorization")
+        assertThat(prefetchedPageToken).isNotEqualTo(viewedPageToken)
+    }
+
+    @Test
+    fun `cancels the prefetches of pages which are not next to the viewed page anymore`() = runBlocking {
+        // Given
+        blockedPageImagePath = pageImagePath(PAGE_COUNT - 1)
+        val repository = createRepository()
+        repository.getPageImage(DOCUMENT_ID, PAGE_COUNT)
+        assertThat(blockedPageImageRequested.await(5, TimeUnit.SECONDS)).isTrue()
+
+        // When
+        repository.getPageImage(DOCUMENT_ID, 1)
+        blockedPageImageReleased.countDown()
+        val image = repository.getPageImage(DOCUMENT_ID, PAGE_COUNT - 1)
+
+        // Then
+        assertThat(String(image.data!!)).isEqualTo(pageImagePath(PAGE_COUNT - 1))
+        assertThat(requestCount(pageImagePath(PAGE_COUNT - 1))).isEqualTo(2)
+    }
+
+    private fun createRepository(sessionManager: SessionManager = TestSessionManager()): HealthApiDocumentRepository {
+        val baseUrl = mockWebServer.url("/").toString()
+        val documentService = Retrofit.Builder()
+            .baseUrl(baseUrl)
+            .addConverterFactory(MoshiConverterFactory.create())
+            .build()
+            .create(HealthApiDocumentService::class.java)
+        val giniApiType = GiniHealthApiType(GiniHealthAPIBuilder.API_VERSION)
+        return HealthApiDocumentRepository(
+            HealthApiDocumentRemoteSource(Dispatchers.IO, documentService, giniApiType, baseUrl),
+            sessionManager,
+            giniApiType,
+            PaymentProviderCache(temporaryFolder.root, TTL_MILLIS) { currentTimeMillis }
+        )
+    }
+
+    private fun requestCount(pathPrefix: String) = requests.count { it.path.orEmpty().startsWith(pathPrefix) }
+
+    private fun conditionalResponse(request: RecordedRequest, eTag: String, body: () -> Buffer): MockResponse =
+        if (request.getHeader("If-None-Match") == eTag) {
+            MockResponse().setResponseCode(HttpURLConnection.HTTP_NOT_MODIFIED).setHeader("ETag", eTag)
+        } else {
+            MockResponse().setHeader("ETag", eTag).setBody(body())
+        }
+
+    private fun providersJson(version: String): Buffer {
+        val providers = (1..PROVIDER_COUNT).joinToString(",") { index ->
+            """
+            {
+              "id": "provider-$index",
+              "name": ${JSONObject.quote("Bank $version $index")},
+              "packageNameAndroid": "net.gini.bank$index",
+              "minAppVersion": {"android": "1.0"},
+              "colors": {"background": "FFFFFF", "text": "000000"},
+              "iconLocation": "${mockWebServer.url("/icons/$index")}",
+              "playStoreUrlAndroid": null,
+              "gpcSupportedPlatforms": ["android"],
+              "openWithSupportedPlatforms": []
+            }
+            """.trimIndent()
+        }
+        return Buffer().writeUtf8("[$providers]")
+    }
+
+    private fun pagesJson(): String = (1..PAGE_COUNT).joinToString(",", "[", "]") { page ->
+        """{"pageNumber": $page, "images": {"750x1000": "${pageImagePath(page)}"}}"""
+    }
+
+    private fun pageImagePath(page: Int) = "/documents/$DOCUMENT_ID/pages/$page/750x1000"
+
+    private class TestSessionManager : SessionManager {
+        private val sessionCount = AtomicInteger()
+
+        override suspend fun getSession(): Resource<Session> =
+            Resource.Success(
+                Session("token-${sessionCount.incrementAndGet()}", Date(System.currentTimeMillis() + 60_000))
+            )
+    }
+
+    private companion object {
+        const val PROVIDER_COUNT = 2
+        const val TTL_MILLIS = 60_000L
+        const val DOCUMENT_ID = "document-1"
+        const val PAGE_COUNT = 4
+    }
+}
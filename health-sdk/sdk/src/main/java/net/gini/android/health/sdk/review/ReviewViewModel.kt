@@ -1,14 +1,19 @@
 package net.gini.android.health.sdk.review
 
+import android.graphics.Bitmap
+import android.graphics.BitmapFactory
 import androidx.lifecycle.ViewModel
 import androidx.lifecycle.ViewModelProvider
 import androidx.lifecycle.viewModelScope
 import androidx.lifecycle.viewmodel.CreationExtras
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.StateFlow
 import kotlinx.coroutines.flow.combine
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
 import net.gini.android.core.api.Resource
 import net.gini.android.health.sdk.GiniHealth
 import net.gini.android.health.sdk.integratedFlow.PaymentFlowConfiguration
@@ -31,7 +36,8 @@ internal class ReviewViewModel(
     val paymentComponent: PaymentComponent,
     val documentId: String,
     val paymentFlowConfiguration: PaymentFlowConfiguration,
-    val reviewFragmentListener: ReviewFragmentListener
+    val reviewFragmentListener: ReviewFragmentListener,
+    private val decodingDispatcher: CoroutineDispatcher = Dispatchers.Default
 ) : ViewModel() {
 
     var reviewPagerPosition: Int = 0
@@ -152,25 +158,45 @@ internal class ReviewViewModel(
         }
     }
 
+    /**
+     * Retries with exponential backoff: waits [initialDelayMillis] after the first failure and doubles the wait after
+     * each further failure up to [maxDelayMillis].
+     */
     private suspend fun retryGetPageImage(
         documentId: String,
         pageNumber: Int,
         retries: Int = 3,
-        delayMillis: Long = 1000
-    ): Resource<ByteArray> {
+        initialDelayMillis: Long = 500,
+        maxDelayMillis: Long = 4000
+    ): Resource<Bitmap> {
+        var delayMillis = initialDelayMillis
         repeat(retries - 1) {
-            val result = giniHealth.documentManager.getPageImage(documentId, pageNumber)
-            if (result is Resource.Success) {
+            val result = getPageBitmap(documentId, pageNumber)
+            if (result !is Resource.Error) {
                 return result
             }
             delay(delayMillis) // Wait before next attempt
+            delayMillis = (delayMillis * 2).coerceAtMost(maxDelayMillis)
         }
         // Final attempt, return the result (successful or failed)
-        val finalResult =  giniHealth.documentManager.getPageImage(documentId, pageNumber)
-
-        return finalResult
+        return getPageBitmap(documentId, pageNumber)
     }
 
+    private suspend fun getPageBitmap(documentId: String, pageNumber: Int): Resource<Bitmap> =
+        when (val pageImage = giniHealth.documentManager.getPageImage(documentId, pageNumber)) {
+            is Resource.Success -> {
+                val bitmap = withContext(decodingDispatcher) {
+                    BitmapFactory.decodeByteArray(pageImage.data, 0, pageImage.data.size)
+                }
+                if (bitmap != null) {
+                    Resource.Success(bitmap)
+                } else {
+                    Resource.Error("Failed to decode the image of page $pageNumber")
+                }
+            }
+            is Resource.Error -> Resource.Error(pageImage)
+            is Resource.Cancelled -> Resource.Cancelled()
+        }
 
     class Factory(
         private val giniHealth: GiniHealth,
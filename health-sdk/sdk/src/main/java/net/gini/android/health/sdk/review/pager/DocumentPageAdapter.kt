@@ -1,6 +1,6 @@
 package net.gini.android.health.sdk.review.pager
 
-import android.graphics.BitmapFactory
+import android.graphics.Bitmap
 import android.graphics.Matrix
 import android.view.LayoutInflater
 import android.view.ViewGroup
@@ -63,22 +63,7 @@ internal class DocumentPageAdapter(
                     loadingView.isVisible = false
                     imageView.isVisible = true
 
-                    imageView.setImageBitmap(
-                        BitmapFactory.decodeByteArray(
-                            imageResult.data,
-                            0,
-                            imageResult.data.size
-                        )
-                    )
-                    imageView.apply {
-                        setImageBitmap(
-                            BitmapFactory.decodeByteArray(
-                                imageResult.data,
-                                0,
-                                imageResult.data.size
-                            )
-                        )
-                    }
+                    imageView.setImageBitmap(imageResult.data)
             }
             else -> {
                 // Do nothing
@@ -126,11 +111,11 @@ class HorizontalViewHolder(
 
 object DiffUtilCallback : DiffUtil.ItemCallback<Page>() {
     override fun areItemsTheSame(oldItem: Page, newItem: Page) = oldItem.number == newItem.number
-    // Resource<ByteArray>: ByteArray has no value equality, so reference equality is correct here
+    // Resource<Bitmap>: Bitmap has no value equality, so reference equality is correct here
     @Suppress("DiffUtilEquals")
     override fun areContentsTheSame(oldItem: Page, newItem: Page) =
         oldItem.pageImage === newItem.pageImage
 }
 
-data class Page(val pageImage: Resource<ByteArray>, val number: Int)
+data class Page(val pageImage: Resource<Bitmap>, val number: Int)
 }
\ No newline at end of file
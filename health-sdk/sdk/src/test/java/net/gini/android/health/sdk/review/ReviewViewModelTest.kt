@@ -1,9 +1,11 @@
 package net.gini.android.health.sdk.review
 
 import android.content.Context
+import android.graphics.Bitmap
 import androidx.test.core.app.ApplicationProvider.getApplicationContext
 import androidx.test.ext.junit.runners.AndroidJUnit4
 import com.google.common.truth.Truth.assertThat
+import io.mockk.coEvery
 import io.mockk.coVerify
 import io.mockk.every
 import io.mockk.mockk
@@ -11,8 +13,12 @@ import kotlinx.coroutines.ExperimentalCoroutinesApi
 import kotlinx.coroutines.flow.MutableStateFlow
 import kotlinx.coroutines.flow.asStateFlow
 import kotlinx.coroutines.flow.first
+import kotlinx.coroutines.test.StandardTestDispatcher
 import kotlinx.coroutines.test.advanceTimeBy
 import kotlinx.coroutines.test.runTest
+import net.gini.android.core.api.Resource
+import net.gini.android.core.api.models.Document
+import net.gini.android.health.api.HealthApiDocumentManager
 import net.gini.android.health.sdk.GiniHealth
 import net.gini.android.health.sdk.integratedFlow.PaymentFlowConfiguration
 import net.gini.android.health.sdk.preferences.UserPreferences
@@ -27,6 +33,7 @@ import org.junit.Before
 import org.junit.Rule
 import org.junit.Test
 import org.junit.runner.RunWith
+import java.io.ByteArrayOutputStream
 
 /**
  * Created by Alpár Szotyori on 13.12.21.
@@ -150,4 +157,45 @@ class ReviewViewModelTest {
 
         coVerify { giniHealth!!.retryDocumentReview() }
     }
-}
\ No newline at end of file
+
+    @Test
+    fun `requests each page image once and retries failed ones with backoff`() = runTest {
+        // Given
+        val paymentComponent = mockk<PaymentComponent>(relaxed = true)
+        every { paymentComponent.selectedPaymentProviderAppFlow } returns MutableStateFlow(SelectedPaymentProviderAppState.AppSelected(mockk()))
+        val documentId = "1234"
+        val document = mockk<Document>()
+        every { document.pageCount } returns 2
+        every { giniHealth!!.documentFlow } returns MutableStateFlow(ResultWrapper.Success(document))
+        val documentManager = mockk<HealthApiDocumentManager>()
+        every { giniHealth!!.documentManager } returns documentManager
+        val pageImage = ByteArrayOutputStream().also { outputStream ->
+            Bitmap.createBitmap(4, 4, Bitmap.Config.ARGB_8888).compress(Bitmap.CompressFormat.PNG, 100, outputStream)
+        }.toByteArray()
+        coEvery { documentManager.getPageImage(documentId, 1) } returns Resource.Success(pageImage)
+        coEvery { documentManager.getPageImage(documentId, 2) } returnsMany listOf(
+            Resource.Error("first failure"),
+            Resource.Error("second failure"),
+            Resource.Success(pageImage)
+        )
+
+        // When
+        val viewModel = ReviewViewModel(giniHealth!!, mockk(), paymentComponent, documentId,
+            PaymentFlowConfiguration(showCloseButtonOnReviewFragment = true, popupDurationPaymentReview = 3), mockk(),
+            decodingDispatcher = StandardTestDispatcher(testScheduler))
+        // The retries wait 500 ms and then 1000 ms
+        advanceTimeBy(1499)
+        val pagesBeforeLastRetry = viewModel.documentPages.value
+        advanceTimeBy(2)
+
+        // Then
+        assertThat(pagesBeforeLastRetry).isEqualTo(DocumentPagesResult.Loading)
+        val pages = viewModel.documentPages.value as DocumentPagesResult.Success
+        assertThat(pages.pagesList.map { it.number }).containsExactly(1, 2).inOrder()
+        pages.pagesList.forEach { page ->
+            assertThat(page.pageImage.data?.width).isEqualTo(4)
+        }
+        coVerify(exactly = 1) { documentManager.getPageImage(documentId, 1) }
+        coVerify(exactly = 3) { documentManager.getPageImage(documentId, 2) }
+    }
+}